@@ -0,0 +1,141 @@
+package Controller;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.ServiceUnavailableResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import Util.ConcurrencyLimiter;
+import Util.Metrics;
+import Util.RateLimiter;
+
+/**
+ * AdmissionControl decides whether a request may reach the services at all. It runs as a before-handler so that a
+ * rejected request never touches a DAO:
+ * - a global, latency-adaptive concurrency limit sheds load with 503 when the app is saturated,
+ * - per-route token buckets keyed by client ip reject floods with 429,
+ * - per-route token buckets keyed by account id (posted_by) are checked by the handlers once the body is parsed.
+ * Every rejection is counted per route in {@link Metrics}.
+ */
+public class AdmissionControl {
+
+    private static final String ADMITTED_AT = "admission.admittedAt";
+
+    /**
+     * Streaming routes stay open for as long as the client listens, so they would hold a concurrency permit
+     * indefinitely and read as very slow requests; they are exempt from the concurrency limit.
+     */
+    private static final Set<String> LONG_LIVED_ROUTES = Set.of("GET /messages/stream");
+
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final Map<String, RateLimiter> ipLimiters = new HashMap<>();
+    private final Map<String, RateLimiter> accountLimiters = new HashMap<>();
+
+    public AdmissionControl() {
+        int maxKeys = Integer.getInteger("socialmedia.ratelimit.maxKeys", 100_000);
+        this.concurrencyLimiter = new ConcurrencyLimiter(
+                Integer.getInteger("socialmedia.concurrency.initial", 64),
+                Integer.getInteger("socialmedia.concurrency.min", 8),
+                Integer.getInteger("socialmedia.concurrency.max", 512),
+                Long.getLong("socialmedia.concurrency.targetLatencyMs", 250L),
+                0.9);
+
+        ipLimiters.put("POST /messages", limiter("ip.messages", 50, 100, maxKeys));
+        ipLimiters.put("POST /register", limiter("ip.register", 10, 20, maxKeys));
+        ipLimiters.put("POST /login", limiter("ip.login", 20, 40, maxKeys));
+        accountLimiters.put("POST /messages", limiter("account.messages", 10, 20, maxKeys));
+
+        Metrics.gauge("admission.concurrency.limit", concurrencyLimiter::limit);
+        Metrics.gauge("admission.concurrency.inFlight", concurrencyLimiter::inFlight);
+        Metrics.gauge("admission.ratelimit.keys", this::trackedKeys);
+    }
+
+    private static RateLimiter limiter(String name, int defaultRate, int defaultBurst, int maxKeys) {
+        return new RateLimiter(
+                Integer.getInteger("socialmedia.ratelimit." + name + ".rps", defaultRate),
+                Integer.getInteger("socialmedia.ratelimit." + name + ".burst", defaultBurst),
+                maxKeys);
+    }
+
+    /**
+     * Before-handler: applies the global concurrency limit and the per-ip bucket of the route.
+     */
+    public void admit(Context context) {
+        String route = routeOf(context);
+        RateLimiter ipLimiter = ipLimiters.get(route);
+        if (ipLimiter != null && !ipLimiter.tryAcquire(context.ip())) {
+            reject(context, route, "ip", ipLimiter.nanosUntilAvailable(context.ip()));
+        }
+        if (LONG_LIVED_ROUTES.contains(route)) {
+            return;
+        }
+        if (!concurrencyLimiter.tryAcquire()) {
+            Metrics.increment("admission.rejected.concurrency[" + route + "]");
+            throw new ServiceUnavailableResponse("Server is overloaded, retry later");
+        }
+        context.attribute(ADMITTED_AT, System.nanoTime());
+    }
+
+    /**
+     * After-handler: returns the concurrency permit taken in {@link #admit(Context)}, if any.
+     */
+    public void release(Context context) {
+        Long admittedAt = context.attribute(ADMITTED_AT);
+        if (admittedAt != null) {
+            context.attribute(ADMITTED_AT, null);
+            concurrencyLimiter.release(System.nanoTime() - admittedAt);
+        }
+    }
+
+    /**
+     * Applies the per-account bucket of the current route. Handlers call this right after parsing the body and
+     * before calling a service.
+     * @param accountId the account the request acts on behalf of
+     */
+    public void admitAccount(Context context, int accountId) {
+        String route = routeOf(context);
+        RateLimiter accountLimiter = accountLimiters.get(route);
+        String key = Integer.toString(accountId);
+        if (accountLimiter != null && !accountLimiter.tryAcquire(key)) {
+            reject(context, route, "account", accountLimiter.nanosUntilAvailable(key));
+        }
+    }
+
+    private void reject(Context context, String route, String keyType, long retryAfterNanos) {
+        Metrics.increment("admission.rejected." + keyType + "[" + route + "]");
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + 999_999_999L));
+        context.header("Retry-After", Long.toString(retryAfterSeconds));
+        throw new HttpResponseException(429, "Too many requests");
+    }
+
+    private int trackedKeys() {
+        int keys = 0;
+        for (RateLimiter limiter : ipLimiters.values()) {
+            keys += limiter.size();
+        }
+        for (RateLimiter limiter : accountLimiters.values()) {
+            keys += limiter.size();
+        }
+        return keys;
+    }
+
+    /**
+     * Collapses numeric path segments so that "/messages/12" and "/messages/13" share one route label, which keeps
+     * both the limiter table and the metric names bounded.
+     */
+    static String routeOf(Context context) {
+        StringBuilder route = new StringBuilder(context.method().name()).append(' ');
+        for (String segment : context.path().split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            route.append('/').append(segment.chars().allMatch(Character::isDigit) ? "{id}" : segment);
+        }
+        if (route.charAt(route.length() - 1) == ' ') {
+            route.append('/');
+        }
+        return route.toString();
+    }
+}
@@ -1,22 +1,124 @@
 package Controller;
 
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.Handler;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.http.UnauthorizedResponse;
+import io.javalin.http.sse.SseClient;
+import org.eclipse.jetty.server.Request;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import Service.AccountService;
+import Service.ActivePosterService;
+import Service.AccountStatsService;
+import Service.BulkService;
+import Service.ChangeFeedService;
+import Service.ColdTier;
+import Service.IdempotencyService;
+import Service.InvalidationBus;
+import Service.MessageFeed;
 import Service.MessageService;
+import Service.ReplicationService;
+import Service.SessionService;
+import Service.TimelineService;
+import Service.TrendingService;
+import Service.VersionConflictException;
 import Model.Account;
+import Model.AccountStats;
 import Model.Message;
+import Model.MessageChange;
+import Model.TrendingTerm;
+import Model.VersionedMessage;
+import Util.Json;
+import Util.MessageJson;
+import Util.Metrics;
+import Util.Replicas;
+import Util.SlabCache;
+import Util.UnitOfWork;
 
 public class SocialMediaController {
 
+    /**
+     * How long a duplicate idempotent request waits for the original to finish before giving up with 409.
+     */
+    private static final long IDEMPOTENCY_WAIT_SECONDS = 30;
+
+    /**
+     * Request attribute set once the body has been read into memory, see {@link #readBody}.
+     */
+    private static final String BODY_BUFFERED = "socialmedia.bodyBuffered";
+
     private final AccountService accountService;
     private final MessageService messageService;
+    private final SessionService sessionService;
+    private final MessageFeed messageFeed;
+    private final ChangeFeedService changeFeedService;
+    private final AccountStatsService accountStatsService;
+    private final TrendingService trendingService;
+    private final ActivePosterService activePosterService;
+    private final TimelineService timelineService;
+    private final IdempotencyService idempotencyService;
+    private final AdmissionControl admissionControl;
+    private final BulkService bulkService;
+    /**
+     * Ships the change logs to the read replicas; null when none are configured.
+     */
+    private final ReplicationService replicationService;
+    /**
+     * Keeps the service caches coherent with the other app instances; null when no transport is configured.
+     */
+    private final InvalidationBus invalidationBus;
+    /**
+     * Holds the archived messages; null when tiering is off.
+     */
+    private final ColdTier coldTier;
 
     public SocialMediaController() {
         // Initialize services, which will in turn initialize DAOs
         this.accountService = new AccountService();
         this.messageService = new MessageService();
+        this.sessionService = new SessionService();
+        this.messageFeed = new MessageFeed();
+        this.messageService.addListener(messageFeed);
+        this.changeFeedService = new ChangeFeedService();
+        this.accountStatsService = new AccountStatsService();
+        this.messageService.addListener(accountStatsService);
+        this.trendingService = new TrendingService();
+        this.messageService.addListener(trendingService);
+        this.activePosterService = new ActivePosterService();
+        this.messageService.addListener(activePosterService);
+        this.timelineService = new TimelineService();
+        this.messageService.addListener(timelineService);
+        this.idempotencyService = new IdempotencyService();
+        this.admissionControl = new AdmissionControl();
+        this.bulkService = new BulkService(accountService, messageService);
+        this.replicationService = Replicas.count() > 0 ? new ReplicationService() : null;
+        this.invalidationBus = InvalidationBus.fromProperties();
+        if (invalidationBus != null) {
+            this.messageService.setInvalidationBus(invalidationBus);
+            this.accountService.setInvalidationBus(invalidationBus);
+        }
+        this.coldTier = ColdTier.fromProperties();
+        if (coldTier != null) {
+            this.messageService.setColdTier(coldTier);
+            this.timelineService.setColdTier(coldTier);
+            this.accountStatsService.setColdTier(coldTier);
+        }
     }
 
     /**
@@ -24,26 +126,199 @@ public class SocialMediaController {
      * @return a Javalin app object defining the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> config.jsonMapper(Json.javalinMapper()));
+
+        app.before(admissionControl::admit);
+        app.before(context -> UnitOfWork.resetBorrowedCount());
+        app.before(context -> Replicas.beginRequest(callerKey(context)));
+        app.after(admissionControl::release);
+        app.after(this::recordConnectionsBorrowed);
+        app.after(context -> Replicas.endRequest(callerKey(context),
+                !"GET".equals(context.method().name()) && context.statusCode() < 400));
+        app.events(event -> event.serverStopping(this::close));
 
-        app.post("/register", this::registerUserHandler);
+        // a registration response echoes the password, so it is only remembered in memory
+        app.post("/register", context -> idempotent(context, false, this::registerUserHandler));
         app.post("/login", this::loginUserHandler);
-        app.post("/messages", this::createMessageHandler);
+        app.post("/logout", this::logoutUserHandler);
+        app.post("/messages", context -> idempotent(context, true, this::createMessageHandler));
         app.get("/messages", this::getAllMessagesHandler);
+        app.sse("/messages/stream", this::messageStreamHandler);
         app.get("/messages/{id}", this::getMessageByIdHandler);
         app.delete("/messages/{id}", this::deleteMessageHandler);
         app.put("/messages/{id}", this::updateMessageHandler);
         app.get("/accounts/{userId}/messages", this::getAllMessagesFromUserHandler);
+        app.get("/accounts/{userId}/stats", this::getAccountStatsHandler);
+        app.post("/accounts/{userId}/follow", this::followHandler);
+        app.delete("/accounts/{userId}/follow", this::unfollowHandler);
+        app.get("/feed", this::getFeedHandler);
+        app.get("/leaderboard", this::getLeaderboardHandler);
+        app.get("/trending", this::getTrendingHandler);
+        app.get("/stats/active-posters", this::getActivePostersHandler);
+        app.get("/changes", this::getChangesHandler);
+        app.get("/metrics", context -> context.json(Metrics.snapshot()));
+        app.get("/admin/export", this::exportHandler);
+        app.post("/admin/import", this::importHandler);
+        app.post("/admin/dictionary", this::trainDictionaryHandler);
 
         return app;
     }
 
+    /**
+     * Releases the background resources of the services. Called when the Javalin app stops.
+     */
+    private void close() {
+        messageService.close();
+        messageFeed.close();
+        changeFeedService.close();
+        accountStatsService.close();
+        trendingService.close();
+        activePosterService.close();
+        timelineService.close();
+        idempotencyService.close();
+        if (replicationService != null) {
+            replicationService.close();
+        }
+        if (invalidationBus != null) {
+            invalidationBus.close();
+        }
+        if (coldTier != null) {
+            coldTier.close();
+        }
+    }
+
+    /**
+     * Runs a handler at most once per Idempotency-Key header. Without the header the handler just runs.
+     * A retry with the same key and body is answered with the first response and an Idempotent-Replayed header;
+     * a retry that arrives while the first is still running waits for it (409 if that takes too long or fails);
+     * the same key with another body is refused with 422.
+     * @param persistable whether the response may be stored in the database, see {@link IdempotencyService}
+     */
+    private void idempotent(Context context, boolean persistable, Handler handler) throws Exception {
+        String key = context.header("Idempotency-Key");
+        if (key == null) {
+            handler.handle(context);
+            return;
+        }
+        if (key.isBlank() || key.length() > IdempotencyService.MAX_KEY_LENGTH) {
+            context.status(400);
+            return;
+        }
+        String scopedKey = context.method().name() + " " + context.path() + " " + key;
+        context.attribute(BODY_BUFFERED, true);
+        IdempotencyService.Claim claim = idempotencyService.begin(scopedKey,
+                IdempotencyService.fingerprint(context.bodyAsBytes()), persistable);
+        if (claim.isMismatch()) {
+            context.status(422);
+            return;
+        }
+        if (!claim.isOwner()) {
+            context.future(() -> claim.result()
+                    .orTimeout(IDEMPOTENCY_WAIT_SECONDS, TimeUnit.SECONDS)
+                    .handle((response, error) -> {
+                        if (error != null) {
+                            context.status(409);
+                        } else {
+                            replay(context, response);
+                        }
+                        return null;
+                    }));
+            return;
+        }
+        try {
+            handler.handle(context);
+        } catch (Exception e) {
+            claim.abandon();
+            throw e;
+        }
+        if (context.statusCode() >= 500) {
+            claim.abandon();
+        } else {
+            String contentType = context.res().getContentType();
+            claim.complete(new IdempotencyService.Response(context.statusCode(), contentType, storableBody(context, contentType)));
+        }
+    }
+
+    /**
+     * @return the response body as the idempotency store keeps it: text as it is, and the binary formats
+     * Base64-encoded, since the store holds text
+     */
+    private static String storableBody(Context context, String contentType) throws IOException {
+        if (!Json.Format.forContentType(contentType).isBinary()) {
+            return context.result();
+        }
+        InputStream result = context.resultInputStream();
+        if (result == null) {
+            return null;
+        }
+        result.mark(Integer.MAX_VALUE);
+        byte[] body = result.readAllBytes();
+        result.reset();
+        return Base64.getEncoder().encodeToString(body);
+    }
+
+    /**
+     * Parses the request body with the shared codecs, in the format its Content-Type names (JSON by default),
+     * straight from the request stream, so a body with an unknown field or an over-long message text is refused as
+     * soon as the parser reaches it. A body that was already buffered, to fingerprint it for idempotency, is parsed
+     * from the buffer.
+     */
+    private static <T> T readBody(Context context, Class<T> type) throws IOException {
+        Json.Format format = Json.Format.forContentType(context.contentType());
+        if (context.attribute(BODY_BUFFERED) != null) {
+            return format.read(context.bodyAsBytes(), type);
+        }
+        return format.read(context.bodyInputStream(), type);
+    }
+
+    /**
+     * Writes the body of a message or account endpoint in the format the Accept header prefers: JSON by default,
+     * or CBOR, Smile or MessagePack, all with the field names of the JSON.
+     */
+    private static void respond(Context context, Object body) {
+        Json.Format format = Json.Format.forAccept(context.header("Accept"));
+        context.header("Vary", "Accept");
+        if (format.isBinary()) {
+            context.contentType(format.contentType()).result(format.toBytes(body));
+        } else {
+            context.json(body);
+        }
+    }
+
+    private static void replay(Context context, IdempotencyService.Response response) {
+        context.header("Idempotent-Replayed", "true");
+        context.status(response.getStatus());
+        if (response.getContentType() != null) {
+            context.contentType(response.getContentType());
+        }
+        if (response.getBody() != null && Json.Format.forContentType(response.getContentType()).isBinary()) {
+            context.result(Base64.getDecoder().decode(response.getBody()));
+        } else if (response.getBody() != null) {
+            context.result(response.getBody());
+        }
+    }
+
+    /**
+     * After-handler: adds the connections this request borrowed to db.connections[ROUTE] and counts the request in
+     * db.requests[ROUTE]; their ratio is the connections per request of the route. Requests that matched no route
+     * are not recorded, so unknown paths cannot grow the metric names.
+     */
+    private void recordConnectionsBorrowed(Context context) {
+        String path = context.endpointHandlerPath();
+        if (!path.startsWith("/")) {
+            return;
+        }
+        String route = context.method().name() + " " + path;
+        Metrics.add("db.connections[" + route + "]", UnitOfWork.borrowedCount());
+        Metrics.increment("db.requests[" + route + "]");
+    }
+
     /**
      * Handler for user registration.
      */
     private void registerUserHandler(Context context) {
         try {
-            Account account = context.bodyAsClass(Account.class);
+            Account account = readBody(context, Account.class);
             
             // Check if username and password are provided
             if (account.getUsername() == null || account.getUsername().isEmpty() ||
@@ -57,11 +332,13 @@ public class SocialMediaController {
             
             // If registration is successful, respond with 200 status and JSON body
             if (registeredAccount != null) {
-                context.status(200).json(registeredAccount);
+                respond(context.status(200), registeredAccount);
             } else {
                 // If username already exists, respond with 400 status
                 context.status(400);
             }
+        } catch (RejectedExecutionException e) {
+            context.status(503);
         } catch (Exception e) {
             context.status(400);
         }
@@ -71,107 +348,472 @@ public class SocialMediaController {
      */
     private void loginUserHandler(Context context) {
         try {
-            Account account = context.bodyAsClass(Account.class);
+            Account account = readBody(context, Account.class);
             if (account.getUsername() == null || account.getPassword() == null) {
                 context.status(400);
                 return;
             }
-            Account authenticatedAccount = accountService.loginUser(account.getUsername(), account.getPassword());
-            if (authenticatedAccount != null) {
-                context.status(200);
-            } else {
-                context.status(401);
-            }
+            CompletableFuture<Account> login = accountService.loginUserAsync(account.getUsername(), account.getPassword());
+            context.future(() -> login.handle((authenticatedAccount, error) -> {
+                if (error != null) {
+                    context.status(500);
+                } else if (authenticatedAccount != null) {
+                    context.header("X-Session-Token", sessionService.issueToken(authenticatedAccount));
+                    // Echo the submitted credentials rather than the stored password hash
+                    respond(context.status(200), new Account(authenticatedAccount.getAccount_id(),
+                            authenticatedAccount.getUsername(), account.getPassword()));
+                } else {
+                    context.status(401);
+                }
+                return null;
+            }));
+        } catch (RejectedExecutionException e) {
+            context.status(503);
         } catch (Exception e) {
             context.status(500);
         }
     }
 
+    /**
+     * Handler for user logout. Revokes the bearer token sent with the request.
+     */
+    private void logoutUserHandler(Context context) {
+        if (sessionService.revokeToken(bearerToken(context))) {
+            context.status(200);
+        } else {
+            context.status(401);
+        }
+    }
+
+    /**
+     * Resolves the account a request acts for from its bearer token, without touching the database.
+     * @return the account id, or null if the request carries no Authorization header
+     * @throws UnauthorizedResponse if a token is present but invalid, expired or revoked
+     */
+    private Integer authenticatedAccountId(Context context) {
+        String token = bearerToken(context);
+        if (token == null) {
+            return null;
+        }
+        Integer accountId = sessionService.validateToken(token);
+        if (accountId == null) {
+            throw new UnauthorizedResponse("Invalid session token");
+        }
+        return accountId;
+    }
+
+    /**
+     * @return the account of the request's bearer token
+     * @throws UnauthorizedResponse if the request carries no valid token
+     */
+    private int requireAuthenticatedAccountId(Context context) {
+        Integer accountId = authenticatedAccountId(context);
+        if (accountId == null) {
+            throw new UnauthorizedResponse("A session token is required");
+        }
+        return accountId;
+    }
+
+    /**
+     * @return who a request is from, for reading one's own writes from the primary: its bearer token if it has one,
+     * otherwise its ip
+     */
+    private static String callerKey(Context context) {
+        String token = bearerToken(context);
+        return token != null ? token : context.ip();
+    }
+
+    private static String bearerToken(Context context) {
+        String authorization = context.header("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return null;
+        }
+        return authorization.substring("Bearer ".length()).trim();
+    }
+
+    /**
+     * The admin endpoints do not exist unless socialmedia.admin.token is set, and then need it as the bearer token.
+     * @throws NotFoundResponse if no admin token is configured
+     * @throws ForbiddenResponse if the request carries another token
+     */
+    private static void requireAdmin(Context context) {
+        String adminToken = System.getProperty("socialmedia.admin.token");
+        if (adminToken == null || adminToken.isEmpty()) {
+            throw new NotFoundResponse();
+        }
+        String token = bearerToken(context);
+        if (token == null || !MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8))) {
+            throw new ForbiddenResponse("The admin token is required");
+        }
+    }
+
     /**
      * Handler for creating a new message.
      */
     private void createMessageHandler(Context context) {
         try {
-            Message message = context.bodyAsClass(Message.class);
-            if (message.getMessage_text() == null || message.getMessage_text().isEmpty() || message.getMessage_text().length() > 255) {
+            Message message = readBody(context, Message.class);
+            if (message.getMessage_text() == null || message.getMessage_text().isEmpty() || message.getMessage_text().length() > MessageJson.MAX_TEXT_LENGTH) {
                 context.status(400);
                 return;
             }
+            Integer accountId = authenticatedAccountId(context);
+            if (accountId != null && accountId != message.getPosted_by()) {
+                throw new ForbiddenResponse("Cannot post on behalf of another account");
+            }
+            admissionControl.admitAccount(context, message.getPosted_by());
             Message createdMessage = messageService.createMessage(message);
-            context.status(200).json(createdMessage);
+            respond(context.status(200), createdMessage);
+        } catch (HttpResponseException e) {
+            throw e;
         } catch (Exception e) {
             context.status(400);
         }
     }
 
     /**
-     * Handler for retrieving all messages.
+     * Handler for retrieving all messages, or with ?from=&to= (epoch seconds, inclusive) the messages posted in that
+     * range, oldest first. With ?ids=1,2,3 it fetches those messages in one query instead; see
+     * {@link #getMessagesByIdsHandler(Context, String)}.
      */
     private void getAllMessagesHandler(Context context) {
+        String ids = context.queryParam("ids");
+        if (ids != null) {
+            getMessagesByIdsHandler(context, ids);
+            return;
+        }
         try {
-            List<Message> messages = messageService.getAllMessages();
-            context.status(200);
+            String from = context.queryParam("from");
+            String to = context.queryParam("to");
+            List<Message> messages;
+            if (from != null || to != null) {
+                String limit = context.queryParam("limit");
+                messages = messageService.getMessagesPostedBetween(
+                        from == null ? Long.MIN_VALUE : Long.parseLong(from),
+                        to == null ? Long.MAX_VALUE : Long.parseLong(to),
+                        limit == null ? MessageService.MAX_RANGE_RESULTS : Integer.parseInt(limit));
+            } else {
+                messages = messageService.getAllMessages();
+            }
+            respond(context.status(200), messages);
+        } catch (NumberFormatException e) {
+            context.status(400);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Multi-get: answers {"messages": [...], "missing": [...]}, where messages follows the order of the requested ids
+     * and holds null for each id that does not exist, and missing lists those ids. 400 for a malformed list or more
+     * than MessageService.MAX_MULTI_GET ids.
+     */
+    private void getMessagesByIdsHandler(Context context, String ids) {
+        try {
+            List<Integer> messageIds = new ArrayList<>();
+            for (String id : ids.split(",")) {
+                if (!id.isBlank()) {
+                    messageIds.add(Integer.parseInt(id.trim()));
+                }
+            }
+            List<Message> messages = messageService.getMessagesByIds(messageIds);
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i) == null) {
+                    missing.add(messageIds.get(i));
+                }
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("messages", messages);
+            result.put("missing", missing);
+            respond(context.status(200), result);
+        } catch (IllegalArgumentException e) {
+            context.status(400);
         } catch (Exception e) {
             context.status(500);
         }
     }
 
     /**
-     * Handler for retrieving a message by ID.
+     * Handler for the live message feed (Server-Sent Events). An optional posted_by query parameter narrows the
+     * stream to one account, and a Last-Event-ID header resumes after the last event the client received.
+     */
+    private void messageStreamHandler(SseClient client) {
+        client.keepAlive();
+        Context context = client.ctx;
+        Integer postedBy;
+        Long lastEventId;
+        try {
+            String postedByParam = context.queryParam("posted_by");
+            postedBy = postedByParam == null ? null : Integer.valueOf(postedByParam);
+            String lastEventIdHeader = context.header("Last-Event-ID");
+            lastEventId = lastEventIdHeader == null ? null : Long.valueOf(lastEventIdHeader);
+        } catch (NumberFormatException e) {
+            client.sendEvent("error", "Invalid posted_by or Last-Event-ID", null);
+            client.close();
+            return;
+        }
+        MessageFeed.Subscription subscription = messageFeed.subscribe(new MessageFeed.Sink() {
+            @Override
+            public void send(long sequence, Message message) {
+                client.sendEvent("message", message, Long.toString(sequence));
+            }
+
+            @Override
+            public void resync() {
+                client.sendEvent("resync", "Events were missed, reload GET /messages and reconnect", null);
+            }
+
+            @Override
+            public void heartbeat() {
+                client.sendComment("heartbeat");
+            }
+
+            @Override
+            public void close() {
+                client.close();
+            }
+
+            @Override
+            public void abort() {
+                // closing the connection fails the blocked write and frees the delivery thread
+                Request request = Request.getBaseRequest(context.req());
+                if (request != null) {
+                    request.getHttpChannel().abort(new TimeoutException("Stalled SSE write"));
+                }
+                client.close();
+            }
+        }, postedBy, lastEventId);
+        client.onClose(subscription::cancel);
+    }
+
+    /**
+     * Handler for the incremental change feed. Returns the changes after ?since= (at most ?limit=), and the
+     * sequence number to pass as since on the next call. Answers 410 when since is older than the retained log,
+     * in which case the caller must reload GET /messages. With several shards, ?shard= picks the shard's log
+     * (default 0).
+     */
+    private void getChangesHandler(Context context) {
+        try {
+            String shardParam = context.queryParam("shard");
+            String sinceParam = context.queryParam("since");
+            String limitParam = context.queryParam("limit");
+            int shard = shardParam == null ? 0 : Integer.parseInt(shardParam);
+            long since = sinceParam == null ? 0 : Long.parseLong(sinceParam);
+            int limit = limitParam == null ? ChangeFeedService.DEFAULT_LIMIT : Integer.parseInt(limitParam);
+            List<MessageChange> changes = changeFeedService.getChangesSince(shard, since, limit);
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("changes", changes);
+            page.put("next_since", changes.isEmpty() ? since : changes.get(changes.size() - 1).getChange_seq());
+            respond(context.status(200), page);
+        } catch (IllegalArgumentException e) {
+            context.status(400);
+        } catch (IllegalStateException e) {
+            context.status(410);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Handler for retrieving a message by ID. With the message JSON cache on, the cached bytes are written to the
+     * response as they are.
      */
     private void getMessageByIdHandler(Context context) {
         try {
             int messageId = Integer.parseInt(context.pathParam("id"));
-            Message message = messageService.getMessageById(messageId);
+            if (messageService.cachesMessageJson() && !Json.Format.forAccept(context.header("Accept")).isBinary()) {
+                SlabCache.Hit json = messageService.getMessageJson(messageId);
+                if (json == null) {
+                    respond(context.status(404), "Message not found");
+                    return;
+                }
+                context.header("ETag", etag(json.getTag()));
+                context.header("Vary", "Accept");
+                context.status(200).contentType(ContentType.APPLICATION_JSON);
+                context.res().setContentLength(json.getLength());
+                context.res().getOutputStream().write(json.getBytes(), 0, json.getLength());
+                return;
+            }
+            VersionedMessage message = messageService.getVersionedMessage(messageId);
             if (message != null) {
-                context.status(200).json(message);
+                context.header("ETag", etag(message.getVersion()));
+                respond(context.status(200), message.getMessage());
             } else {
-                context.status(404).json("Message not found");
+                respond(context.status(404), "Message not found");
             }
         } catch (NumberFormatException e) {
-            context.status(400).json("Invalid message ID");
+            respond(context.status(400), "Invalid message ID");
         } catch (Exception e) {
-            context.status(500).json("An error occurred while retrieving the message: " + e.getMessage());
+            respond(context.status(500), "An error occurred while retrieving the message: " + e.getMessage());
         }
     }
 
     /**
-     * Handler for deleting a message by ID.
+     * Handler for deleting a message by ID. With If-Match, the message is only deleted if its ETag still matches;
+     * otherwise the answer is 412.
      */
     private void deleteMessageHandler(Context context) {
         try {
             int messageId = Integer.parseInt(context.pathParam("id"));
-            boolean isDeleted = messageService.deleteMessage(messageId);
+            boolean isDeleted = messageService.deleteMessage(messageId, ifMatch(context));
             if (isDeleted) {
                 context.status(200); // No Content
             }
         } catch (NumberFormatException e) {
             context.status(400);
+        } catch (VersionConflictException e) {
+            context.status(412);
         } catch (Exception e) {
             context.status(500);
         }
     }
 
     /**
-     * Handler for updating a message by ID.
+     * Handler for updating a message by ID. With If-Match, the message is only updated if its ETag still matches;
+     * otherwise the answer is 412 and the client should reload it. The new ETag is returned on success.
      */
     private void updateMessageHandler(Context context) {
         try {
             int messageId = Integer.parseInt(context.pathParam("id"));
-            Message updatedMessageData = context.bodyAsClass(Message.class);
+            Message updatedMessageData = readBody(context, Message.class);
             if (updatedMessageData.getMessage_text() == null || 
                 updatedMessageData.getMessage_text().isEmpty() || 
-                updatedMessageData.getMessage_text().length() > 255) {
+                updatedMessageData.getMessage_text().length() > MessageJson.MAX_TEXT_LENGTH) {
                 context.status(200);
                 return;
             }
     
-            Message updatedMessage = messageService.updateMessage(messageId, updatedMessageData);
+            VersionedMessage updatedMessage = messageService.updateMessage(messageId, updatedMessageData, ifMatch(context));
             if (updatedMessage != null) {
+                context.header("ETag", etag(updatedMessage.getVersion()));
+                context.status(200);
+            } else {
+                context.status(400);
+            }
+        } catch (NumberFormatException | IOException e) {
+            context.status(400);
+        } catch (VersionConflictException e) {
+            context.status(412);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    private static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Parses the If-Match header into the message versions it accepts. If-Match uses strong comparison, so weak
+     * and unrecognised entity tags match nothing.
+     * @return null when the write is unconditional (no header, or "*"); otherwise the accepted versions, possibly none
+     */
+    private static List<Long> ifMatch(Context context) {
+        String header = context.header("If-Match");
+        if (header == null || header.trim().equals("*")) {
+            return null;
+        }
+        List<Long> versions = new ArrayList<>();
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                try {
+                    versions.add(Long.parseLong(tag.substring(1, tag.length() - 1)));
+                } catch (NumberFormatException e) {
+                    // not one of our tags, so it cannot match
+                }
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Handler for following an account. The follower is the account of the bearer token.
+     */
+    private void followHandler(Context context) {
+        try {
+            int followerId = requireAuthenticatedAccountId(context);
+            int followeeId = Integer.parseInt(context.pathParam("userId"));
+            if (timelineService.follow(followerId, followeeId)) {
                 context.status(200);
             } else {
                 context.status(400);
             }
+        } catch (HttpResponseException e) {
+            throw e;
+        } catch (NumberFormatException e) {
+            context.status(400);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Handler for unfollowing an account. Answers 404 if the bearer token's account was not following it.
+     */
+    private void unfollowHandler(Context context) {
+        try {
+            int followerId = requireAuthenticatedAccountId(context);
+            int followeeId = Integer.parseInt(context.pathParam("userId"));
+            if (timelineService.unfollow(followerId, followeeId)) {
+                context.status(200);
+            } else {
+                context.status(404);
+            }
+        } catch (HttpResponseException e) {
+            throw e;
+        } catch (NumberFormatException e) {
+            context.status(400);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Handler for the home feed of the bearer token's account: the newest messages of the accounts it follows.
+     * ?limit= defaults to 20.
+     */
+    private void getFeedHandler(Context context) {
+        try {
+            int accountId = requireAuthenticatedAccountId(context);
+            String limitParam = context.queryParam("limit");
+            int limit = limitParam == null ? 20 : Integer.parseInt(limitParam);
+            respond(context.status(200), timelineService.getFeed(accountId, limit));
+        } catch (HttpResponseException e) {
+            throw e;
+        } catch (NumberFormatException e) {
+            context.status(400);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Handler for the activity counters of an account. Served from memory; never counts the message table.
+     */
+    private void getAccountStatsHandler(Context context) {
+        try {
+            int userId = Integer.parseInt(context.pathParam("userId"));
+            AccountStats stats = accountStatsService.getStats(userId);
+            respond(context.status(200), stats);
+        } catch (NumberFormatException e) {
+            context.status(400);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Handler for the top posters, most messages first. ?limit= defaults to 10.
+     */
+    private void getLeaderboardHandler(Context context) {
+        try {
+            String limitParam = context.queryParam("limit");
+            int limit = limitParam == null ? 10 : Integer.parseInt(limitParam);
+            List<AccountStats> leaderboard = accountStatsService.getLeaderboard(limit);
+            respond(context.status(200), leaderboard);
         } catch (NumberFormatException e) {
             context.status(400);
         } catch (Exception e) {
@@ -179,12 +821,55 @@ public class SocialMediaController {
         }
     }
 
+    /**
+     * Handler for the most used terms in recent messages. ?window= is one of 5m, 1h or 1d; without it every window
+     * is returned, keyed by name. ?limit= defaults to 10.
+     */
+    private void getTrendingHandler(Context context) {
+        try {
+            String window = context.queryParam("window");
+            String limitParam = context.queryParam("limit");
+            int limit = limitParam == null ? 10 : Integer.parseInt(limitParam);
+            if (window != null) {
+                respond(context.status(200), trendingService.getTrending(window, limit));
+                return;
+            }
+            Map<String, List<TrendingTerm>> trending = new LinkedHashMap<>();
+            for (String name : trendingService.windowNames()) {
+                trending.put(name, trendingService.getTrending(name, limit));
+            }
+            respond(context.status(200), trending);
+        } catch (IllegalArgumentException e) {
+            context.status(400);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Handler for the estimated number of distinct accounts that posted between ?from= and ?to= (epoch seconds,
+     * widened to whole hours). Defaults to the last 24 hours.
+     */
+    private void getActivePostersHandler(Context context) {
+        try {
+            String fromParam = context.queryParam("from");
+            String toParam = context.queryParam("to");
+            long to = toParam == null ? System.currentTimeMillis() / 1000 : Long.parseLong(toParam);
+            long from = fromParam == null ? to - 24 * 60 * 60 + 1 : Long.parseLong(fromParam);
+            respond(context.status(200), activePosterService.getActivePosters(from, to));
+        } catch (IllegalArgumentException e) {
+            context.status(400);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
     private void getAllMessagesFromUserHandler(Context context) {
         try {
             int userId = Integer.parseInt(context.pathParam("userId"));
             List<Message> messages = messageService.getAllMessagesForUser(userId);
             if (!messages.isEmpty()) {
-                context.status(200);
+                respond(context.status(200), messages);
             } else {
                 context.status(404);
             }
@@ -195,6 +880,67 @@ public class SocialMediaController {
         }
     }
 
+    /**
+     * Handler for the bulk export: every account and message as NDJSON, streamed to the response as it is read.
+     */
+    private void exportHandler(Context context) throws IOException {
+        requireAdmin(context);
+        context.status(200).contentType(BulkService.CONTENT_TYPE);
+        bulkService.export(context.res().getOutputStream());
+    }
 
-    
+    /**
+     * Handler for the bulk import of an NDJSON body, parsed as it arrives. ?skip= passes over the rows a failed
+     * import already committed. Answers with the counts and rows per second, and on failure the error and the
+     * rows committed.
+     */
+    private void importHandler(Context context) {
+        requireAdmin(context);
+        long skip;
+        try {
+            String skipParam = context.queryParam("skip");
+            skip = skipParam == null ? 0 : Long.parseLong(skipParam);
+        } catch (NumberFormatException e) {
+            context.status(400);
+            return;
+        }
+        try {
+            BulkService.ImportResult result = bulkService.importFrom(context.bodyInputStream(), skip);
+            context.status(result.status()).json(result);
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
+
+    /**
+     * Handler for training a new message_text dictionary on the newest ?sample= messages of each shard (10000 by
+     * default), of up to ?bytes= bytes (4096 by default, capped at the 32768 Deflate reaches back). Every encode
+     * primes Deflate with the whole dictionary, so a larger one costs each write more than it saves. Answers with
+     * the new version and the compression ratio it gets on the sample, or 400 if there are no messages.
+     */
+    private void trainDictionaryHandler(Context context) {
+        requireAdmin(context);
+        try {
+            String sampleParam = context.queryParam("sample");
+            String bytesParam = context.queryParam("bytes");
+            int sample = sampleParam == null ? 10_000 : Integer.parseInt(sampleParam);
+            int bytes = bytesParam == null ? 4096 : Integer.parseInt(bytesParam);
+            if (sample <= 0 || bytes <= 0) {
+                context.status(400);
+                return;
+            }
+            MessageService.DictionaryResult result = messageService.trainDictionary(sample, Math.min(bytes, 32_768));
+            if (result != null) {
+                context.status(200).json(result);
+            } else {
+                context.status(500);
+            }
+        } catch (NumberFormatException e) {
+            context.status(400);
+        } catch (IllegalArgumentException e) {
+            context.status(400).result(e.getMessage());
+        } catch (Exception e) {
+            context.status(500);
+        }
+    }
 }
@@ -0,0 +1,161 @@
+package DAO;
+
+import Model.Account;
+import Model.AccountChange;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import Util.Shards;
+import Util.UnitOfWork;
+
+/**
+ * The account_change table logs every account write, like message_change does for messages, so that replicas can
+ * be kept up to date by shipping the log.
+ */
+public class AccountChangeDAO {
+
+    /**
+     * Appends a change to the log on the caller's connection, so that it commits or rolls back together with the
+     * write it describes.
+     * @param account the account after the change; for deletes only its id is used
+     */
+    public static void record(Connection connection, String operation, Account account) throws SQLException {
+        String sql = "INSERT INTO account_change (operation, account_id, username, password, changed_at) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            boolean tombstone = AccountChange.DELETE.equals(operation);
+            statement.setString(1, operation);
+            statement.setInt(2, account.getAccount_id());
+            statement.setString(3, tombstone ? null : account.getUsername());
+            statement.setString(4, tombstone ? null : account.getPassword());
+            statement.setLong(5, System.currentTimeMillis());
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Appends one create per account to the log as a single batch, on the caller's connection.
+     */
+    public static void recordCreates(Connection connection, List<Account> accounts) throws SQLException {
+        String sql = "INSERT INTO account_change (operation, account_id, username, password, changed_at) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            long now = System.currentTimeMillis();
+            for (Account account : accounts) {
+                statement.setString(1, AccountChange.CREATE);
+                statement.setInt(2, account.getAccount_id());
+                statement.setString(3, account.getUsername());
+                statement.setString(4, account.getPassword());
+                statement.setLong(5, now);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * @return up to limit changes with a sequence number greater than since, oldest first
+     */
+    public List<AccountChange> getChangesSince(long since, int limit) {
+        List<AccountChange> changes = new ArrayList<>();
+        String sql = "SELECT * FROM account_change WHERE change_seq > ? ORDER BY change_seq LIMIT ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, since);
+            statement.setInt(2, limit);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String operation = resultSet.getString("operation");
+                int accountId = resultSet.getInt("account_id");
+                Account account = AccountChange.DELETE.equals(operation) ? null : new Account(
+                        accountId,
+                        resultSet.getString("username"),
+                        resultSet.getString("password"));
+                changes.add(new AccountChange(
+                        resultSet.getLong("change_seq"),
+                        operation,
+                        accountId,
+                        account,
+                        resultSet.getLong("changed_at")));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return changes;
+    }
+
+    /**
+     * @return the highest sequence number that has been removed by compaction (0 if none has been)
+     */
+    public long getCompactedThrough() {
+        String sql = "SELECT MIN(change_seq) FROM account_change";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+
+            if (resultSet.next()) {
+                long oldest = resultSet.getLong(1);
+                return resultSet.wasNull() ? 0 : Math.max(0, oldest - Shards.count());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the sequence number of the newest change (0 if the log is empty)
+     */
+    public long getLatestSeq() {
+        String sql = "SELECT COALESCE(MAX(change_seq), 0) FROM account_change";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+
+            if (resultSet.next()) {
+                return resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the sequence number at or below which a missing change will never appear, see
+     * {@link MessageChangeDAO#getSettledThrough()}
+     */
+    public long getSettledThrough() {
+        long latest = getLatestSeq();
+        return MessageChangeDAO.writesInProgress() ? 0 : latest;
+    }
+
+    /**
+     * @return how many of the given sequence numbers are in the log
+     */
+    public int countChanges(Collection<Long> seqs) {
+        return MessageChangeDAO.countChanges("account_change", seqs);
+    }
+
+    /**
+     * Deletes changes recorded before the cutoff, always keeping the newest one.
+     * @return the number of changes removed
+     */
+    public int deleteChangesBefore(long cutoffMillis) {
+        String sql = "DELETE FROM account_change WHERE changed_at < ? " +
+                "AND change_seq < (SELECT MAX(change_seq) FROM account_change)";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, cutoffMillis);
+            return statement.executeUpdate();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
@@ -1,103 +1,267 @@
 package DAO;
 
 import Model.Account;
+import Model.AccountChange;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import Util.ConnectionUtil;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import Util.Shards;
+import Util.UnitOfWork;
 
+/**
+ * Accounts are placed on the shard picked by a hash of their username, so a username lookup and the uniqueness
+ * check of registration each touch one shard; the account id then encodes that shard. Every write appends to the
+ * account change log in the same transaction, which is what read replicas replay.
+ */
 public class AccountDAO {
 
     public Account createAccount(Account account) {
-        String sql = "INSERT INTO Account (username, password) VALUES (?, ?)";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+        return Shards.on(Shards.ofKey(account.getUsername()), () -> {
+            String sql = "INSERT INTO Account (username, password) VALUES (?, ?)";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
              
-            statement.setString(1, account.getUsername());
-            statement.setString(2, account.getPassword());
-            statement.executeUpdate();
+                connection.setAutoCommit(false);
+                statement.setString(1, account.getUsername());
+                statement.setString(2, account.getPassword());
+                statement.executeUpdate();
 
-            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    account.setAccount_id(generatedKeys.getInt(1));
+                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        account.setAccount_id(generatedKeys.getInt(1));
+                    }
                 }
-            }
-            return account;
+                AccountChangeDAO.record(connection, AccountChange.CREATE, account);
+                connection.commit();
+                return account;
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
-        }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        });
     }
 
     public Account getAccountById(int accountId) {
-        String sql = "SELECT * FROM Account WHERE account_id = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+        return Shards.on(Shards.ofId(accountId), () -> {
+            String sql = "SELECT * FROM Account WHERE account_id = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
              
-            statement.setInt(1, accountId);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return new Account(
-                        resultSet.getInt("account_id"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password")
-                );
+                statement.setInt(1, accountId);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    return new Account(
+                            resultSet.getInt("account_id"),
+                            resultSet.getString("username"),
+                            resultSet.getString("password")
+                    );
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
+            return null;
+        });
     }
 
     public Account getAccountByUsername(String username) {
-        String sql = "SELECT * FROM Account WHERE username = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+        return Shards.on(Shards.ofKey(username), () -> {
+            String sql = "SELECT * FROM Account WHERE username = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
              
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return new Account(
-                        resultSet.getInt("account_id"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password")
-                );
+                statement.setString(1, username);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    return new Account(
+                            resultSet.getInt("account_id"),
+                            resultSet.getString("username"),
+                            resultSet.getString("password")
+                    );
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
+            return null;
+        });
     }
 
+    /**
+     * @return true if the account was updated; false if it does not exist, or if the new username belongs on
+     * another shard, since accounts are never moved between shards
+     */
     public boolean updateAccount(Account account) {
-        String sql = "UPDATE Account SET username = ?, password = ? WHERE account_id = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-             
-            statement.setString(1, account.getUsername());
-            statement.setString(2, account.getPassword());
-            statement.setInt(3, account.getAccount_id());
-            return statement.executeUpdate() > 0;
-
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (Shards.ofKey(account.getUsername()) != Shards.ofId(account.getAccount_id())) {
             return false;
         }
+        return Shards.on(Shards.ofId(account.getAccount_id()), () -> {
+            String sql = "UPDATE Account SET username = ?, password = ? WHERE account_id = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+             
+                connection.setAutoCommit(false);
+                statement.setString(1, account.getUsername());
+                statement.setString(2, account.getPassword());
+                statement.setInt(3, account.getAccount_id());
+                if (statement.executeUpdate() == 0) {
+                    connection.rollback();
+                    return false;
+                }
+                AccountChangeDAO.record(connection, AccountChange.UPDATE, account);
+                connection.commit();
+                return true;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
     }
 
     public boolean deleteAccount(int accountId) {
-        String sql = "DELETE FROM Account WHERE account_id = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+        return Shards.on(Shards.ofId(accountId), () -> {
+            String sql = "DELETE FROM Account WHERE account_id = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
              
-            statement.setInt(1, accountId);
-            return statement.executeUpdate() > 0;
+                connection.setAutoCommit(false);
+                statement.setInt(1, accountId);
+                if (statement.executeUpdate() == 0) {
+                    connection.rollback();
+                    return false;
+                }
+                AccountChangeDAO.record(connection, AccountChange.DELETE, new Account(accountId, null, null));
+                connection.commit();
+                return true;
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Streams every username in the account table to the consumer without materializing the whole list.
+     * @return true if the scan completed
+     */
+    public boolean forEachUsername(Consumer<String> consumer) {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            boolean read = Shards.on(shard, () -> {
+                String sql = "SELECT username FROM Account";
+                try (Connection connection = UnitOfWork.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                    statement.setFetchSize(10_000);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            consumer.accept(resultSet.getString("username"));
+                        }
+                    }
+                    return true;
+
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            });
+            if (!read) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Streams every account, shard by shard, to the consumer without materializing the whole table.
+     * @return true if the scan completed
+     */
+    public boolean forEachAccount(Consumer<Account> consumer) {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            boolean read = Shards.on(shard, () -> {
+                String sql = "SELECT account_id, username, password FROM Account";
+                try (Connection connection = UnitOfWork.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                    statement.setFetchSize(10_000);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            consumer.accept(new Account(
+                                    resultSet.getInt("account_id"),
+                                    resultSet.getString("username"),
+                                    resultSet.getString("password")));
+                        }
+                    }
+                    return true;
+
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            });
+            if (!read) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bulk load: inserts accounts that all live on one shard, keeping their ids, with one batched statement in one
+     * transaction that also logs them to the change log. Accounts whose id is already taken are skipped, so a load
+     * that failed part way can be run again. The caller moves the id sequence past the loaded ids afterwards.
+     * @return the accounts inserted, or null on failure
+     */
+    public List<Account> importAccounts(List<Account> accounts) {
+        return Shards.on(Shards.ofId(accounts.get(0).getAccount_id()), () -> {
+            String sql = "INSERT INTO Account (account_id, username, password) VALUES (?, ?, ?)";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                connection.setAutoCommit(false);
+                Set<Integer> taken = existingIds(connection, accounts);
+                List<Account> inserted = new ArrayList<>();
+                for (Account account : accounts) {
+                    if (taken.add(account.getAccount_id())) {
+                        statement.setInt(1, account.getAccount_id());
+                        statement.setString(2, account.getUsername());
+                        statement.setString(3, account.getPassword());
+                        statement.addBatch();
+                        inserted.add(account);
+                    }
+                }
+                statement.executeBatch();
+                AccountChangeDAO.recordCreates(connection, inserted);
+                connection.commit();
+                return inserted;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        });
+    }
+
+    private static Set<Integer> existingIds(Connection connection, List<Account> accounts) throws SQLException {
+        Object[] ids = new Object[accounts.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = accounts.get(i).getAccount_id();
+        }
+        Set<Integer> existing = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT account_id FROM Account WHERE account_id = ANY(?)")) {
+            statement.setArray(1, connection.createArrayOf("INTEGER", ids));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getInt(1));
+                }
+            }
         }
+        return existing;
     }
 }
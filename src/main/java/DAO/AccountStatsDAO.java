@@ -0,0 +1,162 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import Util.Shards;
+import Util.UnitOfWork;
+
+/**
+ * The account_stats summary table holds one message_count per account. MessageDAO adjusts it inside the same
+ * transaction as every insert and delete, so reading a count never needs COUNT(*) over the message table.
+ */
+public class AccountStatsDAO {
+
+    /**
+     * Adds one to the message count of an account, on the caller's connection and transaction.
+     */
+    public static void recordCreate(Connection connection, int accountId) throws SQLException {
+        String sql = "MERGE INTO account_stats t USING (VALUES (CAST(? AS INT))) s(account_id) ON t.account_id = s.account_id " +
+                "WHEN MATCHED THEN UPDATE SET message_count = t.message_count + 1 " +
+                "WHEN NOT MATCHED THEN INSERT (account_id, message_count) VALUES (s.account_id, 1)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, accountId);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Adds the given numbers of new messages to their accounts' counts as a single batch, on the caller's
+     * connection and transaction.
+     */
+    public static void recordCreates(Connection connection, Map<Integer, Integer> created) throws SQLException {
+        String sql = "MERGE INTO account_stats t USING (VALUES (CAST(? AS INT), CAST(? AS BIGINT))) s(account_id, created) " +
+                "ON t.account_id = s.account_id " +
+                "WHEN MATCHED THEN UPDATE SET message_count = t.message_count + s.created " +
+                "WHEN NOT MATCHED THEN INSERT (account_id, message_count) VALUES (s.account_id, s.created)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Map.Entry<Integer, Integer> count : created.entrySet()) {
+                statement.setInt(1, count.getKey());
+                statement.setLong(2, count.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Takes one off the count of the account that posted a message, on the caller's connection and transaction.
+     * Call it right before deleting the message.
+     */
+    public static void recordDelete(Connection connection, int messageId) throws SQLException {
+        String sql = "UPDATE account_stats SET message_count = message_count - 1 " +
+                "WHERE account_id = (SELECT posted_by FROM Message WHERE message_id = ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, messageId);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Takes the messages posted before the cutoff off their accounts' counts, on the caller's connection and
+     * transaction. Call it right before deleting those messages.
+     */
+    public static void recordDeletesPostedBefore(Connection connection, long cutoff) throws SQLException {
+        String sql = "MERGE INTO account_stats t USING (SELECT posted_by, COUNT(*) AS deleted FROM Message " +
+                "WHERE time_posted_epoch < ? GROUP BY posted_by) s ON t.account_id = s.posted_by " +
+                "WHEN MATCHED THEN UPDATE SET message_count = t.message_count - s.deleted";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, cutoff);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the stored message count of every account that has a row, or null if a shard could not be read
+     */
+    public Map<Integer, Long> getMessageCounts() {
+        return readCounts("SELECT account_id, message_count FROM account_stats");
+    }
+
+    /**
+     * Recounts the message table against the stored counts. This is a full scan, meant for reconciliation only.
+     * Each shard is read in one statement, so both sides come from the same snapshot and a write committed meanwhile
+     * is either in both or in neither.
+     * @return the actual minus the stored message count of every account that has posted or has a row, or null if
+     * a shard could not be read
+     */
+    public Map<Integer, Long> countDrift() {
+        return readCounts("SELECT account_id, SUM(n) FROM (" +
+                "SELECT posted_by AS account_id, COUNT(*) AS n FROM Message GROUP BY posted_by " +
+                "UNION ALL SELECT account_id, -message_count FROM account_stats) d GROUP BY account_id");
+    }
+
+    /**
+     * Adds the given amounts to the stored counts of their accounts. The counts move relative to their current
+     * values, so the creates and deletes that land meanwhile are kept.
+     * @return true if every count was written
+     */
+    public boolean addMessageCounts(Map<Integer, Long> deltas) {
+        Map<Integer, Map<Integer, Long>> deltasByShard = new HashMap<>();
+        for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+            deltasByShard.computeIfAbsent(Shards.ofId(delta.getKey()), k -> new HashMap<>()).put(delta.getKey(), delta.getValue());
+        }
+        boolean written = true;
+        for (boolean shardWritten : Shards.scatter(deltasByShard.keySet(), shard -> {
+            String sql = "MERGE INTO account_stats t USING (VALUES (CAST(? AS INT), CAST(? AS BIGINT))) s(account_id, delta) " +
+                    "ON t.account_id = s.account_id " +
+                    "WHEN MATCHED THEN UPDATE SET message_count = t.message_count + s.delta " +
+                    "WHEN NOT MATCHED THEN INSERT (account_id, message_count) VALUES (s.account_id, s.delta)";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                for (Map.Entry<Integer, Long> delta : deltasByShard.get(shard).entrySet()) {
+                    statement.setInt(1, delta.getKey());
+                    statement.setLong(2, delta.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                return true;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }).values()) {
+            written &= shardWritten;
+        }
+        return written;
+    }
+
+    /**
+     * Every account's row lives on the account's shard, so the shards' results never overlap.
+     * @return null if a shard could not be read, rather than a partial map that reads as zero counts
+     */
+    private Map<Integer, Long> readCounts(String sql) {
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Map<Integer, Long> shardCounts : Shards.scatter(shard -> {
+            Map<Integer, Long> found = new HashMap<>();
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql);
+                 ResultSet resultSet = statement.executeQuery()) {
+
+                while (resultSet.next()) {
+                    found.put(resultSet.getInt(1), resultSet.getLong(2));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+            return found;
+        })) {
+            if (shardCounts == null) {
+                return null;
+            }
+            counts.putAll(shardCounts);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,79 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import Util.UnitOfWork;
+
+/**
+ * Persists the serialized HyperLogLog sketch of distinct posters for each hour, keyed by the hour number since the
+ * epoch.
+ */
+public class ActivePosterSketchDAO {
+
+    /**
+     * @return the stored sketch of the hour, or null if there is none
+     */
+    public byte[] getSketch(long hour) {
+        String sql = "SELECT registers FROM active_poster_sketch WHERE bucket_hour = ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, hour);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getBytes("registers");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return the stored sketches of the hours from firstHour to lastHour (both inclusive), by hour
+     */
+    public Map<Long, byte[]> getSketches(long firstHour, long lastHour) {
+        Map<Long, byte[]> sketches = new HashMap<>();
+        String sql = "SELECT bucket_hour, registers FROM active_poster_sketch WHERE bucket_hour >= ? AND bucket_hour <= ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, firstHour);
+            statement.setLong(2, lastHour);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                sketches.put(resultSet.getLong("bucket_hour"), resultSet.getBytes("registers"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return sketches;
+    }
+
+    /**
+     * Inserts or replaces the sketches of the given hours in one batch.
+     * @return true if every sketch was written
+     */
+    public boolean saveSketches(Map<Long, byte[]> sketches) {
+        String sql = "MERGE INTO active_poster_sketch KEY (bucket_hour) VALUES (?, ?)";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            for (Map.Entry<Long, byte[]> sketch : sketches.entrySet()) {
+                statement.setLong(1, sketch.getKey());
+                statement.setBytes(2, sketch.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            return true;
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import Util.Shards;
+import Util.UnitOfWork;
+
+/**
+ * The cold_tombstone table marks the cold tier copies of a message that are no longer current: every copy in a
+ * segment numbered up to the tombstone's segment is stale, and a copy in a later segment, written when the message
+ * was archived again, is current. A message gets one when it changed while being archived, or when it was brought
+ * back to the message table to be updated or deleted. A tombstone lives on the shard of its message, so it is
+ * written in the same transaction as the row. Tombstones are always read from the primary; replicas do not receive
+ * them.
+ */
+public class ColdTombstoneDAO {
+
+    /**
+     * Records tombstones on the caller's connection and transaction. Segment numbers only grow, so a tombstone that
+     * replaces an earlier one never brings a stale copy back.
+     * @param segment the number of the newest segment whose copies are stale
+     */
+    public static void record(Connection connection, Collection<Integer> messageIds, int segment) throws SQLException {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        String sql = "MERGE INTO cold_tombstone KEY (message_id) VALUES (?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Integer messageId : messageIds) {
+                statement.setInt(1, messageId);
+                statement.setInt(2, segment);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * @return the tombstones of the given ids, as the newest stale segment by message id, or null on failure
+     */
+    public Map<Integer, Integer> getTombstones(Collection<Integer> messageIds) {
+        Map<Integer, List<Integer>> idsByShard = new HashMap<>();
+        for (Integer messageId : messageIds) {
+            idsByShard.computeIfAbsent(Shards.ofId(messageId), k -> new ArrayList<>()).add(messageId);
+        }
+        Map<Integer, Integer> tombstones = new HashMap<>();
+        for (Map.Entry<Integer, List<Integer>> shard : idsByShard.entrySet()) {
+            boolean read = Shards.on(shard.getKey(), () -> read("SELECT message_id, segment FROM cold_tombstone WHERE message_id = ANY(?)",
+                    shard.getValue(), tombstones));
+            if (!read) {
+                return null;
+            }
+        }
+        return tombstones;
+    }
+
+    /**
+     * @return every tombstone on every shard, or null on failure
+     */
+    public Map<Integer, Integer> getAll() {
+        Map<Integer, Integer> tombstones = new HashMap<>();
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            if (!Shards.on(shard, () -> read("SELECT message_id, segment FROM cold_tombstone", null, tombstones))) {
+                return null;
+            }
+        }
+        return tombstones;
+    }
+
+    private static boolean read(String sql, List<Integer> parameter, Map<Integer, Integer> tombstones) {
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            if (parameter != null) {
+                statement.setArray(1, connection.createArrayOf("INTEGER", parameter.toArray()));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    tombstones.put(resultSet.getInt(1), resultSet.getInt(2));
+                }
+            }
+            return true;
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
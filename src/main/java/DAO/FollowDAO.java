@@ -0,0 +1,119 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import Util.Shards;
+import Util.UnitOfWork;
+
+/**
+ * The follow table holds the follow graph: one row per (follower, followee) edge, stored on the follower's shard.
+ */
+public class FollowDAO {
+    private final AccountDAO accountDAO = new AccountDAO();
+
+    /**
+     * Records that follower follows followee. Following twice is not an error.
+     * @return true if the edge exists afterwards, false if either account does not exist
+     */
+    public boolean follow(int followerId, int followeeId) {
+        // the followee may live on another shard, so its existence is checked here rather than by a foreign key
+        if (accountDAO.getAccountById(followeeId) == null) {
+            return false;
+        }
+        return Shards.on(Shards.ofId(followerId), () -> {
+            String sql = "MERGE INTO follow (follower_id, followee_id, followed_at) KEY (follower_id, followee_id) VALUES (?, ?, ?)";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setInt(1, followerId);
+                statement.setInt(2, followeeId);
+                statement.setLong(3, System.currentTimeMillis());
+                statement.executeUpdate();
+                return true;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * @return true if follower was following followee
+     */
+    public boolean unfollow(int followerId, int followeeId) {
+        return Shards.on(Shards.ofId(followerId), () -> {
+            String sql = "DELETE FROM follow WHERE follower_id = ? AND followee_id = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setInt(1, followerId);
+                statement.setInt(2, followeeId);
+                return statement.executeUpdate() > 0;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * @return the accounts the follower follows
+     */
+    public List<Integer> getFollowees(int followerId) {
+        return Shards.on(Shards.ofId(followerId), () -> {
+            List<Integer> followees = new ArrayList<>();
+            String sql = "SELECT followee_id FROM follow WHERE follower_id = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setInt(1, followerId);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    followees.add(resultSet.getInt("followee_id"));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return followees;
+        });
+    }
+
+    /**
+     * Streams every edge of the graph as (follower, followee) without materializing the result set, one shard
+     * after the other.
+     * @return false if the table could not be read
+     */
+    public boolean forEachFollow(BiConsumer<Integer, Integer> consumer) {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            boolean read = Shards.on(shard, () -> {
+                String sql = "SELECT follower_id, followee_id FROM follow";
+                try (Connection connection = UnitOfWork.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                    statement.setFetchSize(10_000);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            consumer.accept(resultSet.getInt("follower_id"), resultSet.getInt("followee_id"));
+                        }
+                    }
+                    return true;
+
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            });
+            if (!read) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import Util.UnitOfWork;
+
+/**
+ * The idempotency_key table keeps the response of each completed idempotent request, so that retries are answered
+ * from it after a restart.
+ */
+public class IdempotencyKeyDAO {
+
+    /**
+     * A stored response row.
+     */
+    public static final class StoredKey {
+        public final String fingerprint;
+        public final int status;
+        public final String contentType;
+        public final String body;
+        public final long expiresAt;
+
+        public StoredKey(String fingerprint, int status, String contentType, String body, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @return the unexpired response stored for the key, or null
+     */
+    public StoredKey getKey(String key, long now) {
+        String sql = "SELECT * FROM idempotency_key WHERE idempotency_key = ? AND expires_at > ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setString(1, key);
+            statement.setLong(2, now);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new StoredKey(
+                        resultSet.getString("fingerprint"),
+                        resultSet.getInt("status"),
+                        resultSet.getString("content_type"),
+                        resultSet.getString("body"),
+                        resultSet.getLong("expires_at"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the response was stored
+     */
+    public boolean saveKey(String key, StoredKey stored) {
+        String sql = "MERGE INTO idempotency_key KEY (idempotency_key) VALUES (?, ?, ?, ?, ?, ?)";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setString(1, key);
+            statement.setString(2, stored.fingerprint);
+            statement.setInt(3, stored.status);
+            statement.setString(4, stored.contentType);
+            statement.setString(5, stored.body);
+            statement.setLong(6, stored.expiresAt);
+            statement.executeUpdate();
+            return true;
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of expired keys removed
+     */
+    public int deleteExpiredKeys(long now) {
+        String sql = "DELETE FROM idempotency_key WHERE expires_at <= ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, now);
+            return statement.executeUpdate();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import Util.UnitOfWork;
+
+/**
+ * The invalidation_event table carries cache invalidation batches between app instances that share the database
+ * but cannot reach each other directly. It is not routed, so it lives on shard 0.
+ */
+public class InvalidationEventDAO {
+
+    /**
+     * A stored batch.
+     */
+    public static final class Event {
+        public final long seq;
+        public final byte[] payload;
+
+        public Event(long seq, byte[] payload) {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * @return true if the batch was stored
+     */
+    public boolean append(byte[] payload, long now) {
+        String sql = "INSERT INTO invalidation_event (payload, created_at) VALUES (?, ?)";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setBytes(1, payload);
+            statement.setLong(2, now);
+            statement.executeUpdate();
+            return true;
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return up to limit batches stored after since, oldest first
+     */
+    public List<Event> getEventsSince(long since, int limit) {
+        List<Event> events = new ArrayList<>();
+        String sql = "SELECT event_seq, payload FROM invalidation_event WHERE event_seq > ? ORDER BY event_seq LIMIT ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, since);
+            statement.setInt(2, limit);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                events.add(new Event(resultSet.getLong("event_seq"), resultSet.getBytes("payload")));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return events;
+    }
+
+    /**
+     * @return the sequence number of the newest batch (0 if there is none)
+     */
+    public long getLatestSeq() {
+        String sql = "SELECT COALESCE(MAX(event_seq), 0) FROM invalidation_event";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+
+            if (resultSet.next()) {
+                return resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of batches removed
+     */
+    public int deleteEventsBefore(long cutoffMillis) {
+        String sql = "DELETE FROM invalidation_event WHERE created_at < ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, cutoffMillis);
+            return statement.executeUpdate();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package DAO;
+
+import Model.Message;
+import Model.MessageChange;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import Util.Shards;
+import Util.UnitOfWork;
+
+public class MessageChangeDAO {
+
+    /**
+     * Appends a change to the log on the caller's connection, so that it commits or rolls back together with the
+     * write it describes.
+     * @param message the message after the change; for deletes only its id is used
+     */
+    public static void record(Connection connection, String operation, Message message) throws SQLException {
+        String sql = "INSERT INTO message_change (operation, message_id, posted_by, message_text, time_posted_epoch, changed_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            boolean tombstone = MessageChange.DELETE.equals(operation);
+            statement.setString(1, operation);
+            statement.setInt(2, message.getMessage_id());
+            statement.setInt(3, message.getPosted_by());
+            statement.setString(4, tombstone ? null : message.getMessage_text());
+            statement.setLong(5, message.getTime_posted_epoch());
+            statement.setLong(6, System.currentTimeMillis());
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Appends one create per message to the log as a single batch, on the caller's connection.
+     */
+    public static void recordCreates(Connection connection, List<Message> messages) throws SQLException {
+        String sql = "INSERT INTO message_change (operation, message_id, posted_by, message_text, time_posted_epoch, changed_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            long now = System.currentTimeMillis();
+            for (Message message : messages) {
+                statement.setString(1, MessageChange.CREATE);
+                statement.setInt(2, message.getMessage_id());
+                statement.setInt(3, message.getPosted_by());
+                statement.setString(4, message.getMessage_text());
+                statement.setLong(5, message.getTime_posted_epoch());
+                statement.setLong(6, now);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Records a tombstone for every message posted before the cutoff, on the caller's connection. Call it right
+     * before deleting those messages in the same transaction.
+     */
+    public static void recordDeletesPostedBefore(Connection connection, long cutoff) throws SQLException {
+        String sql = "INSERT INTO message_change (operation, message_id, posted_by, message_text, time_posted_epoch, changed_at) " +
+                "SELECT ?, message_id, posted_by, NULL, time_posted_epoch, ? FROM Message WHERE time_posted_epoch < ?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, MessageChange.DELETE);
+            statement.setLong(2, System.currentTimeMillis());
+            statement.setLong(3, cutoff);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return up to limit changes with a sequence number greater than since, oldest first
+     */
+    public List<MessageChange> getChangesSince(long since, int limit) {
+        List<MessageChange> changes = new ArrayList<>();
+        String sql = "SELECT * FROM message_change WHERE change_seq > ? ORDER BY change_seq LIMIT ?";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, since);
+            statement.setInt(2, limit);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String operation = resultSet.getString("operation");
+                int messageId = resultSet.getInt("message_id");
+                Message message = MessageChange.DELETE.equals(operation) ? null : new Message(
+                        messageId,
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch"));
+                changes.add(new MessageChange(
+                        resultSet.getLong("change_seq"),
+                        operation,
+                        messageId,
+                        message,
+                        resultSet.getLong("changed_at")));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return changes;
+    }
+
+    /**
+     * Sequence numbers of one shard's log step by the shard count, so the one before the oldest retained change is
+     * that far below it.
+     * @return the highest sequence number that has been removed by compaction (0 if none has been)
+     */
+    public long getCompactedThrough() {
+        String sql = "SELECT MIN(change_seq) FROM message_change";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+
+            if (resultSet.next()) {
+                long oldest = resultSet.getLong(1);
+                return resultSet.wasNull() ? 0 : Math.max(0, oldest - Shards.count());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the sequence number of the newest change (0 if the log is empty)
+     */
+    public long getLatestSeq() {
+        String sql = "SELECT COALESCE(MAX(change_seq), 0) FROM message_change";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+
+            if (resultSet.next()) {
+                return resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Sequence numbers are taken when a change is inserted but only become visible when its transaction commits, so
+     * a number missing below a visible one is either a write still open or one that rolled back. Once no other
+     * session has a write open, each number up to the newest one seen before looking is one or the other for good.
+     * @return the sequence number at or below which a missing change will never appear, or 0 while another session
+     * has a write open
+     */
+    public long getSettledThrough() {
+        long latest = getLatestSeq();
+        return writesInProgress() ? 0 : latest;
+    }
+
+    /**
+     * @return how many of the given sequence numbers are in the log
+     */
+    public int countChanges(Collection<Long> seqs) {
+        return countChanges("message_change", seqs);
+    }
+
+    /**
+     * @return true if another session on the current shard has uncommitted changes or is running a statement that
+     * may be about to make some, or if that cannot be checked
+     */
+    static boolean writesInProgress() {
+        String sql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE SESSION_ID <> SESSION_ID() " +
+                "AND (CONTAINS_UNCOMMITTED OR EXECUTING_STATEMENT IS NOT NULL)";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+
+            return !resultSet.next() || resultSet.getInt(1) > 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return true;
+        }
+    }
+
+    static int countChanges(String log, Collection<Long> seqs) {
+        String sql = "SELECT COUNT(*) FROM " + log + " WHERE change_seq = ANY(?)";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setObject(1, seqs.toArray(new Long[0]));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes changes recorded before the cutoff. The newest change is always kept, so the compaction floor can
+     * still be derived from the oldest remaining sequence number.
+     * @return the number of changes removed
+     */
+    public int deleteChangesBefore(long cutoffMillis) {
+        String sql = "DELETE FROM message_change WHERE changed_at < ? " +
+                "AND change_seq < (SELECT MAX(change_seq) FROM message_change)";
+        try (Connection connection = UnitOfWork.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+
+            statement.setLong(1, cutoffMillis);
+            return statement.executeUpdate();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
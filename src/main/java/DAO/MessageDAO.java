@@ -1,75 +1,127 @@
 package DAO;
 
 import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import Util.ConnectionUtil;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import Util.Shards;
+import Util.TextCodec;
+import Util.UnitOfWork;
 
 public class MessageDAO {
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+    private static final Comparator<Message> OLDEST_FIRST =
+            Comparator.comparingLong(Message::getTime_posted_epoch).thenComparingInt(Message::getMessage_id);
+    private static final Comparator<Message> NEWEST_FIRST = OLDEST_FIRST.reversed();
+
+    private final FollowDAO followDAO = new FollowDAO();
 
     public Message createMessage(Message message) {
-        String sql = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
-             
-            statement.setInt(1, message.getPosted_by());
-            statement.setString(2, message.getMessage_text());
-            statement.setLong(3, message.getTime_posted_epoch());
-            statement.executeUpdate();
+        return Shards.on(Shards.ofId(message.getPosted_by()), () -> {
+            String sql = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+
+                connection.setAutoCommit(false);
+                statement.setInt(1, message.getPosted_by());
+                statement.setBytes(2, TextCodec.encode(message.getMessage_text()));
+                statement.setLong(3, message.getTime_posted_epoch());
+                statement.executeUpdate();
 
-            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    message.setMessage_id(generatedKeys.getInt(1));
+                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        message.setMessage_id(generatedKeys.getInt(1));
+                    }
                 }
-            }
-            return message;
+                MessageChangeDAO.record(connection, MessageChange.CREATE, message);
+                AccountStatsDAO.recordCreate(connection, message.getPosted_by());
+                connection.commit();
+                return message;
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
-        }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        });
     }
 
     public Message getMessageById(int messageId) {
-        String sql = "SELECT * FROM Message WHERE message_id = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+        return Shards.on(Shards.ofId(messageId), () -> {
+            String sql = "SELECT * FROM Message WHERE message_id = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
              
-            statement.setInt(1, messageId);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return new Message(
-                        resultSet.getInt("message_id"),
-                        resultSet.getInt("posted_by"),
-                        resultSet.getString("message_text"),
-                        resultSet.getLong("time_posted_epoch")
-                );
+                statement.setInt(1, messageId);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    return new Message(
+                            resultSet.getInt("message_id"),
+                            resultSet.getInt("posted_by"),
+                            TextCodec.decode(resultSet.getBytes("message_text")),
+                            resultSet.getLong("time_posted_epoch")
+                    );
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return null;
+        });
+    }
+
+    /**
+     * Fetches many messages in one round trip per shard holding any of them. The ids travel as a single array
+     * parameter, so the statement text (and its cached plan) is the same whatever the number of ids.
+     * @return the messages that exist, by id, in no particular order
+     */
+    public Map<Integer, Message> getMessagesByIds(Collection<Integer> messageIds) {
+        Map<Integer, Message> messages = new HashMap<>();
+        getVersionedMessagesByIds(messageIds).forEach((messageId, found) -> messages.put(messageId, found.getMessage()));
+        return messages;
+    }
+
+    /**
+     * {@link #getMessagesByIds} with the version of each row, as {@link #getVersionedMessage} reads it.
+     * @return the messages that exist, by id, in no particular order
+     */
+    public Map<Integer, VersionedMessage> getVersionedMessagesByIds(Collection<Integer> messageIds) {
+        Map<Integer, List<Integer>> idsByShard = new HashMap<>();
+        for (Integer messageId : messageIds) {
+            idsByShard.computeIfAbsent(Shards.ofId(messageId), k -> new ArrayList<>()).add(messageId);
+        }
+        Map<Integer, VersionedMessage> messages = new HashMap<>();
+        for (Map<Integer, VersionedMessage> found : Shards.scatter(idsByShard.keySet(), shard -> getMessagesByIdsOnShard(idsByShard.get(shard))).values()) {
+            messages.putAll(found);
         }
-        return null;
+        return messages;
     }
 
-    public List<Message> getMessagesByUserId(int userId) {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM Message WHERE posted_by = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
+    private Map<Integer, VersionedMessage> getMessagesByIdsOnShard(List<Integer> messageIds) {
+        Map<Integer, VersionedMessage> messages = new HashMap<>();
+        String sql = "SELECT * FROM Message WHERE message_id = ANY(?)";
+        try (Connection connection = UnitOfWork.getConnection();
              PreparedStatement statement = connection.prepareStatement(sql)) {
-             
-            statement.setInt(1, userId);
+
+            statement.setArray(1, connection.createArrayOf("INTEGER", messageIds.toArray()));
             ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
-                messages.add(new Message(
-                        resultSet.getInt("message_id"),
-                        resultSet.getInt("posted_by"),
-                        resultSet.getString("message_text"),
-                        resultSet.getLong("time_posted_epoch")
-                ));
+                int messageId = resultSet.getInt("message_id");
+                int postedBy = resultSet.getInt("posted_by");
+                byte[] text = resultSet.getBytes("message_text");
+                long timePosted = resultSet.getLong("time_posted_epoch");
+                messages.put(messageId, new VersionedMessage(() -> new Message(messageId, postedBy, TextCodec.decode(text), timePosted),
+                        resultSet.getLong("version")));
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -77,79 +129,557 @@ public class MessageDAO {
         return messages;
     }
 
+    public List<Message> getMessagesByUserId(int userId) {
+        return Shards.on(Shards.ofId(userId), () -> {
+            List<Message> messages = new ArrayList<>();
+            String sql = "SELECT * FROM Message WHERE posted_by = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+             
+                statement.setInt(1, userId);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    messages.add(new Message(
+                            resultSet.getInt("message_id"),
+                            resultSet.getInt("posted_by"),
+                            TextCodec.decode(resultSet.getBytes("message_text")),
+                            resultSet.getLong("time_posted_epoch")
+                    ));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return messages;
+        });
+    }
+
+    /**
+     * @return the message and the version of its row, or null if it does not exist
+     */
+    public VersionedMessage getVersionedMessage(int messageId) {
+        return Shards.on(Shards.ofId(messageId), () -> {
+            String sql = "SELECT * FROM Message WHERE message_id = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setInt(1, messageId);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    int postedBy = resultSet.getInt("posted_by");
+                    byte[] text = resultSet.getBytes("message_text");
+                    long timePosted = resultSet.getLong("time_posted_epoch");
+                    return new VersionedMessage(() -> new Message(messageId, postedBy, TextCodec.decode(text), timePosted),
+                            resultSet.getLong("version"));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return null;
+        });
+    }
+
     public boolean updateMessage(Message message) {
-        String sql = "UPDATE Message SET posted_by = ?, message_text = ?, time_posted_epoch = ? WHERE message_id = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            
-            statement.setInt(1, message.getPosted_by());
-            statement.setString(2, message.getMessage_text());
-            statement.setLong(3, message.getTime_posted_epoch());
-            statement.setInt(4, message.getMessage_id());
-            return statement.executeUpdate() > 0;
-    
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+        return updateMessage(message, null);
+    }
+
+    /**
+     * Overwrites a message and increments its version. With expected versions, the check and the write are one
+     * statement, so a concurrent writer is detected without reading first or locking the row.
+     * @param expectedVersions only update if the row is at one of these versions, or null to update unconditionally
+     * @return true if the row was updated; false if it does not exist or is at another version
+     */
+    public boolean updateMessage(Message message, List<Long> expectedVersions) {
+        return Shards.on(Shards.ofId(message.getMessage_id()), () -> {
+            String sql = "UPDATE Message SET posted_by = ?, message_text = ?, time_posted_epoch = ?, version = version + 1 " +
+                    "WHERE message_id = ?" + versionCondition(expectedVersions);
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                connection.setAutoCommit(false);
+                statement.setInt(1, message.getPosted_by());
+                statement.setBytes(2, TextCodec.encode(message.getMessage_text()));
+                statement.setLong(3, message.getTime_posted_epoch());
+                statement.setInt(4, message.getMessage_id());
+                setExpectedVersions(statement, 5, expectedVersions);
+                boolean updated = statement.executeUpdate() > 0;
+                if (updated) {
+                    MessageChangeDAO.record(connection, MessageChange.UPDATE, message);
+                }
+                connection.commit();
+                return updated;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
     }
 
     public boolean deleteMessage(int messageId) {
-        String sql = "DELETE FROM Message WHERE message_id = ?";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-             
-            statement.setInt(1, messageId);
-            return statement.executeUpdate() > 0;
+        return deleteMessage(messageId, null);
+    }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+    /**
+     * @param expectedVersions only delete if the row is at one of these versions, or null to delete unconditionally
+     * @return true if the row was deleted; false if it does not exist or is at another version
+     */
+    public boolean deleteMessage(int messageId, List<Long> expectedVersions) {
+        return Shards.on(Shards.ofId(messageId), () -> {
+            String sql = "DELETE FROM Message WHERE message_id = ?" + versionCondition(expectedVersions);
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                connection.setAutoCommit(false);
+                AccountStatsDAO.recordDelete(connection, messageId);
+                statement.setInt(1, messageId);
+                setExpectedVersions(statement, 2, expectedVersions);
+                boolean deleted = statement.executeUpdate() > 0;
+                if (deleted) {
+                    MessageChangeDAO.record(connection, MessageChange.DELETE, new Message(messageId, 0, null, 0));
+                    connection.commit();
+                } else {
+                    // the counter was decremented before the row turned out to be at another version
+                    connection.rollback();
+                }
+                return deleted;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * A single expected version, the usual case, is compared directly rather than through an array parameter.
+     */
+    private static String versionCondition(List<Long> expectedVersions) {
+        if (expectedVersions == null) {
+            return "";
+        }
+        return expectedVersions.size() == 1 ? " AND version = ?" : " AND version = ANY(?)";
+    }
+
+    private static void setExpectedVersions(PreparedStatement statement, int index, List<Long> expectedVersions)
+            throws SQLException {
+        if (expectedVersions == null) {
+            return;
+        }
+        if (expectedVersions.size() == 1) {
+            statement.setLong(index, expectedVersions.get(0));
+        } else {
+            statement.setArray(index, statement.getConnection().createArrayOf("BIGINT", expectedVersions.toArray()));
         }
     }
 
+    /**
+     * @return every message, ordered by id
+     */
     public List<Message> getAllMessages() {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM Message";
-        try (Connection connection = ConnectionUtil.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql);
-             ResultSet resultSet = statement.executeQuery()) {
-             
-            while (resultSet.next()) {
-                messages.add(new Message(
-                        resultSet.getInt("message_id"),
-                        resultSet.getInt("posted_by"),
-                        resultSet.getString("message_text"),
-                        resultSet.getLong("time_posted_epoch")
-                ));
+        return Shards.merge(Shards.scatter(shard -> {
+            List<Message> messages = new ArrayList<>();
+            String sql = "SELECT * FROM Message ORDER BY message_id";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql);
+                 ResultSet resultSet = statement.executeQuery()) {
+
+                while (resultSet.next()) {
+                    messages.add(new Message(
+                            resultSet.getInt("message_id"),
+                            resultSet.getInt("posted_by"),
+                            TextCodec.decode(resultSet.getBytes("message_text")),
+                            resultSet.getLong("time_posted_epoch")
+                    ));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return messages;
+            return messages;
+        }), BY_ID, Integer.MAX_VALUE);
     }
 
 
     public List<Message> getAllMessagesForUser(int userId) {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM message WHERE account_id = ?";
+        return Shards.on(Shards.ofId(userId), () -> {
+            List<Message> messages = new ArrayList<>();
+            String sql = "SELECT * FROM message WHERE account_id = ?";
         
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, userId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Message message = new Message(
-                        rs.getInt("message_id"),
-                        rs.getInt("account_id"),
-                        rs.getString("message_content"),
-                        rs.getInt("timestamp"));
-                messages.add(message);
+            try (Connection conn = UnitOfWork.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, userId);
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    Message message = new Message(
+                            rs.getInt("message_id"),
+                            rs.getInt("account_id"),
+                            rs.getString("message_content"),
+                            rs.getInt("timestamp"));
+                    messages.add(message);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return messages;
+        });
+    }
+
+    /**
+     * Range query on the (time_posted_epoch, message_id) index: only the index entries inside the range are
+     * visited, however large the table is. Each shard returns its first limit messages and those are merged, so
+     * no shard is read past what the page needs.
+     * @return up to limit messages posted between from and to (both inclusive), oldest first
+     */
+    public List<Message> getMessagesPostedBetween(long from, long to, int limit) {
+        return Shards.merge(Shards.scatter(shard -> {
+            List<Message> messages = new ArrayList<>();
+            String sql = "SELECT * FROM Message WHERE time_posted_epoch >= ? AND time_posted_epoch <= ? " +
+                    "ORDER BY time_posted_epoch, message_id LIMIT ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setLong(1, from);
+                statement.setLong(2, to);
+                statement.setInt(3, limit);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    messages.add(new Message(
+                            resultSet.getInt("message_id"),
+                            resultSet.getInt("posted_by"),
+                            TextCodec.decode(resultSet.getBytes("message_text")),
+                            resultSet.getLong("time_posted_epoch")
+                    ));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return messages;
+        }), OLDEST_FIRST, limit);
+    }
+
+    /**
+     * Retention: deletes every message posted before the cutoff, recording a tombstone for each in the change log
+     * within the same transaction. Each shard deletes in its own transaction.
+     * @return the number of messages deleted, or -1 if any shard failed
+     */
+    public int deleteMessagesPostedBefore(long cutoff) {
+        int total = 0;
+        for (int deleted : Shards.scatter(shard -> {
+            String sql = "DELETE FROM Message WHERE time_posted_epoch < ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                connection.setAutoCommit(false);
+                MessageChangeDAO.recordDeletesPostedBefore(connection, cutoff);
+                AccountStatsDAO.recordDeletesPostedBefore(connection, cutoff);
+                statement.setLong(1, cutoff);
+                int count = statement.executeUpdate();
+                connection.commit();
+                return count;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return -1;
+            }
+        })) {
+            if (deleted < 0) {
+                return -1;
+            }
+            total += deleted;
         }
-        return messages;
+        return total;
     }
 
+    /**
+     * The newest messages by the accounts a follower follows, read through the (posted_by, time_posted_epoch)
+     * index of each followee. The follow rows live on the follower's shard; the followees' messages are then read
+     * from each shard holding any of them and merged.
+     * @return up to limit messages, newest first
+     */
+    public List<Message> getMessagesFollowedBy(int followerId, int limit) {
+        Map<Integer, List<Integer>> followeesByShard = new HashMap<>();
+        for (Integer followeeId : followDAO.getFollowees(followerId)) {
+            followeesByShard.computeIfAbsent(Shards.ofId(followeeId), k -> new ArrayList<>()).add(followeeId);
+        }
+        if (followeesByShard.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Shards.merge(Shards.scatter(followeesByShard.keySet(), shard -> {
+            List<Message> messages = new ArrayList<>();
+            String sql = "SELECT * FROM Message WHERE posted_by = ANY(?) " +
+                    "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setArray(1, connection.createArrayOf("INTEGER", followeesByShard.get(shard).toArray()));
+                statement.setInt(2, limit);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    messages.add(new Message(
+                            resultSet.getInt("message_id"),
+                            resultSet.getInt("posted_by"),
+                            TextCodec.decode(resultSet.getBytes("message_text")),
+                            resultSet.getLong("time_posted_epoch")
+                    ));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return messages;
+        }).values(), NEWEST_FIRST, limit);
+    }
+
+    /**
+     * @return up to limit of the newest messages by one account, newest first
+     */
+    public List<Message> getRecentMessagesByUserId(int userId, int limit) {
+        return Shards.on(Shards.ofId(userId), () -> {
+            List<Message> messages = new ArrayList<>();
+            String sql = "SELECT * FROM Message WHERE posted_by = ? ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setInt(1, userId);
+                statement.setInt(2, limit);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    messages.add(new Message(
+                            resultSet.getInt("message_id"),
+                            resultSet.getInt("posted_by"),
+                            TextCodec.decode(resultSet.getBytes("message_text")),
+                            resultSet.getLong("time_posted_epoch")
+                    ));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return messages;
+        });
+    }
+
+    /**
+     * Streams every message, shard by shard, to the consumer without materializing the whole table.
+     * @return true if the scan completed
+     */
+    public boolean forEachMessage(Consumer<Message> consumer) {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            boolean read = Shards.on(shard, () -> {
+                String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM Message";
+                try (Connection connection = UnitOfWork.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                    statement.setFetchSize(10_000);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            consumer.accept(new Message(
+                                    resultSet.getInt("message_id"),
+                                    resultSet.getInt("posted_by"),
+                                    TextCodec.decode(resultSet.getBytes("message_text")),
+                                    resultSet.getLong("time_posted_epoch")));
+                        }
+                    }
+                    return true;
+
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            });
+            if (!read) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bulk load: inserts messages that all live on one shard, keeping their ids, with one batched statement in one
+     * transaction that also logs them and adds them to their accounts' counts. Messages whose id is already taken
+     * are skipped, so a load that failed part way can be run again. Their accounts must exist already.
+     * @return the messages inserted, or null on failure
+     */
+    public List<Message> importMessages(List<Message> messages) {
+        return Shards.on(Shards.ofId(messages.get(0).getMessage_id()), () -> {
+            String sql = "INSERT INTO Message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                connection.setAutoCommit(false);
+                Set<Integer> taken = existingIds(connection, messages);
+                List<Message> inserted = new ArrayList<>();
+                Map<Integer, Integer> created = new HashMap<>();
+                for (Message message : messages) {
+                    if (taken.add(message.getMessage_id())) {
+                        statement.setInt(1, message.getMessage_id());
+                        statement.setInt(2, message.getPosted_by());
+                        statement.setBytes(3, TextCodec.encode(message.getMessage_text()));
+                        statement.setLong(4, message.getTime_posted_epoch());
+                        statement.addBatch();
+                        inserted.add(message);
+                        created.merge(message.getPosted_by(), 1, Integer::sum);
+                    }
+                }
+                statement.executeBatch();
+                MessageChangeDAO.recordCreates(connection, inserted);
+                AccountStatsDAO.recordCreates(connection, created);
+                connection.commit();
+                return inserted;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        });
+    }
+
+    private static Set<Integer> existingIds(Connection connection, List<Message> messages) throws SQLException {
+        Object[] ids = new Object[messages.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = messages.get(i).getMessage_id();
+        }
+        Set<Integer> existing = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT message_id FROM Message WHERE message_id = ANY(?)")) {
+            statement.setArray(1, connection.createArrayOf("INTEGER", ids));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getInt(1));
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Tiering: the messages of a shard posted before the cutoff, in id order, after the given id.
+     * @return up to limit messages with their versions, or null on failure
+     */
+    public List<VersionedMessage> getMessagesToArchive(int shard, long cutoff, int afterId, int limit) {
+        return Shards.on(shard, () -> {
+            List<VersionedMessage> messages = new ArrayList<>();
+            String sql = "SELECT * FROM Message WHERE time_posted_epoch < ? AND message_id > ? ORDER BY message_id LIMIT ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setLong(1, cutoff);
+                statement.setInt(2, afterId);
+                statement.setInt(3, limit);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        messages.add(new VersionedMessage(new Message(
+                                resultSet.getInt("message_id"),
+                                resultSet.getInt("posted_by"),
+                                TextCodec.decode(resultSet.getBytes("message_text")),
+                                resultSet.getLong("time_posted_epoch")),
+                                resultSet.getLong("version")));
+                    }
+                }
+                return messages;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Tiering: deletes the rows of messages that were just written to the given cold segment, each only if it is
+     * still at the archived version. A message that changed in between stays, and its new cold copy gets a
+     * tombstone; the copies in earlier segments of the superseded messages, archived before, get one too. The
+     * change log and the account counts are left alone: the messages still exist.
+     * @return the number of rows deleted, or -1 on failure
+     */
+    public int deleteArchived(int shard, List<VersionedMessage> archived, int segment, Set<Integer> superseded) {
+        return Shards.on(shard, () -> {
+            String sql = "DELETE FROM Message WHERE message_id = ? AND version = ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                connection.setAutoCommit(false);
+                for (VersionedMessage message : archived) {
+                    statement.setInt(1, message.getMessage().getMessage_id());
+                    statement.setLong(2, message.getVersion());
+                    statement.addBatch();
+                }
+                int[] counts = statement.executeBatch();
+                List<Integer> changed = new ArrayList<>();
+                int deleted = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        deleted++;
+                    } else {
+                        changed.add(archived.get(i).getMessage().getMessage_id());
+                    }
+                }
+                Set<Integer> stale = new HashSet<>(superseded);
+                stale.removeAll(changed);
+                ColdTombstoneDAO.record(connection, stale, segment - 1);
+                ColdTombstoneDAO.record(connection, changed, segment);
+                connection.commit();
+                return deleted;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return -1;
+            }
+        });
+    }
+
+    /**
+     * Tiering: puts an archived message back in the message table, at its archived version, and gives its cold
+     * copies a tombstone, so it can be updated or deleted like any other row.
+     * @param segment the number of the newest cold segment
+     * @return true if the row was restored, false if it exists already or on failure
+     */
+    public boolean restoreArchived(VersionedMessage archived, int segment) {
+        Message message = archived.getMessage();
+        return Shards.on(Shards.ofId(message.getMessage_id()), () -> {
+            String sql = "INSERT INTO Message (message_id, posted_by, message_text, time_posted_epoch, version) VALUES (?, ?, ?, ?, ?)";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                connection.setAutoCommit(false);
+                statement.setInt(1, message.getMessage_id());
+                statement.setInt(2, message.getPosted_by());
+                statement.setBytes(3, TextCodec.encode(message.getMessage_text()));
+                statement.setLong(4, message.getTime_posted_epoch());
+                statement.setLong(5, archived.getVersion());
+                statement.executeUpdate();
+                ColdTombstoneDAO.record(connection, List.of(message.getMessage_id()), segment);
+                connection.commit();
+                return true;
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * The texts of the newest messages of every shard, as a sample to train a {@link TextCodec} dictionary on.
+     * @return up to limit texts from each shard
+     */
+    public List<String> getNewestMessageTexts(int limit) {
+        List<String> texts = new ArrayList<>();
+        for (List<String> shardTexts : Shards.scatter(shard -> {
+            List<String> found = new ArrayList<>();
+            String sql = "SELECT message_text FROM Message ORDER BY message_id DESC LIMIT ?";
+            try (Connection connection = UnitOfWork.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+
+                statement.setInt(1, limit);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        found.add(TextCodec.decode(resultSet.getBytes(1)));
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return found;
+        })) {
+            texts.addAll(shardTexts);
+        }
+        return texts;
+    }
 }
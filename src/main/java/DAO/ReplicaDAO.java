@@ -0,0 +1,167 @@
+package DAO;
+
+import Model.AccountChange;
+import Model.MessageChange;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import Util.TextCodec;
+
+/**
+ * Writes to a read replica. Every method works on the replica connection it is given, inside the caller's
+ * transaction, so that a batch of changes and the log positions it advances to commit together. The replica keeps
+ * one position per log in replication_position: the sequence number of the last change it has applied.
+ */
+public class ReplicaDAO {
+    public static final String MESSAGE_LOG = "message_change";
+    public static final String ACCOUNT_LOG = "account_change";
+
+    private static final int COPY_BATCH = 1000;
+
+    /**
+     * @return the last applied sequence number of the log, or -1 if the replica has never been bootstrapped
+     */
+    public static long getPosition(Connection replica, String log) throws SQLException {
+        String sql = "SELECT applied_seq FROM replication_position WHERE log_name = ?";
+        try (PreparedStatement statement = replica.prepareStatement(sql)) {
+            statement.setString(1, log);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : -1;
+            }
+        }
+    }
+
+    public static void setPosition(Connection replica, String log, long appliedSeq) throws SQLException {
+        String sql = "MERGE INTO replication_position (log_name, applied_seq) KEY (log_name) VALUES (?, ?)";
+        try (PreparedStatement statement = replica.prepareStatement(sql)) {
+            statement.setString(1, log);
+            statement.setLong(2, appliedSeq);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Replays message changes in order. An update bumps the version like the primary's update did, so versions and
+     * ETags read from the replica match the primary's.
+     */
+    public static void applyMessageChanges(Connection replica, List<MessageChange> changes) throws SQLException {
+        String create = "MERGE INTO Message (message_id, posted_by, message_text, time_posted_epoch, version) " +
+                "KEY (message_id) VALUES (?, ?, ?, ?, 0)";
+        String update = "UPDATE Message SET posted_by = ?, message_text = ?, time_posted_epoch = ?, version = version + 1 " +
+                "WHERE message_id = ?";
+        String delete = "DELETE FROM Message WHERE message_id = ?";
+        try (PreparedStatement creates = replica.prepareStatement(create);
+             PreparedStatement updates = replica.prepareStatement(update);
+             PreparedStatement deletes = replica.prepareStatement(delete)) {
+
+            for (MessageChange change : changes) {
+                if (MessageChange.CREATE.equals(change.getOperation())) {
+                    creates.setInt(1, change.getMessage_id());
+                    creates.setInt(2, change.getMessage().getPosted_by());
+                    creates.setBytes(3, TextCodec.encode(change.getMessage().getMessage_text()));
+                    creates.setLong(4, change.getMessage().getTime_posted_epoch());
+                    creates.executeUpdate();
+                } else if (MessageChange.UPDATE.equals(change.getOperation())) {
+                    updates.setInt(1, change.getMessage().getPosted_by());
+                    updates.setBytes(2, TextCodec.encode(change.getMessage().getMessage_text()));
+                    updates.setLong(3, change.getMessage().getTime_posted_epoch());
+                    updates.setInt(4, change.getMessage_id());
+                    updates.executeUpdate();
+                } else {
+                    deletes.setInt(1, change.getMessage_id());
+                    deletes.executeUpdate();
+                }
+            }
+        }
+    }
+
+    public static void applyAccountChanges(Connection replica, List<AccountChange> changes) throws SQLException {
+        String upsert = "MERGE INTO Account (account_id, username, password) KEY (account_id) VALUES (?, ?, ?)";
+        String delete = "DELETE FROM Account WHERE account_id = ?";
+        try (PreparedStatement upserts = replica.prepareStatement(upsert);
+             PreparedStatement deletes = replica.prepareStatement(delete)) {
+
+            for (AccountChange change : changes) {
+                if (AccountChange.DELETE.equals(change.getOperation())) {
+                    deletes.setInt(1, change.getAccount_id());
+                    deletes.executeUpdate();
+                } else {
+                    upserts.setInt(1, change.getAccount_id());
+                    upserts.setString(2, change.getAccount().getUsername());
+                    upserts.setString(3, change.getAccount().getPassword());
+                    upserts.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the replica's accounts and messages with a copy of the primary's, taken in one snapshot together with
+     * the head of both change logs, and sets the positions to those heads. Replication then resumes from exactly the
+     * first change the copy does not contain.
+     */
+    public static void bootstrap(Connection primary, Connection replica) throws SQLException {
+        isolation(primary, "SNAPSHOT");
+        primary.setAutoCommit(false);
+        try {
+            long messageHead = head(primary, MESSAGE_LOG);
+            long accountHead = head(primary, ACCOUNT_LOG);
+            try (Statement statement = replica.createStatement()) {
+                statement.executeUpdate("DELETE FROM Message");
+                statement.executeUpdate("DELETE FROM Account");
+            }
+            copy(primary, replica, "SELECT account_id, username, password FROM Account",
+                    "INSERT INTO Account (account_id, username, password) VALUES (?, ?, ?)", 3);
+            copy(primary, replica, "SELECT message_id, posted_by, message_text, time_posted_epoch, version FROM Message",
+                    "INSERT INTO Message (message_id, posted_by, message_text, time_posted_epoch, version) VALUES (?, ?, ?, ?, ?)", 5);
+            setPosition(replica, MESSAGE_LOG, messageHead);
+            setPosition(replica, ACCOUNT_LOG, accountHead);
+        } finally {
+            primary.rollback();
+            primary.setAutoCommit(true);
+            isolation(primary, "READ COMMITTED");
+        }
+    }
+
+    private static void isolation(Connection connection, String level) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET SESSION CHARACTERISTICS AS TRANSACTION ISOLATION LEVEL " + level);
+        }
+    }
+
+    private static long head(Connection primary, String log) throws SQLException {
+        try (Statement statement = primary.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(change_seq), 0) FROM " + log)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static void copy(Connection primary, Connection replica, String select, String insert, int columns)
+            throws SQLException {
+        try (PreparedStatement reads = primary.prepareStatement(select);
+             PreparedStatement writes = replica.prepareStatement(insert)) {
+
+            reads.setFetchSize(COPY_BATCH);
+            try (ResultSet resultSet = reads.executeQuery()) {
+                int batched = 0;
+                while (resultSet.next()) {
+                    for (int column = 1; column <= columns; column++) {
+                        writes.setObject(column, resultSet.getObject(column));
+                    }
+                    writes.addBatch();
+                    if (++batched == COPY_BATCH) {
+                        writes.executeBatch();
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    writes.executeBatch();
+                }
+            }
+        }
+    }
+}
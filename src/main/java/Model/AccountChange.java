@@ -0,0 +1,94 @@
+package Model;
+
+/**
+ * This is a class that models one entry of the account change log: a create, an update or a delete of an account,
+ * stamped with a monotonically increasing sequence number. The log is shipped to read replicas and is not served
+ * over HTTP.
+ */
+public class AccountChange {
+    public static final String CREATE = "create";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    /**
+     * The position of this change in the log. Later changes always have larger sequence numbers.
+     */
+    public long change_seq;
+    /**
+     * One of create, update or delete.
+     */
+    public String operation;
+    /**
+     * The id of the account that changed.
+     */
+    public int account_id;
+    /**
+     * The state of the account after the change. Null for deletes.
+     */
+    public Account account;
+    /**
+     * When the change was recorded, in epoch milliseconds.
+     */
+    public long changed_at;
+
+    public AccountChange() {
+    }
+
+    public AccountChange(long change_seq, String operation, int account_id, Account account, long changed_at) {
+        this.change_seq = change_seq;
+        this.operation = operation;
+        this.account_id = account_id;
+        this.account = account;
+        this.changed_at = changed_at;
+    }
+
+    public long getChange_seq() {
+        return change_seq;
+    }
+
+    public void setChange_seq(long change_seq) {
+        this.change_seq = change_seq;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public int getAccount_id() {
+        return account_id;
+    }
+
+    public void setAccount_id(int account_id) {
+        this.account_id = account_id;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public void setAccount(Account account) {
+        this.account = account;
+    }
+
+    public long getChanged_at() {
+        return changed_at;
+    }
+
+    public void setChanged_at(long changed_at) {
+        this.changed_at = changed_at;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountChange{" +
+                "change_seq=" + change_seq +
+                ", operation='" + operation + '\'' +
+                ", account_id=" + account_id +
+                ", changed_at=" + changed_at +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package Model;
+
+/**
+ * This is a class that models the activity counters of one account, as served on GET /accounts/{userId}/stats and
+ * GET /leaderboard.
+ */
+public class AccountStats {
+    /**
+     * The account these counters belong to.
+     */
+    public int account_id;
+    /**
+     * The number of messages currently posted by the account.
+     */
+    public long message_count;
+
+    public AccountStats() {
+    }
+
+    public AccountStats(int account_id, long message_count) {
+        this.account_id = account_id;
+        this.message_count = message_count;
+    }
+
+    public int getAccount_id() {
+        return account_id;
+    }
+
+    public void setAccount_id(int account_id) {
+        this.account_id = account_id;
+    }
+
+    public long getMessage_count() {
+        return message_count;
+    }
+
+    public void setMessage_count(long message_count) {
+        this.message_count = message_count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AccountStats that = (AccountStats) o;
+        return account_id == that.account_id && message_count == that.message_count;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * account_id + Long.hashCode(message_count);
+    }
+
+    @Override
+    public String toString() {
+        return "AccountStats{" +
+                "account_id=" + account_id +
+                ", message_count=" + message_count +
+                '}';
+    }
+}
@@ -0,0 +1,94 @@
+package Model;
+
+/**
+ * This is a class that models one entry of the message change log: a create, an update or a delete (tombstone)
+ * of a message, stamped with a monotonically increasing sequence number.
+ */
+public class MessageChange {
+    public static final String CREATE = "create";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    /**
+     * The position of this change in the log. Later changes always have larger sequence numbers.
+     */
+    public long change_seq;
+    /**
+     * One of create, update or delete.
+     */
+    public String operation;
+    /**
+     * The id of the message that changed.
+     */
+    public int message_id;
+    /**
+     * The state of the message after the change. Null for deletes.
+     */
+    public Message message;
+    /**
+     * When the change was recorded, in epoch milliseconds.
+     */
+    public long changed_at;
+
+    public MessageChange() {
+    }
+
+    public MessageChange(long change_seq, String operation, int message_id, Message message, long changed_at) {
+        this.change_seq = change_seq;
+        this.operation = operation;
+        this.message_id = message_id;
+        this.message = message;
+        this.changed_at = changed_at;
+    }
+
+    public long getChange_seq() {
+        return change_seq;
+    }
+
+    public void setChange_seq(long change_seq) {
+        this.change_seq = change_seq;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public int getMessage_id() {
+        return message_id;
+    }
+
+    public void setMessage_id(int message_id) {
+        this.message_id = message_id;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    public long getChanged_at() {
+        return changed_at;
+    }
+
+    public void setChanged_at(long changed_at) {
+        this.changed_at = changed_at;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageChange{" +
+                "change_seq=" + change_seq +
+                ", operation='" + operation + '\'' +
+                ", message_id=" + message_id +
+                ", message=" + message +
+                ", changed_at=" + changed_at +
+                '}';
+    }
+}
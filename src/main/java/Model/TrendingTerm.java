@@ -0,0 +1,49 @@
+package Model;
+
+/**
+ * This is a class that models one entry of GET /trending: a term and the estimated number of messages that used it
+ * over the requested window.
+ */
+public class TrendingTerm {
+    /**
+     * The lower-cased term.
+     */
+    public String term;
+    /**
+     * The estimated number of messages containing the term. Never below the true count; see TrendingService for the
+     * error bound.
+     */
+    public long count;
+
+    public TrendingTerm() {
+    }
+
+    public TrendingTerm(String term, long count) {
+        this.term = term;
+        this.count = count;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public void setTerm(String term) {
+        this.term = term;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        return "TrendingTerm{" +
+                "term='" + term + '\'' +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+package Model;
+
+import java.util.function.Supplier;
+
+/**
+ * A message together with the version of its row. The version is incremented by every update and is served as the
+ * ETag of GET /messages/{id}, so that PUT and DELETE can be made conditional with If-Match. It is not part of the
+ * message JSON.
+ *
+ * The message can be given as a loader, which runs the first time it is asked for, so a caller that only needs the
+ * version never decodes the stored text.
+ */
+public class VersionedMessage {
+    private volatile Message message;
+    private final Supplier<Message> loader;
+    private final long version;
+
+    public VersionedMessage(Message message, long version) {
+        this.message = message;
+        this.loader = null;
+        this.version = version;
+    }
+
+    public VersionedMessage(Supplier<Message> loader, long version) {
+        this.loader = loader;
+        this.version = version;
+    }
+
+    public Message getMessage() {
+        Message loaded = message;
+        if (loaded == null && loader != null) {
+            loaded = loader.get();
+            message = loaded;
+        }
+        return loaded;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
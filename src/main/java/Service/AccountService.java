@@ -2,41 +2,262 @@ package Service;
 
 import DAO.AccountDAO;
 import Model.Account;
+import Util.CountingBloomFilter;
+import Util.EntityCache;
+import Util.Metrics;
+import Util.PasswordHasher;
+import Util.Replicas;
+import Util.UnitOfWork;
 
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-public class AccountService {
+/**
+ * Accounts looked up by id can be cached in process, up to socialmedia.cache.accounts.maxEntries (default 0: off).
+ * As with messages, the cache is filled from the primary and every write drops the account on every app instance.
+ */
+public class AccountService implements InvalidationListener {
     private final AccountDAO accountDAO = new AccountDAO();
+    private final EntityCache<Account> cache = newCache();
+    private InvalidationBus invalidationBus;
+    private final PasswordHasher passwordHasher =
+            new PasswordHasher(Integer.getInteger("socialmedia.password.iterations", 100_000));
 
+    /**
+     * Password hashing is deliberately CPU-heavy, so it runs on its own pool sized to the cores with a bounded
+     * queue. A burst of logins then queues here (and is refused once the queue is full) instead of occupying every
+     * request thread. Idle workers time out, so an unused service holds no threads.
+     */
+    private final ThreadPoolExecutor passwordPool = newPasswordPool();
+
+    /**
+     * Every username in the account table, so that registration can skip the database read for names that are
+     * definitely free. Null when disabled with socialmedia.usernameFilter.enabled=false.
+     */
+    private final CountingBloomFilter usernameFilter = loadUsernameFilter();
+
+    private CountingBloomFilter loadUsernameFilter() {
+        if (!Boolean.parseBoolean(System.getProperty("socialmedia.usernameFilter.enabled", "true"))) {
+            return null;
+        }
+        CountingBloomFilter filter = new CountingBloomFilter(
+                Long.getLong("socialmedia.usernameFilter.expectedInsertions", 100_000L),
+                Double.parseDouble(System.getProperty("socialmedia.usernameFilter.falsePositiveRate", "0.01")));
+        boolean loaded = accountDAO.forEachUsername(username -> {
+            if (username != null) {
+                filter.add(username);
+            }
+        });
+        if (!loaded) {
+            return null;
+        }
+        Metrics.gauge("accounts.usernameFilter.size", filter::size);
+        Metrics.gauge("accounts.usernameFilter.memoryBytes", filter::memoryBytes);
+        Metrics.gauge("accounts.usernameFilter.expectedFalsePositiveRate", filter::expectedFalsePositiveRate);
+        return filter;
+    }
+
+    private static EntityCache<Account> newCache() {
+        int maxEntries = Integer.getInteger("socialmedia.cache.accounts.maxEntries", 0);
+        return maxEntries > 0 ? new EntityCache<>("cache.accounts", maxEntries) : null;
+    }
+
+    /**
+     * Publishes this service's writes on the bus, and drops the accounts other instances changed.
+     */
+    public void setInvalidationBus(InvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+        invalidationBus.addListener(this);
+    }
+
+    @Override
+    public void invalidate(byte kind, int id) {
+        if (kind == InvalidationBus.ACCOUNT && cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private void changed(int accountId) {
+        invalidate(InvalidationBus.ACCOUNT, accountId);
+        if (invalidationBus != null) {
+            invalidationBus.publish(InvalidationBus.ACCOUNT, accountId);
+        }
+    }
+
+    private static ThreadPoolExecutor newPasswordPool() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(cores, cores, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Integer.getInteger("socialmedia.password.queue", cores * 16)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Hashes the password first, so no connection is held during the slow part, then checks the username and
+     * inserts the account in one transaction on one connection.
+     */
     public Account registerUser(Account account) {
-        if (accountDAO.getAccountByUsername(account.getUsername()) != null) {
-            throw new RuntimeException("Username already exists.");
+        String hash = join(CompletableFuture.supplyAsync(() -> passwordHasher.hash(account.getPassword()), passwordPool));
+        Account created = UnitOfWork.write(() -> {
+            if (usernameTaken(account.getUsername())) {
+                throw new RuntimeException("Username already exists.");
+            }
+            return accountDAO.createAccount(new Account(account.getUsername(), hash));
+        });
+        if (created == null) {
+            return null;
         }
-        return accountDAO.createAccount(account);
+        if (usernameFilter != null) {
+            usernameFilter.add(account.getUsername());
+        }
+        account.setAccount_id(created.getAccount_id());
+        return account;
+    }
+
+    /**
+     * A "definitely absent" answer from the filter skips the read. The unique constraint on username still
+     * rejects a concurrent duplicate that slips between this check and the insert.
+     */
+    private boolean usernameTaken(String username) {
+        if (usernameFilter != null && !usernameFilter.mightContain(username)) {
+            Metrics.increment("accounts.usernameFilter.skippedLookups");
+            return false;
+        }
+        boolean taken = accountDAO.getAccountByUsername(username) != null;
+        if (usernameFilter != null && !taken) {
+            Metrics.increment("accounts.usernameFilter.falsePositives");
+        }
+        return taken;
     }
 
     public Account loginUser(String username, String password) {
-        Account account = accountDAO.getAccountByUsername(username);
-        if (account != null && account.getPassword().equals(password)) {
-            return account;
+        return join(loginUserAsync(username, password));
+    }
+
+    /**
+     * Looks the account up on the calling thread and verifies the password on the password pool. Rows that still
+     * hold a plaintext password, or a hash of a different cost, are rehashed after a successful verification.
+     * @return a future of the account, or of null if the credentials do not match. The future fails with a
+     * RejectedExecutionException when the password pool is saturated.
+     */
+    public CompletableFuture<Account> loginUserAsync(String username, String password) {
+        Account account = getAccountByUsername(username);
+        if (account == null) {
+            return CompletableFuture.completedFuture(null);
         }
-        return null;
+        return CompletableFuture.supplyAsync(() -> {
+            if (!passwordHasher.verify(password, account.getPassword())) {
+                return null;
+            }
+            if (passwordHasher.needsRehash(account.getPassword())) {
+                if (accountDAO.updateAccount(new Account(account.getAccount_id(), account.getUsername(),
+                        passwordHasher.hash(password)))) {
+                    changed(account.getAccount_id());
+                }
+            }
+            return account;
+        }, passwordPool);
     }
 
     public Account getAccountById(int accountId) {
-        return accountDAO.getAccountById(accountId);
+        if (cache != null) {
+            return cache.get(accountId, accountDAO::getAccountById);
+        }
+        return Replicas.read(() -> accountDAO.getAccountById(accountId));
     }
 
+    /**
+     * May be served by a read replica; registration checks usernames against the primary instead.
+     */
     public Account getAccountByUsername(String username) {
-        return accountDAO.getAccountByUsername(username);
+        return Replicas.read(() -> accountDAO.getAccountByUsername(username));
     }
 
     public boolean updateAccount(Account account) {
-        return accountDAO.updateAccount(account);
+        Account[] previous = new Account[1];
+        boolean updated = UnitOfWork.write(() -> {
+            previous[0] = usernameFilter == null ? null : accountDAO.getAccountById(account.getAccount_id());
+            return accountDAO.updateAccount(account);
+        });
+        if (updated) {
+            changed(account.getAccount_id());
+        }
+        if (updated && previous[0] != null && !previous[0].getUsername().equals(account.getUsername())) {
+            usernameFilter.remove(previous[0].getUsername());
+            usernameFilter.add(account.getUsername());
+        }
+        return updated;
     }
 
     public boolean deleteAccount(int accountId) {
-        return accountDAO.deleteAccount(accountId);
+        Account[] previous = new Account[1];
+        boolean deleted = UnitOfWork.write(() -> {
+            previous[0] = usernameFilter == null ? null : accountDAO.getAccountById(accountId);
+            return accountDAO.deleteAccount(accountId);
+        });
+        if (deleted) {
+            changed(accountId);
+        }
+        if (deleted && previous[0] != null) {
+            usernameFilter.remove(previous[0].getUsername());
+        }
+        return deleted;
+    }
+
+    /**
+     * Streams every account, with its stored password hash, from the primary.
+     * @return true if the scan completed
+     */
+    public boolean forEachAccount(Consumer<Account> consumer) {
+        return accountDAO.forEachAccount(consumer);
     }
 
+    /**
+     * Loads accounts that live on one shard, with their ids and stored password hashes, as {@link BulkService}
+     * does; see {@link AccountDAO#importAccounts}.
+     * @return the accounts inserted, or null on failure
+     */
+    public List<Account> importAccounts(List<Account> accounts) {
+        List<Account> inserted = accountDAO.importAccounts(accounts);
+        if (inserted != null && usernameFilter != null) {
+            for (Account account : inserted) {
+                usernameFilter.add(account.getUsername());
+            }
+        }
+        return inserted;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
    
 }
@@ -0,0 +1,182 @@
+package Service;
+
+import DAO.AccountStatsDAO;
+import Model.AccountStats;
+import Model.Message;
+import Util.Metrics;
+import Util.TopK;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves per-account message counts and the top-posters leaderboard without counting the message table.
+ *
+ * MessageDAO keeps the account_stats table exact inside its write transactions. This service mirrors it in memory,
+ * as one striped counter per account updated by the MessageService events, and feeds every new count into a
+ * {@link TopK}. Reads only touch those structures.
+ *
+ * The mirror can drift: two updates can reach the leaderboard out of order, messages can be reassigned through
+ * PUT or deleted outside the API, and retention deletes in bulk without events. A periodic reconciliation
+ * recounts the message table, repairs both the table and the mirror, and rebuilds the leaderboard. Archived
+ * messages still count: with a {@link ColdTier}, the recount adds the cold tier's.
+ */
+public class AccountStatsService implements MessageListener {
+
+    private final AccountStatsDAO accountStatsDAO = new AccountStatsDAO();
+    private final Map<Integer, LongAdder> messageCounts = new ConcurrentHashMap<>();
+    private final TopK leaderboard;
+    private volatile boolean leaderboardStale;
+    private final ScheduledExecutorService reconciler;
+    private volatile ColdTier coldTier;
+
+    public AccountStatsService() {
+        this(Integer.getInteger("socialmedia.stats.leaderboardSize", 100),
+                Long.getLong("socialmedia.stats.reconcileIntervalSeconds", 600L));
+    }
+
+    /**
+     * @param leaderboardSize          the number of accounts ranked on the leaderboard
+     * @param reconcileIntervalSeconds how often the counters are checked against the message table
+     */
+    public AccountStatsService(int leaderboardSize, long reconcileIntervalSeconds) {
+        this.leaderboard = new TopK(leaderboardSize);
+        Map<Integer, Long> stored = accountStatsDAO.getMessageCounts();
+        if (stored != null) {
+            stored.forEach((accountId, count) -> counter(accountId).add(count));
+        }
+        leaderboard.rebuild(snapshot());
+        this.reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-stats-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcile, reconcileIntervalSeconds, reconcileIntervalSeconds, TimeUnit.SECONDS);
+        Metrics.gauge("stats.accounts", messageCounts::size);
+    }
+
+    /**
+     * Counts the archived messages too when reconciling.
+     */
+    public void setColdTier(ColdTier coldTier) {
+        this.coldTier = coldTier;
+    }
+
+    @Override
+    public void messageCreated(Message message) {
+        LongAdder counter = counter(message.getPosted_by());
+        counter.increment();
+        if (!leaderboard.offer(message.getPosted_by(), counter.sum())) {
+            leaderboardStale = true;
+        }
+    }
+
+    @Override
+    public void messageDeleted(Message message) {
+        LongAdder counter = counter(message.getPosted_by());
+        counter.decrement();
+        if (!leaderboard.offer(message.getPosted_by(), counter.sum())) {
+            leaderboardStale = true;
+        }
+    }
+
+    /**
+     * @return the counters of an account; zero if it never posted
+     */
+    public AccountStats getStats(int accountId) {
+        LongAdder counter = messageCounts.get(accountId);
+        return new AccountStats(accountId, counter == null ? 0 : counter.sum());
+    }
+
+    /**
+     * @param limit the maximum number of accounts to return, capped at the leaderboard size
+     * @return the accounts with the most messages, most first
+     */
+    public List<AccountStats> getLeaderboard(int limit) {
+        if (leaderboardStale) {
+            leaderboardStale = false;
+            leaderboard.rebuild(snapshot());
+        }
+        List<AccountStats> top = new ArrayList<>();
+        for (TopK.Entry entry : leaderboard.top(Math.max(1, limit))) {
+            if (entry.getCount() > 0) {
+                top.add(new AccountStats(entry.getKey(), entry.getCount()));
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Recounts the message table and repairs the stored and in-memory counters that disagree with it. The stored
+     * counts are moved by their drift rather than overwritten, so creates and deletes that land while this runs
+     * are kept; the in-memory counters are then set to the repaired table, which such writes can leave slightly
+     * off until the next run. A run that cannot read every shard, or the cold tier, changes nothing.
+     * @return the number of accounts whose stored count was wrong
+     */
+    public int reconcile() {
+        Map<Integer, Long> drift = accountStatsDAO.countDrift();
+        if (drift == null) {
+            return 0;
+        }
+        if (coldTier != null) {
+            Map<Integer, Long> archived = coldTier.countByAuthor();
+            if (archived == null) {
+                return 0;
+            }
+            archived.forEach((accountId, count) -> drift.merge(accountId, count, Long::sum));
+        }
+        Map<Integer, Long> repairs = new HashMap<>();
+        drift.forEach((accountId, delta) -> {
+            if (delta != 0) {
+                repairs.put(accountId, delta);
+            }
+        });
+        if (!repairs.isEmpty()) {
+            if (!accountStatsDAO.addMessageCounts(repairs)) {
+                return 0;
+            }
+            Metrics.add("stats.reconciled.table", repairs.size());
+        }
+
+        Map<Integer, Long> stored = accountStatsDAO.getMessageCounts();
+        if (stored == null) {
+            return repairs.size();
+        }
+        Set<Integer> accounts = new HashSet<>(stored.keySet());
+        accounts.addAll(messageCounts.keySet());
+        for (Integer accountId : accounts) {
+            LongAdder counter = counter(accountId);
+            long memoryDrift = stored.getOrDefault(accountId, 0L) - counter.sum();
+            if (memoryDrift != 0) {
+                counter.add(memoryDrift);
+                Metrics.increment("stats.reconciled.memory");
+            }
+        }
+        leaderboardStale = false;
+        leaderboard.rebuild(snapshot());
+        return repairs.size();
+    }
+
+    public void close() {
+        reconciler.shutdownNow();
+    }
+
+    private LongAdder counter(int accountId) {
+        return messageCounts.computeIfAbsent(accountId, k -> new LongAdder());
+    }
+
+    private Map<Integer, Long> snapshot() {
+        Map<Integer, Long> counts = new HashMap<>();
+        messageCounts.forEach((accountId, counter) -> counts.put(accountId, counter.sum()));
+        return counts;
+    }
+}
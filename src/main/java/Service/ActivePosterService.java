@@ -0,0 +1,196 @@
+package Service;
+
+import DAO.ActivePosterSketchDAO;
+import Model.Message;
+import Util.Hashing;
+import Util.HyperLogLog;
+import Util.Metrics;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the number of distinct accounts that posted in any range of hours, without COUNT(DISTINCT) over the
+ * message table.
+ *
+ * Every created message adds its posted_by to the {@link HyperLogLog} sketch of the hour of its time_posted_epoch.
+ * Hour sketches are flushed to the active_poster_sketch table in the background (a few KB each at most), and a
+ * range is answered by merging the sketches of its hours, from memory and from the table. Merging is idempotent, so
+ * a sketch present in both places is simply counted once.
+ *
+ * Sketches written since the last flush are lost if the process dies; the counts are operational estimates, so the
+ * flush interval trades that window against write load.
+ */
+public class ActivePosterService implements MessageListener {
+    public static final long MAX_RANGE_HOURS = 366 * 24;
+
+    private static final long SECONDS_PER_HOUR = TimeUnit.HOURS.toSeconds(1);
+
+    /**
+     * The sketch of one hour. Guarded by its own monitor.
+     */
+    private static final class Bucket {
+        private final HyperLogLog sketch;
+        private boolean dirty;
+        private boolean evicted;
+        private long lastWriteNanos = System.nanoTime();
+
+        Bucket(HyperLogLog sketch) {
+            this.sketch = sketch;
+        }
+    }
+
+    private final ActivePosterSketchDAO activePosterSketchDAO = new ActivePosterSketchDAO();
+    private final Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+    private final int precision;
+    private final long idleNanos;
+    private final ScheduledExecutorService flusher;
+
+    public ActivePosterService() {
+        this(Integer.getInteger("socialmedia.activePosters.precision", 12),
+                Long.getLong("socialmedia.activePosters.flushIntervalSeconds", 10L));
+    }
+
+    /**
+     * @param precision            HyperLogLog index bits: 2^p registers, standard error 1.04 / sqrt(2^p)
+     * @param flushIntervalSeconds how often changed sketches are written to the table; clean sketches idle for ten
+     *                             intervals are dropped from memory
+     */
+    public ActivePosterService(int precision, long flushIntervalSeconds) {
+        this.precision = precision;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(flushIntervalSeconds * 10);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "active-poster-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        Metrics.gauge("activePosters.buckets", buckets::size);
+    }
+
+    @Override
+    public void messageCreated(Message message) {
+        record(message.getPosted_by(), message.getTime_posted_epoch());
+    }
+
+    /**
+     * Counts an account as active in the hour containing epochSeconds.
+     */
+    public void record(int accountId, long epochSeconds) {
+        long hour = Math.floorDiv(epochSeconds, SECONDS_PER_HOUR);
+        long hash = Hashing.mix64(accountId ^ 0x9E3779B97F4A7C15L);
+        while (true) {
+            Bucket bucket = buckets.computeIfAbsent(hour, this::loadBucket);
+            synchronized (bucket) {
+                if (bucket.evicted) {
+                    continue;
+                }
+                if (bucket.sketch.addHash(hash)) {
+                    bucket.dirty = true;
+                }
+                bucket.lastWriteNanos = System.nanoTime();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param fromSeconds the start of the range, in epoch seconds; rounded down to the hour
+     * @param toSeconds   the end of the range, in epoch seconds; rounded up to the end of its hour
+     * @return the estimate and the hour-aligned range it covers
+     * @throws IllegalArgumentException if the range is reversed or longer than {@link #MAX_RANGE_HOURS}
+     */
+    public Map<String, Object> getActivePosters(long fromSeconds, long toSeconds) {
+        long firstHour = Math.floorDiv(fromSeconds, SECONDS_PER_HOUR);
+        long lastHour = Math.floorDiv(toSeconds, SECONDS_PER_HOUR);
+        if (toSeconds < fromSeconds || lastHour - firstHour >= MAX_RANGE_HOURS) {
+            throw new IllegalArgumentException("Invalid range " + fromSeconds + ".." + toSeconds);
+        }
+        HyperLogLog merged = new HyperLogLog(precision);
+        for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+            if (entry.getKey() >= firstHour && entry.getKey() <= lastHour) {
+                Bucket bucket = entry.getValue();
+                synchronized (bucket) {
+                    merged.merge(bucket.sketch);
+                }
+            }
+        }
+        for (byte[] stored : activePosterSketchDAO.getSketches(firstHour, lastHour).values()) {
+            HyperLogLog sketch = HyperLogLog.fromBytes(stored);
+            if (sketch.precision() == precision) {
+                merged.merge(sketch);
+            } else {
+                Metrics.increment("activePosters.skippedSketches");
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("from", firstHour * SECONDS_PER_HOUR);
+        result.put("to", (lastHour + 1) * SECONDS_PER_HOUR - 1);
+        result.put("active_posters", merged.estimate());
+        result.put("standard_error", merged.standardError());
+        return result;
+    }
+
+    /**
+     * Writes every changed sketch to the table and drops clean sketches that have been idle for a while.
+     */
+    public void flush() {
+        Map<Long, byte[]> changed = new HashMap<>();
+        for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            synchronized (bucket) {
+                if (bucket.dirty) {
+                    changed.put(entry.getKey(), bucket.sketch.toBytes());
+                    bucket.dirty = false;
+                }
+            }
+        }
+        if (!changed.isEmpty() && !activePosterSketchDAO.saveSketches(changed)) {
+            for (Long hour : changed.keySet()) {
+                Bucket bucket = buckets.get(hour);
+                synchronized (bucket) {
+                    bucket.dirty = true;
+                }
+            }
+            return;
+        }
+        Metrics.add("activePosters.flushed", changed.size());
+        long now = System.nanoTime();
+        for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            synchronized (bucket) {
+                if (!bucket.dirty && now - bucket.lastWriteNanos > idleNanos) {
+                    bucket.evicted = true;
+                    buckets.remove(entry.getKey(), bucket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flush and writes what is left.
+     */
+    public void close() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Starts a bucket from its stored sketch, so that flushing it later does not overwrite what is already there.
+     */
+    private Bucket loadBucket(long hour) {
+        byte[] stored = activePosterSketchDAO.getSketch(hour);
+        if (stored != null) {
+            HyperLogLog sketch = HyperLogLog.fromBytes(stored);
+            if (sketch.precision() == precision) {
+                return new Bucket(sketch);
+            }
+        }
+        return new Bucket(new HyperLogLog(precision));
+    }
+}
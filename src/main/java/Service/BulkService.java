@@ -0,0 +1,326 @@
+package Service;
+
+import Model.Account;
+import Model.Message;
+
+import Util.Json;
+import Util.Metrics;
+import Util.Shards;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Bulk export and import of accounts and messages as NDJSON: one object per line, either {"account":{...}} or
+ * {"message":{...}}, with the fields of the API's JSON. Accounts carry their stored password hash, so an export
+ * loaded elsewhere keeps every login working.
+ *
+ * Export streams every account and then every message straight from the result sets to the output, so memory
+ * stays flat whatever the table sizes. A scan that fails part way ends the output with an {"error":...} line,
+ * which import refuses.
+ *
+ * Import parses its input as a stream and holds at most socialmedia.import.batchRows rows (default 1000) at a
+ * time. A full buffer is written out shard by shard, each shard's rows in one transaction of batched inserts, and
+ * buffered accounts are always written before a message is buffered, so a message's account is in place before it
+ * (an export lists every account first). Ids are kept and rows whose id exists already are skipped, so an import
+ * that failed can be resumed by sending the same input again, with skip set to the committed rows it reported to
+ * avoid re-reading them. When the import ends, with or without error, the id sequences are moved past the loaded
+ * ids.
+ *
+ * Imported rows bypass the message listeners (live feed, timelines, trending): a backfill is not new activity.
+ * The account_stats table is updated in the same transactions; the in-memory counters catch up at their next
+ * reconciliation.
+ */
+public class BulkService {
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private static final String ACCOUNT = "account";
+    private static final String MESSAGE = "message";
+
+    private final AccountService accountService;
+    private final MessageService messageService;
+    private final int batchRows;
+    private volatile double exportRowsPerSecond;
+    private volatile double importRowsPerSecond;
+
+    public BulkService(AccountService accountService, MessageService messageService) {
+        this(accountService, messageService, Integer.getInteger("socialmedia.import.batchRows", 1000));
+    }
+
+    public BulkService(AccountService accountService, MessageService messageService, int batchRows) {
+        this.accountService = accountService;
+        this.messageService = messageService;
+        this.batchRows = Math.max(1, batchRows);
+        Metrics.gauge("bulk.export.rowsPerSecond", () -> exportRowsPerSecond);
+        Metrics.gauge("bulk.import.rowsPerSecond", () -> importRowsPerSecond);
+    }
+
+    /**
+     * Writes every account, then every message, to the output as NDJSON. The output is flushed but left open.
+     * @return the number of rows written, or -1 if a scan failed part way
+     */
+    public long export(OutputStream output) throws IOException {
+        long start = System.nanoTime();
+        ObjectMapper mapper = Json.mapper();
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        long[] rows = new long[1];
+        boolean complete;
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(output)) {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            complete = accountService.forEachAccount(account -> writeRow(generator, writer, ACCOUNT, account, rows))
+                    && messageService.forEachMessage(message -> writeRow(generator, writer, MESSAGE, message, rows));
+            if (!complete) {
+                generator.writeStartObject();
+                generator.writeStringField("error", "export failed after " + rows[0] + " rows");
+                generator.writeEndObject();
+            }
+            if (rows[0] > 0 || !complete) {
+                generator.writeRaw('\n');
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Metrics.add("bulk.export.rows", rows[0]);
+        exportRowsPerSecond = rate(rows[0], start);
+        return complete ? rows[0] : -1;
+    }
+
+    private static void writeRow(JsonGenerator generator, ObjectWriter writer, String kind, Object value, long[] rows) {
+        try {
+            generator.writeStartObject();
+            generator.writeFieldName(kind);
+            writer.writeValue(generator, value);
+            generator.writeEndObject();
+            rows[0]++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads the rows of an NDJSON input, as written by {@link #export}. Stops at the first invalid row or failed
+     * write; everything committed until then stays.
+     * @param skipRows the number of leading rows to pass over unread, to resume after a reported failure
+     */
+    public ImportResult importFrom(InputStream input, long skipRows) {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult();
+        Batch batch = new Batch(result);
+        try (JsonParser parser = Json.mapper().getFactory().createParser(input)) {
+            ObjectMapper mapper = Json.mapper();
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("row " + (result.rows + 1) + " is not an object");
+                }
+                if (result.rows < skipRows) {
+                    parser.skipChildren();
+                    result.rows++;
+                    result.committedRows = result.rows;
+                    continue;
+                }
+                String kind = parser.nextFieldName();
+                parser.nextToken();
+                if (ACCOUNT.equals(kind)) {
+                    Account account = mapper.readValue(parser, Account.class);
+                    validate(account, result.rows + 1);
+                    batch.accounts.computeIfAbsent(Shards.ofId(account.getAccount_id()), k -> new ArrayList<>()).add(account);
+                } else if (MESSAGE.equals(kind)) {
+                    Message message = mapper.readValue(parser, Message.class);
+                    validate(message, result.rows + 1);
+                    if (!batch.accounts.isEmpty() && !batch.flush()) {
+                        break;
+                    }
+                    batch.messages.computeIfAbsent(Shards.ofId(message.getMessage_id()), k -> new ArrayList<>()).add(message);
+                } else {
+                    throw new IllegalArgumentException("row " + (result.rows + 1) + " is not an account or a message");
+                }
+                if (parser.nextToken() != JsonToken.END_OBJECT) {
+                    throw new IllegalArgumentException("row " + (result.rows + 1) + " holds more than one value");
+                }
+                result.rows++;
+                if (++batch.size >= batchRows && !batch.flush()) {
+                    break;
+                }
+            }
+            if (result.error == null) {
+                batch.flush();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            result.fail(400, e.getMessage());
+        }
+        batch.advanceIdentities();
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        result.rowsPerSecond = rate(result.accounts + result.messages, start);
+        Metrics.add("bulk.import.rows", result.accounts + result.messages);
+        importRowsPerSecond = result.rowsPerSecond;
+        return result;
+    }
+
+    private static void validate(Account account, long row) {
+        if (account.getAccount_id() <= 0 || account.getUsername() == null || account.getUsername().isBlank()
+                || account.getPassword() == null) {
+            throw new IllegalArgumentException("row " + row + " needs an account_id, a username and a password");
+        }
+        if (Shards.ofId(account.getAccount_id()) != Shards.ofKey(account.getUsername())) {
+            throw new IllegalArgumentException("row " + row + ": account " + account.getAccount_id()
+                    + " is not on the shard of its username");
+        }
+    }
+
+    private static void validate(Message message, long row) {
+        if (message.getMessage_id() <= 0 || message.getPosted_by() <= 0 || message.getMessage_text() == null
+                || message.getMessage_text().isEmpty()) {
+            throw new IllegalArgumentException("row " + row + " needs a message_id, posted_by and a message_text");
+        }
+        if (Shards.ofId(message.getMessage_id()) != Shards.ofId(message.getPosted_by())) {
+            throw new IllegalArgumentException("row " + row + ": message " + message.getMessage_id()
+                    + " is not on the shard of its account");
+        }
+    }
+
+    private static double rate(long rows, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? rows / seconds : 0;
+    }
+
+    /**
+     * The rows of an import not written yet, by shard, and the shards written to so far.
+     */
+    private final class Batch {
+        private final ImportResult result;
+        private final Map<Integer, List<Account>> accounts = new TreeMap<>();
+        private final Map<Integer, List<Message>> messages = new TreeMap<>();
+        private final Set<Integer> accountShards = new TreeSet<>();
+        private final Set<Integer> messageShards = new TreeSet<>();
+        private int size;
+
+        private Batch(ImportResult result) {
+            this.result = result;
+        }
+
+        /**
+         * Writes the buffered accounts, then the buffered messages, one transaction per shard.
+         * @return false if a write failed
+         */
+        private boolean flush() {
+            for (Map.Entry<Integer, List<Account>> shard : accounts.entrySet()) {
+                accountShards.add(shard.getKey());
+                List<Account> inserted = accountService.importAccounts(shard.getValue());
+                if (inserted == null) {
+                    return result.fail(500, "writing the accounts before row " + (result.rows + 1) + " failed");
+                }
+                result.accounts += inserted.size();
+                result.skipped += shard.getValue().size() - inserted.size();
+            }
+            accounts.clear();
+            for (Map.Entry<Integer, List<Message>> shard : messages.entrySet()) {
+                messageShards.add(shard.getKey());
+                List<Message> inserted = messageService.importMessages(shard.getValue());
+                if (inserted == null) {
+                    return result.fail(500, "writing the messages before row " + (result.rows + 1) + " failed");
+                }
+                result.messages += inserted.size();
+                result.skipped += shard.getValue().size() - inserted.size();
+            }
+            messages.clear();
+            size = 0;
+            result.committedRows = result.rows;
+            return true;
+        }
+
+        private void advanceIdentities() {
+            try {
+                for (int shard : accountShards) {
+                    Shards.advanceIdentity(shard, "account", "account_id");
+                }
+                for (int shard : messageShards) {
+                    Shards.advanceIdentity(shard, "message", "message_id");
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                result.fail(500, "moving the id sequences past the imported ids failed");
+            }
+        }
+    }
+
+    /**
+     * The outcome of an import, as POST /admin/import returns it. Rows up to committedRows are in the database;
+     * on error, the import can be resumed from there.
+     */
+    public static class ImportResult {
+        private long rows;
+        private long committedRows;
+        private long accounts;
+        private long messages;
+        private long skipped;
+        private double seconds;
+        private double rowsPerSecond;
+        private String error;
+        private int status = 200;
+
+        private boolean fail(int status, String error) {
+            if (this.error == null) {
+                this.status = status;
+                this.error = error;
+            }
+            return false;
+        }
+
+        /**
+         * @return the HTTP status of the outcome: 200, 400 for invalid input, or 500 for a failed write
+         */
+        public int status() {
+            return status;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getCommittedRows() {
+            return committedRows;
+        }
+
+        public long getAccounts() {
+            return accounts;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public double getRowsPerSecond() {
+            return rowsPerSecond;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package Service;
+
+import DAO.AccountChangeDAO;
+import DAO.MessageChangeDAO;
+import Model.MessageChange;
+import Util.Metrics;
+import Util.Shards;
+import Util.UnitOfWork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Serves the message change log to mirrors. MessageDAO appends a change in the same transaction as every create,
+ * update and delete, so reading the log from a sequence number onwards replays exactly the writes a mirror has not
+ * seen yet. Entries older than the retention are compacted away in the background; a mirror whose position has
+ * been compacted must re-download the table.
+ *
+ * Sequence numbers are taken when a change is inserted but become visible when its transaction commits, so a
+ * smaller number can show up after a larger one. A read therefore stops at the first gap in the sequence and the
+ * mirror asks again from there, unless the gap is settled: no write was open on the shard when the read began, so
+ * the missing numbers belong to writes that rolled back. See {@link #contiguous}.
+ *
+ * With several {@link Shards}, each shard keeps its own log with its own sequence numbers, like the partitions of
+ * a topic: a mirror follows every shard's log and keeps one position per shard.
+ */
+public class ChangeFeedService {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private final MessageChangeDAO messageChangeDAO = new MessageChangeDAO();
+    private final AccountChangeDAO accountChangeDAO = new AccountChangeDAO();
+    private final long retentionMillis;
+    private final ScheduledExecutorService compactor;
+
+    public ChangeFeedService() {
+        this(TimeUnit.SECONDS.toMillis(Long.getLong("socialmedia.changes.retentionSeconds", TimeUnit.DAYS.toSeconds(7))),
+                Long.getLong("socialmedia.changes.compactIntervalSeconds", 300L));
+    }
+
+    /**
+     * @param retentionMillis         how long changes are kept
+     * @param compactIntervalSeconds  how often compaction runs
+     */
+    public ChangeFeedService(long retentionMillis, long compactIntervalSeconds) {
+        this.retentionMillis = retentionMillis;
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compact, compactIntervalSeconds, compactIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the changes of shard 0, see {@link #getChangesSince(int, long, int)}
+     */
+    public List<MessageChange> getChangesSince(long since, int limit) {
+        return getChangesSince(0, since, limit);
+    }
+
+    /**
+     * @param shard the shard whose log is read
+     * @param since the last sequence number the caller has applied from that shard (0 for everything retained)
+     * @param limit the maximum number of changes to return
+     * @return the changes after since, oldest first, up to the first gap that may still fill
+     * @throws IllegalArgumentException if there is no such shard
+     * @throws IllegalStateException if changes after since have already been compacted away
+     */
+    public List<MessageChange> getChangesSince(int shard, long since, int limit) {
+        if (shard < 0 || shard >= Shards.count()) {
+            throw new IllegalArgumentException("No shard " + shard);
+        }
+        return Shards.on(shard, () -> UnitOfWork.readOnly(() -> {
+            if (since < messageChangeDAO.getCompactedThrough()) {
+                throw new IllegalStateException("Changes after " + since + " have been compacted");
+            }
+            long settledThrough = messageChangeDAO.getSettledThrough();
+            List<MessageChange> changes = messageChangeDAO.getChangesSince(since, Math.max(1, Math.min(limit, MAX_LIMIT)));
+            int count = contiguous(shard, since, changes, MessageChange::getChange_seq, settledThrough);
+            return count == changes.size() ? changes : new ArrayList<>(changes.subList(0, count));
+        }));
+    }
+
+    /**
+     * Finds how much of a batch read from a shard's log can be handed on without passing a change that may still
+     * commit. The sequence of a shard starts at shard + 1 and steps by the shard count, so a number that is not the
+     * expected one leaves a gap; the gap is passed only if it lies at or below settledThrough.
+     * @param position       the sequence number the batch was read after (0 for the start of the log)
+     * @param settledThrough the sequence number at or below which missing changes are known to have rolled back,
+     *                       read before the batch
+     * @return how many changes from the start of the batch come before the first unsettled gap
+     */
+    static <T> int contiguous(int shard, long position, List<T> changes, ToLongFunction<T> seq, long settledThrough) {
+        long expected = position > 0 ? position + Shards.count() : shard + 1;
+        for (int i = 0; i < changes.size(); i++) {
+            long next = seq.applyAsLong(changes.get(i));
+            if (next != expected && next - Shards.count() > settledThrough) {
+                return i;
+            }
+            expected = next + Shards.count();
+        }
+        return changes.size();
+    }
+
+    /**
+     * Removes changes older than the retention from every shard's message log, and from the account log that read
+     * replicas follow.
+     * @return the number of changes removed
+     */
+    public int compact() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        int removed = 0;
+        for (int shardRemoved : Shards.scatter(shard ->
+                messageChangeDAO.deleteChangesBefore(cutoff) + accountChangeDAO.deleteChangesBefore(cutoff))) {
+            removed += shardRemoved;
+        }
+        Metrics.add("changes.compacted", removed);
+        return removed;
+    }
+
+    public void close() {
+        compactor.shutdownNow();
+    }
+}
@@ -0,0 +1,452 @@
+package Service;
+
+import DAO.ColdTombstoneDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Model.VersionedMessage;
+
+import Util.ColdSegment;
+import Util.Metrics;
+import Util.Shards;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Tiered storage for messages. Once socialmedia.tiering.ageDays is set (default unset: off), a background job
+ * moves the messages posted longer ago than that out of the message table into {@link ColdSegment} files under
+ * socialmedia.tiering.dir (default ./h2/cold), every socialmedia.tiering.intervalMinutes (default 1440). Each run
+ * writes segments of up to socialmedia.tiering.segmentMessages messages (default 100,000) from all shards, in
+ * blocks of socialmedia.tiering.blockBytes (default 4096; larger blocks compress better and cost more per lookup),
+ * then deletes the archived rows, each only if it is still at the archived version. With retention on, a segment
+ * is removed once all of its messages are past it.
+ *
+ * Segments are immutable. A cold copy that is no longer current, because the message changed while it was being
+ * archived or was brought back to the message table to be updated or deleted, is hidden by a tombstone; see
+ * {@link ColdTombstoneDAO}. At most one cold copy of a message is current at a time, so a lookup takes the newest
+ * copy it finds and checks it against the tombstones on the primary.
+ *
+ * {@link MessageService} reads the message table first and falls back to this tier for single messages and
+ * multi-gets, adds this tier's messages to its list and time-range reads, and {@link TimelineService} tops
+ * timelines up from it. Archived messages stay counted in account_stats and are not logged as changes: they still
+ * exist, so read replicas keep them in their message table.
+ */
+public class ColdTier {
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id)
+            .reversed();
+    private static final Comparator<Message> OLDEST_FIRST = NEWEST_FIRST.reversed();
+    private static final String SUFFIX = ".seg";
+
+    /**
+     * A segment and its number, which orders segments by age and is what tombstones refer to.
+     */
+    private static final class Segment {
+        private final int number;
+        private final ColdSegment data;
+
+        private Segment(int number, ColdSegment data) {
+            this.number = number;
+            this.data = data;
+        }
+
+        private boolean covers(int messageId) {
+            return messageId >= data.getMinId() && messageId <= data.getMaxId();
+        }
+
+        private boolean isCurrent(int messageId, Map<Integer, Integer> tombstones) {
+            Integer stale = tombstones.get(messageId);
+            return stale == null || number > stale;
+        }
+    }
+
+    private final MessageDAO messageDAO = new MessageDAO();
+    private final ColdTombstoneDAO tombstoneDAO = new ColdTombstoneDAO();
+    private final Path directory;
+    private final long ageSeconds;
+    private final int segmentMessages;
+    private final int blockBytes;
+    /** Oldest first; replaced, never changed, so readers iterate a snapshot. */
+    private volatile List<Segment> segments;
+    private int nextNumber;
+    private ScheduledExecutorService archiveJob;
+
+    /**
+     * @return the tier configured by the socialmedia.tiering properties, with its archive job running, or null if
+     * tiering is off
+     */
+    public static ColdTier fromProperties() {
+        Long ageDays = Long.getLong("socialmedia.tiering.ageDays");
+        if (ageDays == null) {
+            return null;
+        }
+        ColdTier tier;
+        try {
+            tier = new ColdTier(Paths.get(System.getProperty("socialmedia.tiering.dir", "./h2/cold")),
+                    TimeUnit.DAYS.toSeconds(ageDays),
+                    Integer.getInteger("socialmedia.tiering.segmentMessages", 100_000),
+                    Integer.getInteger("socialmedia.tiering.blockBytes", 4096));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        tier.startArchiveJob(Long.getLong("socialmedia.tiering.intervalMinutes", 1440L));
+        return tier;
+    }
+
+    /**
+     * Opens the segments in the directory, creating it if needed, and removes any segment left half written.
+     * @param ageSeconds       how old a message must be to be archived
+     * @param segmentMessages  the most messages written to one segment
+     * @param blockBytes       the uncompressed size of a segment block
+     */
+    public ColdTier(Path directory, long ageSeconds, int segmentMessages, int blockBytes) throws IOException {
+        this.directory = directory;
+        this.ageSeconds = ageSeconds;
+        this.segmentMessages = Math.max(1, segmentMessages);
+        this.blockBytes = Math.max(256, blockBytes);
+        Files.createDirectories(directory);
+        List<Segment> opened = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX + ".tmp")) {
+                    Files.delete(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    int number = Integer.parseInt(name.substring(name.indexOf('-') + 1, name.length() - SUFFIX.length()));
+                    opened.add(new Segment(number, ColdSegment.open(file)));
+                }
+            }
+        }
+        opened.sort(Comparator.comparingInt(segment -> segment.number));
+        this.segments = List.copyOf(opened);
+        this.nextNumber = opened.isEmpty() ? 1 : opened.get(opened.size() - 1).number + 1;
+        Metrics.gauge("tiering.cold.segments", () -> segments.size());
+        Metrics.gauge("tiering.cold.messages", () -> sum(segment -> segment.data.getMessageCount()));
+        Metrics.gauge("tiering.cold.fileBytes", () -> sum(segment -> segment.data.getFileBytes()));
+        Metrics.gauge("tiering.cold.rawBytes", () -> sum(segment -> segment.data.getRawBytes()));
+        Metrics.gauge("tiering.cold.bytesSaved",
+                () -> sum(segment -> segment.data.getRawBytes() - segment.data.getFileBytes()));
+    }
+
+    private long sum(ToLongFunction<Segment> value) {
+        return segments.stream().mapToLong(value).sum();
+    }
+
+    private void startArchiveJob(long intervalMinutes) {
+        archiveJob = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-tiering");
+            thread.setDaemon(true);
+            return thread;
+        });
+        archiveJob.scheduleWithFixedDelay(() -> {
+            long cutoff = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - ageSeconds;
+            archive(cutoff);
+        }, 0, Math.max(1, intervalMinutes), TimeUnit.MINUTES);
+    }
+
+    /**
+     * Moves every message posted before the cutoff (epoch seconds) to new segments. A message that changes while
+     * it is being archived stays in the message table, and the next run takes it.
+     * @return the number of messages moved, or -1 on failure
+     */
+    public synchronized int archive(long cutoff) {
+        int perShard = Math.max(1, segmentMessages / Shards.count());
+        int[] afterIds = new int[Shards.count()];
+        boolean[] done = new boolean[Shards.count()];
+        int archived = 0;
+        boolean more = true;
+        while (more) {
+            more = false;
+            Map<Integer, List<VersionedMessage>> batches = new HashMap<>();
+            List<VersionedMessage> messages = new ArrayList<>();
+            for (int shard = 0; shard < Shards.count(); shard++) {
+                if (done[shard]) {
+                    continue;
+                }
+                List<VersionedMessage> batch = messageDAO.getMessagesToArchive(shard, cutoff, afterIds[shard], perShard);
+                if (batch == null) {
+                    return -1;
+                }
+                if (batch.size() < perShard) {
+                    done[shard] = true;
+                } else {
+                    more = true;
+                }
+                if (!batch.isEmpty()) {
+                    afterIds[shard] = batch.get(batch.size() - 1).getMessage().getMessage_id();
+                    batches.put(shard, batch);
+                    messages.addAll(batch);
+                }
+            }
+            if (messages.isEmpty()) {
+                break;
+            }
+            messages.sort(Comparator.comparingInt(message -> message.getMessage().getMessage_id()));
+            Set<Integer> superseded = archivedBefore(messages);
+
+            int number = nextNumber;
+            Segment segment;
+            try {
+                segment = new Segment(number, ColdSegment.write(directory.resolve(String.format("segment-%010d%s", number, SUFFIX)),
+                        messages, blockBytes));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return -1;
+            }
+            nextNumber++;
+            List<Segment> published = new ArrayList<>(segments);
+            published.add(segment);
+            segments = List.copyOf(published);
+
+            for (Map.Entry<Integer, List<VersionedMessage>> batch : batches.entrySet()) {
+                int deleted = messageDAO.deleteArchived(batch.getKey(), batch.getValue(), number, superseded);
+                if (deleted < 0) {
+                    return -1;
+                }
+                archived += deleted;
+            }
+        }
+        Metrics.add("tiering.archived", archived);
+        return archived;
+    }
+
+    /**
+     * @return the ids among these messages that have a copy in an existing segment: messages archived before and
+     * restored, or archived by a run that stopped before deleting them
+     */
+    private Set<Integer> archivedBefore(List<VersionedMessage> messages) {
+        Set<Integer> found = new HashSet<>();
+        for (Segment segment : segments) {
+            int[] ids = messages.stream()
+                    .mapToInt(message -> message.getMessage().getMessage_id())
+                    .filter(segment::covers)
+                    .toArray();
+            if (ids.length > 0) {
+                segment.data.getAll(ids, message -> found.add(message.getMessage().getMessage_id()));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Retention: removes the segments holding only messages posted before the cutoff (epoch seconds).
+     * @return the number of messages removed
+     */
+    public synchronized int dropSegmentsBefore(long cutoff) {
+        List<Segment> kept = new ArrayList<>();
+        List<Segment> dropped = new ArrayList<>();
+        for (Segment segment : segments) {
+            (segment.data.getMaxTime() < cutoff ? dropped : kept).add(segment);
+        }
+        if (dropped.isEmpty()) {
+            return 0;
+        }
+        segments = List.copyOf(kept);
+        int removed = 0;
+        for (Segment segment : dropped) {
+            try {
+                Files.deleteIfExists(segment.data.getPath());
+                removed += segment.data.getMessageCount();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the current cold copy of the message, or null if there is none or the tombstones cannot be read
+     */
+    public VersionedMessage get(int messageId) {
+        List<Segment> snapshot = segments;
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            Segment segment = snapshot.get(i);
+            VersionedMessage message = segment.covers(messageId) ? segment.data.get(messageId) : null;
+            if (message != null) {
+                Map<Integer, Integer> tombstones = tombstoneDAO.getTombstones(List.of(messageId));
+                if (tombstones != null && segment.isCurrent(messageId, tombstones)) {
+                    Metrics.increment("tiering.cold.hits");
+                    return message;
+                }
+                break;
+            }
+        }
+        Metrics.increment("tiering.cold.misses");
+        return null;
+    }
+
+    /**
+     * @return the current cold copies of the given messages, by id; ids without one are left out
+     */
+    public Map<Integer, Message> getMessages(Collection<Integer> messageIds) {
+        int[] wanted = messageIds.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        Map<Integer, Message> found = new HashMap<>();
+        Map<Integer, Segment> foundIn = new HashMap<>();
+        List<Segment> snapshot = segments;
+        for (int i = snapshot.size() - 1; i >= 0 && foundIn.size() < wanted.length; i--) {
+            Segment segment = snapshot.get(i);
+            int[] ids = Arrays.stream(wanted).filter(id -> segment.covers(id) && !foundIn.containsKey(id)).toArray();
+            if (ids.length > 0) {
+                segment.data.getAll(ids, message -> {
+                    found.put(message.getMessage().getMessage_id(), message.getMessage());
+                    foundIn.put(message.getMessage().getMessage_id(), segment);
+                });
+            }
+        }
+        if (!found.isEmpty()) {
+            Map<Integer, Integer> tombstones = tombstoneDAO.getTombstones(found.keySet());
+            if (tombstones == null) {
+                found.clear();
+            } else {
+                found.keySet().removeIf(messageId -> !foundIn.get(messageId).isCurrent(messageId, tombstones));
+            }
+        }
+        Metrics.add("tiering.cold.hits", found.size());
+        Metrics.add("tiering.cold.misses", wanted.length - found.size());
+        return found;
+    }
+
+    /**
+     * @return the account's newest archived messages, newest first, or an empty list if the tombstones cannot be
+     * read
+     */
+    public List<Message> getRecentMessagesByUserId(int postedBy, int limit) {
+        Map<Segment, int[]> idsBySegment = new HashMap<>();
+        Set<Integer> candidates = new HashSet<>();
+        for (Segment segment : segments) {
+            int[] ids = segment.data.getIdsPostedBy(postedBy);
+            if (ids.length > 0) {
+                idsBySegment.put(segment, ids);
+                Arrays.stream(ids).forEach(candidates::add);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, Integer> tombstones = tombstoneDAO.getTombstones(candidates);
+        if (tombstones == null) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Message> newest = new PriorityQueue<>(NEWEST_FIRST.reversed());
+        idsBySegment.forEach((segment, ids) -> segment.data.getAll(ids, message -> {
+            if (segment.isCurrent(message.getMessage().getMessage_id(), tombstones)) {
+                newest.add(message.getMessage());
+                if (newest.size() > limit) {
+                    newest.poll();
+                }
+            }
+        }));
+        List<Message> messages = new ArrayList<>(newest);
+        messages.sort(NEWEST_FIRST);
+        return messages;
+    }
+
+    /**
+     * Scans only the segments whose time span overlaps the range.
+     * @return up to limit current cold copies posted between from and to (epoch seconds, both inclusive), oldest
+     * first, or an empty list if the tombstones cannot be read
+     */
+    public List<Message> getMessagesPostedBetween(long from, long to, int limit) {
+        List<Segment> overlapping = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.data.getMaxTime() >= from && segment.data.getMinTime() <= to) {
+                overlapping.add(segment);
+            }
+        }
+        if (overlapping.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, Integer> tombstones = tombstoneDAO.getAll();
+        if (tombstones == null) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Message> oldest = new PriorityQueue<>(NEWEST_FIRST);
+        for (Segment segment : overlapping) {
+            segment.data.forEach(message -> {
+                long time = message.getMessage().getTime_posted_epoch();
+                if (time >= from && time <= to && segment.isCurrent(message.getMessage().getMessage_id(), tombstones)) {
+                    oldest.add(message.getMessage());
+                    if (oldest.size() > limit) {
+                        oldest.poll();
+                    }
+                }
+            });
+        }
+        List<Message> messages = new ArrayList<>(oldest);
+        messages.sort(OLDEST_FIRST);
+        return messages;
+    }
+
+    /**
+     * Reads every current cold copy, segment by segment.
+     * @return true if the scan completed
+     */
+    public boolean forEachMessage(Consumer<Message> consumer) {
+        Map<Integer, Integer> tombstones = tombstoneDAO.getAll();
+        if (tombstones == null) {
+            return false;
+        }
+        for (Segment segment : segments) {
+            segment.data.forEach(message -> {
+                if (segment.isCurrent(message.getMessage().getMessage_id(), tombstones)) {
+                    consumer.accept(message.getMessage());
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of current cold copies per account, or null if the tombstones cannot be read
+     */
+    public Map<Integer, Long> countByAuthor() {
+        Map<Integer, Integer> tombstones = tombstoneDAO.getAll();
+        if (tombstones == null) {
+            return null;
+        }
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Segment segment : segments) {
+            segment.data.countByAuthor(counts, messageId -> !segment.isCurrent(messageId, tombstones));
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of the newest segment, which a tombstone covering every copy refers to
+     */
+    public int newestSegment() {
+        List<Segment> snapshot = segments;
+        return snapshot.isEmpty() ? 0 : snapshot.get(snapshot.size() - 1).number;
+    }
+
+    public void close() {
+        if (archiveJob != null) {
+            archiveJob.shutdownNow();
+            try {
+                archiveJob.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package Service;
+
+import DAO.IdempotencyKeyDAO;
+import Util.Metrics;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the response of each request sent with an Idempotency-Key, so a retried request is answered with the
+ * original response instead of being executed again.
+ *
+ * The first request with a key claims it and runs; requests with the same key that arrive meanwhile wait for its
+ * response rather than racing it. A key reused with a different request body is refused. Responses are kept for
+ * the ttl in a bounded in-memory map, evicting the oldest first when full, and optionally also in the
+ * idempotency_key table so that retries are recognised after a restart. Server errors and failed requests are not
+ * remembered, so they can be retried.
+ *
+ * The response is stored after the request's own transaction commits, so a crash between the two can still let a
+ * retry execute once more.
+ */
+public class IdempotencyService {
+    public static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * A remembered response.
+     */
+    public static final class Response {
+        private final int status;
+        private final String contentType;
+        private final String body;
+
+        public Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    private static final class Entry {
+        private final String fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+        Entry(String fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The outcome of {@link #begin}: either this request owns the key and must {@link #complete} or
+     * {@link #abandon} it, or it is a duplicate and {@link #result()} completes with the original response (or
+     * fails with a CancellationException if the original request failed), or the key was used for another body.
+     */
+    public final class Claim {
+        private final String key;
+        private final Entry entry;
+        private final boolean owner;
+        private final boolean persistable;
+
+        private Claim(String key, Entry entry, boolean owner, boolean persistable) {
+            this.key = key;
+            this.entry = entry;
+            this.owner = owner;
+            this.persistable = persistable;
+        }
+
+        public boolean isOwner() {
+            return owner;
+        }
+
+        public boolean isMismatch() {
+            return entry == null;
+        }
+
+        public CompletableFuture<Response> result() {
+            return entry.result;
+        }
+
+        /**
+         * Remembers the response and releases the duplicates waiting for it.
+         */
+        public void complete(Response response) {
+            if (persist && persistable) {
+                idempotencyKeyDAO.saveKey(key, new IdempotencyKeyDAO.StoredKey(entry.fingerprint, response.getStatus(),
+                        response.getContentType(), response.getBody(), entry.expiresAt));
+            }
+            entry.result.complete(response);
+        }
+
+        /**
+         * Forgets the key, so the next request with it runs; waiting duplicates are told to retry.
+         */
+        public void abandon() {
+            entries.remove(key, entry);
+            entry.result.completeExceptionally(new CancellationException("The original request failed"));
+        }
+    }
+
+    private final IdempotencyKeyDAO idempotencyKeyDAO = new IdempotencyKeyDAO();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final boolean persist;
+    private final ScheduledExecutorService sweeper;
+
+    public IdempotencyService() {
+        this(Integer.getInteger("socialmedia.idempotency.maxKeys", 100_000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("socialmedia.idempotency.ttlSeconds", TimeUnit.DAYS.toSeconds(1))),
+                Boolean.getBoolean("socialmedia.idempotency.persist"));
+    }
+
+    /**
+     * @param maxEntries the most keys kept in memory
+     * @param ttlMillis  how long a response is remembered
+     * @param persist    whether responses are also stored in the idempotency_key table
+     */
+    public IdempotencyService(int maxEntries, long ttlMillis, boolean persist) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.persist = persist;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idempotency-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::removeExpired, 1, 1, TimeUnit.MINUTES);
+        Metrics.gauge("idempotency.keys", entries::size);
+    }
+
+    /**
+     * @param key         the Idempotency-Key, scoped by the caller to the route
+     * @param fingerprint a digest of the request body, see {@link #fingerprint(byte[])}
+     * @param persistable false for responses that must not be written to the database
+     */
+    public Claim begin(String key, String fingerprint, boolean persistable) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Entry existing = entries.get(key);
+            if (existing == null || existing.expiresAt <= now) {
+                IdempotencyKeyDAO.StoredKey stored = persist && persistable ? idempotencyKeyDAO.getKey(key, now) : null;
+                Entry candidate = stored == null
+                        ? new Entry(fingerprint, now + ttlMillis)
+                        : new Entry(stored.fingerprint, stored.expiresAt);
+                if (stored != null) {
+                    candidate.result.complete(new Response(stored.status, stored.contentType, stored.body));
+                }
+                boolean claimed = existing == null
+                        ? entries.putIfAbsent(key, candidate) == null
+                        : entries.replace(key, existing, candidate);
+                if (!claimed) {
+                    continue;
+                }
+                if (entries.size() > maxEntries) {
+                    evictOldest();
+                }
+                if (stored == null) {
+                    return new Claim(key, candidate, true, persistable);
+                }
+                existing = candidate;
+            }
+            if (!existing.fingerprint.equals(fingerprint)) {
+                Metrics.increment("idempotency.mismatches");
+                return new Claim(key, null, false, persistable);
+            }
+            Metrics.increment("idempotency.replays");
+            return new Claim(key, existing, false, persistable);
+        }
+    }
+
+    /**
+     * @return a digest identifying a request body
+     */
+    public static String fingerprint(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        entries.entrySet().removeIf(entry -> entry.getValue().expiresAt <= now && entry.getValue().result.isDone());
+        if (persist) {
+            idempotencyKeyDAO.deleteExpiredKeys(now);
+        }
+    }
+
+    /**
+     * Drops expired keys, then the completed keys that expire soonest, until a tenth of the capacity is free.
+     * In-flight keys are never evicted.
+     */
+    private synchronized void evictOldest() {
+        removeExpired();
+        int excess = entries.size() - maxEntries * 9 / 10;
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> completed = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().result.isDone()) {
+                completed.add(entry);
+            }
+        }
+        completed.sort((a, b) -> Long.compare(a.getValue().expiresAt, b.getValue().expiresAt));
+        for (int i = 0; i < excess && i < completed.size(); i++) {
+            entries.remove(completed.get(i).getKey(), completed.get(i).getValue());
+        }
+        Metrics.add("idempotency.evicted", Math.min(excess, completed.size()));
+    }
+}
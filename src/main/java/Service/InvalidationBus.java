@@ -0,0 +1,229 @@
+package Service;
+
+import Util.Metrics;
+
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells the other app instances which rows this instance changed, so that their in-process caches drop them.
+ * Services {@link #publish} an invalidation after each successful write; the bus batches them, every
+ * socialmedia.invalidation.flushMillis (default 5), into compact binary batches and hands them to an
+ * {@link InvalidationTransport}. Batches received from other instances are passed to the listeners.
+ *
+ * A batch is [format: 1 byte][sender: 8][sequence: 8][count: 2] followed by count events of [kind: 1][id: 4].
+ * Each instance numbers its batches 1, 2, 3... under a random sender id, and sends an empty heartbeat carrying
+ * its latest number every socialmedia.invalidation.heartbeatMillis (default 1000) when idle. A receiver that sees
+ * a number skip ahead, including through a heartbeat, has lost batches and tells its listeners to drop everything,
+ * so a lost batch costs cold caches, never stale reads beyond the heartbeat interval.
+ */
+public class InvalidationBus implements AutoCloseable {
+    public static final byte ALL = 0;
+    public static final byte MESSAGE = 1;
+    public static final byte ACCOUNT = 2;
+
+    public static final int MAX_BATCH = 1000;
+
+    private static final byte FORMAT = 1;
+    private static final int HEADER_BYTES = 1 + 8 + 8 + 2;
+    private static final int EVENT_BYTES = 1 + 4;
+    private static final int MAX_SENDERS = 1024;
+
+    private final long senderId = new SecureRandom().nextLong();
+    private final InvalidationTransport transport;
+    private final long heartbeatMillis;
+    private final Set<Long> pending = new LinkedHashSet<>();
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Long, Long> lastSequences = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_SENDERS;
+        }
+    };
+    private final ScheduledExecutorService flusher;
+    // only touched by the flusher thread, and by close() once it has stopped
+    private long sequence;
+    private long lastSentAt;
+
+    /**
+     * @return a bus over the transport named by socialmedia.invalidation.transport: "udp" (see
+     * {@link UdpInvalidationTransport}) or "table" (see {@link TableInvalidationTransport}); null when unset
+     */
+    public static InvalidationBus fromProperties() {
+        String transport = System.getProperty("socialmedia.invalidation.transport", "none");
+        long flushMillis = Long.getLong("socialmedia.invalidation.flushMillis", 5L);
+        long heartbeatMillis = Long.getLong("socialmedia.invalidation.heartbeatMillis", 1000L);
+        switch (transport) {
+            case "udp":
+                try {
+                    return new InvalidationBus(new UdpInvalidationTransport(
+                            new InetSocketAddress(System.getProperty("socialmedia.invalidation.udp.host", "127.0.0.1"),
+                                    Integer.getInteger("socialmedia.invalidation.udp.port", 9700)),
+                            UdpInvalidationTransport.parsePeers(System.getProperty("socialmedia.invalidation.udp.peers", ""))),
+                            flushMillis, heartbeatMillis);
+                } catch (SocketException e) {
+                    throw new UncheckedIOException(e);
+                }
+            case "table":
+                return new InvalidationBus(new TableInvalidationTransport(
+                        Long.getLong("socialmedia.invalidation.table.pollMillis", 100L)), flushMillis, heartbeatMillis);
+            case "none":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown invalidation transport " + transport);
+        }
+    }
+
+    /**
+     * @param flushMillis     how long invalidations are collected before they are sent as one batch
+     * @param heartbeatMillis how often an idle instance announces its latest batch number
+     */
+    public InvalidationBus(InvalidationTransport transport, long flushMillis, long heartbeatMillis) {
+        this.transport = transport;
+        this.heartbeatMillis = heartbeatMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        transport.start(this::receive);
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param listener told about rows other instances changed
+     */
+    public void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Queues an invalidation for the next batch. Repeated invalidations of one row within a batch are sent once.
+     * @param kind {@link #MESSAGE}, {@link #ACCOUNT}, or {@link #ALL} to drop everything (id is then ignored)
+     */
+    public void publish(byte kind, int id) {
+        synchronized (pending) {
+            pending.add((long) kind << 32 | (id & 0xFFFFFFFFL));
+        }
+    }
+
+    /**
+     * Sends what is queued, or a heartbeat when nothing has been sent for a while.
+     */
+    void flush() {
+        List<Long> events;
+        synchronized (pending) {
+            events = new ArrayList<>(pending);
+            pending.clear();
+        }
+        long now = System.currentTimeMillis();
+        if (events.isEmpty()) {
+            if (now - lastSentAt >= heartbeatMillis) {
+                transport.send(encode(sequence, events, 0, 0));
+                lastSentAt = now;
+            }
+            return;
+        }
+        for (int from = 0; from < events.size(); from += MAX_BATCH) {
+            int to = Math.min(events.size(), from + MAX_BATCH);
+            transport.send(encode(++sequence, events, from, to));
+            Metrics.increment("invalidation.batchesSent");
+        }
+        Metrics.add("invalidation.sent", events.size());
+        lastSentAt = now;
+    }
+
+    private byte[] encode(long batchSequence, List<Long> events, int from, int to) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (to - from) * EVENT_BYTES);
+        buffer.put(FORMAT).putLong(senderId).putLong(batchSequence).putShort((short) (to - from));
+        for (int i = from; i < to; i++) {
+            long event = events.get(i);
+            buffer.put((byte) (event >>> 32)).putInt((int) event);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Applies a batch from another instance, first dropping everything if batches from that instance were lost.
+     */
+    void receive(byte[] batch) {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        try {
+            if (buffer.get() != FORMAT) {
+                Metrics.increment("invalidation.malformed");
+                return;
+            }
+            long sender = buffer.getLong();
+            long batchSequence = buffer.getLong();
+            int count = buffer.getShort() & 0xFFFF;
+            if (sender == senderId) {
+                return;
+            }
+            if (isGap(sender, batchSequence, count == 0)) {
+                Metrics.increment("invalidation.gaps");
+                for (InvalidationListener listener : listeners) {
+                    listener.invalidateAll();
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                byte kind = buffer.get();
+                int id = buffer.getInt();
+                for (InvalidationListener listener : listeners) {
+                    if (kind == ALL) {
+                        listener.invalidateAll();
+                    } else {
+                        listener.invalidate(kind, id);
+                    }
+                }
+            }
+            Metrics.add("invalidation.received", count);
+        } catch (BufferUnderflowException e) {
+            Metrics.increment("invalidation.malformed");
+        }
+    }
+
+    /**
+     * Records the sender's latest batch number.
+     * @return true if batches between the last one seen and this one were lost
+     */
+    private boolean isGap(long sender, long batchSequence, boolean heartbeat) {
+        synchronized (lastSequences) {
+            Long last = lastSequences.get(sender);
+            long expected = last == null ? 1 : last + 1;
+            if (last == null || batchSequence > last) {
+                lastSequences.put(sender, batchSequence);
+            }
+            // a heartbeat repeats the last number sent, a batch carries the next one
+            return heartbeat ? batchSequence >= expected : batchSequence > expected;
+        }
+    }
+
+    /**
+     * Sends whatever is still queued, then stops the transport.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        transport.close();
+    }
+}
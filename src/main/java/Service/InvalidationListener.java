@@ -0,0 +1,19 @@
+package Service;
+
+/**
+ * Receives the invalidations that other app instances broadcast over the {@link InvalidationBus}. Listeners run on
+ * the bus's receiving thread, so they must be cheap and must not throw.
+ */
+public interface InvalidationListener {
+
+    /**
+     * A row changed on another instance.
+     * @param kind one of the InvalidationBus kinds, e.g. {@link InvalidationBus#MESSAGE}
+     */
+    void invalidate(byte kind, int id);
+
+    /**
+     * Invalidations may have been lost, or a bulk change happened: drop everything cached.
+     */
+    void invalidateAll();
+}
@@ -0,0 +1,24 @@
+package Service;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries encoded invalidation batches between app instances. Delivery may lose, duplicate or reorder batches;
+ * the {@link InvalidationBus} detects that from their sequence numbers.
+ */
+public interface InvalidationTransport extends AutoCloseable {
+
+    /**
+     * Starts delivering the batches other instances send.
+     * @param receiver called with each batch received, from the transport's own thread
+     */
+    void start(Consumer<byte[]> receiver);
+
+    /**
+     * Sends a batch to every other instance. Must not block for long; a failure may be dropped.
+     */
+    void send(byte[] batch);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,358 @@
+package Service;
+
+import Model.Message;
+import Util.Metrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fans newly created messages out to live subscribers (the GET /messages/stream endpoint).
+ *
+ * Writers append to a fixed-size ring buffer and return; they never wait for a subscriber. Appends are serialized
+ * by a short lock, so the ring has exactly one producer at a time, and the head only moves once the slot is
+ * written. Each subscriber keeps its own cursor into the ring and is drained by a small delivery pool;
+ * a subscriber that falls more than a full ring behind has lost events, so it is told to resync and dropped. A
+ * subscriber filtered to one poster moves its cursor past the events of other posters too, so only events it
+ * could not deliver in time count against it.
+ *
+ * Sink writes block, so a client whose connection has stalled would hold a delivery thread until the server's idle
+ * timeout, and a few of them would hold up every other subscriber. A watchdog thread of its own therefore aborts
+ * any write that has run longer than socialmedia.feed.writeTimeoutMillis (default 5000), which fails the blocked
+ * write and drops the subscriber.
+ *
+ * Sequence numbers double as SSE event ids: a client that reconnects with Last-Event-ID resumes right after that
+ * event if it is still in the ring.
+ */
+public class MessageFeed implements MessageListener {
+
+    /**
+     * Where a subscription's events go. Calls for one subscription never overlap.
+     */
+    public interface Sink {
+        void send(long sequence, Message message) throws Exception;
+
+        /**
+         * The subscription lost events; the client should reload its state and reconnect.
+         */
+        void resync() throws Exception;
+
+        /**
+         * Called when nothing was sent for a while, so that disconnected clients are noticed and released.
+         */
+        void heartbeat() throws Exception;
+
+        void close();
+
+        /**
+         * Closes the connection under a write that has stalled, so that the write fails instead of blocking.
+         */
+        default void abort() {
+            close();
+        }
+    }
+
+    /**
+     * One subscriber's position in the ring.
+     */
+    public final class Subscription {
+        private final Sink sink;
+        private final Integer postedBy;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long cursor;
+        private volatile long lastWriteNanos = System.nanoTime();
+
+        private Subscription(Sink sink, Integer postedBy, long cursor) {
+            this.sink = sink;
+            this.postedBy = postedBy;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Detaches this subscription. Safe to call more than once.
+         */
+        public void cancel() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            subscribers(postedBy).remove(this);
+            subscriberCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * A ring slot. The sequence travels with the message so a reader can tell a lapped slot from the one it
+     * expected with a single read.
+     */
+    private static final class Event {
+        final long sequence;
+        final Message message;
+
+        Event(long sequence, Message message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final AtomicReferenceArray<Event> ring;
+    private final int capacity;
+    private final int mask;
+    private final Object producerLock = new Object();
+    private volatile long head;
+
+    private final Set<Subscription> allSubscribers = ConcurrentHashMap.newKeySet();
+    private final Map<Subscription, Long> writing = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Subscription>> subscribersByPoster = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final ScheduledExecutorService deliveryPool;
+    private final ScheduledExecutorService watchdog;
+    private final long heartbeatNanos;
+    private final long writeTimeoutNanos;
+
+    public MessageFeed() {
+        this(Integer.getInteger("socialmedia.feed.ringSize", 4096),
+                Integer.getInteger("socialmedia.feed.deliveryThreads", 4),
+                Integer.getInteger("socialmedia.feed.heartbeatSeconds", 15),
+                Long.getLong("socialmedia.feed.writeTimeoutMillis", 5000L));
+    }
+
+    public MessageFeed(int ringSize, int deliveryThreads, int heartbeatSeconds) {
+        this(ringSize, deliveryThreads, heartbeatSeconds, 5000);
+    }
+
+    /**
+     * @param ringSize          events retained for slow subscribers and resuming clients, rounded up to a power of two
+     * @param deliveryThreads   threads that write events to subscribers
+     * @param heartbeatSeconds  idle time after which a subscriber is sent a heartbeat
+     * @param writeTimeoutMillis how long one write to a subscriber may block before the subscriber is dropped
+     */
+    public MessageFeed(int ringSize, int deliveryThreads, int heartbeatSeconds, long writeTimeoutMillis) {
+        this.capacity = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.deliveryPool = Executors.newScheduledThreadPool(deliveryThreads, runnable -> {
+            Thread thread = new Thread(runnable, "message-feed-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeatNanos = TimeUnit.SECONDS.toNanos(heartbeatSeconds);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        deliveryPool.scheduleWithFixedDelay(this::wakeIdle, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-feed-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkMillis = Math.max(1, writeTimeoutMillis / 4);
+        watchdog.scheduleWithFixedDelay(this::abortStalled, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        Metrics.gauge("feed.subscribers", subscriberCount::get);
+        Metrics.gauge("feed.head", () -> head);
+    }
+
+    @Override
+    public void messageCreated(Message message) {
+        publish(message);
+    }
+
+    /**
+     * Appends a message to the ring and wakes the subscribers interested in it.
+     * @return the sequence number (SSE event id) assigned to the message
+     */
+    public long publish(Message message) {
+        long sequence;
+        synchronized (producerLock) {
+            sequence = head;
+            ring.set((int) (sequence & mask), new Event(sequence, message));
+            head = sequence + 1;
+        }
+        wake(allSubscribers);
+        Set<Subscription> filtered = subscribersByPoster.get(message.getPosted_by());
+        if (filtered != null) {
+            wake(filtered);
+        }
+        if ((sequence & (capacity / 2 - 1)) == 0) {
+            // a filtered subscriber is otherwise only drained when its poster publishes; drain all of them twice a
+            // lap, so that their cursors pass the events of other posters before the ring overwrites them
+            for (Set<Subscription> subscriptions : subscribersByPoster.values()) {
+                wake(subscriptions);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * @param sink        where events are delivered
+     * @param postedBy    only deliver messages by this account, or null for every message
+     * @param lastEventId the last sequence the client has seen, or null to start with the next message
+     */
+    public Subscription subscribe(Sink sink, Integer postedBy, Long lastEventId) {
+        long current = head;
+        Subscription subscription = new Subscription(sink, postedBy, current);
+        boolean lost = false;
+        if (lastEventId != null) {
+            long resumeFrom = lastEventId + 1;
+            if (resumeFrom <= current && current - resumeFrom <= capacity) {
+                subscription.cursor = resumeFrom;
+            } else if (resumeFrom != current) {
+                lost = true;
+            }
+        }
+        subscriberCount.incrementAndGet();
+        subscribers(postedBy).add(subscription);
+        if (lost) {
+            drop(subscription);
+        } else if (subscription.cursor < current) {
+            schedule(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * @return the number of live subscriptions
+     */
+    public int subscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * Stops delivery and closes every subscription.
+     */
+    public void close() {
+        watchdog.shutdownNow();
+        deliveryPool.shutdownNow();
+        for (Subscription subscription : allSubscribers) {
+            subscription.cancel();
+            subscription.sink.close();
+        }
+        for (Set<Subscription> subscriptions : subscribersByPoster.values()) {
+            for (Subscription subscription : subscriptions) {
+                subscription.cancel();
+                subscription.sink.close();
+            }
+        }
+    }
+
+    private Set<Subscription> subscribers(Integer postedBy) {
+        if (postedBy == null) {
+            return allSubscribers;
+        }
+        return subscribersByPoster.computeIfAbsent(postedBy, k -> ConcurrentHashMap.newKeySet());
+    }
+
+    private void wakeIdle() {
+        long now = System.nanoTime();
+        for (Subscription subscription : allSubscribers) {
+            if (now - subscription.lastWriteNanos >= heartbeatNanos) {
+                schedule(subscription);
+            }
+        }
+        for (Set<Subscription> subscriptions : subscribersByPoster.values()) {
+            for (Subscription subscription : subscriptions) {
+                if (now - subscription.lastWriteNanos >= heartbeatNanos) {
+                    schedule(subscription);
+                }
+            }
+        }
+    }
+
+    private void abortStalled() {
+        long now = System.nanoTime();
+        for (Map.Entry<Subscription, Long> write : writing.entrySet()) {
+            // removing by value leaves alone a write that started since the entry was read
+            if (now - write.getValue() >= writeTimeoutNanos && writing.remove(write.getKey(), write.getValue())) {
+                Metrics.increment("feed.stalledSubscribers");
+                write.getKey().cancel();
+                write.getKey().sink.abort();
+            }
+        }
+    }
+
+    private void beginWrite(Subscription subscription) {
+        writing.put(subscription, System.nanoTime());
+    }
+
+    private void endWrite(Subscription subscription) {
+        writing.remove(subscription);
+        subscription.lastWriteNanos = System.nanoTime();
+    }
+
+    private void wake(Set<Subscription> subscriptions) {
+        for (Subscription subscription : subscriptions) {
+            schedule(subscription);
+        }
+    }
+
+    private void schedule(Subscription subscription) {
+        if (subscription.scheduled.compareAndSet(false, true)) {
+            try {
+                deliveryPool.execute(() -> drain(subscription));
+            } catch (RejectedExecutionException e) {
+                subscription.scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Delivers everything between the subscription's cursor and the head. Runs on the delivery pool, at most once
+     * at a time per subscription.
+     */
+    private void drain(Subscription subscription) {
+        try {
+            long cursor = subscription.cursor;
+            long end = head;
+            while (cursor < end && !subscription.closed.get()) {
+                Event event = ring.get((int) (cursor & mask));
+                if (end - cursor > capacity || event == null || event.sequence != cursor) {
+                    drop(subscription);
+                    return;
+                }
+                if (subscription.postedBy == null || subscription.postedBy == event.message.getPosted_by()) {
+                    beginWrite(subscription);
+                    subscription.sink.send(cursor, event.message);
+                    endWrite(subscription);
+                }
+                cursor++;
+                subscription.cursor = cursor;
+                end = head;
+            }
+            if (System.nanoTime() - subscription.lastWriteNanos >= heartbeatNanos && !subscription.closed.get()) {
+                beginWrite(subscription);
+                subscription.sink.heartbeat();
+                endWrite(subscription);
+            }
+        } catch (Exception e) {
+            subscription.cancel();
+            subscription.sink.close();
+        } finally {
+            writing.remove(subscription);
+            subscription.scheduled.set(false);
+        }
+        if (!subscription.closed.get() && subscription.cursor < head) {
+            schedule(subscription);
+        }
+    }
+
+    private void drop(Subscription subscription) {
+        Metrics.increment("feed.droppedSubscribers");
+        subscription.cancel();
+        try {
+            beginWrite(subscription);
+            subscription.sink.resync();
+        } catch (Exception e) {
+            // the client is already gone
+        } finally {
+            writing.remove(subscription);
+        }
+        subscription.sink.close();
+    }
+}
@@ -0,0 +1,26 @@
+package Service;
+
+import Model.Message;
+
+/**
+ * Receives the messages that MessageService has successfully written. Listeners run on the writing thread after
+ * the DAO call returns, so they must be cheap; anything slow should be handed off. An exception is counted and
+ * logged but does not fail the write, which has already committed.
+ */
+public interface MessageListener {
+
+    default void messageCreated(Message message) {
+    }
+
+    default void messageUpdated(Message message) {
+    }
+
+    default void messageDeleted(Message message) {
+    }
+
+    /**
+     * Retention deleted every message posted before the cutoff (epoch seconds) at once; they are not listed.
+     */
+    default void messagesDeletedBefore(long cutoff) {
+    }
+}
@@ -2,40 +2,524 @@ package Service;
 
 import DAO.MessageDAO;
 import Model.Message;
+import Model.VersionedMessage;
 
+import Util.EntityCache;
+import Util.Json;
+import Util.Metrics;
+import Util.Replicas;
+import Util.SlabCache;
+import Util.TextCodec;
+import Util.UnitOfWork;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads go through {@link Replicas#read}, so they are served by a read replica when one is configured and in sync;
+ * writes, and the reads inside a write, always use the primary.
+ *
+ * Messages can also be cached in process, up to socialmedia.cache.messages.maxEntries (default 0: off); a
+ * multi-get serves the ids the cache holds and queries only the others.
+ * The cache is filled from the primary, so it never holds a replica's older copy, and every write drops the
+ * message here and, through the {@link InvalidationBus}, on the other app instances.
+ *
+ * The JSON of single messages can be cached off heap as well, up to socialmedia.cache.messageJson.maxBytes
+ * (default 0: off), so that GET /messages/{id} copies stored bytes to the response instead of building and
+ * serializing a Message. It is filled and invalidated like the object cache.
+ *
+ * With a {@link ColdTier}, single messages and multi-gets not found in the message table are looked up in the
+ * cold tier, list and time-range reads add the cold tier's messages to the message table's, and an archived
+ * message is put back in the message table before it is updated or deleted. Those list reads use the primary:
+ * archiving is not logged as a change, so a replica still holds the archived rows.
+ */
+public class MessageService implements InvalidationListener {
+    public static final int MAX_RANGE_RESULTS = 10_000;
+    public static final int MAX_MULTI_GET = 100;
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+    private static final Comparator<Message> OLDEST_FIRST =
+            Comparator.comparingLong(Message::getTime_posted_epoch).thenComparingInt(Message::getMessage_id);
 
-public class MessageService {
     private MessageDAO messageDAO = new MessageDAO();
+    private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+    private final EntityCache<VersionedMessage> cache = newCache();
+    private final SlabCache jsonCache = newJsonCache();
+    private final ThreadLocal<SlabCache.Hit> jsonHits = ThreadLocal.withInitial(SlabCache.Hit::new);
+    private InvalidationBus invalidationBus;
+    private ColdTier coldTier;
+
+    private static EntityCache<VersionedMessage> newCache() {
+        int maxEntries = Integer.getInteger("socialmedia.cache.messages.maxEntries", 0);
+        return maxEntries > 0 ? new EntityCache<>("cache.messages", maxEntries) : null;
+    }
+
+    private static SlabCache newJsonCache() {
+        long maxBytes = Long.getLong("socialmedia.cache.messageJson.maxBytes", 0L);
+        return maxBytes > 0 ? new SlabCache("cache.messageJson", maxBytes,
+                Integer.getInteger("socialmedia.cache.messageJson.slabBytes", 1 << 20)) : null;
+    }
+
+    /**
+     * Deletes messages older than socialmedia.messages.retentionDays once an hour. Null when no retention is set,
+     * which is the default: messages are kept forever.
+     */
+    private final ScheduledExecutorService retentionJob = startRetentionJob();
+
+    private ScheduledExecutorService startRetentionJob() {
+        Long retentionDays = Long.getLong("socialmedia.messages.retentionDays");
+        if (retentionDays == null) {
+            return null;
+        }
+        ScheduledExecutorService job = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        job.scheduleWithFixedDelay(() -> {
+            long cutoff = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - TimeUnit.DAYS.toSeconds(retentionDays);
+            Metrics.add("messages.retention.deleted", Math.max(0, deleteMessagesPostedBefore(cutoff)));
+        }, 0, 1, TimeUnit.HOURS);
+        return job;
+    }
+
+    /**
+     * Publishes this service's writes on the bus, and drops the messages other instances changed.
+     */
+    public void setInvalidationBus(InvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+        invalidationBus.addListener(this);
+    }
+
+    /**
+     * Falls back to the cold tier for messages that are no longer in the message table.
+     */
+    public void setColdTier(ColdTier coldTier) {
+        this.coldTier = coldTier;
+    }
+
+    @Override
+    public void invalidate(byte kind, int id) {
+        if (kind != InvalidationBus.MESSAGE) {
+            return;
+        }
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+        if (jsonCache != null) {
+            jsonCache.invalidate(id);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        if (jsonCache != null) {
+            jsonCache.invalidateAll();
+        }
+    }
+
+    private void changed(int messageId) {
+        invalidate(InvalidationBus.MESSAGE, messageId);
+        if (invalidationBus != null) {
+            invalidationBus.publish(InvalidationBus.MESSAGE, messageId);
+        }
+    }
+
+    /**
+     * @param listener notified after every successful create, update and delete
+     */
+    public void addListener(MessageListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Tells every listener about a write that has committed. A listener that throws is counted and passed over:
+     * failing the request now would make the client retry a write that is already stored.
+     */
+    private void notifyListeners(Consumer<MessageListener> notification) {
+        for (MessageListener listener : listeners) {
+            try {
+                notification.accept(listener);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                Metrics.increment("messages.listenerFailures");
+            }
+        }
+    }
 
     public Message createMessage(Message message) {
-        return messageDAO.createMessage(message);
+        Message created = messageDAO.createMessage(message);
+        if (created != null) {
+            notifyListeners(listener -> listener.messageCreated(created));
+        }
+        return created;
     }
 
     public Message getMessageById(int messageId) {
-        return messageDAO.getMessageById(messageId);
+        if (cache != null || coldTier != null) {
+            VersionedMessage found = getVersionedMessage(messageId);
+            return found == null ? null : found.getMessage();
+        }
+        return Replicas.read(() -> messageDAO.getMessageById(messageId));
+    }
+
+    /**
+     * @param messageIds at most {@link #MAX_MULTI_GET} ids; duplicates are allowed
+     * @return one entry per requested id, in the requested order: the message, or null if it does not exist
+     * @throws IllegalArgumentException if more than {@link #MAX_MULTI_GET} ids are requested
+     */
+    public List<Message> getMessagesByIds(List<Integer> messageIds) {
+        if (messageIds.size() > MAX_MULTI_GET) {
+            throw new IllegalArgumentException("At most " + MAX_MULTI_GET + " ids per request");
+        }
+        Set<Integer> distinct = new LinkedHashSet<>(messageIds);
+        Map<Integer, Message> found;
+        if (cache != null) {
+            // the cache is filled from the primary, as for single reads; only the ids it misses are queried
+            found = new HashMap<>();
+            cache.getAll(distinct, messageDAO::getVersionedMessagesByIds)
+                    .forEach((messageId, message) -> found.put(messageId, message.getMessage()));
+        } else {
+            found = Replicas.read(() -> messageDAO.getMessagesByIds(distinct));
+        }
+        if (coldTier != null) {
+            Metrics.add("tiering.hot.hits", found.size());
+            Set<Integer> missing = new HashSet<>(messageIds);
+            missing.removeAll(found.keySet());
+            if (!missing.isEmpty()) {
+                found.putAll(coldTier.getMessages(missing));
+            }
+        }
+        List<Message> messages = new ArrayList<>(messageIds.size());
+        for (Integer messageId : messageIds) {
+            messages.add(found.get(messageId));
+        }
+        return messages;
     }
 
     public List<Message> getMessagesByUserId(int userId) {
-        return messageDAO.getMessagesByUserId(userId);
+        return Replicas.read(() -> messageDAO.getMessagesByUserId(userId));
+    }
+
+    /**
+     * @return the message and its version, or null if it does not exist
+     */
+    public VersionedMessage getVersionedMessage(int messageId) {
+        if (cache != null) {
+            return cache.get(messageId, this::loadVersionedMessage);
+        }
+        return orArchived(messageId, Replicas.read(() -> messageDAO.getVersionedMessage(messageId)));
+    }
+
+    /**
+     * Reads a message from the primary, or from the cold tier if it has been archived.
+     */
+    private VersionedMessage loadVersionedMessage(int messageId) {
+        return orArchived(messageId, messageDAO.getVersionedMessage(messageId));
+    }
+
+    private VersionedMessage orArchived(int messageId, VersionedMessage hot) {
+        if (coldTier == null) {
+            return hot;
+        }
+        if (hot != null) {
+            Metrics.increment("tiering.hot.hits");
+            return hot;
+        }
+        return coldTier.get(messageId);
+    }
+
+    /**
+     * Puts an archived message back in the message table, so a write to it works, and is logged, as for any
+     * other row.
+     */
+    private void restoreIfArchived(int messageId) {
+        if (coldTier == null || messageDAO.getVersionedMessage(messageId) != null) {
+            return;
+        }
+        VersionedMessage archived = coldTier.get(messageId);
+        if (archived != null && messageDAO.restoreArchived(archived, coldTier.newestSegment())) {
+            Metrics.increment("tiering.restored");
+        }
+    }
+
+    /**
+     * @return true if a write that found no row should be retried: the archive job took the message again
+     * between its restore and the write
+     */
+    private boolean archivedMeanwhile(int messageId, int attempt) {
+        return coldTier != null && attempt < 3 && coldTier.get(messageId) != null;
+    }
+
+    /**
+     * @return true if {@link #getMessageJson} is available
+     */
+    public boolean cachesMessageJson() {
+        return jsonCache != null;
+    }
+
+    /**
+     * Serves a message as JSON from the off-heap cache, loading and serializing it from the primary on a miss.
+     * @return the JSON, tagged with the message version, or null if the message does not exist. The hit belongs to
+     * the calling thread and is overwritten by its next call.
+     */
+    public SlabCache.Hit getMessageJson(int messageId) {
+        SlabCache.Hit hit = jsonHits.get();
+        if (jsonCache.get(messageId, hit)) {
+            return hit;
+        }
+        long generation = jsonCache.beginLoad(messageId);
+        VersionedMessage message = cache != null ? cache.get(messageId, this::loadVersionedMessage)
+                : loadVersionedMessage(messageId);
+        if (message == null) {
+            return null;
+        }
+        byte[] json = Json.toBytes(message.getMessage());
+        jsonCache.put(messageId, generation, message.getVersion(), json, json.length);
+        hit.fill(message.getVersion(), json, json.length);
+        return hit;
     }
 
     public Message updateMessage(int messageId, Message message) {
+        VersionedMessage updated = updateMessage(messageId, message, null);
+        return updated == null ? null : updated.getMessage();
+    }
+
+    /**
+     * Updates and re-reads the message in one transaction, so the returned message is the one this update wrote.
+     * @param expectedVersions update only if the message is at one of these versions, or null to update regardless
+     * @return the updated message and its new version, or null if the message does not exist (unconditional only)
+     * @throws VersionConflictException if the message is not at an expected version, or no longer exists
+     */
+    public VersionedMessage updateMessage(int messageId, Message message, List<Long> expectedVersions) {
         message.setMessage_id(messageId);
-        boolean isUpdated = messageDAO.updateMessage(message);
-        return isUpdated ? messageDAO.getMessageById(messageId) : null;
+        VersionedMessage updated;
+        int attempt = 0;
+        do {
+            restoreIfArchived(messageId);
+            updated = UnitOfWork.write(() -> messageDAO.updateMessage(message, expectedVersions)
+                    ? messageDAO.getVersionedMessage(messageId) : null);
+        } while (updated == null && archivedMeanwhile(messageId, ++attempt));
+        if (updated == null) {
+            if (expectedVersions != null) {
+                Metrics.increment("messages.versionConflicts");
+                throw new VersionConflictException(messageId);
+            }
+            return null;
+        }
+        changed(messageId);
+        Message updatedMessage = updated.getMessage();
+        notifyListeners(listener -> listener.messageUpdated(updatedMessage));
+        return updated;
     }
 
     public boolean deleteMessage(int messageId) {
-        return messageDAO.deleteMessage(messageId);
+        return deleteMessage(messageId, null);
+    }
+
+    /**
+     * @param expectedVersions delete only if the message is at one of these versions, or null to delete regardless
+     * @return true if the message was deleted, false if it does not exist (unconditional only)
+     * @throws VersionConflictException if the message is not at an expected version, or no longer exists
+     */
+    public boolean deleteMessage(int messageId, List<Long> expectedVersions) {
+        Message[] existing = new Message[1];
+        boolean isDeleted;
+        int attempt = 0;
+        do {
+            restoreIfArchived(messageId);
+            isDeleted = UnitOfWork.write(() -> {
+                existing[0] = listeners.isEmpty() ? null : messageDAO.getMessageById(messageId);
+                return messageDAO.deleteMessage(messageId, expectedVersions);
+            });
+        } while (!isDeleted && archivedMeanwhile(messageId, ++attempt));
+        if (!isDeleted && expectedVersions != null) {
+            Metrics.increment("messages.versionConflicts");
+            throw new VersionConflictException(messageId);
+        }
+        if (isDeleted) {
+            changed(messageId);
+        }
+        if (isDeleted && existing[0] != null) {
+            notifyListeners(listener -> listener.messageDeleted(existing[0]));
+        }
+        return isDeleted;
     }
 
     public List<Message> getAllMessages() {
-        return messageDAO.getAllMessages();
+        if (coldTier == null) {
+            return Replicas.read(() -> messageDAO.getAllMessages());
+        }
+        List<Message> hot = messageDAO.getAllMessages();
+        List<Message> cold = new ArrayList<>();
+        coldTier.forEachMessage(cold::add);
+        return withArchived(hot, cold, BY_ID, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Streams every message from the primary, then every archived one.
+     * @return true if the scan completed
+     */
+    public boolean forEachMessage(Consumer<Message> consumer) {
+        return messageDAO.forEachMessage(consumer) && (coldTier == null || coldTier.forEachMessage(consumer));
+    }
+
+    /**
+     * Loads messages that live on one shard, with their ids, as {@link BulkService} does; see
+     * {@link MessageDAO#importMessages}. The listeners are not told: a backfill is not new activity.
+     * @return the messages inserted, or null on failure
+     */
+    public List<Message> importMessages(List<Message> messages) {
+        return messageDAO.importMessages(messages);
     }
 
     public List<Message> getAllMessagesForUser(int userId) {
-        return messageDAO.getAllMessagesForUser(userId);
+        if (coldTier == null) {
+            return Replicas.read(() -> messageDAO.getAllMessagesForUser(userId));
+        }
+        List<Message> hot = messageDAO.getAllMessagesForUser(userId);
+        return withArchived(hot, coldTier.getRecentMessagesByUserId(userId, Integer.MAX_VALUE), BY_ID, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return messages posted between from and to (epoch seconds, both inclusive), oldest first, capped at
+     * {@link #MAX_RANGE_RESULTS}
+     */
+    public List<Message> getMessagesPostedBetween(long from, long to, int limit) {
+        int capped = Math.max(1, Math.min(limit, MAX_RANGE_RESULTS));
+        if (coldTier == null) {
+            return Replicas.read(() -> messageDAO.getMessagesPostedBetween(from, to, capped));
+        }
+        List<Message> hot = messageDAO.getMessagesPostedBetween(from, to, capped);
+        return withArchived(hot, coldTier.getMessagesPostedBetween(from, to, capped), OLDEST_FIRST, capped);
     }
 
+    /**
+     * Merges messages read from the message table with cold copies read after them. A message archived between
+     * the two reads is in both and is kept once; reading the message table first means none is missed.
+     * @return the first limit messages in the given order
+     */
+    private static List<Message> withArchived(List<Message> hot, List<Message> cold, Comparator<Message> order, int limit) {
+        Set<Integer> hotIds = new HashSet<>();
+        for (Message message : hot) {
+            hotIds.add(message.getMessage_id());
+        }
+        List<Message> messages = new ArrayList<>(hot);
+        for (Message message : cold) {
+            if (!hotIds.contains(message.getMessage_id())) {
+                messages.add(message);
+            }
+        }
+        messages.sort(order);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    /**
+     * Retention: deletes every message posted before the cutoff (epoch seconds).
+     * @return the number of messages deleted, or -1 on failure
+     */
+    public int deleteMessagesPostedBefore(long cutoff) {
+        int deleted = messageDAO.deleteMessagesPostedBefore(cutoff);
+        if (deleted >= 0 && coldTier != null) {
+            deleted += coldTier.dropSegmentsBefore(cutoff);
+        }
+        if (deleted > 0) {
+            invalidateAll();
+            if (invalidationBus != null) {
+                invalidationBus.publish(InvalidationBus.ALL, 0);
+            }
+            notifyListeners(listener -> listener.messagesDeletedBefore(cutoff));
+        }
+        return deleted;
+    }
+
+    /**
+     * Trains a new message_text dictionary on the newest messages of every shard and makes it current, so new and
+     * updated texts are compressed with it; see {@link TextCodec}. Texts already stored keep their dictionary.
+     * @param sampleMessages how many of the newest messages of each shard to train on
+     * @param maxBytes the largest dictionary to build
+     * @return how well the dictionary compresses the sample, or null if it could not be stored
+     * @throws IllegalArgumentException if there are no messages to train on
+     */
+    public DictionaryResult trainDictionary(int sampleMessages, int maxBytes) {
+        List<String> sample = messageDAO.getNewestMessageTexts(sampleMessages);
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("there are no messages to train a dictionary on");
+        }
+        byte[] dictionary = TextCodec.train(sample, maxBytes);
+        try {
+            int version = TextCodec.addDictionary(dictionary);
+            DictionaryResult result = new DictionaryResult(version, dictionary.length, sample.size());
+            for (String text : sample) {
+                result.plainBytes += TextCodec.encode(text, TextCodec.PLAIN).length;
+                result.storedBytes += TextCodec.encode(text, version).length;
+            }
+            return result;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void close() {
+        if (retentionJob != null) {
+            retentionJob.shutdownNow();
+        }
+    }
+
+    /**
+     * What POST /admin/dictionary returns: the new dictionary version and how its sample compresses, both sizes
+     * including the stored header.
+     */
+    public static class DictionaryResult {
+        private final int version;
+        private final int dictionaryBytes;
+        private final int sampleMessages;
+        private long plainBytes;
+        private long storedBytes;
+
+        private DictionaryResult(int version, int dictionaryBytes, int sampleMessages) {
+            this.version = version;
+            this.dictionaryBytes = dictionaryBytes;
+            this.sampleMessages = sampleMessages;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getDictionaryBytes() {
+            return dictionaryBytes;
+        }
+
+        public int getSampleMessages() {
+            return sampleMessages;
+        }
+
+        public long getPlainBytes() {
+            return plainBytes;
+        }
+
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        public double getRatio() {
+            return storedBytes == 0 ? 0 : (double) plainBytes / storedBytes;
+        }
+    }
 }
@@ -0,0 +1,228 @@
+package Service;
+
+import DAO.AccountChangeDAO;
+import DAO.MessageChangeDAO;
+import DAO.ReplicaDAO;
+import Model.AccountChange;
+import Model.MessageChange;
+import Util.Metrics;
+import Util.Replicas;
+import Util.Shards;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps the {@link Replicas} up to date by shipping the message and account change logs of each shard's primary to
+ * its replicas, every socialmedia.replicas.pollMillis (default 50). Each pass applies at most BATCH_SIZE changes of
+ * each log to a replica in one transaction, together with the new log positions, so a replica never has a change
+ * applied twice or skipped. A replica with no position, or whose position has been compacted away or is ahead of
+ * the primary (the primary was reset), is bootstrapped with a snapshot copy of the primary instead.
+ *
+ * Sequence numbers are taken when a change is inserted but become visible when its transaction commits, so a
+ * smaller number can show up after a larger one. A pass therefore stops at a gap in the sequence and waits for it
+ * to fill or settle, like {@link ChangeFeedService#contiguous} does for mirrors; a gap older than
+ * socialmedia.replicas.gapTimeoutMillis (default 1000) is taken to be a rolled-back write and skipped. A long
+ * transaction, such as a bulk import batch, can still commit into a skipped gap, so the skipped numbers are
+ * remembered and looked up again on every pass until they settle. One that turns up is not replayed out of order:
+ * the replica is bootstrapped again instead. Until its skipped numbers have settled a replica is not marked synced.
+ *
+ * A pass that finds nothing left to ship marks the replica synced as of the pass start; the lag of a replica is the
+ * time since then, which is what {@link Replicas} compares against its maximum lag.
+ */
+public class ReplicationService {
+    public static final int BATCH_SIZE = 500;
+
+    private final MessageChangeDAO messageChangeDAO = new MessageChangeDAO();
+    private final AccountChangeDAO accountChangeDAO = new AccountChangeDAO();
+    private final long gapTimeoutMillis = Long.getLong("socialmedia.replicas.gapTimeoutMillis", 1000L);
+    private final Map<String, Set<Long>> skipped = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService shipper;
+
+    public ReplicationService() {
+        this(Long.getLong("socialmedia.replicas.pollMillis", 50L));
+    }
+
+    /**
+     * @param pollMillis how long to wait between replication passes
+     */
+    public ReplicationService(long pollMillis) {
+        this.shipper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-shipper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        shipper.scheduleWithFixedDelay(this::shipAll, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs one replication pass over every replica of every shard.
+     */
+    public void shipAll() {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            for (int replica = 0; replica < Replicas.count(); replica++) {
+                try {
+                    ship(shard, replica);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    Metrics.increment("replication.failures");
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the next batch of changes of one shard to one of its replicas.
+     * @return the number of changes applied, or -1 if the replica was bootstrapped or the pass failed
+     */
+    public int ship(int shard, int replica) {
+        long startedAt = System.currentTimeMillis();
+        try (Connection connection = Replicas.getReplicaConnection(shard, replica)) {
+            connection.setAutoCommit(false);
+            try {
+                long messageSeq = ReplicaDAO.getPosition(connection, ReplicaDAO.MESSAGE_LOG);
+                long accountSeq = ReplicaDAO.getPosition(connection, ReplicaDAO.ACCOUNT_LOG);
+                Set<Long> messageGaps = skippedGaps(shard, replica, ReplicaDAO.MESSAGE_LOG);
+                Set<Long> accountGaps = skippedGaps(shard, replica, ReplicaDAO.ACCOUNT_LOG);
+                long messageSettled = Shards.on(shard, messageChangeDAO::getSettledThrough);
+                long accountSettled = Shards.on(shard, accountChangeDAO::getSettledThrough);
+                if (needsBootstrap(shard, messageSeq, accountSeq)
+                        || turnedUp(shard, messageGaps, messageSettled, messageChangeDAO::countChanges)
+                        || turnedUp(shard, accountGaps, accountSettled, accountChangeDAO::countChanges)) {
+                    try (Connection primary = Shards.getConnection(shard)) {
+                        ReplicaDAO.bootstrap(primary, connection);
+                    }
+                    connection.commit();
+                    messageGaps.clear();
+                    accountGaps.clear();
+                    Metrics.increment("replication.bootstraps");
+                    Replicas.markSynced(shard, replica, startedAt);
+                    return -1;
+                }
+
+                List<MessageChange> messageChanges = Shards.on(shard,
+                        () -> messageChangeDAO.getChangesSince(messageSeq, BATCH_SIZE));
+                List<AccountChange> accountChanges = Shards.on(shard,
+                        () -> accountChangeDAO.getChangesSince(accountSeq, BATCH_SIZE));
+                int messageCount = contiguous(shard, messageSeq, messageChanges, MessageChange::getChange_seq,
+                        MessageChange::getChanged_at, messageSettled, messageGaps, startedAt);
+                int accountCount = contiguous(shard, accountSeq, accountChanges, AccountChange::getChange_seq,
+                        AccountChange::getChanged_at, accountSettled, accountGaps, startedAt);
+
+                ReplicaDAO.applyAccountChanges(connection, accountChanges.subList(0, accountCount));
+                ReplicaDAO.applyMessageChanges(connection, messageChanges.subList(0, messageCount));
+                if (messageCount > 0) {
+                    ReplicaDAO.setPosition(connection, ReplicaDAO.MESSAGE_LOG,
+                            messageChanges.get(messageCount - 1).getChange_seq());
+                }
+                if (accountCount > 0) {
+                    ReplicaDAO.setPosition(connection, ReplicaDAO.ACCOUNT_LOG,
+                            accountChanges.get(accountCount - 1).getChange_seq());
+                }
+                connection.commit();
+
+                Metrics.add("replication.applied", messageCount + accountCount);
+                if (messageCount == messageChanges.size() && messageCount < BATCH_SIZE
+                        && accountCount == accountChanges.size() && accountCount < BATCH_SIZE
+                        && messageGaps.isEmpty() && accountGaps.isEmpty()) {
+                    Replicas.markSynced(shard, replica, startedAt);
+                }
+                return messageCount + accountCount;
+
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            Metrics.increment("replication.failures");
+            return -1;
+        }
+    }
+
+    private boolean needsBootstrap(int shard, long messageSeq, long accountSeq) {
+        if (messageSeq < 0 || accountSeq < 0) {
+            return true;
+        }
+        return Shards.on(shard, () -> messageSeq < messageChangeDAO.getCompactedThrough()
+                || messageSeq > messageChangeDAO.getLatestSeq()
+                || accountSeq < accountChangeDAO.getCompactedThrough()
+                || accountSeq > accountChangeDAO.getLatestSeq());
+    }
+
+    /**
+     * @return the sequence numbers of one replica's log that a pass skipped before they settled
+     */
+    private Set<Long> skippedGaps(int shard, int replica, String log) {
+        return skipped.computeIfAbsent(shard + ":" + replica + ":" + log, key -> new ConcurrentSkipListSet<>());
+    }
+
+    /**
+     * Looks the skipped numbers up on the primary, then forgets those that have settled without appearing.
+     * @return true if one of them has been committed since it was skipped
+     */
+    private boolean turnedUp(int shard, Set<Long> gaps, long settledThrough, ToIntFunction<Set<Long>> countChanges) {
+        if (gaps.isEmpty()) {
+            return false;
+        }
+        if (Shards.on(shard, () -> countChanges.applyAsInt(gaps)) > 0) {
+            Metrics.increment("replication.lateChanges");
+            return true;
+        }
+        gaps.removeIf(seq -> seq <= settledThrough);
+        return false;
+    }
+
+    /**
+     * @return how many changes from the start of the batch can be applied: up to the first gap in the shard's
+     * sequence that has not settled, unless the change after the gap was recorded more than the gap timeout ago.
+     * The numbers of a gap skipped that way are added to gaps.
+     */
+    private <T> int contiguous(int shard, long position, List<T> changes, ToLongFunction<T> seq,
+                               ToLongFunction<T> changedAt, long settledThrough, Set<Long> gaps, long now) {
+        long settled = settledThrough;
+        while (true) {
+            int count = ChangeFeedService.contiguous(shard, position, changes, seq, settled);
+            if (count == changes.size()) {
+                return count;
+            }
+            T next = changes.get(count);
+            if (now - changedAt.applyAsLong(next) < gapTimeoutMillis) {
+                Metrics.increment("replication.gapWaits");
+                return count;
+            }
+            long before = count > 0 ? seq.applyAsLong(changes.get(count - 1))
+                    : position > 0 ? position : shard + 1 - Shards.count();
+            for (long missing = before + Shards.count(); missing < seq.applyAsLong(next); missing += Shards.count()) {
+                if (missing > settledThrough) {
+                    gaps.add(missing);
+                }
+            }
+            Metrics.increment("replication.gapsSkipped");
+            settled = seq.applyAsLong(next) - Shards.count();
+        }
+    }
+
+    /**
+     * Stops scheduling passes and waits for the running one. The shipper is not interrupted: H2 closes a database
+     * file whose reading thread is interrupted.
+     */
+    public void close() {
+        shipper.shutdown();
+        try {
+            shipper.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package Service;
+
+import Model.Account;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and validates session tokens, so that a request can prove which account it acts for without a database
+ * round trip. A token is base64url(payload) + "." + base64url(HMAC-SHA256(payload)), where the payload is the
+ * account id, the expiry time and a random token id. Validation is a signature check and an expiry check; the only
+ * state consulted is a small deny-list of revoked token ids, which forgets each entry once the token would have
+ * expired anyway.
+ */
+public class SessionService {
+    private static final int PAYLOAD_LENGTH = Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Uses the secret from the socialmedia.session.secret system property when set, so that every instance of the
+     * app accepts the same tokens; otherwise a random per-process secret.
+     */
+    public SessionService() {
+        this(secretFromProperties(), Long.getLong("socialmedia.session.ttlSeconds", 3600L) * 1000L);
+    }
+
+    public SessionService(byte[] secret, long ttlMillis) {
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.ttlMillis = ttlMillis;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private static byte[] secretFromProperties() {
+        String secret = System.getProperty("socialmedia.session.secret");
+        if (secret != null) {
+            return secret.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] generated = new byte[32];
+        new SecureRandom().nextBytes(generated);
+        return generated;
+    }
+
+    /**
+     * @param account an authenticated account
+     * @return a signed token for that account
+     */
+    public String issueToken(Account account) {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_LENGTH);
+        payload.putInt(account.getAccount_id());
+        payload.putLong(System.currentTimeMillis() + ttlMillis);
+        payload.putLong(random.nextLong());
+        byte[] bytes = payload.array();
+        return ENCODER.encodeToString(bytes) + "." + ENCODER.encodeToString(sign(bytes));
+    }
+
+    /**
+     * @param token a token previously returned by {@link #issueToken(Account)}
+     * @return the account id the token was issued for, or null if it is malformed, forged, expired or revoked
+     */
+    public Integer validateToken(String token) {
+        ByteBuffer payload = verifiedPayload(token);
+        if (payload == null) {
+            return null;
+        }
+        int accountId = payload.getInt();
+        long expiresAt = payload.getLong();
+        long tokenId = payload.getLong();
+        if (expiresAt < System.currentTimeMillis() || revoked.containsKey(tokenId)) {
+            return null;
+        }
+        return accountId;
+    }
+
+    /**
+     * Adds the token to the deny-list until it expires.
+     * @param token the token to revoke
+     * @return true if the token was valid and is now revoked
+     */
+    public boolean revokeToken(String token) {
+        if (validateToken(token) == null) {
+            return false;
+        }
+        ByteBuffer payload = verifiedPayload(token);
+        payload.getInt();
+        long expiresAt = payload.getLong();
+        revoked.put(payload.getLong(), expiresAt);
+        long now = System.currentTimeMillis();
+        revoked.values().removeIf(expiry -> expiry < now);
+        return true;
+    }
+
+    /**
+     * @return the number of revoked tokens that have not expired yet
+     */
+    public int revokedCount() {
+        return revoked.size();
+    }
+
+    private ByteBuffer verifiedPayload(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (payload.length != PAYLOAD_LENGTH || !MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+            return ByteBuffer.wrap(payload);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package Service;
+
+import DAO.InvalidationEventDAO;
+import Util.Metrics;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The fallback transport for when instances cannot reach each other directly: batches are appended to the
+ * invalidation_event table of the shared database, and every instance polls it for rows it has not read yet.
+ * A row that commits after a later one was already read is skipped, which the receiving {@link InvalidationBus}
+ * notices as a gap. Rows older than a minute are deleted, since every instance has read them by then.
+ */
+public class TableInvalidationTransport implements InvalidationTransport {
+    private static final int POLL_LIMIT = 1000;
+    private static final long RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final InvalidationEventDAO invalidationEventDAO = new InvalidationEventDAO();
+    private final long pollMillis;
+    private final ScheduledExecutorService poller;
+    // only touched by the poller thread
+    private long lastSeen;
+    private long lastPrunedAt;
+
+    /**
+     * @param pollMillis how often the table is read
+     */
+    public TableInvalidationTransport(long pollMillis) {
+        this.pollMillis = pollMillis;
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-table-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        // batches from before this instance started concern rows it has never cached
+        lastSeen = invalidationEventDAO.getLatestSeq();
+        poller.scheduleWithFixedDelay(() -> poll(receiver), pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(Consumer<byte[]> receiver) {
+        List<InvalidationEventDAO.Event> events = invalidationEventDAO.getEventsSince(lastSeen, POLL_LIMIT);
+        for (InvalidationEventDAO.Event event : events) {
+            receiver.accept(event.payload);
+            lastSeen = event.seq;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastPrunedAt > RETENTION_MILLIS / 4) {
+            invalidationEventDAO.deleteEventsBefore(now - RETENTION_MILLIS);
+            lastPrunedAt = now;
+        }
+    }
+
+    @Override
+    public void send(byte[] batch) {
+        if (!invalidationEventDAO.append(batch, System.currentTimeMillis())) {
+            Metrics.increment("invalidation.sendFailures");
+        }
+    }
+
+    /**
+     * Stops polling without interrupting a poll in progress, since H2 closes a database whose reader is interrupted.
+     */
+    @Override
+    public void close() {
+        poller.shutdown();
+        try {
+            poller.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
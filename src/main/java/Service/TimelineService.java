@@ -0,0 +1,406 @@
+package Service;
+
+import DAO.FollowDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves each account's home feed: the newest messages of the accounts it follows.
+ *
+ * Feeds are precomputed. When a message is created it is fanned out into the timeline of every follower whose
+ * timeline is in memory (fan-out-on-write), so a read is a copy of one capped list. An account with more than
+ * celebrityThreshold followers would make that fan-out too expensive, so its messages go only to its own authored
+ * timeline, and readers k-way merge the authored timelines of the celebrities they follow into their own
+ * (fan-out-on-read).
+ *
+ * The follow graph is kept in memory in both directions and mirrored in the follow table. Timelines are built from
+ * the database on first read, hold at most timelineSize messages, and are dropped when nobody has read them for
+ * idleSeconds, so memory follows the number of active readers rather than the number of accounts. With a
+ * {@link ColdTier}, a timeline the message table cannot fill is topped up with archived messages.
+ */
+public class TimelineService implements MessageListener {
+
+    /**
+     * Newest first: by time_posted_epoch, then by message_id.
+     */
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id)
+            .reversed();
+
+    /**
+     * A capped list of messages, newest first, without duplicates. Guarded by its own monitor.
+     */
+    private static final class Timeline {
+        private final int capacity;
+        private final List<Message> messages = new ArrayList<>();
+        private boolean loaded;
+        private volatile long lastReadNanos = System.nanoTime();
+
+        Timeline(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return true if the message was stored, false if it is older than everything kept or already present
+         */
+        synchronized boolean add(Message message) {
+            int position = insertionPoint(message);
+            if (position >= capacity) {
+                return false;
+            }
+            if (position < messages.size() && messages.get(position).getMessage_id() == message.getMessage_id()) {
+                return false;
+            }
+            messages.add(position, message);
+            if (messages.size() > capacity) {
+                messages.remove(messages.size() - 1);
+            }
+            return true;
+        }
+
+        synchronized void replace(Message message) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i).getMessage_id() == message.getMessage_id()) {
+                    messages.remove(i);
+                    add(message);
+                    return;
+                }
+            }
+        }
+
+        synchronized void remove(int messageId) {
+            messages.removeIf(message -> message.getMessage_id() == messageId);
+        }
+
+        synchronized void removePostedBy(int accountId) {
+            messages.removeIf(message -> message.getPosted_by() == accountId);
+        }
+
+        synchronized void removePostedBefore(long cutoff) {
+            messages.removeIf(message -> message.getTime_posted_epoch() < cutoff);
+        }
+
+        synchronized boolean isFull() {
+            return messages.size() >= capacity;
+        }
+
+        synchronized List<Message> newest(int limit) {
+            return new ArrayList<>(messages.subList(0, Math.min(limit, messages.size())));
+        }
+
+        private int insertionPoint(Message message) {
+            int low = 0;
+            int high = messages.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (NEWEST_FIRST.compare(messages.get(middle), message) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final FollowDAO followDAO = new FollowDAO();
+    private final MessageDAO messageDAO = new MessageDAO();
+    private final Map<Integer, Set<Integer>> followers = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> followees = new ConcurrentHashMap<>();
+    private final Map<Integer, Timeline> homeTimelines = new ConcurrentHashMap<>();
+    private final Map<Integer, Timeline> authoredTimelines = new ConcurrentHashMap<>();
+    private final int timelineSize;
+    private final int celebrityThreshold;
+    private final long idleNanos;
+    private final ScheduledExecutorService sweeper;
+    private ColdTier coldTier;
+
+    public TimelineService() {
+        this(Integer.getInteger("socialmedia.timeline.size", 800),
+                Integer.getInteger("socialmedia.timeline.celebrityThreshold", 10_000),
+                Long.getLong("socialmedia.timeline.idleSeconds", 3600L));
+    }
+
+    /**
+     * @param timelineSize       the number of messages kept per timeline, and the most a feed read can return
+     * @param celebrityThreshold the follower count above which an account's messages are merged at read time
+     * @param idleSeconds        how long an unread home timeline stays in memory
+     */
+    public TimelineService(int timelineSize, int celebrityThreshold, long idleSeconds) {
+        this.timelineSize = timelineSize;
+        this.celebrityThreshold = celebrityThreshold;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        followDAO.forEachFollow(this::addEdge);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "timeline-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepSeconds = Math.max(1, idleSeconds / 4);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+        Metrics.gauge("timeline.home", homeTimelines::size);
+        Metrics.gauge("timeline.authored", authoredTimelines::size);
+    }
+
+    /**
+     * Tops up timelines with archived messages when the message table has too few.
+     */
+    public void setColdTier(ColdTier coldTier) {
+        this.coldTier = coldTier;
+    }
+
+    /**
+     * @return true if the follow was recorded, false if either account does not exist or they are the same
+     */
+    public boolean follow(int followerId, int followeeId) {
+        if (followerId == followeeId || !followDAO.follow(followerId, followeeId)) {
+            return false;
+        }
+        if (!addEdge(followerId, followeeId)) {
+            return true;
+        }
+        Timeline home = homeTimelines.get(followerId);
+        if (home != null && !isCelebrity(followeeId)) {
+            addRecentMessagesBy(followeeId, home);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if follower was following followee
+     */
+    public boolean unfollow(int followerId, int followeeId) {
+        if (!followDAO.unfollow(followerId, followeeId)) {
+            return false;
+        }
+        removeEdge(followerId, followeeId);
+        Timeline home = homeTimelines.get(followerId);
+        if (home != null) {
+            home.removePostedBy(followeeId);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of accounts following the account
+     */
+    public int followerCount(int accountId) {
+        Set<Integer> accounts = followers.get(accountId);
+        return accounts == null ? 0 : accounts.size();
+    }
+
+    /**
+     * @param limit at most this many messages, capped at the timeline size
+     * @return the newest messages of the accounts the account follows, newest first
+     */
+    public List<Message> getFeed(int accountId, int limit) {
+        limit = Math.max(1, Math.min(limit, timelineSize));
+        Timeline home = homeTimeline(accountId);
+        home.lastReadNanos = System.nanoTime();
+
+        List<List<Message>> sources = new ArrayList<>();
+        sources.add(home.newest(limit));
+        for (Integer followeeId : followees.getOrDefault(accountId, Set.of())) {
+            Timeline authored = isCelebrity(followeeId) ? authoredTimeline(followeeId) : authoredTimelines.get(followeeId);
+            if (authored != null) {
+                sources.add(authored.newest(limit));
+            }
+        }
+        return sources.size() == 1 ? sources.get(0) : merge(sources, limit);
+    }
+
+    @Override
+    public void messageCreated(Message message) {
+        int authorId = message.getPosted_by();
+        if (isCelebrity(authorId)) {
+            authoredTimeline(authorId).add(message);
+            Metrics.increment("timeline.fanout.writes");
+            return;
+        }
+        Timeline authored = authoredTimelines.get(authorId);
+        if (authored != null) {
+            // A former celebrity: keep its authored timeline current until readers no longer need it
+            authored.add(message);
+        }
+        int writes = 0;
+        for (Integer followerId : followers.getOrDefault(authorId, Set.of())) {
+            Timeline home = homeTimelines.get(followerId);
+            if (home != null && home.add(message)) {
+                writes++;
+            }
+        }
+        Metrics.add("timeline.fanout.writes", writes);
+    }
+
+    @Override
+    public void messageUpdated(Message message) {
+        Timeline authored = authoredTimelines.get(message.getPosted_by());
+        if (authored != null) {
+            authored.replace(message);
+        }
+        for (Integer followerId : followers.getOrDefault(message.getPosted_by(), Set.of())) {
+            Timeline home = homeTimelines.get(followerId);
+            if (home != null) {
+                home.replace(message);
+            }
+        }
+    }
+
+    @Override
+    public void messageDeleted(Message message) {
+        Timeline authored = authoredTimelines.get(message.getPosted_by());
+        if (authored != null) {
+            authored.remove(message.getMessage_id());
+        }
+        for (Integer followerId : followers.getOrDefault(message.getPosted_by(), Set.of())) {
+            Timeline home = homeTimelines.get(followerId);
+            if (home != null) {
+                home.remove(message.getMessage_id());
+            }
+        }
+    }
+
+    /**
+     * The deleted messages are the oldest ones, so they sit at the end of each timeline and nothing newer is
+     * missing once they are removed.
+     */
+    @Override
+    public void messagesDeletedBefore(long cutoff) {
+        for (Timeline home : homeTimelines.values()) {
+            home.removePostedBefore(cutoff);
+        }
+        for (Timeline authored : authoredTimelines.values()) {
+            authored.removePostedBefore(cutoff);
+        }
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    private boolean isCelebrity(int accountId) {
+        return followerCount(accountId) > celebrityThreshold;
+    }
+
+    /**
+     * @return false if the edge was already known
+     */
+    private boolean addEdge(int followerId, int followeeId) {
+        boolean added = followers.computeIfAbsent(followeeId, k -> ConcurrentHashMap.newKeySet()).add(followerId);
+        followees.computeIfAbsent(followerId, k -> ConcurrentHashMap.newKeySet()).add(followeeId);
+        return added;
+    }
+
+    private void removeEdge(int followerId, int followeeId) {
+        Set<Integer> accounts = followers.get(followeeId);
+        if (accounts != null) {
+            accounts.remove(followerId);
+        }
+        accounts = followees.get(followerId);
+        if (accounts != null) {
+            accounts.remove(followeeId);
+        }
+    }
+
+    /**
+     * Returns the account's home timeline, building it from the database on first use. The empty timeline is
+     * published before the database is read, so a message created meanwhile is fanned out into it rather than
+     * lost; the load then skips whatever the fan-out already added.
+     */
+    private Timeline homeTimeline(int accountId) {
+        Timeline home = homeTimelines.computeIfAbsent(accountId, k -> new Timeline(timelineSize));
+        synchronized (home) {
+            if (!home.loaded) {
+                for (Message message : messageDAO.getMessagesFollowedBy(accountId, timelineSize)) {
+                    if (!isCelebrity(message.getPosted_by())) {
+                        home.add(message);
+                    }
+                }
+                if (coldTier != null && !home.isFull()) {
+                    for (Integer followeeId : followees.getOrDefault(accountId, Set.of())) {
+                        if (!isCelebrity(followeeId)) {
+                            addAll(coldTier.getRecentMessagesByUserId(followeeId, timelineSize), home);
+                        }
+                    }
+                }
+                home.loaded = true;
+            }
+        }
+        return home;
+    }
+
+    private Timeline authoredTimeline(int accountId) {
+        Timeline authored = authoredTimelines.computeIfAbsent(accountId, k -> new Timeline(timelineSize));
+        synchronized (authored) {
+            if (!authored.loaded) {
+                addRecentMessagesBy(accountId, authored);
+                authored.loaded = true;
+            }
+        }
+        return authored;
+    }
+
+    /**
+     * Adds an account's newest messages to a timeline, from the message table and then, if it has fewer than the
+     * timeline holds, from the cold tier.
+     */
+    private void addRecentMessagesBy(int accountId, Timeline timeline) {
+        List<Message> recent = messageDAO.getRecentMessagesByUserId(accountId, timelineSize);
+        addAll(recent, timeline);
+        if (coldTier != null && recent.size() < timelineSize) {
+            addAll(coldTier.getRecentMessagesByUserId(accountId, timelineSize), timeline);
+        }
+    }
+
+    private static void addAll(List<Message> messages, Timeline timeline) {
+        for (Message message : messages) {
+            timeline.add(message);
+        }
+    }
+
+    /**
+     * k-way merge of newest-first lists, skipping a message that appears in more than one of them.
+     */
+    private static List<Message> merge(List<List<Message>> sources, int limit) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+                NEWEST_FIRST.compare(sources.get(a[0]).get(a[1]), sources.get(b[0]).get(b[1])));
+        for (int source = 0; source < sources.size(); source++) {
+            if (!sources.get(source).isEmpty()) {
+                heads.add(new int[] {source, 0});
+            }
+        }
+        List<Message> merged = new ArrayList<>(limit);
+        Set<Integer> seen = new HashSet<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<Message> source = sources.get(head[0]);
+            Message message = source.get(head[1]);
+            if (seen.add(message.getMessage_id())) {
+                merged.add(message);
+            }
+            if (head[1] + 1 < source.size()) {
+                heads.add(new int[] {head[0], head[1] + 1});
+            }
+        }
+        return merged;
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        homeTimelines.entrySet().removeIf(entry -> now - entry.getValue().lastReadNanos > idleNanos);
+    }
+}
@@ -0,0 +1,221 @@
+package Service;
+
+import Model.Message;
+import Model.TrendingTerm;
+import Util.CountMinSketch;
+import Util.Metrics;
+import Util.SpaceSaving;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the most used terms in message_text over sliding windows of 5 minutes, 1 hour and 1 day, in memory that
+ * does not grow with the message volume.
+ *
+ * Each window is a ring of time buckets (5 of 1 minute, 12 of 5 minutes, 24 of 1 hour) and slides one bucket at a
+ * time. A bucket holds a {@link CountMinSketch}, which estimates the count of any term, and a {@link SpaceSaving}
+ * summary, which remembers which terms are heavy. The top terms of a window are the heavy-hitter candidates of its
+ * buckets, ranked by their summed sketch estimates. A term counts once per message that contains it.
+ *
+ * Error bound: an estimate is never below the true count, and exceeds it by more than epsilon times the number of
+ * term occurrences in the window with probability at most delta. Any term used in more than 1/k of a bucket's
+ * occurrences is a candidate.
+ *
+ * Messages are tokenized and counted by one consumer thread, fed through a bounded queue so the write path only
+ * pays for an offer. When the consumer falls behind the queue fills and messages are skipped and counted in
+ * trending.dropped, which only lowers the counts.
+ */
+public class TrendingService implements MessageListener {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "the", "and", "for", "you", "that", "this", "with", "are", "was", "but", "not", "have", "has", "had",
+            "from", "they", "your", "all", "can", "just", "its", "our", "out", "what", "about", "will", "would",
+            "there", "their", "them", "been", "were", "more", "some", "when", "who", "how", "than", "then", "into");
+
+    /**
+     * One sliding window: a ring of buckets, each covering bucketMillis of ingestion time.
+     */
+    private static final class Window {
+        private final long bucketMillis;
+        private final long[] bucketIds;
+        private final CountMinSketch[] sketches;
+        private final SpaceSaving[] heavyHitters;
+
+        Window(int buckets, long bucketMillis, double epsilon, double delta, int heavyHitterCount) {
+            this.bucketMillis = bucketMillis;
+            this.bucketIds = new long[buckets];
+            Arrays.fill(bucketIds, -1);
+            this.sketches = new CountMinSketch[buckets];
+            this.heavyHitters = new SpaceSaving[buckets];
+            for (int i = 0; i < buckets; i++) {
+                sketches[i] = new CountMinSketch(epsilon, delta);
+                heavyHitters[i] = new SpaceSaving(heavyHitterCount);
+            }
+        }
+
+        synchronized void add(List<String> terms, long nowMillis) {
+            long bucketId = nowMillis / bucketMillis;
+            int slot = (int) (bucketId % bucketIds.length);
+            if (bucketIds[slot] != bucketId) {
+                bucketIds[slot] = bucketId;
+                sketches[slot].clear();
+                heavyHitters[slot].clear();
+            }
+            for (String term : terms) {
+                sketches[slot].add(term, 1);
+                heavyHitters[slot].add(term, 1);
+            }
+        }
+
+        synchronized List<TrendingTerm> top(int limit, long nowMillis) {
+            long current = nowMillis / bucketMillis;
+            List<Integer> live = new ArrayList<>();
+            for (int slot = 0; slot < bucketIds.length; slot++) {
+                if (bucketIds[slot] <= current && bucketIds[slot] > current - bucketIds.length) {
+                    live.add(slot);
+                }
+            }
+            Set<String> candidates = new LinkedHashSet<>();
+            for (int slot : live) {
+                for (SpaceSaving.Counter counter : heavyHitters[slot].counters()) {
+                    candidates.add(counter.getValue());
+                }
+            }
+            List<TrendingTerm> ranked = new ArrayList<>(candidates.size());
+            for (String term : candidates) {
+                long count = 0;
+                for (int slot : live) {
+                    count += sketches[slot].estimate(term);
+                }
+                ranked.add(new TrendingTerm(term, count));
+            }
+            ranked.sort((a, b) -> a.count != b.count ? Long.compare(b.count, a.count) : a.term.compareTo(b.term));
+            return ranked.subList(0, Math.min(limit, ranked.size()));
+        }
+    }
+
+    private final Map<String, Window> windows = new LinkedHashMap<>();
+    private final BlockingQueue<String> pending;
+    private final LongSupplier clockMillis;
+    private final Thread consumer;
+
+    public TrendingService() {
+        this(Double.parseDouble(System.getProperty("socialmedia.trending.epsilon", "0.002")),
+                Double.parseDouble(System.getProperty("socialmedia.trending.delta", "0.01")),
+                Integer.getInteger("socialmedia.trending.heavyHitters", 200),
+                Integer.getInteger("socialmedia.trending.queueSize", 10_000),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param epsilon      the sketch error bound, as a fraction of the term occurrences in a window
+     * @param delta        the probability of exceeding that bound
+     * @param heavyHitters the number of candidate terms tracked per bucket
+     * @param queueSize    the number of messages waiting to be counted before new ones are skipped
+     * @param clockMillis  the ingestion clock that places messages in buckets
+     */
+    public TrendingService(double epsilon, double delta, int heavyHitters, int queueSize, LongSupplier clockMillis) {
+        windows.put("5m", new Window(5, TimeUnit.MINUTES.toMillis(1), epsilon, delta, heavyHitters));
+        windows.put("1h", new Window(12, TimeUnit.MINUTES.toMillis(5), epsilon, delta, heavyHitters));
+        windows.put("1d", new Window(24, TimeUnit.HOURS.toMillis(1), epsilon, delta, heavyHitters));
+        this.pending = new ArrayBlockingQueue<>(queueSize);
+        this.clockMillis = clockMillis;
+        this.consumer = new Thread(this::consume, "trending-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+        Metrics.gauge("trending.pending", pending::size);
+    }
+
+    @Override
+    public void messageCreated(Message message) {
+        if (!pending.offer(message.getMessage_text())) {
+            Metrics.increment("trending.dropped");
+        }
+    }
+
+    /**
+     * Counts the terms of one message text in every window, on the calling thread.
+     */
+    public void record(String text) {
+        List<String> terms = tokenize(text);
+        long now = clockMillis.getAsLong();
+        for (Window window : windows.values()) {
+            window.add(terms, now);
+        }
+    }
+
+    /**
+     * @param window one of {@link #windowNames()}
+     * @param limit  the maximum number of terms to return
+     * @return the most used terms of the window, most first
+     * @throws IllegalArgumentException if the window is unknown
+     */
+    public List<TrendingTerm> getTrending(String window, int limit) {
+        Window selected = windows.get(window);
+        if (selected == null) {
+            throw new IllegalArgumentException("Unknown window " + window);
+        }
+        return selected.top(Math.max(1, limit), clockMillis.getAsLong());
+    }
+
+    /**
+     * @return the window names, shortest first
+     */
+    public Set<String> windowNames() {
+        return windows.keySet();
+    }
+
+    public void close() {
+        consumer.interrupt();
+    }
+
+    /**
+     * Splits a text into lower-cased terms of letters and digits, at least three characters long and not a common
+     * English word. A leading # is dropped so hashtags count with the bare word. Each term is returned once.
+     */
+    public static List<String> tokenize(String text) {
+        Set<String> seen = new HashSet<>();
+        List<String> ordered = new ArrayList<>();
+        int length = text == null ? 0 : text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= 3) {
+                    String term = text.substring(start, i).toLowerCase();
+                    if (!STOP_WORDS.contains(term) && seen.add(term)) {
+                        ordered.add(term);
+                    }
+                }
+                start = -1;
+            }
+        }
+        return ordered;
+    }
+
+    private void consume() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                record(pending.take());
+                Metrics.increment("trending.messages");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package Service;
+
+import Util.Metrics;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sends invalidation batches as UDP datagrams to a fixed list of peers, and receives theirs on one socket. There is
+ * no acknowledgement or retry: a lost datagram is noticed by the receiving {@link InvalidationBus} from the next
+ * batch or heartbeat of the sender. Batches are at most a few kilobytes, well under the datagram limit.
+ */
+public class UdpInvalidationTransport implements InvalidationTransport {
+    private static final int MAX_DATAGRAM = 65_507;
+
+    private final DatagramSocket socket;
+    private final List<InetSocketAddress> peers;
+    private Thread receiverThread;
+
+    /**
+     * @param bind  the address this instance receives on
+     * @param peers the addresses of the other instances
+     */
+    public UdpInvalidationTransport(InetSocketAddress bind, List<InetSocketAddress> peers) throws SocketException {
+        this.socket = new DatagramSocket(bind);
+        this.peers = peers;
+    }
+
+    /**
+     * @param peers "host:port" entries separated by commas
+     */
+    public static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            if (peer.isBlank()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            addresses.add(new InetSocketAddress(peer.substring(0, colon).trim(),
+                    Integer.parseInt(peer.substring(colon + 1).trim())));
+        }
+        return addresses;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        receiverThread = new Thread(() -> {
+            byte[] buffer = new byte[MAX_DATAGRAM];
+            while (!socket.isClosed()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (IOException e) {
+                    // the socket was closed
+                    return;
+                }
+                receiver.accept(Arrays.copyOf(packet.getData(), packet.getLength()));
+            }
+        }, "invalidation-udp-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+    }
+
+    @Override
+    public void send(byte[] batch) {
+        for (InetSocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(batch, batch.length, peer));
+            } catch (IOException e) {
+                Metrics.increment("invalidation.sendFailures");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
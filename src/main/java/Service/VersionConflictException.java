@@ -0,0 +1,13 @@
+package Service;
+
+/**
+ * Thrown when a conditional write finds that the message is no longer at any of the versions the caller expected:
+ * someone else changed or deleted it since the caller read it.
+ */
+public class VersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public VersionConflictException(int messageId) {
+        super("Message " + messageId + " was modified concurrently");
+    }
+}
@@ -0,0 +1,86 @@
+package Util;
+
+import Model.Account;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * The AccountJson class holds the hand-written Jackson codec for {@link Account}, registered by {@link Json}; see
+ * {@link MessageJson}. An unknown field fails as soon as the parser reaches it.
+ */
+public class AccountJson {
+
+	private static final SerializableString ACCOUNT_ID = new SerializedString("account_id");
+	private static final SerializableString USERNAME = new SerializedString("username");
+	private static final SerializableString PASSWORD = new SerializedString("password");
+
+	private AccountJson() {
+	}
+
+	public static class Serializer extends StdSerializer<Account> {
+		private static final long serialVersionUID = 1L;
+
+		public Serializer() {
+			super(Account.class);
+		}
+
+		@Override
+		public void serialize(Account account, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			generator.writeStartObject(account);
+			generator.writeFieldName(ACCOUNT_ID);
+			generator.writeNumber(account.getAccount_id());
+			generator.writeFieldName(USERNAME);
+			generator.writeString(account.getUsername());
+			generator.writeFieldName(PASSWORD);
+			generator.writeString(account.getPassword());
+			generator.writeEndObject();
+		}
+	}
+
+	public static class Deserializer extends StdDeserializer<Account> {
+		private static final long serialVersionUID = 1L;
+
+		public Deserializer() {
+			super(Account.class);
+		}
+
+		@Override
+		public Account deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+			JsonToken token = parser.currentToken();
+			if (token == JsonToken.START_OBJECT) {
+				token = parser.nextToken();
+			} else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+				return (Account) context.handleUnexpectedToken(Account.class, parser);
+			}
+			Account account = new Account();
+			for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+				String name = parser.currentName();
+				parser.nextToken();
+				switch (name) {
+					case "account_id":
+						account.setAccount_id(_parseIntPrimitive(parser, context));
+						break;
+					case "username":
+						account.setUsername(_parseString(parser, context));
+						break;
+					case "password":
+						account.setPassword(_parseString(parser, context));
+						break;
+					default:
+						context.handleUnknownProperty(parser, this, Account.class, name);
+				}
+			}
+			return account;
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package Util;
+
+import Model.Message;
+import Model.VersionedMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The ColdSegment class is one immutable file of archived messages, sorted by id. Messages are packed into blocks
+ * of about blockBytes, each compressed on its own with Deflater, so a lookup inflates a single block. After the
+ * blocks come an author index, the (posted_by, message_id) pairs in order, and a sparse block index, the first id
+ * and position of each block. The file is read through a read-only memory mapping: only the block index is copied
+ * to the heap, and the page cache keeps whatever parts of the file are being read.
+ *
+ * Layout: blocks | author pair count, pairs | block count, (first id, offset, compressed length, raw length) per
+ * block | footer: block index offset, author index offset, message count, min id, max id, raw bytes, min and max
+ * time_posted_epoch, magic. A block entry is message_id, posted_by, time_posted_epoch, version, the text length
+ * and the UTF-8 text.
+ *
+ * A segment is written to a temporary file, forced to disk and then renamed, so a file with the segment name is
+ * always complete.
+ */
+public class ColdSegment {
+
+	private static final int MAGIC = 0x534d4353;
+	private static final int FOOTER_BYTES = 8 + 8 + 4 + 4 + 4 + 8 + 8 + 8 + 4;
+	private static final int BLOCK_INDEX_ENTRY_BYTES = 4 + 8 + 4 + 4;
+
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+	private static final ThreadLocal<byte[][]> blockBuffers = ThreadLocal.withInitial(() -> new byte[1][0]);
+
+	private final Path path;
+	private final MappedByteBuffer file;
+	private final int[] firstIds;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final int[] rawLengths;
+	private final int authorIndex;
+	private final int authorPairs;
+	private final int messageCount;
+	private final int minId;
+	private final int maxId;
+	private final long rawBytes;
+	private final long minTime;
+	private final long maxTime;
+
+	private ColdSegment(Path path, MappedByteBuffer file) throws IOException {
+		this.path = path;
+		this.file = file;
+		int footer = file.capacity() - FOOTER_BYTES;
+		if (footer < 0 || file.getInt(file.capacity() - 4) != MAGIC) {
+			throw new IOException(path + " is not a message segment");
+		}
+		int blockIndex = (int) file.getLong(footer);
+		this.authorIndex = (int) file.getLong(footer + 8);
+		this.messageCount = file.getInt(footer + 16);
+		this.minId = file.getInt(footer + 20);
+		this.maxId = file.getInt(footer + 24);
+		this.rawBytes = file.getLong(footer + 28);
+		this.minTime = file.getLong(footer + 36);
+		this.maxTime = file.getLong(footer + 44);
+		this.authorPairs = file.getInt(authorIndex);
+		int blocks = file.getInt(blockIndex);
+		firstIds = new int[blocks];
+		offsets = new int[blocks];
+		lengths = new int[blocks];
+		rawLengths = new int[blocks];
+		for (int i = 0; i < blocks; i++) {
+			int entry = blockIndex + 4 + i * BLOCK_INDEX_ENTRY_BYTES;
+			firstIds[i] = file.getInt(entry);
+			offsets[i] = (int) file.getLong(entry + 4);
+			lengths[i] = file.getInt(entry + 12);
+			rawLengths[i] = file.getInt(entry + 16);
+		}
+	}
+
+	/**
+	 * Maps an existing segment file.
+	 * @throws IOException if it cannot be read or is not a segment
+	 */
+	public static ColdSegment open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new ColdSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Writes the messages as a new segment and maps it.
+	 * @param messages at least one message, sorted by id
+	 * @param blockBytes the uncompressed size at which a block is closed
+	 */
+	public static ColdSegment write(Path path, List<VersionedMessage> messages, int blockBytes) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			writeTo(Channels.newOutputStream(channel), messages, blockBytes);
+			channel.force(true);
+		}
+		Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+		return open(path);
+	}
+
+	private static void writeTo(OutputStream stream, List<VersionedMessage> messages, int blockBytes) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		ByteArrayOutputStream block = new ByteArrayOutputStream(blockBytes * 2);
+		DataOutputStream entries = new DataOutputStream(block);
+		Deflater deflater = new Deflater();
+		byte[] compressed = new byte[blockBytes * 2 + 64];
+		int blocks = messages.size();
+		int[] firstIds = new int[blocks];
+		long[] offsets = new long[blocks];
+		int[] lengths = new int[blocks];
+		int[] rawLengths = new int[blocks];
+		long[] authorPairs = new long[messages.size()];
+		int blockCount = 0;
+		long offset = 0;
+		long rawBytes = 0;
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+		for (int i = 0; i < messages.size(); i++) {
+			Message message = messages.get(i).getMessage();
+			if (block.size() == 0) {
+				firstIds[blockCount] = message.getMessage_id();
+			}
+			byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+			entries.writeInt(message.getMessage_id());
+			entries.writeInt(message.getPosted_by());
+			entries.writeLong(message.getTime_posted_epoch());
+			entries.writeLong(messages.get(i).getVersion());
+			entries.writeShort(text.length);
+			entries.write(text);
+			authorPairs[i] = ((long) message.getPosted_by() << 32) | (message.getMessage_id() & 0xffffffffL);
+			minTime = Math.min(minTime, message.getTime_posted_epoch());
+			maxTime = Math.max(maxTime, message.getTime_posted_epoch());
+			if (block.size() >= blockBytes || i == messages.size() - 1) {
+				byte[] raw = block.toByteArray();
+				deflater.reset();
+				deflater.setInput(raw);
+				deflater.finish();
+				if (compressed.length < raw.length + 64) {
+					compressed = new byte[raw.length * 2 + 64];
+				}
+				int length = 0;
+				while (!deflater.finished()) {
+					if (length == compressed.length) {
+						compressed = Arrays.copyOf(compressed, compressed.length * 2);
+					}
+					length += deflater.deflate(compressed, length, compressed.length - length);
+				}
+				out.write(compressed, 0, length);
+				offsets[blockCount] = offset;
+				lengths[blockCount] = length;
+				rawLengths[blockCount] = raw.length;
+				blockCount++;
+				offset += length;
+				rawBytes += raw.length;
+				block.reset();
+			}
+		}
+		deflater.end();
+
+		long authorIndex = offset;
+		Arrays.sort(authorPairs);
+		out.writeInt(authorPairs.length);
+		for (long pair : authorPairs) {
+			out.writeInt((int) (pair >>> 32));
+			out.writeInt((int) pair);
+		}
+		long blockIndex = authorIndex + 4 + 8L * authorPairs.length;
+		out.writeInt(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			out.writeInt(firstIds[i]);
+			out.writeLong(offsets[i]);
+			out.writeInt(lengths[i]);
+			out.writeInt(rawLengths[i]);
+		}
+		out.writeLong(blockIndex);
+		out.writeLong(authorIndex);
+		out.writeInt(messages.size());
+		out.writeInt(messages.get(0).getMessage().getMessage_id());
+		out.writeInt(messages.get(messages.size() - 1).getMessage().getMessage_id());
+		out.writeLong(rawBytes);
+		out.writeLong(minTime);
+		out.writeLong(maxTime);
+		out.writeInt(MAGIC);
+		out.flush();
+	}
+
+	/**
+	 * @return the message with this id and the version it was archived at, or null if it is not in the segment
+	 */
+	public VersionedMessage get(int messageId) {
+		if (messageId < minId || messageId > maxId) {
+			return null;
+		}
+		ByteBuffer entries = inflate(blockOf(messageId));
+		while (entries.hasRemaining()) {
+			int id = entries.getInt();
+			if (id > messageId) {
+				return null;
+			}
+			if (id == messageId) {
+				return readEntry(id, entries);
+			}
+			skipEntry(entries);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the messages with the given ids that are in the segment, inflating each block they fall in once. The
+	 * consumer must not read from a segment itself: the block is in this thread's buffer.
+	 * @param messageIds ascending
+	 */
+	public void getAll(int[] messageIds, Consumer<VersionedMessage> consumer) {
+		int next = 0;
+		while (next < messageIds.length) {
+			if (messageIds[next] < minId || messageIds[next] > maxId) {
+				next++;
+				continue;
+			}
+			int block = blockOf(messageIds[next]);
+			ByteBuffer entries = inflate(block);
+			while (entries.hasRemaining() && next < messageIds.length) {
+				int id = entries.getInt();
+				while (next < messageIds.length && messageIds[next] < id) {
+					next++;
+				}
+				if (next < messageIds.length && messageIds[next] == id) {
+					consumer.accept(readEntry(id, entries));
+					next++;
+				} else {
+					skipEntry(entries);
+				}
+			}
+			long end = block + 1 < firstIds.length ? firstIds[block + 1] : Long.MAX_VALUE;
+			while (next < messageIds.length && messageIds[next] < end) {
+				next++;
+			}
+		}
+	}
+
+	private int blockOf(int messageId) {
+		int block = Arrays.binarySearch(firstIds, messageId);
+		return block < 0 ? -block - 2 : block;
+	}
+
+	private static void skipEntry(ByteBuffer entries) {
+		entries.position(entries.position() + 4 + 8 + 8);
+		int length = entries.getShort() & 0xffff;
+		entries.position(entries.position() + length);
+	}
+
+	/**
+	 * @return the ids of this account's messages in the segment, ascending
+	 */
+	public int[] getIdsPostedBy(int postedBy) {
+		int low = 0;
+		int high = authorPairs;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (file.getInt(authorIndex + 4 + middle * 8) < postedBy) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int end = low;
+		while (end < authorPairs && file.getInt(authorIndex + 4 + end * 8) == postedBy) {
+			end++;
+		}
+		int[] ids = new int[end - low];
+		for (int i = low; i < end; i++) {
+			ids[i - low] = file.getInt(authorIndex + 4 + i * 8 + 4);
+		}
+		return ids;
+	}
+
+	/**
+	 * Adds this segment's messages per account to the counts, leaving out the ids the filter skips.
+	 */
+	public void countByAuthor(Map<Integer, Long> counts, IntPredicate skip) {
+		for (int i = 0; i < authorPairs; i++) {
+			int pair = authorIndex + 4 + i * 8;
+			if (!skip.test(file.getInt(pair + 4))) {
+				counts.merge(file.getInt(pair), 1L, Long::sum);
+			}
+		}
+	}
+
+	/**
+	 * Reads every message of the segment in id order, one block at a time.
+	 */
+	public void forEach(Consumer<VersionedMessage> consumer) {
+		for (int block = 0; block < firstIds.length; block++) {
+			ByteBuffer entries = inflate(block);
+			while (entries.hasRemaining()) {
+				consumer.accept(readEntry(entries.getInt(), entries));
+			}
+		}
+	}
+
+	private static VersionedMessage readEntry(int id, ByteBuffer entries) {
+		int postedBy = entries.getInt();
+		long timePosted = entries.getLong();
+		long version = entries.getLong();
+		int length = entries.getShort() & 0xffff;
+		String text = new String(entries.array(), entries.position(), length, StandardCharsets.UTF_8);
+		entries.position(entries.position() + length);
+		return new VersionedMessage(new Message(id, postedBy, text, timePosted), version);
+	}
+
+	/**
+	 * @return the block's entries, in this thread's reusable buffer
+	 */
+	private ByteBuffer inflate(int block) {
+		byte[][] holder = blockBuffers.get();
+		if (holder[0].length < rawLengths[block]) {
+			holder[0] = new byte[rawLengths[block]];
+		}
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(file.duplicate().position(offsets[block]).limit(offsets[block] + lengths[block]).slice());
+		try {
+			int length = 0;
+			while (length < rawLengths[block]) {
+				int inflated = inflater.inflate(holder[0], length, rawLengths[block] - length);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != rawLengths[block]) {
+				throw new IllegalStateException("Block " + block + " of " + path + " is truncated");
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Block " + block + " of " + path + " is corrupt", e);
+		}
+		Metrics.increment("tiering.cold.blocksInflated");
+		return ByteBuffer.wrap(holder[0], 0, rawLengths[block]);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public int getMessageCount() {
+		return messageCount;
+	}
+
+	public int getMinId() {
+		return minId;
+	}
+
+	public int getMaxId() {
+		return maxId;
+	}
+
+	public long getMinTime() {
+		return minTime;
+	}
+
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * @return the size of the entries before compression
+	 */
+	public long getRawBytes() {
+		return rawBytes;
+	}
+
+	public long getFileBytes() {
+		return file.capacity();
+	}
+}
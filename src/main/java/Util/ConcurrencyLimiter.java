@@ -0,0 +1,99 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The ConcurrencyLimiter class caps the number of requests in flight across the whole application. The cap adapts
+ * to observed latency using AIMD: every request that finishes under the latency target grows the limit by
+ * 1/limit (roughly +1 per round trip of the whole window), and a request that finishes over the target cuts it
+ * by a constant factor, at most once per cooldown so one slow burst does not collapse the limit.
+ */
+public class ConcurrencyLimiter {
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long targetLatencyNanos;
+	private final double backoffRatio;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong limitBits;
+	private final AtomicLong lastDecrease = new AtomicLong();
+
+	/**
+	 * Minimum time between two multiplicative decreases.
+	 */
+	private static final long DECREASE_COOLDOWN_NANOS = 100_000_000L;
+
+	/**
+	 * @param initialLimit    the starting concurrency limit
+	 * @param minLimit        the limit never drops below this
+	 * @param maxLimit        the limit never grows above this
+	 * @param targetLatencyMs requests slower than this are treated as a congestion signal
+	 * @param backoffRatio    the factor applied to the limit on congestion, e.g. 0.9
+	 */
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyMs, double backoffRatio) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.targetLatencyNanos = targetLatencyMs * 1_000_000L;
+		this.backoffRatio = backoffRatio;
+		this.limitBits = new AtomicLong(Double.doubleToLongBits(initialLimit));
+	}
+
+	/**
+	 * @return true if the caller may proceed; it must then call {@link #release(long)} exactly once
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limit()) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns a permit and feeds the observed latency back into the limit.
+	 * @param latencyNanos how long the admitted request took
+	 */
+	public void release(long latencyNanos) {
+		inFlight.decrementAndGet();
+		if (latencyNanos > targetLatencyNanos) {
+			long now = System.nanoTime();
+			long last = lastDecrease.get();
+			if (now - last >= DECREASE_COOLDOWN_NANOS && lastDecrease.compareAndSet(last, now)) {
+				update(limit -> limit * backoffRatio);
+			}
+		} else {
+			update(limit -> limit + 1.0 / limit);
+		}
+	}
+
+	/**
+	 * @return the current limit, rounded down
+	 */
+	public int limit() {
+		return (int) Double.longBitsToDouble(limitBits.get());
+	}
+
+	/**
+	 * @return the number of admitted requests that have not been released yet
+	 */
+	public int inFlight() {
+		return inFlight.get();
+	}
+
+	private void update(DoubleUnaryOperator step) {
+		while (true) {
+			long bits = limitBits.get();
+			double next = step.applyAsDouble(Double.longBitsToDouble(bits));
+			next = Math.max(minLimit, Math.min(maxLimit, next));
+			if (limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+				return;
+			}
+		}
+	}
+}
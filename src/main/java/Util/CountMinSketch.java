@@ -0,0 +1,81 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * The CountMinSketch class estimates how often each string was added, in memory fixed by the accuracy wanted
+ * rather than by the number of distinct strings. With width w = ceil(e / epsilon) and depth d = ceil(ln(1 / delta)),
+ * an estimate is never below the true count and exceeds it by more than epsilon * N (N the total added) with
+ * probability at most delta.
+ *
+ * Not thread-safe: callers serialize updates and reads.
+ */
+public class CountMinSketch {
+
+	private final int width;
+	private final int depth;
+	private final long[] counts;
+	private long total;
+
+	/**
+	 * @param epsilon the error bound as a fraction of the total count, e.g. 0.002
+	 * @param delta   the probability of exceeding that bound, e.g. 0.01
+	 */
+	public CountMinSketch(double epsilon, double delta) {
+		this.width = (int) Math.ceil(Math.E / epsilon);
+		this.depth = Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+		this.counts = new long[width * depth];
+	}
+
+	/**
+	 * @param value the string to count
+	 * @param count how many occurrences to add
+	 */
+	public void add(String value, long count) {
+		long hash = Hashing.hash64(value);
+		for (int row = 0; row < depth; row++) {
+			counts[row * width + index(hash, row)] += count;
+		}
+		total += count;
+	}
+
+	/**
+	 * @return an estimate that is at least the number of times value was added
+	 */
+	public long estimate(String value) {
+		long hash = Hashing.hash64(value);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			estimate = Math.min(estimate, counts[row * width + index(hash, row)]);
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return the sum of all counts added
+	 */
+	public long total() {
+		return total;
+	}
+
+	/**
+	 * Forgets everything, keeping the memory.
+	 */
+	public void clear() {
+		Arrays.fill(counts, 0);
+		total = 0;
+	}
+
+	/**
+	 * @return the heap used by the counters, in bytes
+	 */
+	public long memoryBytes() {
+		return (long) counts.length * Long.BYTES;
+	}
+
+	private int index(long hash, int row) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		return ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+	}
+}
@@ -0,0 +1,125 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The CountingBloomFilter class answers "definitely absent" or "possibly present" for strings in constant time
+ * and memory. Each slot is a 4-bit counter rather than a single bit, so elements can be removed as well as added;
+ * sixteen counters are packed into each long and updated with compare-and-set, so no operation takes a lock.
+ * A counter that reaches 15 sticks there (it can no longer be decremented safely), which only costs false
+ * positives, never false negatives.
+ */
+public class CountingBloomFilter {
+
+	private static final int COUNTERS_PER_WORD = 16;
+	private static final long COUNTER_MASK = 0xFL;
+
+	private final AtomicLongArray words;
+	private final long counters;
+	private final int hashes;
+	private final AtomicLong size = new AtomicLong();
+
+	/**
+	 * Sizes the filter with the usual formulas: m = -n ln p / (ln 2)^2 counters and k = m/n ln 2 hash functions.
+	 * @param expectedInsertions the number of elements the false-positive rate is planned for
+	 * @param falsePositiveRate  the target false-positive rate at that many elements, e.g. 0.01
+	 */
+	public CountingBloomFilter(long expectedInsertions, double falsePositiveRate) {
+		long n = Math.max(1, expectedInsertions);
+		long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		this.counters = Math.max(COUNTERS_PER_WORD, m);
+		this.hashes = Math.max(1, (int) Math.round((double) counters / n * Math.log(2)));
+		this.words = new AtomicLongArray((int) ((counters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD));
+	}
+
+	/**
+	 * @param value the element to add
+	 */
+	public void add(String value) {
+		long hash = Hashing.hash64(value);
+		for (int i = 0; i < hashes; i++) {
+			adjust(index(hash, i), 1);
+		}
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Removes an element. The caller must only remove elements that were added, otherwise other elements could
+	 * become false negatives.
+	 * @param value the element to remove
+	 */
+	public void remove(String value) {
+		long hash = Hashing.hash64(value);
+		for (int i = 0; i < hashes; i++) {
+			adjust(index(hash, i), -1);
+		}
+		size.decrementAndGet();
+	}
+
+	/**
+	 * @param value the element to test
+	 * @return false if the element was definitely never added, true if it possibly was
+	 */
+	public boolean mightContain(String value) {
+		long hash = Hashing.hash64(value);
+		for (int i = 0; i < hashes; i++) {
+			long index = index(hash, i);
+			if (counter(words.get((int) (index / COUNTERS_PER_WORD)), index) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of elements currently in the filter
+	 */
+	public long size() {
+		return size.get();
+	}
+
+	/**
+	 * @return the heap used by the counters, in bytes
+	 */
+	public long memoryBytes() {
+		return (long) words.length() * Long.BYTES;
+	}
+
+	/**
+	 * @return the false-positive rate expected at the current size: (1 - e^(-kn/m))^k
+	 */
+	public double expectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double) hashes * size.get() / counters), hashes);
+	}
+
+	private void adjust(long index, int delta) {
+		int word = (int) (index / COUNTERS_PER_WORD);
+		int shift = (int) (index % COUNTERS_PER_WORD) * 4;
+		while (true) {
+			long current = words.get(word);
+			long counter = (current >>> shift) & COUNTER_MASK;
+			if (counter == COUNTER_MASK || (delta < 0 && counter == 0)) {
+				return;
+			}
+			long next = (current & ~(COUNTER_MASK << shift)) | ((counter + delta) << shift);
+			if (words.compareAndSet(word, current, next)) {
+				return;
+			}
+		}
+	}
+
+	private static long counter(long word, long index) {
+		return (word >>> ((index % COUNTERS_PER_WORD) * 4)) & COUNTER_MASK;
+	}
+
+	/**
+	 * Double hashing: the i-th index is h1 + i * h2, where h1 and h2 are the two halves of one 64-bit hash.
+	 */
+	private long index(long hash, int i) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long combined = (h1 + (long) i * h2) & Long.MAX_VALUE;
+		return combined % counters;
+	}
+}
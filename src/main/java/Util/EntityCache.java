@@ -0,0 +1,140 @@
+package Util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * The EntityCache class is an in-process read-through cache of rows keyed by their int id, for data that other app
+ * instances may change: every write anywhere must end in {@link #invalidate(int)} (or {@link #invalidateAll()}) on
+ * every instance, which is what the invalidation bus delivers.
+ *
+ * A read that misses loads the row and stores it, but only if no invalidation of that id happened while it was
+ * loading; otherwise a slow load could put back the row an invalidation just removed. Ids are spread over stripes
+ * with a generation counter each, and an invalidation bumps its stripe's generation, so this check costs two
+ * volatile reads and no lock. Once the cache holds more than maxEntries rows, about a tenth of them are dropped.
+ */
+public class EntityCache<V> {
+
+	private static final int STRIPES = 1024;
+
+	private final String name;
+	private final int maxEntries;
+	private final ConcurrentHashMap<Integer, V> entries = new ConcurrentHashMap<>();
+	private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+	/**
+	 * @param name       the metric prefix, e.g. "cache.messages"
+	 * @param maxEntries the most rows kept
+	 */
+	public EntityCache(String name, int maxEntries) {
+		this.name = name;
+		this.maxEntries = maxEntries;
+		Metrics.gauge(name + ".size", entries::size);
+	}
+
+	/**
+	 * @param loader reads the row from the database; may return null, which is not cached
+	 * @return the cached row, or the loaded one
+	 */
+	public V get(int id, IntFunction<V> loader) {
+		V cached = entries.get(id);
+		if (cached != null) {
+			Metrics.increment(name + ".hits");
+			return cached;
+		}
+		Metrics.increment(name + ".misses");
+		long generation = generations.get(stripe(id));
+		V loaded = loader.apply(id);
+		if (loaded != null) {
+			store(id, loaded, generation);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Serves the ids it holds and loads all the others with one call, storing each loaded row under the same check
+	 * as {@link #get}.
+	 * @param loader reads the missing rows from the database; the ids it leaves out are not cached
+	 * @return the cached and the loaded rows, by id; ids without a row are left out
+	 */
+	public Map<Integer, V> getAll(Collection<Integer> ids, Function<Collection<Integer>, Map<Integer, V>> loader) {
+		Map<Integer, V> found = new HashMap<>();
+		Map<Integer, Long> missing = new HashMap<>();
+		for (Integer id : ids) {
+			V cached = entries.get(id);
+			if (cached != null) {
+				found.put(id, cached);
+			} else {
+				missing.put(id, generations.get(stripe(id)));
+			}
+		}
+		Metrics.add(name + ".hits", found.size());
+		if (missing.isEmpty()) {
+			return found;
+		}
+		Metrics.add(name + ".misses", missing.size());
+		loader.apply(missing.keySet()).forEach((id, loaded) -> {
+			Long generation = missing.get(id);
+			if (generation != null && loaded != null) {
+				store(id, loaded, generation);
+				found.put(id, loaded);
+			}
+		});
+		return found;
+	}
+
+	/**
+	 * Caches a loaded row unless its id was invalidated since the generation read before the load.
+	 */
+	private void store(int id, V loaded, long generation) {
+		int stripe = stripe(id);
+		if (generations.get(stripe) != generation) {
+			return;
+		}
+		if (entries.size() >= maxEntries) {
+			evict();
+		}
+		entries.put(id, loaded);
+		// an invalidation may have landed between the check and the put
+		if (generations.get(stripe) != generation) {
+			entries.remove(id);
+		}
+	}
+
+	public void invalidate(int id) {
+		generations.incrementAndGet(stripe(id));
+		entries.remove(id);
+	}
+
+	public void invalidateAll() {
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			generations.incrementAndGet(stripe);
+		}
+		entries.clear();
+		Metrics.increment(name + ".flushes");
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private void evict() {
+		int toDrop = Math.max(1, maxEntries / 10);
+		Iterator<Integer> ids = entries.keySet().iterator();
+		while (toDrop-- > 0 && ids.hasNext()) {
+			ids.next();
+			ids.remove();
+		}
+		Metrics.increment(name + ".evictions");
+	}
+
+	private static int stripe(int id) {
+		return (int) (Hashing.mix64(id) & (STRIPES - 1));
+	}
+}
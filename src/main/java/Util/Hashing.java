@@ -0,0 +1,35 @@
+package Util;
+
+/**
+ * The Hashing class holds the string hash shared by the probabilistic structures in this package.
+ */
+public class Hashing {
+
+	private Hashing() {
+	}
+
+	/**
+	 * FNV-1a over the characters, finished with the MurmurHash3 64-bit mixer so both 32-bit halves are well
+	 * distributed and can drive double hashing.
+	 */
+	public static long hash64(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix64(h);
+	}
+
+	/**
+	 * The MurmurHash3 fmix64 finalizer.
+	 */
+	public static long mix64(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
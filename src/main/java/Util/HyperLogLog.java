@@ -0,0 +1,167 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * The HyperLogLog class estimates the number of distinct values added to it in a fixed 2^p registers, with a
+ * standard error of about 1.04 / sqrt(2^p) (1.6% at the default p = 12). Two sketches of the same precision merge
+ * into the sketch of the union by taking the larger register of each pair, so sketches kept per time bucket can
+ * answer any range of buckets.
+ *
+ * Not thread-safe: callers serialize updates, merges and reads of one sketch.
+ */
+public class HyperLogLog {
+
+	private static final byte SPARSE = 0;
+	private static final byte DENSE = 1;
+	private static final int BITS_PER_REGISTER = 6;
+
+	private final int precision;
+	private final byte[] registers;
+
+	/**
+	 * @param precision the number of index bits p, between 4 and 16; the sketch has 2^p registers
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 16) {
+			throw new IllegalArgumentException("precision must be between 4 and 16");
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * @param hash a well-mixed 64-bit hash of the value to add, e.g. from {@link Hashing}
+	 * @return true if the sketch changed
+	 */
+	public boolean addHash(long hash) {
+		int index = (int) (hash >>> (64 - precision));
+		// The sentinel bit caps the rank at 64 - p + 1 when the remaining bits are all zero
+		byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+		if (rank > registers[index]) {
+			registers[index] = rank;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Folds another sketch into this one, which then estimates the union of both.
+	 * @throws IllegalArgumentException if the precisions differ
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("Cannot merge precision " + other.precision + " into " + precision);
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the estimated number of distinct values added, with linear counting for small cardinalities
+	 */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				zeros++;
+			}
+		}
+		double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * @return the relative standard error of the estimates, 1.04 / sqrt(2^p)
+	 */
+	public double standardError() {
+		return 1.04 / Math.sqrt(registers.length);
+	}
+
+	public int precision() {
+		return precision;
+	}
+
+	/**
+	 * Serializes the sketch in whichever form is smaller: sparse (a 2-byte index and a 1-byte rank per non-empty
+	 * register), or dense (every register packed into 6 bits). Both start with the precision and the form.
+	 */
+	public byte[] toBytes() {
+		int nonEmpty = 0;
+		for (byte register : registers) {
+			if (register != 0) {
+				nonEmpty++;
+			}
+		}
+		int denseBytes = (registers.length * BITS_PER_REGISTER + 7) / 8;
+		if (nonEmpty * 3 < denseBytes) {
+			byte[] bytes = new byte[2 + nonEmpty * 3];
+			bytes[0] = (byte) precision;
+			bytes[1] = SPARSE;
+			int offset = 2;
+			for (int i = 0; i < registers.length; i++) {
+				if (registers[i] != 0) {
+					bytes[offset++] = (byte) (i >>> 8);
+					bytes[offset++] = (byte) i;
+					bytes[offset++] = registers[i];
+				}
+			}
+			return bytes;
+		}
+		byte[] bytes = new byte[2 + denseBytes];
+		bytes[0] = (byte) precision;
+		bytes[1] = DENSE;
+		for (int i = 0; i < registers.length; i++) {
+			int bit = i * BITS_PER_REGISTER;
+			int packed = registers[i] << (bit & 7);
+			bytes[2 + (bit >>> 3)] |= (byte) packed;
+			if ((bit & 7) + BITS_PER_REGISTER > 8) {
+				bytes[3 + (bit >>> 3)] |= (byte) (packed >>> 8);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @param bytes a sketch serialized by {@link #toBytes()}
+	 */
+	public static HyperLogLog fromBytes(byte[] bytes) {
+		HyperLogLog sketch = new HyperLogLog(bytes[0]);
+		if (bytes[1] == SPARSE) {
+			for (int offset = 2; offset + 2 < bytes.length; offset += 3) {
+				int index = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+				sketch.registers[index] = bytes[offset + 2];
+			}
+			return sketch;
+		}
+		for (int i = 0; i < sketch.registers.length; i++) {
+			int bit = i * BITS_PER_REGISTER;
+			int packed = bytes[2 + (bit >>> 3)] & 0xFF;
+			if ((bit & 7) + BITS_PER_REGISTER > 8) {
+				packed |= (bytes[3 + (bit >>> 3)] & 0xFF) << 8;
+			}
+			sketch.registers[i] = (byte) ((packed >>> (bit & 7)) & 0x3F);
+		}
+		return sketch;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof HyperLogLog && Arrays.equals(registers, ((HyperLogLog) o).registers);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(registers);
+	}
+}
@@ -0,0 +1,130 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * The IntLongMap class maps int keys to long values with open addressing over two primitive arrays, so an entry
+ * costs 12 bytes and no object, and a lookup allocates nothing. Collisions are resolved by linear probing, and
+ * removal shifts the following entries back instead of leaving tombstones, so lookups never slow down with churn.
+ * The table doubles once it is half full.
+ *
+ * Key 0 marks an empty slot, so its value is kept in a field of its own. Not thread-safe.
+ */
+public class IntLongMap {
+
+	private int[] keys;
+	private long[] values;
+	private int mask;
+	private int size;
+	private boolean hasZero;
+	private long zeroValue;
+
+	/**
+	 * @param expectedSize the number of entries the map should hold before it first grows
+	 */
+	public IntLongMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+		keys = new int[capacity];
+		values = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return the value of the key, or missing if it has none
+	 */
+	public long get(int key, long missing) {
+		if (key == 0) {
+			return hasZero ? zeroValue : missing;
+		}
+		for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			if (keys[slot] == 0) {
+				return missing;
+			}
+		}
+	}
+
+	public void put(int key, long value) {
+		if (key == 0) {
+			size += hasZero ? 0 : 1;
+			hasZero = true;
+			zeroValue = value;
+			return;
+		}
+		int slot = slot(key);
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		if (keys[slot] == 0) {
+			if (++size * 2 > keys.length) {
+				grow();
+				put(key, value);
+				return;
+			}
+			keys[slot] = key;
+		}
+		values[slot] = value;
+	}
+
+	/**
+	 * @return true if the key had a value
+	 */
+	public boolean remove(int key) {
+		if (key == 0) {
+			boolean had = hasZero;
+			size -= had ? 1 : 0;
+			hasZero = false;
+			return had;
+		}
+		int slot = slot(key);
+		while (keys[slot] != key) {
+			if (keys[slot] == 0) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		size--;
+		// shift back every following entry that probed past the freed slot
+		int free = slot;
+		for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				free = next;
+			}
+		}
+		keys[free] = 0;
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		hasZero = false;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new long[oldValues.length * 2];
+		mask = keys.length - 1;
+		size = hasZero ? 1 : 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	private int slot(int key) {
+		return (int) Hashing.mix64(key) & mask;
+	}
+}
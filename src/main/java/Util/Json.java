@@ -0,0 +1,315 @@
+package Util;
+
+import Model.Account;
+import Model.Message;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.javalin.json.JsonMapper;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+
+/**
+ * The Json class owns the one ObjectMapper every response and request body goes through, so its serializer caches
+ * are built once and shared. It registers the hand-written codecs of the models served on every request,
+ * {@link MessageJson} and {@link AccountJson}; everything else still uses Jackson's bean codec.
+ *
+ * Tuning: field names are not interned (parsers already canonicalize them per thread), unknown fields fail, and
+ * generators and parsers leave the caller's streams open. Jackson recycles its parse and write buffers per thread;
+ * {@link #toBytes} also reuses its output buffer per thread. Request bodies parsed from a stream are cut off after
+ * socialmedia.json.maxBodyBytes (default 16384), so an oversized body fails without being read whole.
+ *
+ * The message and account endpoints also speak the binary {@link Format}s, through mappers configured the same
+ * way over the CBOR, Smile and MessagePack factories, so they carry the same field names as the JSON.
+ */
+public class Json {
+
+	private static final int MAX_BODY_BYTES = Integer.getInteger("socialmedia.json.maxBodyBytes", 16 * 1024);
+
+	private static final ObjectMapper MAPPER = newMapper();
+	private static final ThreadLocal<ByteArrayBuilder> OUTPUT = ThreadLocal.withInitial(() -> new ByteArrayBuilder(512));
+
+	private Json() {
+	}
+
+	private static ObjectMapper newMapper() {
+		return configure(JsonFactory.builder()
+				.disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+				.disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+				.disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+				.build());
+	}
+
+	private static ObjectMapper configure(JsonFactory factory) {
+		SimpleModule codecs = new SimpleModule("SocialMediaCodecs")
+				.addSerializer(Message.class, new MessageJson.Serializer())
+				.addDeserializer(Message.class, new MessageJson.Deserializer())
+				.addSerializer(Account.class, new AccountJson.Serializer())
+				.addDeserializer(Account.class, new AccountJson.Deserializer());
+		return new ObjectMapper(factory)
+				.enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+				.registerModule(codecs);
+	}
+
+	public static ObjectMapper mapper() {
+		return MAPPER;
+	}
+
+	/**
+	 * @return the value as UTF-8 JSON, written through this thread's reusable buffer
+	 */
+	public static byte[] toBytes(Object value) {
+		ByteArrayBuilder output = OUTPUT.get();
+		output.reset();
+		try (JsonGenerator generator = MAPPER.getFactory().createGenerator(output)) {
+			MAPPER.writeValue(generator, value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Parses a body straight from its stream, reading no further than the parser needs and at most
+	 * socialmedia.json.maxBodyBytes.
+	 */
+	public static <T> T read(InputStream body, Class<T> type) throws IOException {
+		return Format.JSON.read(body, type);
+	}
+
+	public static <T> T read(byte[] body, Class<T> type) throws IOException {
+		return Format.JSON.read(body, type);
+	}
+
+	/**
+	 * A representation of request and response bodies, chosen by the Accept and Content-Type headers.
+	 */
+	public enum Format {
+		JSON("application/json"),
+		CBOR("application/cbor"),
+		SMILE("application/x-jackson-smile"),
+		MSGPACK("application/msgpack");
+
+		private final String contentType;
+		private volatile ObjectMapper mapper;
+
+		Format(String contentType) {
+			this.contentType = contentType;
+		}
+
+		public String contentType() {
+			return contentType;
+		}
+
+		public boolean isBinary() {
+			return this != JSON;
+		}
+
+		/**
+		 * @param accept an Accept header, possibly null
+		 * @return the supported format the header prefers most, by q-value and then by order; JSON when it names
+		 * none of them, including for wildcards
+		 */
+		public static Format forAccept(String accept) {
+			if (accept == null) {
+				return JSON;
+			}
+			Format best = JSON;
+			double bestQuality = -1;
+			for (String range : accept.split(",")) {
+				String[] parameters = range.split(";");
+				Format format = forMediaType(parameters[0]);
+				if (format == null && parameters[0].trim().endsWith("*")) {
+					format = JSON;
+				}
+				if (format == null) {
+					continue;
+				}
+				double quality = 1;
+				for (int i = 1; i < parameters.length; i++) {
+					String parameter = parameters[i].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							quality = Double.parseDouble(parameter.substring(2));
+						} catch (NumberFormatException e) {
+							quality = 0;
+						}
+					}
+				}
+				if (quality > 0 && quality > bestQuality) {
+					best = format;
+					bestQuality = quality;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * @param contentType a Content-Type header, possibly null
+		 * @return its format, or JSON when it names none of them
+		 */
+		public static Format forContentType(String contentType) {
+			Format format = contentType == null ? null : forMediaType(contentType.split(";")[0]);
+			return format == null ? JSON : format;
+		}
+
+		private static Format forMediaType(String mediaType) {
+			String type = mediaType.trim().toLowerCase();
+			for (Format format : values()) {
+				if (format.contentType.equals(type)) {
+					return format;
+				}
+			}
+			return "application/x-msgpack".equals(type) ? MSGPACK : null;
+		}
+
+		public byte[] toBytes(Object value) {
+			if (this == JSON) {
+				return Json.toBytes(value);
+			}
+			try {
+				return mapper().writeValueAsBytes(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Parses a body from its stream, reading at most socialmedia.json.maxBodyBytes.
+		 */
+		public <T> T read(InputStream body, Class<T> type) throws IOException {
+			return mapper().readValue(new BoundedInputStream(body, MAX_BODY_BYTES), type);
+		}
+
+		public <T> T read(byte[] body, Class<T> type) throws IOException {
+			return mapper().readValue(body, type);
+		}
+
+		/**
+		 * Built on first use, so the binary factories are only loaded by instances that are asked for them.
+		 */
+		public ObjectMapper mapper() {
+			ObjectMapper built = mapper;
+			if (built == null) {
+				synchronized (this) {
+					if (mapper == null) {
+						mapper = newMapper(this);
+					}
+					built = mapper;
+				}
+			}
+			return built;
+		}
+
+		private static ObjectMapper newMapper(Format format) {
+			switch (format) {
+				case CBOR:
+					return configure(CBORFactory.builder()
+							.disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+							.disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+							.disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+							.build());
+				case SMILE:
+					return configure(SmileFactory.builder()
+							.disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+							.disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+							.disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+							.build());
+				case MSGPACK:
+					// a reused parser resource is keyed by its source, so parsing the same array twice would
+					// resume at the end of the first parse. Field names are unpacked as new strings without the
+					// symbol table, so there is no interning to turn off; the factory has no builder to do it with.
+					MessagePackFactory factory = new MessagePackFactory().setReuseResourceInParser(false);
+					factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+					factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+					return configure(factory);
+				default:
+					return MAPPER;
+			}
+		}
+	}
+
+	/**
+	 * @return the mapper for Javalin's context.json() and bodyAsClass()
+	 */
+	public static JsonMapper javalinMapper() {
+		return new JsonMapper() {
+			@Override
+			public String toJsonString(Object value, Type type) {
+				try {
+					return MAPPER.writeValueAsString(value);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public InputStream toJsonStream(Object value, Type type) {
+				return new ByteArrayInputStream(toBytes(value));
+			}
+
+			@Override
+			public <T> T fromJsonString(String json, Type type) {
+				try {
+					return MAPPER.readValue(json, MAPPER.constructType(type));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public <T> T fromJsonStream(InputStream json, Type type) {
+				try {
+					return MAPPER.readValue(new BoundedInputStream(json, MAX_BODY_BYTES), MAPPER.constructType(type));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Fails a read that would go past the limit.
+	 */
+	private static final class BoundedInputStream extends FilterInputStream {
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0 && --remaining < 0) {
+				throw new IOException("Body is larger than " + MAX_BODY_BYTES + " bytes");
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, (int) Math.min(length, remaining + 1));
+			if (read > 0 && (remaining -= read) < 0) {
+				throw new IOException("Body is larger than " + MAX_BODY_BYTES + " bytes");
+			}
+			return read;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package Util;
+
+import Model.Message;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * The MessageJson class holds the hand-written Jackson codec for {@link Message}, registered by {@link Json}. It
+ * writes and reads the same JSON as Jackson's bean codec, field for field and in the same order, without
+ * reflection or per-property objects. The field names are pre-encoded once.
+ *
+ * Parsing is stricter than the bean codec: an unknown field, or a message_text over MAX_TEXT_LENGTH characters,
+ * fails as soon as the parser reaches it, before the rest of the body is read.
+ */
+public class MessageJson {
+
+	public static final int MAX_TEXT_LENGTH = 255;
+
+	private static final SerializableString MESSAGE_ID = new SerializedString("message_id");
+	private static final SerializableString POSTED_BY = new SerializedString("posted_by");
+	private static final SerializableString MESSAGE_TEXT = new SerializedString("message_text");
+	private static final SerializableString TIME_POSTED_EPOCH = new SerializedString("time_posted_epoch");
+
+	private MessageJson() {
+	}
+
+	public static class Serializer extends StdSerializer<Message> {
+		private static final long serialVersionUID = 1L;
+
+		public Serializer() {
+			super(Message.class);
+		}
+
+		@Override
+		public void serialize(Message message, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			generator.writeStartObject(message);
+			generator.writeFieldName(MESSAGE_ID);
+			generator.writeNumber(message.getMessage_id());
+			generator.writeFieldName(POSTED_BY);
+			generator.writeNumber(message.getPosted_by());
+			generator.writeFieldName(MESSAGE_TEXT);
+			generator.writeString(message.getMessage_text());
+			generator.writeFieldName(TIME_POSTED_EPOCH);
+			generator.writeNumber(message.getTime_posted_epoch());
+			generator.writeEndObject();
+		}
+	}
+
+	public static class Deserializer extends StdDeserializer<Message> {
+		private static final long serialVersionUID = 1L;
+
+		public Deserializer() {
+			super(Message.class);
+		}
+
+		@Override
+		public Message deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+			JsonToken token = parser.currentToken();
+			if (token == JsonToken.START_OBJECT) {
+				token = parser.nextToken();
+			} else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+				return (Message) context.handleUnexpectedToken(Message.class, parser);
+			}
+			Message message = new Message();
+			for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+				String name = parser.currentName();
+				parser.nextToken();
+				switch (name) {
+					case "message_id":
+						message.setMessage_id(_parseIntPrimitive(parser, context));
+						break;
+					case "posted_by":
+						message.setPosted_by(_parseIntPrimitive(parser, context));
+						break;
+					case "message_text":
+						String text = _parseString(parser, context);
+						if (text != null && text.length() > MAX_TEXT_LENGTH) {
+							throw context.weirdStringException(text.substring(0, 16) + "...", Message.class,
+									"message_text is longer than " + MAX_TEXT_LENGTH + " characters");
+						}
+						message.setMessage_text(text);
+						break;
+					case "time_posted_epoch":
+						message.setTime_posted_epoch(_parseLongPrimitive(parser, context));
+						break;
+					default:
+						context.handleUnknownProperty(parser, this, Message.class, name);
+				}
+			}
+			return message;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package Util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The Metrics class is a process-wide registry of named counters and gauges. Like ConnectionUtil it is a
+ * singleton, so any layer can record a metric without having one passed in. The snapshot is served as JSON on
+ * GET /metrics.
+ */
+public class Metrics {
+
+	/**
+	 * Monotonic counters, striped so that hot paths do not contend on a single cache line.
+	 */
+	private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Gauges are read lazily when a snapshot is taken.
+	 */
+	private static final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * @param name the counter to increment by one
+	 */
+	public static void increment(String name) {
+		add(name, 1);
+	}
+
+	/**
+	 * @param name  the counter to add to
+	 * @param delta the amount to add
+	 */
+	public static void add(String name, long delta) {
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * @param name the counter to read
+	 * @return the current value of the counter, or 0 if it was never incremented
+	 */
+	public static long count(String name) {
+		LongAdder adder = counters.get(name);
+		return adder == null ? 0 : adder.sum();
+	}
+
+	/**
+	 * Registers (or replaces) a gauge. Replacing is deliberate: a new controller instance re-registers the
+	 * gauges of its own components.
+	 * @param name     the gauge name
+	 * @param supplier reads the current value
+	 */
+	public static void gauge(String name, Supplier<? extends Number> supplier) {
+		gauges.put(name, supplier);
+	}
+
+	/**
+	 * @return a sorted point-in-time copy of every counter and gauge
+	 */
+	public static Map<String, Number> snapshot() {
+		Map<String, Number> snapshot = new TreeMap<>();
+		counters.forEach((name, adder) -> snapshot.put(name, adder.sum()));
+		gauges.forEach((name, supplier) -> snapshot.put(name, supplier.get()));
+		return snapshot;
+	}
+}
@@ -0,0 +1,101 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The PasswordHasher class hashes passwords with PBKDF2-HMAC-SHA256 and a random per-user salt. A stored hash
+ * looks like "pbkdf2$iterations$salt$hash", so the cost travels with each row: raising the configured iteration
+ * count only affects new hashes, and {@link #needsRehash(String)} tells the caller when an old one should be
+ * replaced.
+ */
+public class PasswordHasher {
+
+	private static final String PREFIX = "pbkdf2$";
+	private static final int SALT_BYTES = 16;
+	private static final int HASH_BITS = 256;
+
+	private final int iterations;
+	private final SecureRandom random = new SecureRandom();
+
+	/**
+	 * @param iterations the PBKDF2 iteration count used for new hashes
+	 */
+	public PasswordHasher(int iterations) {
+		this.iterations = iterations;
+	}
+
+	/**
+	 * @param password the plaintext password
+	 * @return the encoded salted hash
+	 */
+	public String hash(String password) {
+		byte[] salt = new byte[SALT_BYTES];
+		random.nextBytes(salt);
+		byte[] hash = pbkdf2(password, salt, iterations);
+		Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+		return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+	}
+
+	/**
+	 * Checks a password against a stored value. Stored values that predate hashing are plaintext and are compared
+	 * as such, so existing accounts keep working until they are rehashed.
+	 * @param password the plaintext password to check
+	 * @param stored   the value from the password column
+	 * @return true if the password matches
+	 */
+	public boolean verify(String password, String stored) {
+		if (stored == null || password == null) {
+			return false;
+		}
+		if (!isHashed(stored)) {
+			return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8));
+		}
+		String[] parts = stored.split("\\$");
+		if (parts.length != 4) {
+			return false;
+		}
+		try {
+			Base64.Decoder decoder = Base64.getDecoder();
+			byte[] expected = decoder.decode(parts[3]);
+			byte[] actual = pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+			return MessageDigest.isEqual(expected, actual);
+		} catch (IllegalArgumentException e) {
+			// a legacy plaintext password that only looks like a hash; NumberFormatException is one of these
+			return false;
+		}
+	}
+
+	/**
+	 * @param stored the value from the password column
+	 * @return true if the value is plaintext or was hashed with a different cost than the configured one
+	 */
+	public boolean needsRehash(String stored) {
+		return !isHashed(stored) || !stored.startsWith(PREFIX + iterations + "$");
+	}
+
+	/**
+	 * @param stored the value from the password column
+	 * @return true if the value was produced by {@link #hash(String)}
+	 */
+	public static boolean isHashed(String stored) {
+		return stored != null && stored.startsWith(PREFIX);
+	}
+
+	private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+		try {
+			return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package Util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RateLimiter class is a keyed token bucket. Each key (an account id, a client ip...) owns one bucket that
+ * refills at a fixed rate up to a burst size.
+ *
+ * A bucket is stored as a single "theoretical arrival time" (the GCRA form of a token bucket): the instant at
+ * which the bucket would be full again. Taking a token is one compare-and-set on that long, so the hot path never
+ * locks. A bucket whose arrival time is in the past is full, which means it holds no state worth keeping; those
+ * buckets are evicted so the map only ever holds keys that were active recently.
+ */
+public class RateLimiter {
+
+	private final long emissionIntervalNanos;
+	private final long burstToleranceNanos;
+	private final int maxKeys;
+	private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+	private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+	/**
+	 * How often idle buckets are swept even when the key cap has not been reached.
+	 */
+	private static final long SWEEP_INTERVAL_NANOS = 10_000_000_000L;
+
+	/**
+	 * Lower bound between sweeps once the key cap is reached, so a flood of distinct keys cannot make every call
+	 * walk the whole map.
+	 */
+	private static final long MIN_SWEEP_INTERVAL_NANOS = 100_000_000L;
+
+	/**
+	 * @param permitsPerSecond the steady-state refill rate of each bucket
+	 * @param burst            how many permits a full bucket holds
+	 * @param maxKeys          soft cap on tracked keys; reaching it triggers an eviction sweep
+	 */
+	public RateLimiter(double permitsPerSecond, int burst, int maxKeys) {
+		if (permitsPerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("rate and burst must be positive");
+		}
+		this.emissionIntervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+		this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+		this.maxKeys = maxKeys;
+	}
+
+	/**
+	 * Takes one permit from the bucket of the given key.
+	 * @param key the bucket key
+	 * @return true if a permit was available, false if the caller should be rejected
+	 */
+	public boolean tryAcquire(String key) {
+		long now = System.nanoTime();
+		maybeSweep(now);
+		AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+		while (true) {
+			long tat = bucket.get();
+			long start = Math.max(tat, now);
+			if (start - now > burstToleranceNanos) {
+				return false;
+			}
+			if (bucket.compareAndSet(tat, start + emissionIntervalNanos)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param key the bucket key
+	 * @return nanoseconds until the next permit for this key becomes available, 0 if one is available now
+	 */
+	public long nanosUntilAvailable(String key) {
+		AtomicLong bucket = buckets.get(key);
+		if (bucket == null) {
+			return 0;
+		}
+		long wait = bucket.get() - System.nanoTime() - burstToleranceNanos;
+		return Math.max(0, wait);
+	}
+
+	/**
+	 * @return the number of buckets currently held
+	 */
+	public int size() {
+		return buckets.size();
+	}
+
+	/**
+	 * Removes every bucket that has refilled completely. Only one thread sweeps at a time.
+	 */
+	private void maybeSweep(long now) {
+		long last = lastSweep.get();
+		long interval = buckets.size() < maxKeys ? SWEEP_INTERVAL_NANOS : MIN_SWEEP_INTERVAL_NANOS;
+		if (now - last < interval) {
+			return;
+		}
+		if (!lastSweep.compareAndSet(last, now)) {
+			return;
+		}
+		buckets.values().removeIf(bucket -> bucket.get() <= now);
+	}
+}
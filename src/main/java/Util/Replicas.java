@@ -0,0 +1,276 @@
+package Util;
+
+import java.io.FileNotFoundException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * The Replicas class routes reads to local read-only copies of each {@link Shards shard}. There are
+ * socialmedia.replicas copies per shard (default 0: every read goes to the primary). Replica r of shard 0 is
+ * ./h2/db-replica{r}, of shard k ./h2/db-shard{k}-replica{r}; they have the schema of the primary without its
+ * foreign keys, since the change logs that keep them up to date are replayed per log, not in commit order across
+ * tables. The replication service copies the logs and calls {@link #markSynced} each time a replica has caught up.
+ *
+ * Service code opts a read in with {@link #read(Supplier)}; {@link UnitOfWork#getConnection()} then borrows a
+ * replica connection instead of a primary one. Writes, and reads inside a write unit of work, always use the
+ * primary. A read falls back to the primary when:
+ * - the caller wrote within the last socialmedia.replicas.stickyMillis (default 2000), so it reads its own writes,
+ * - no replica of the shard has caught up within the last socialmedia.replicas.maxLagMillis (default 5000).
+ *
+ * The caller is whatever key the controller passes to {@link #beginRequest(String)}; the last write of each caller
+ * is remembered in a table bounded to socialmedia.replicas.maxCallers entries.
+ */
+public class Replicas {
+
+	private static final ThreadLocal<boolean[]> reading = ThreadLocal.withInitial(() -> new boolean[1]);
+	private static final ThreadLocal<String> caller = new ThreadLocal<>();
+	private static final Map<String, JdbcDataSource> dataSources = new ConcurrentHashMap<>();
+	private static final Set<String> prepared = ConcurrentHashMap.newKeySet();
+	private static final Map<String, Long> syncedAt = new ConcurrentHashMap<>();
+	private static final AtomicInteger nextReplica = new AtomicInteger();
+	private static final int maxCallers = Integer.getInteger("socialmedia.replicas.maxCallers", 100_000);
+	private static final Map<String, Long> lastWrites = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > maxCallers;
+		}
+	};
+
+	private static volatile int count = Math.max(0, Integer.getInteger("socialmedia.replicas", 0));
+	private static volatile long stickyMillis = Long.getLong("socialmedia.replicas.stickyMillis", 2000L);
+	private static volatile long maxLagMillis = Long.getLong("socialmedia.replicas.maxLagMillis", 5000L);
+
+	static {
+		Metrics.gauge("replication.healthyReplicas", Replicas::healthyCount);
+	}
+
+	private Replicas() {
+	}
+
+	/**
+	 * @return the number of replicas of each shard
+	 */
+	public static int count() {
+		return count;
+	}
+
+	/**
+	 * Changes the replica settings. Only meant for tests and benchmarks; replicas forget whether they were synced.
+	 */
+	public static void configure(int replicas, long stickyMillis, long maxLagMillis) {
+		Replicas.count = Math.max(0, replicas);
+		Replicas.stickyMillis = stickyMillis;
+		Replicas.maxLagMillis = maxLagMillis;
+		prepared.clear();
+		syncedAt.clear();
+		synchronized (lastWrites) {
+			lastWrites.clear();
+		}
+	}
+
+	/**
+	 * Runs a read that may be served by a replica. Reads nested in it, including those a {@link Shards#scatter}
+	 * runs on other threads, may be too.
+	 */
+	public static <T> T read(Supplier<T> work) {
+		boolean[] routed = reading.get();
+		if (routed[0] || count == 0 || isSticky()) {
+			return work.get();
+		}
+		routed[0] = true;
+		try {
+			return work.get();
+		} finally {
+			routed[0] = false;
+		}
+	}
+
+	/**
+	 * @return true if the current thread is inside {@link #read(Supplier)} and its reads may go to a replica
+	 */
+	public static boolean routesReads() {
+		return reading.get()[0];
+	}
+
+	/**
+	 * Names the caller of the request the current thread is about to serve.
+	 */
+	public static void beginRequest(String callerKey) {
+		caller.set(callerKey);
+	}
+
+	/**
+	 * Ends the current request. Takes the caller again, since a request may finish on another thread than it began.
+	 * @param wrote whether the request changed anything, which keeps the caller's reads on the primary for a while
+	 */
+	public static void endRequest(String callerKey, boolean wrote) {
+		caller.remove();
+		if (wrote && callerKey != null && count > 0) {
+			synchronized (lastWrites) {
+				lastWrites.put(callerKey, System.currentTimeMillis());
+			}
+		}
+	}
+
+	private static boolean isSticky() {
+		String callerKey = caller.get();
+		if (callerKey == null) {
+			return false;
+		}
+		Long wroteAt;
+		synchronized (lastWrites) {
+			wroteAt = lastWrites.get(callerKey);
+		}
+		return wroteAt != null && System.currentTimeMillis() - wroteAt < stickyMillis;
+	}
+
+	/**
+	 * @return a connection to a replica of the shard that is within the allowed lag, taking turns between them, or
+	 * null if there is none and the read must go to the primary
+	 */
+	public static Connection getConnection(int shard) {
+		List<Integer> healthy = new ArrayList<>(count);
+		for (int replica = 0; replica < count; replica++) {
+			if (lagMillis(shard, replica) <= maxLagMillis) {
+				healthy.add(replica);
+			}
+		}
+		if (healthy.isEmpty()) {
+			Metrics.increment("db.reads.primary");
+			return null;
+		}
+		Metrics.increment("db.reads.replica");
+		return getReplicaConnection(shard, healthy.get(Math.floorMod(nextReplica.getAndIncrement(), healthy.size())));
+	}
+
+	/**
+	 * @return a new connection to one replica of a shard, creating its schema on first use
+	 */
+	public static Connection getReplicaConnection(int shard, int replica) {
+		String name = name(shard, replica);
+		if (!prepared.contains(name)) {
+			prepare(name);
+		}
+		return open(name);
+	}
+
+	/**
+	 * Records that a replica had applied every change committed before the given time.
+	 */
+	public static void markSynced(int shard, int replica, long asOfMillis) {
+		String name = name(shard, replica);
+		if (syncedAt.put(name, asOfMillis) == null) {
+			Metrics.gauge("replication.lagMillis[" + shard + ":" + replica + "]", () -> lagMillis(shard, replica));
+		}
+	}
+
+	/**
+	 * @return how far behind the primary the replica may be, in milliseconds: the time since it was last known to
+	 * be caught up, or Long.MAX_VALUE if it never was
+	 */
+	public static long lagMillis(int shard, int replica) {
+		Long synced = syncedAt.get(name(shard, replica));
+		return synced == null ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - synced);
+	}
+
+	/**
+	 * Empties every replica, so that the next replication pass copies the primary afresh, like
+	 * {@link Shards#resetTestDatabases()} does for the primaries.
+	 */
+	public static void resetTestDatabases() {
+		for (int shard = 0; shard < Shards.count(); shard++) {
+			for (int replica = 0; replica < count; replica++) {
+				try (Connection connection = open(name(shard, replica))) {
+					createSchema(connection);
+				} catch (SQLException | FileNotFoundException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		prepared.clear();
+		syncedAt.clear();
+		synchronized (lastWrites) {
+			lastWrites.clear();
+		}
+	}
+
+	private static int healthyCount() {
+		int healthy = 0;
+		for (int shard = 0; shard < Shards.count(); shard++) {
+			for (int replica = 0; replica < count; replica++) {
+				if (lagMillis(shard, replica) <= maxLagMillis) {
+					healthy++;
+				}
+			}
+		}
+		return healthy;
+	}
+
+	private static String name(int shard, int replica) {
+		return (shard == 0 ? "" : "shard" + shard + "-") + "replica" + replica;
+	}
+
+	private static Connection open(String name) {
+		try {
+			return dataSources.computeIfAbsent(name, k -> {
+				JdbcDataSource dataSource = new JdbcDataSource();
+				dataSource.setURL(System.getProperty("socialmedia.replicas.urlPrefix", "jdbc:h2:./h2/db-") + k + ";");
+				dataSource.setUser("sa");
+				dataSource.setPassword("sa");
+				return dataSource;
+			}).getConnection();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static synchronized void prepare(String name) {
+		if (prepared.contains(name)) {
+			return;
+		}
+		try (Connection connection = open(name)) {
+			if (!Shards.hasTable(connection, "REPLICATION_POSITION")) {
+				createSchema(connection);
+			}
+			prepared.add(name);
+		} catch (SQLException | FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates the primary schema without sample rows or foreign keys. The replica has no position yet, so it is
+	 * bootstrapped from the primary on the next replication pass.
+	 */
+	private static void createSchema(Connection connection) throws SQLException, FileNotFoundException {
+		Shards.createSchema(connection);
+		List<String[]> foreignKeys = new ArrayList<>();
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT TABLE_NAME, CONSTRAINT_NAME FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS " +
+						"WHERE TABLE_SCHEMA = 'PUBLIC' AND CONSTRAINT_TYPE = 'FOREIGN KEY'");
+			 ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				foreignKeys.add(new String[] {resultSet.getString(1), resultSet.getString(2)});
+			}
+		}
+		try (Statement statement = connection.createStatement()) {
+			for (String[] foreignKey : foreignKeys) {
+				statement.executeUpdate("ALTER TABLE \"" + foreignKey[0] + "\" DROP CONSTRAINT \"" + foreignKey[1] + "\"");
+			}
+		}
+	}
+}
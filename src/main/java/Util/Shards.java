@@ -0,0 +1,331 @@
+package Util;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.RunScript;
+
+/**
+ * The Shards class splits the account and message data over socialmedia.shards H2 databases (default 1, which is
+ * exactly the single database of {@link ConnectionUtil}). Shard 0 is the {@link ConnectionUtil} database; shard k
+ * is ./h2/db-shard{k}. Every shard has the full schema.
+ *
+ * An account lives on the shard picked by a hash of its username, and its messages, counters, follows and change
+ * log live with it. Each shard allocates ids from its own sequence, starting at shard + 1 and stepping by the shard
+ * count, so the shard of any account, message or change is (id - 1) mod shards and a point lookup needs no
+ * directory. The shard count is therefore fixed for the life of the data; moving data between counts is not
+ * supported.
+ *
+ * DAOs pick the shard of a statement with {@link #on(int, Supplier)}, which {@link UnitOfWork#getConnection()}
+ * reads; a unit of work binds to the shard of its first statement. Queries that span shards run on every shard in
+ * parallel with {@link #scatter(IntFunction)} and their sorted results are combined with {@link #merge}. Tables
+ * that are not routed (idempotency keys, activity sketches) are only used on shard 0.
+ */
+public class Shards {
+
+	private static final ThreadLocal<int[]> current = ThreadLocal.withInitial(() -> new int[1]);
+	private static final Map<Integer, JdbcDataSource> dataSources = new ConcurrentHashMap<>();
+	private static final Set<Integer> prepared = ConcurrentHashMap.newKeySet();
+	private static final AtomicInteger scatterThreads = new AtomicInteger();
+	private static final ExecutorService scatterPool = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "shard-scatter-" + scatterThreads.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static volatile int count = Math.max(1, Integer.getInteger("socialmedia.shards", 1));
+
+	private Shards() {
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public static int count() {
+		return count;
+	}
+
+	/**
+	 * Changes the number of shards. Only meant for tests and benchmarks, before any data is written: ids written
+	 * under one count are not found under another.
+	 */
+	public static void configure(int shards) {
+		count = Math.max(1, shards);
+		prepared.clear();
+	}
+
+	/**
+	 * @return the shard holding the account, message or change with this id
+	 */
+	public static int ofId(int id) {
+		return Math.floorMod(id - 1, count);
+	}
+
+	/**
+	 * @return the shard a new row keyed by this value (a username) is placed on
+	 */
+	public static int ofKey(String key) {
+		return (int) Math.floorMod(Hashing.hash64(key), (long) count);
+	}
+
+	/**
+	 * @return the shard the current thread's statements go to
+	 */
+	public static int current() {
+		return current.get()[0];
+	}
+
+	/**
+	 * Runs work with its statements routed to one shard.
+	 */
+	public static <T> T on(int shard, Supplier<T> work) {
+		int[] routed = current.get();
+		int previous = routed[0];
+		routed[0] = shard;
+		try {
+			return work.get();
+		} finally {
+			routed[0] = previous;
+		}
+	}
+
+	/**
+	 * Runs work on every shard, in parallel when there is more than one.
+	 * @return the results, indexed by shard
+	 */
+	public static <T> List<T> scatter(IntFunction<T> work) {
+		List<Integer> shards = new ArrayList<>();
+		for (int shard = 0; shard < count; shard++) {
+			shards.add(shard);
+		}
+		return new ArrayList<>(scatter(shards, work).values());
+	}
+
+	/**
+	 * Runs work on each of the given shards, in parallel when there is more than one. A single shard runs on the
+	 * calling thread, so it joins the caller's unit of work; other threads inherit whether reads may use a replica.
+	 * @return the results by shard, in the order given
+	 */
+	public static <T> Map<Integer, T> scatter(Collection<Integer> shards, IntFunction<T> work) {
+		Map<Integer, T> results = new LinkedHashMap<>();
+		if (shards.size() == 1) {
+			int shard = shards.iterator().next();
+			results.put(shard, on(shard, () -> work.apply(shard)));
+			return results;
+		}
+		Metrics.increment("db.shards.scatters");
+		boolean replicaReads = Replicas.routesReads();
+		Map<Integer, CompletableFuture<T>> futures = new LinkedHashMap<>();
+		for (int shard : shards) {
+			futures.put(shard, CompletableFuture.supplyAsync(() -> on(shard,
+					() -> replicaReads ? Replicas.read(() -> work.apply(shard)) : work.apply(shard)), scatterPool));
+		}
+		for (Map.Entry<Integer, CompletableFuture<T>> future : futures.entrySet()) {
+			results.put(future.getKey(), future.getValue().join());
+		}
+		return results;
+	}
+
+	/**
+	 * K-way merges lists that are each sorted by the comparator.
+	 * @param limit the most elements to return
+	 * @return the first limit elements of the merged order
+	 */
+	public static <T> List<T> merge(Collection<List<T>> sortedLists, Comparator<? super T> comparator, int limit) {
+		List<T> merged = new ArrayList<>();
+		if (sortedLists.size() == 1) {
+			List<T> only = sortedLists.iterator().next();
+			merged.addAll(only.size() <= limit ? only : only.subList(0, limit));
+			return merged;
+		}
+		// each heap entry is {list index, position in that list}
+		List<List<T>> lists = new ArrayList<>(sortedLists);
+		PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()),
+				(a, b) -> comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+		for (int i = 0; i < lists.size(); i++) {
+			if (!lists.get(i).isEmpty()) {
+				heads.add(new int[] {i, 0});
+			}
+		}
+		while (!heads.isEmpty() && merged.size() < limit) {
+			int[] head = heads.poll();
+			List<T> list = lists.get(head[0]);
+			merged.add(list.get(head[1]));
+			if (head[1] + 1 < list.size()) {
+				heads.add(new int[] {head[0], head[1] + 1});
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * @return a new connection to the shard, preparing the shard on first use
+	 */
+	public static Connection getConnection(int shard) {
+		if (shard < 0 || shard >= count) {
+			throw new IllegalArgumentException("No shard " + shard + " of " + count);
+		}
+		if (count > 1 && !prepared.contains(shard)) {
+			prepare(shard);
+		}
+		return open(shard);
+	}
+
+	/**
+	 * Recreates the schema and sample data on every shard, like {@link ConnectionUtil#resetTestDatabase()} does for
+	 * the single database.
+	 */
+	public static void resetTestDatabases() {
+		ConnectionUtil.resetTestDatabase();
+		for (int shard = 1; shard < count; shard++) {
+			try (Connection connection = open(shard)) {
+				createSchema(connection);
+			} catch (SQLException | FileNotFoundException e) {
+				e.printStackTrace();
+			}
+		}
+		prepared.clear();
+	}
+
+	private static Connection open(int shard) {
+		if (shard == 0) {
+			return ConnectionUtil.getConnection();
+		}
+		try {
+			return dataSources.computeIfAbsent(shard, k -> {
+				JdbcDataSource dataSource = new JdbcDataSource();
+				dataSource.setURL(System.getProperty("socialmedia.shards.urlPrefix", "jdbc:h2:./h2/db-shard") + k + ";");
+				dataSource.setUser("sa");
+				dataSource.setPassword("sa");
+				return dataSource;
+			}).getConnection();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Creates the schema of a shard that has none, then makes its id sequences start at shard + 1 and step by the
+	 * shard count.
+	 */
+	private static synchronized void prepare(int shard) {
+		if (prepared.contains(shard)) {
+			return;
+		}
+		try (Connection connection = open(shard)) {
+			if (shard > 0 && !hasTable(connection, "MESSAGE")) {
+				createSchema(connection);
+			}
+			stride(connection, shard, "account", "account_id");
+			stride(connection, shard, "message", "message_id");
+			stride(connection, shard, "message_change", "change_seq");
+			stride(connection, shard, "account_change", "change_seq");
+			prepared.add(shard);
+		} catch (SQLException | FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the schema script; the sample rows it inserts belong to shard 0, so other shards drop them.
+	 */
+	static void createSchema(Connection connection) throws SQLException, FileNotFoundException {
+		RunScript.execute(connection, new FileReader("src/main/resources/SocialMedia.sql"));
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("DELETE FROM message_change");
+			statement.executeUpdate("DELETE FROM account_change");
+			statement.executeUpdate("DELETE FROM account_stats");
+			statement.executeUpdate("DELETE FROM message");
+			statement.executeUpdate("DELETE FROM account");
+		}
+	}
+
+	static boolean hasTable(Connection connection, String table) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = ?")) {
+			statement.setString(1, table);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				return resultSet.next();
+			}
+		}
+	}
+
+	/**
+	 * Restarts the identity column at the first id above the current maximum that belongs to the shard. Already
+	 * striped columns are left alone, so no id is handed out twice.
+	 */
+	private static void stride(Connection connection, int shard, String table, String column) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT IDENTITY_INCREMENT FROM INFORMATION_SCHEMA.COLUMNS " +
+						"WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = ? AND COLUMN_NAME = ?")) {
+			statement.setString(1, table.toUpperCase());
+			statement.setString(2, column.toUpperCase());
+			try (ResultSet resultSet = statement.executeQuery()) {
+				if (resultSet.next() && resultSet.getLong(1) == count) {
+					return;
+				}
+			}
+		}
+		try (Statement statement = connection.createStatement()) {
+			long max;
+			try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) FROM " + table)) {
+				resultSet.next();
+				max = resultSet.getLong(1);
+			}
+			statement.executeUpdate("ALTER TABLE " + table + " ALTER COLUMN " + column +
+					" RESTART WITH " + firstIdAbove(max, shard) + " SET INCREMENT BY " + count);
+		}
+	}
+
+	/**
+	 * Moves the identity column of a table past rows that were inserted with their ids given, as a bulk import
+	 * does: the next id becomes the first id of the shard above the current maximum. The column never moves back.
+	 */
+	public static void advanceIdentity(int shard, String table, String column) throws SQLException {
+		try (Connection connection = getConnection(shard);
+			 Statement statement = connection.createStatement()) {
+			long next;
+			long max;
+			try (ResultSet resultSet = statement.executeQuery("SELECT IDENTITY_BASE FROM INFORMATION_SCHEMA.COLUMNS " +
+					"WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = '" + table.toUpperCase() + "' AND COLUMN_NAME = '" +
+					column.toUpperCase() + "'")) {
+				resultSet.next();
+				next = resultSet.getLong(1);
+			}
+			try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) FROM " + table)) {
+				resultSet.next();
+				max = resultSet.getLong(1);
+			}
+			long start = firstIdAbove(max, shard);
+			if (start > next) {
+				statement.executeUpdate("ALTER TABLE " + table + " ALTER COLUMN " + column + " RESTART WITH " + start);
+			}
+		}
+	}
+
+	private static long firstIdAbove(long max, int shard) {
+		return max + 1 + Math.floorMod(shard - max, (long) count);
+	}
+}
@@ -0,0 +1,336 @@
+package Util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The SlabCache class caches small byte arrays, keyed by int, outside the Java heap, so a large cache adds nothing
+ * for the garbage collector to trace or copy. Memory is reserved in direct ByteBuffer slabs of slabBytes each, up to
+ * maxBytes in total, and each slab is carved into equal slots of one size class: 64, 128, 256... bytes. A value is
+ * stored in the smallest slot that fits it together with a 12-byte header holding its length and a caller-defined
+ * tag (e.g. a version). The only on-heap state is an {@link IntLongMap} from key to slot and a few arrays per slab.
+ *
+ * When a size class has no free slot and no slab can be added under maxBytes, a CLOCK hand over that class's slots
+ * evicts the first entry not read since the hand last passed it. Slabs stay with the class they were first carved
+ * for, which suits values whose sizes cluster, as serialized rows do; a class that never got a slab is not cached.
+ *
+ * Reads share a read lock and copy the value into a caller-owned {@link Hit}, so a hit allocates nothing. Writes
+ * take the write lock. A value loaded while its key was invalidated is not stored: {@link #beginLoad} and
+ * {@link #put} bracket the load with the key's generation, as in {@link EntityCache}.
+ */
+public class SlabCache {
+
+	private static final int HEADER_BYTES = 4 + 8;
+	private static final int MIN_SLOT_SHIFT = 6;
+	private static final int STRIPES = 1024;
+	private static final long MISSING = -1;
+
+	/**
+	 * A reusable destination for reads: after a hit, bytes[0, length) holds the value.
+	 */
+	public static final class Hit {
+		private byte[] bytes = new byte[512];
+		private int length;
+		private long tag;
+
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		public long getTag() {
+			return tag;
+		}
+
+		/**
+		 * Fills the hit from a value that was not read from the cache, e.g. one just loaded.
+		 */
+		public void fill(long tag, byte[] bytes, int length) {
+			if (this.bytes.length < length) {
+				this.bytes = new byte[Integer.highestOneBit(length) << 1];
+			}
+			System.arraycopy(bytes, 0, this.bytes, 0, length);
+			this.length = length;
+			this.tag = tag;
+		}
+	}
+
+	private static final class Slab {
+		final ByteBuffer buffer;
+		final int slotShift;
+		final int[] owners;
+		final boolean[] used;
+		final boolean[] referenced;
+
+		Slab(ByteBuffer buffer, int slotShift) {
+			this.buffer = buffer;
+			this.slotShift = slotShift;
+			int slots = buffer.capacity() >>> slotShift;
+			this.owners = new int[slots];
+			this.used = new boolean[slots];
+			this.referenced = new boolean[slots];
+		}
+	}
+
+	private static final class SizeClass {
+		final List<Integer> slabs = new ArrayList<>();
+		long[] free = new long[64];
+		int freeCount;
+		int handSlab;
+		int handSlot;
+	}
+
+	private final long maxBytes;
+	private final int slabBytes;
+	private final SizeClass[] classes;
+	private final List<Slab> slabs = new ArrayList<>();
+	private final IntLongMap index = new IntLongMap(1024);
+	private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final String hitsMetric;
+	private final String missesMetric;
+	private final String evictionsMetric;
+	private final String rejectedMetric;
+	private long usedBytes;
+
+	/**
+	 * @param name      the metric prefix, e.g. "cache.messageJson"
+	 * @param maxBytes  the most off-heap memory reserved for slabs
+	 * @param slabBytes the size of each slab, a power of two; the largest value cached is a quarter of it
+	 */
+	public SlabCache(String name, long maxBytes, int slabBytes) {
+		if (Integer.bitCount(slabBytes) != 1 || slabBytes < 1 << (MIN_SLOT_SHIFT + 2)) {
+			throw new IllegalArgumentException("Slab size must be a power of two of at least 256 bytes");
+		}
+		this.maxBytes = maxBytes;
+		this.slabBytes = slabBytes;
+		this.classes = new SizeClass[Integer.numberOfTrailingZeros(slabBytes) - 2 - MIN_SLOT_SHIFT + 1];
+		for (int c = 0; c < classes.length; c++) {
+			classes[c] = new SizeClass();
+		}
+		this.hitsMetric = name + ".hits";
+		this.missesMetric = name + ".misses";
+		this.evictionsMetric = name + ".evictions";
+		this.rejectedMetric = name + ".rejected";
+		Metrics.gauge(name + ".entries", this::size);
+		Metrics.gauge(name + ".offHeapBytes", this::reservedBytes);
+		Metrics.gauge(name + ".usedBytes", () -> usedBytes);
+	}
+
+	/**
+	 * Copies the value of a key into hit, growing its buffer if needed.
+	 * @return true on a hit
+	 */
+	public boolean get(int key, Hit hit) {
+		lock.readLock().lock();
+		try {
+			long locator = index.get(key, MISSING);
+			if (locator == MISSING) {
+				Metrics.increment(missesMetric);
+				return false;
+			}
+			Slab slab = slabs.get((int) (locator >>> 32));
+			int slot = (int) locator;
+			int offset = slot << slab.slotShift;
+			int length = slab.buffer.getInt(offset);
+			if (hit.bytes.length < length) {
+				hit.bytes = new byte[Integer.highestOneBit(length) << 1];
+			}
+			// readers share the buffer, so each copies through its own view rather than moving the shared position
+			slab.buffer.duplicate().position(offset + HEADER_BYTES).get(hit.bytes, 0, length);
+			hit.length = length;
+			hit.tag = slab.buffer.getLong(offset + 4);
+			slab.referenced[slot] = true;
+			Metrics.increment(hitsMetric);
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the generation to pass to {@link #put} once the value has been loaded
+	 */
+	public long beginLoad(int key) {
+		return generations.get(stripe(key));
+	}
+
+	/**
+	 * Stores bytes[0, length) under the key, unless the key was invalidated since {@link #beginLoad}.
+	 * @return true if the value was stored
+	 */
+	public boolean put(int key, long generation, long tag, byte[] bytes, int length) {
+		int sizeClass = sizeClass(HEADER_BYTES + length);
+		if (sizeClass >= classes.length) {
+			Metrics.increment(rejectedMetric);
+			return false;
+		}
+		lock.writeLock().lock();
+		try {
+			if (generations.get(stripe(key)) != generation) {
+				return false;
+			}
+			remove(key);
+			long locator = allocate(sizeClass);
+			if (locator == MISSING) {
+				Metrics.increment(rejectedMetric);
+				return false;
+			}
+			Slab slab = slabs.get((int) (locator >>> 32));
+			int slot = (int) locator;
+			int offset = slot << slab.slotShift;
+			slab.buffer.putInt(offset, length);
+			slab.buffer.putLong(offset + 4, tag);
+			slab.buffer.duplicate().position(offset + HEADER_BYTES).put(bytes, 0, length);
+			slab.owners[slot] = key;
+			slab.used[slot] = true;
+			slab.referenced[slot] = false;
+			index.put(key, locator);
+			usedBytes += 1 << slab.slotShift;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void invalidate(int key) {
+		lock.writeLock().lock();
+		try {
+			generations.incrementAndGet(stripe(key));
+			remove(key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops every entry. The slabs stay reserved, with all their slots free.
+	 */
+	public void invalidateAll() {
+		lock.writeLock().lock();
+		try {
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				generations.incrementAndGet(stripe);
+			}
+			index.clear();
+			for (SizeClass sizeClass : classes) {
+				sizeClass.freeCount = 0;
+				for (int s = sizeClass.slabs.size() - 1; s >= 0; s--) {
+					int slabIndex = sizeClass.slabs.get(s);
+					Slab slab = slabs.get(slabIndex);
+					for (int slot = slab.used.length - 1; slot >= 0; slot--) {
+						slab.used[slot] = false;
+						pushFree(sizeClass, (long) slabIndex << 32 | slot);
+					}
+				}
+			}
+			usedBytes = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the off-heap memory held by slabs
+	 */
+	public long reservedBytes() {
+		lock.readLock().lock();
+		try {
+			return (long) slabs.size() * slabBytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void remove(int key) {
+		long locator = index.get(key, MISSING);
+		if (locator == MISSING) {
+			return;
+		}
+		index.remove(key);
+		Slab slab = slabs.get((int) (locator >>> 32));
+		slab.used[(int) locator] = false;
+		usedBytes -= 1 << slab.slotShift;
+		pushFree(classes[slab.slotShift - MIN_SLOT_SHIFT], locator);
+	}
+
+	/**
+	 * @return a free slot of the class: from its free list, from a new slab, or by evicting an entry
+	 */
+	private long allocate(int classIndex) {
+		SizeClass sizeClass = classes[classIndex];
+		if (sizeClass.freeCount == 0 && (long) (slabs.size() + 1) * slabBytes <= maxBytes) {
+			int slabIndex = slabs.size();
+			Slab slab = new Slab(ByteBuffer.allocateDirect(slabBytes), classIndex + MIN_SLOT_SHIFT);
+			slabs.add(slab);
+			sizeClass.slabs.add(slabIndex);
+			for (int slot = slab.used.length - 1; slot >= 0; slot--) {
+				pushFree(sizeClass, (long) slabIndex << 32 | slot);
+			}
+		}
+		if (sizeClass.freeCount > 0) {
+			return sizeClass.free[--sizeClass.freeCount];
+		}
+		return sizeClass.slabs.isEmpty() ? MISSING : evict(sizeClass);
+	}
+
+	/**
+	 * Advances the class's CLOCK hand to the first entry not read since the hand last passed, and frees it.
+	 */
+	private long evict(SizeClass sizeClass) {
+		while (true) {
+			int slabIndex = sizeClass.slabs.get(sizeClass.handSlab);
+			Slab slab = slabs.get(slabIndex);
+			int slot = sizeClass.handSlot;
+			if (++sizeClass.handSlot == slab.used.length) {
+				sizeClass.handSlot = 0;
+				sizeClass.handSlab = (sizeClass.handSlab + 1) % sizeClass.slabs.size();
+			}
+			if (slab.referenced[slot]) {
+				slab.referenced[slot] = false;
+			} else if (slab.used[slot]) {
+				index.remove(slab.owners[slot]);
+				slab.used[slot] = false;
+				usedBytes -= 1 << slab.slotShift;
+				Metrics.increment(evictionsMetric);
+				return (long) slabIndex << 32 | slot;
+			}
+		}
+	}
+
+	private static void pushFree(SizeClass sizeClass, long locator) {
+		if (sizeClass.freeCount == sizeClass.free.length) {
+			long[] grown = new long[sizeClass.free.length * 2];
+			System.arraycopy(sizeClass.free, 0, grown, 0, sizeClass.freeCount);
+			sizeClass.free = grown;
+		}
+		sizeClass.free[sizeClass.freeCount++] = locator;
+	}
+
+	/**
+	 * @return the index of the smallest class whose slots hold size bytes
+	 */
+	private static int sizeClass(int size) {
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1 << MIN_SLOT_SHIFT) - 1);
+		return shift - MIN_SLOT_SHIFT;
+	}
+
+	private static int stripe(int key) {
+		return (int) (Hashing.mix64(key) & (STRIPES - 1));
+	}
+}
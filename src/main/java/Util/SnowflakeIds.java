@@ -0,0 +1,117 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The SnowflakeIds class hands out 64-bit ids without coordinating with a database or other nodes. An id is
+ *   [41 bits: milliseconds since EPOCH_MILLIS][10 bits: node][12 bits: sequence within the millisecond]
+ * so ids from one node are strictly increasing, ids from different nodes never collide, and ids sort roughly by
+ * creation time across nodes. The layout lasts about 69 years from the epoch.
+ *
+ * The last timestamp and sequence are packed into one AtomicLong and advanced with compare-and-set, so nextId()
+ * takes no lock and allocates nothing. Once 4096 ids have been handed out in one millisecond, callers spin until
+ * the clock reaches the next one, which caps a node at about 4 million ids per second.
+ *
+ * If the wall clock moves backwards (NTP step, VM migration), ids keep counting on from the last timestamp handed
+ * out, which keeps them unique and increasing, and wait for the clock to catch up once that millisecond is used
+ * up. A step back of more than maxDriftMillis makes nextId() fail instead of stalling every writer.
+ */
+public class SnowflakeIds {
+
+	/**
+	 * 2022-12-01T00:00:00Z, just before the oldest messages in the sample data.
+	 */
+	public static final long EPOCH_MILLIS = 1669852800000L;
+	public static final int NODE_BITS = 10;
+	public static final int SEQUENCE_BITS = 12;
+	public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private final long node;
+	private final long maxDriftMillis;
+	private final LongSupplier clock;
+	/**
+	 * (milliseconds since the epoch << SEQUENCE_BITS) | sequence of the last id handed out.
+	 */
+	private final AtomicLong last = new AtomicLong();
+
+	/**
+	 * A generator for node socialmedia.ids.node (default 0) that tolerates socialmedia.ids.maxDriftMillis
+	 * (default 1000) of clock regression.
+	 */
+	public SnowflakeIds() {
+		this(Integer.getInteger("socialmedia.ids.node", 0), Long.getLong("socialmedia.ids.maxDriftMillis", 1000L),
+				System::currentTimeMillis);
+	}
+
+	/**
+	 * @param node            this node's id, unique among the nodes writing ids, from 0 to MAX_NODE
+	 * @param maxDriftMillis  how far the clock may step back before nextId() fails
+	 * @param clock           the wall clock, in epoch milliseconds
+	 */
+	public SnowflakeIds(int node, long maxDriftMillis, LongSupplier clock) {
+		if (node < 0 || node > MAX_NODE) {
+			throw new IllegalArgumentException("Node must be between 0 and " + MAX_NODE);
+		}
+		this.node = node;
+		this.maxDriftMillis = maxDriftMillis;
+		this.clock = clock;
+	}
+
+	/**
+	 * @return a new id, greater than every id this generator returned before
+	 * @throws IllegalStateException if the clock has moved back by more than maxDriftMillis
+	 */
+	public long nextId() {
+		while (true) {
+			long previous = last.get();
+			long now = clock.getAsLong() - EPOCH_MILLIS;
+			long lastMillis = previous >>> SEQUENCE_BITS;
+			long next;
+			if (now > lastMillis) {
+				next = now << SEQUENCE_BITS;
+			} else {
+				// same millisecond, or the clock went back: count on from the last id
+				if (lastMillis - now > maxDriftMillis) {
+					Metrics.increment("ids.clockRegressionFailures");
+					throw new IllegalStateException("Clock is " + (lastMillis - now) + " ms behind the last id");
+				}
+				if ((previous & SEQUENCE_MASK) == SEQUENCE_MASK) {
+					// this millisecond is used up: wait for the clock to pass it
+					Thread.onSpinWait();
+					continue;
+				}
+				next = previous + 1;
+			}
+			if (last.compareAndSet(previous, next)) {
+				if (now < lastMillis) {
+					Metrics.increment("ids.clockRegressions");
+				}
+				return (next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+			}
+		}
+	}
+
+	/**
+	 * @return the epoch milliseconds an id was generated at
+	 */
+	public static long timestampMillis(long id) {
+		return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+	}
+
+	/**
+	 * @return the node that generated an id
+	 */
+	public static int node(long id) {
+		return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+	}
+
+	/**
+	 * @return the position of an id within its millisecond
+	 */
+	public static int sequence(long id) {
+		return (int) (id & SEQUENCE_MASK);
+	}
+}
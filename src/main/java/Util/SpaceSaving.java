@@ -0,0 +1,102 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The SpaceSaving class (Metwally et al.) tracks the most frequent strings of a stream with k counters. A string
+ * that is not tracked takes over the smallest counter and inherits its count as possible overestimate. With N
+ * strings added, every string seen more than N / k times is tracked, and a tracked count exceeds the true count
+ * by at most its recorded error, itself at most N / k. Each update costs O(log k).
+ *
+ * Not thread-safe: callers serialize updates and reads.
+ */
+public class SpaceSaving {
+
+	/**
+	 * A tracked string, its (over)estimated count and the most that count can be too high by.
+	 */
+	public static final class Counter implements Comparable<Counter> {
+		private final String value;
+		private long count;
+		private long error;
+
+		Counter(String value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getError() {
+			return error;
+		}
+
+		/**
+		 * Smallest count first, so the counter to replace is the first one.
+		 */
+		@Override
+		public int compareTo(Counter other) {
+			int byCount = Long.compare(count, other.count);
+			return byCount != 0 ? byCount : value.compareTo(other.value);
+		}
+	}
+
+	private final int capacity;
+	private final Map<String, Counter> counters = new HashMap<>();
+	private final TreeSet<Counter> byCount = new TreeSet<>();
+
+	/**
+	 * @param capacity the number of counters, k
+	 */
+	public SpaceSaving(int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * @param value the string to count
+	 * @param count how many occurrences to add
+	 */
+	public void add(String value, long count) {
+		Counter counter = counters.get(value);
+		if (counter == null) {
+			if (counters.size() < capacity) {
+				counter = new Counter(value, 0, 0);
+			} else {
+				Counter smallest = byCount.pollFirst();
+				counters.remove(smallest.value);
+				counter = new Counter(value, smallest.count, smallest.count);
+			}
+			counters.put(value, counter);
+		} else {
+			byCount.remove(counter);
+		}
+		counter.count += count;
+		byCount.add(counter);
+	}
+
+	/**
+	 * @return the tracked strings, largest count first
+	 */
+	public List<Counter> counters() {
+		return new ArrayList<>(byCount.descendingSet());
+	}
+
+	/**
+	 * Forgets everything.
+	 */
+	public void clear() {
+		counters.clear();
+		byCount.clear();
+	}
+}
@@ -0,0 +1,299 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The TextCodec class is how message_text is stored: compressed with raw Deflate primed with a shared dictionary
+ * of the phrases messages use most, which makes even a short post shrink. A stored text is the dictionary version
+ * as an unsigned LEB128 varint followed by the compressed UTF-8; version 0 means the UTF-8 is stored as is, which
+ * is used until a dictionary is trained and whenever compressing would not make the text smaller.
+ *
+ * Dictionaries are versioned and kept in the message_dictionary table on shard 0. A new one is trained from a
+ * sample of messages with {@link #train} and made current with {@link #addDictionary}; texts written before keep
+ * the version they were written with, which is never removed, and switch to the current one when they are next
+ * written. Dictionaries are loaded on first use and again whenever a text names a version not loaded yet, so an
+ * instance picks up a dictionary another one trained when it first reads a text that uses it.
+ */
+public class TextCodec {
+
+	public static final int PLAIN = 0;
+
+	private static final int MIN_PHRASE_BYTES = 4;
+	private static final int MAX_PHRASE_WORDS = 3;
+
+	private static final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+	private static volatile int current = -1;
+
+	private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+	private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[4096]);
+
+	static {
+		Metrics.gauge("messages.text.dictionaryVersion", () -> current);
+	}
+
+	private TextCodec() {
+	}
+
+	/**
+	 * @return the text as stored, compressed with the current dictionary; null for null
+	 */
+	public static byte[] encode(String text) {
+		byte[] stored = encode(text, currentVersion());
+		if (stored != null) {
+			Metrics.add("messages.text.storedBytes", stored.length);
+		}
+		return stored;
+	}
+
+	/**
+	 * @return the text as stored, compressed with the given dictionary version
+	 */
+	public static byte[] encode(String text, int version) {
+		if (text == null) {
+			return null;
+		}
+		byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+		byte[] stored = version == PLAIN ? null : compress(utf8, version, dictionary(version));
+		if (stored == null || stored.length >= utf8.length + 1) {
+			stored = new byte[utf8.length + 1];
+			stored[0] = PLAIN;
+			System.arraycopy(utf8, 0, stored, 1, utf8.length);
+		}
+		return stored;
+	}
+
+	/**
+	 * @return null if the text does not fit the buffer, which only happens when it would not compress
+	 */
+	private static byte[] compress(byte[] utf8, int version, byte[] dictionary) {
+		byte[] buffer = buffer(utf8.length + 16);
+		int header = writeVersion(buffer, version);
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setDictionary(dictionary);
+		deflater.setInput(utf8);
+		deflater.finish();
+		int length = header;
+		while (!deflater.finished() && length < buffer.length) {
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		}
+		return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+	}
+
+	/**
+	 * @param stored a text as written by {@link #encode}
+	 * @throws IllegalStateException if it names a dictionary that does not exist, or is corrupt
+	 */
+	public static String decode(byte[] stored) {
+		if (stored == null) {
+			return null;
+		}
+		int version = versionOf(stored);
+		int position = 1;
+		while (stored[position - 1] < 0) {
+			position++;
+		}
+		if (version == PLAIN) {
+			return new String(stored, position, stored.length - position, StandardCharsets.UTF_8);
+		}
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setDictionary(dictionary(version));
+		inflater.setInput(stored, position, stored.length - position);
+		byte[] buffer = buffer(4 * (stored.length - position) + 64);
+		try {
+			int length = 0;
+			while (!inflater.finished()) {
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					buffers.set(buffer);
+				}
+				int inflated = inflater.inflate(buffer, length, buffer.length - length);
+				if (inflated == 0 && inflater.needsInput()) {
+					throw new IllegalStateException("Stored text is truncated");
+				}
+				length += inflated;
+			}
+			return new String(buffer, 0, length, StandardCharsets.UTF_8);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Stored text is corrupt", e);
+		}
+	}
+
+	/**
+	 * @return the dictionary version of a stored text
+	 */
+	public static int versionOf(byte[] stored) {
+		int version = 0;
+		for (int position = 0, shift = 0; ; shift += 7) {
+			byte b = stored[position++];
+			version |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return version;
+			}
+		}
+	}
+
+	private static int writeVersion(byte[] buffer, int version) {
+		int position = 0;
+		while ((version & ~0x7f) != 0) {
+			buffer[position++] = (byte) ((version & 0x7f) | 0x80);
+			version >>>= 7;
+		}
+		buffer[position++] = (byte) version;
+		return position;
+	}
+
+	private static byte[] buffer(int size) {
+		byte[] buffer = buffers.get();
+		if (buffer.length < size) {
+			buffer = new byte[Math.max(size, buffer.length * 2)];
+			buffers.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * @return the version new texts are written with; {@link #PLAIN} until a dictionary exists
+	 */
+	public static int currentVersion() {
+		if (current < 0) {
+			load();
+		}
+		return Math.max(current, PLAIN);
+	}
+
+	private static byte[] dictionary(int version) {
+		byte[] dictionary = dictionaries.get(version);
+		if (dictionary == null) {
+			load();
+			dictionary = dictionaries.get(version);
+			if (dictionary == null) {
+				throw new IllegalStateException("No message dictionary version " + version);
+			}
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Reads every dictionary from shard 0. The newest becomes current unless a newer one was added here.
+	 */
+	private static synchronized void load() {
+		try (Connection connection = Shards.getConnection(0);
+			 Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery("SELECT version, dictionary FROM message_dictionary")) {
+			int newest = PLAIN;
+			while (resultSet.next()) {
+				dictionaries.putIfAbsent(resultSet.getInt(1), resultSet.getBytes(2));
+				newest = Math.max(newest, resultSet.getInt(1));
+			}
+			current = Math.max(current, newest);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			current = Math.max(current, PLAIN);
+		}
+	}
+
+	/**
+	 * Stores a dictionary under the next version and makes it current for new texts.
+	 * @return the version
+	 */
+	public static synchronized int addDictionary(byte[] dictionary) throws SQLException {
+		try (Connection connection = Shards.getConnection(0)) {
+			int version;
+			try (Statement statement = connection.createStatement();
+				 ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM message_dictionary")) {
+				resultSet.next();
+				version = Math.max(resultSet.getInt(1), Math.max(current, PLAIN)) + 1;
+			}
+			try (PreparedStatement statement = connection.prepareStatement(
+					"INSERT INTO message_dictionary (version, dictionary, trained_at) VALUES (?, ?, ?)")) {
+				statement.setInt(1, version);
+				statement.setBytes(2, dictionary);
+				statement.setLong(3, System.currentTimeMillis());
+				statement.executeUpdate();
+			}
+			dictionaries.put(version, dictionary);
+			current = version;
+			return version;
+		}
+	}
+
+	/**
+	 * Builds a dictionary of up to maxBytes from sample texts: the words and runs of up to three words that would
+	 * save the most bytes over the sample, each kept once, with the most valuable last, where Deflate reaches them
+	 * with the shortest distances.
+	 */
+	public static byte[] train(Collection<String> samples, int maxBytes) {
+		Map<String, Integer> counts = new HashMap<>();
+		for (String sample : samples) {
+			String[] words = sample.split(" ");
+			for (int start = 0; start < words.length; start++) {
+				StringBuilder phrase = new StringBuilder();
+				for (int end = start; end < Math.min(words.length, start + MAX_PHRASE_WORDS); end++) {
+					if (end > start) {
+						phrase.append(' ');
+					}
+					phrase.append(words[end]);
+					// the separating space goes with the phrase, as it does in the text
+					String candidate = start > 0 ? " " + phrase : phrase.toString();
+					if (candidate.length() >= MIN_PHRASE_BYTES) {
+						counts.merge(candidate, 1, Integer::sum);
+					}
+				}
+			}
+		}
+		List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			if (entry.getValue() > 1) {
+				ranked.add(entry);
+			}
+		}
+		ranked.sort((a, b) -> Long.compare(saving(b), saving(a)));
+
+		List<byte[]> chosen = new ArrayList<>();
+		StringBuilder kept = new StringBuilder();
+		int size = 0;
+		for (Map.Entry<String, Integer> entry : ranked) {
+			byte[] phrase = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			if (size + phrase.length > maxBytes) {
+				if (maxBytes - size < MIN_PHRASE_BYTES) {
+					break;
+				}
+				continue;
+			}
+			if (kept.indexOf(entry.getKey()) >= 0) {
+				continue;
+			}
+			chosen.add(phrase);
+			kept.append(entry.getKey()).append('\n');
+			size += phrase.length;
+		}
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+		for (int i = chosen.size() - 1; i >= 0; i--) {
+			dictionary.writeBytes(chosen.get(i));
+		}
+		return dictionary.toByteArray();
+	}
+
+	private static long saving(Map.Entry<String, Integer> phrase) {
+		return (long) (phrase.getValue() - 1) * phrase.getKey().length();
+	}
+}
@@ -0,0 +1,112 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The TopK class keeps the k keys with the largest counts, ordered by count. It is fed with the latest count of a
+ * key every time that count changes: a key already ranked is repositioned, and a new key only enters if it beats
+ * the smallest ranked count, evicting it. Each update costs O(log k) whatever the number of keys.
+ *
+ * This stays exact as long as counts only grow. When a ranked count shrinks, a key outside the ranking may now
+ * deserve its place; {@link #offer(int, long)} reports that, and the owner must rebuild the ranking.
+ */
+public class TopK {
+
+	/**
+	 * A ranked key and its count.
+	 */
+	public static final class Entry implements Comparable<Entry> {
+		private final int key;
+		private final long count;
+
+		Entry(int key, long count) {
+			this.key = key;
+			this.count = count;
+		}
+
+		public int getKey() {
+			return key;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Largest count first; ties broken by the smaller key so the order is total and stable.
+		 */
+		@Override
+		public int compareTo(Entry other) {
+			int byCount = Long.compare(other.count, count);
+			return byCount != 0 ? byCount : Integer.compare(key, other.key);
+		}
+	}
+
+	private final int capacity;
+	private final TreeSet<Entry> ranking = new TreeSet<>();
+	private final Map<Integer, Entry> ranked = new HashMap<>();
+
+	/**
+	 * @param capacity the number of keys to keep
+	 */
+	public TopK(int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Records the current count of a key.
+	 * @return false if a ranked count went down, which means the ranking may have to be rebuilt
+	 */
+	public synchronized boolean offer(int key, long count) {
+		Entry previous = ranked.get(key);
+		if (previous != null) {
+			ranking.remove(previous);
+			Entry entry = new Entry(key, count);
+			ranking.add(entry);
+			ranked.put(key, entry);
+			return count >= previous.count || ranking.size() < capacity;
+		}
+		if (ranking.size() >= capacity) {
+			Entry smallest = ranking.last();
+			if (count <= smallest.count) {
+				return true;
+			}
+			ranking.pollLast();
+			ranked.remove(smallest.key);
+		}
+		Entry entry = new Entry(key, count);
+		ranking.add(entry);
+		ranked.put(key, entry);
+		return true;
+	}
+
+	/**
+	 * @param limit the maximum number of entries to return
+	 * @return the highest-ranked entries, largest count first
+	 */
+	public synchronized List<Entry> top(int limit) {
+		List<Entry> top = new ArrayList<>(Math.min(limit, ranking.size()));
+		for (Entry entry : ranking) {
+			if (top.size() >= limit) {
+				break;
+			}
+			top.add(entry);
+		}
+		return top;
+	}
+
+	/**
+	 * Replaces the ranking with the top keys of the given counts, in O(n log k).
+	 */
+	public synchronized void rebuild(Map<Integer, Long> counts) {
+		ranking.clear();
+		ranked.clear();
+		for (Map.Entry<Integer, Long> count : counts.entrySet()) {
+			offer(count.getKey(), count.getValue());
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Supplier;
+
+/**
+ * The UnitOfWork class runs a block of service code on one connection bound to the current thread. DAOs get their
+ * connection from {@link #getConnection()}: outside a unit of work that is a fresh connection as before, inside one
+ * it is the bound connection, so every DAO call of the block shares it. The connection is borrowed from the
+ * {@link Shards shard} of the block's first statement; a unit of work is a transaction on one shard, and a statement
+ * routed to another shard inside it is an error.
+ *
+ * A write unit of work is one transaction: it commits when the block returns and rolls back when it throws. DAO
+ * calls inside it cannot end the transaction early; their commit, setAutoCommit and close calls are ignored, and a
+ * rollback marks the whole unit for rollback. So does a DAO that turned auto-commit off and closes the connection
+ * without committing, as it does when a statement fails and it returns null or false instead of throwing: on a
+ * connection of its own that work would be discarded, so the unit's must be too. A read-only unit of work stays in
+ * auto-commit mode and skips the begin/commit round trips. A unit of work started inside another one joins it.
+ *
+ * Inside {@link Replicas#read(Supplier)}, a connection outside a unit of work, or the connection of a read-only
+ * unit, is borrowed from a replica of the shard when one is in sync. A write unit always binds to the primary.
+ *
+ * Borrowed connections are counted per thread so the controller can report connections per request.
+ */
+public class UnitOfWork {
+
+	private static final class Bound {
+		final boolean readOnly;
+		Connection connection;
+		int shard;
+		boolean rollbackOnly;
+
+		Bound(boolean readOnly) {
+			this.readOnly = readOnly;
+		}
+	}
+
+	private static final ThreadLocal<Bound> current = new ThreadLocal<>();
+	private static final ThreadLocal<int[]> borrowed = ThreadLocal.withInitial(() -> new int[1]);
+
+	private UnitOfWork() {
+	}
+
+	/**
+	 * Runs work in a transaction, or joins the one already open on this thread.
+	 * @throws IllegalStateException if called inside a read-only unit of work
+	 */
+	public static <T> T write(Supplier<T> work) {
+		return run(work, false);
+	}
+
+	/**
+	 * Runs work on one connection without a transaction, or joins the unit of work already open on this thread.
+	 */
+	public static <T> T readOnly(Supplier<T> work) {
+		return run(work, true);
+	}
+
+	/**
+	 * @return the connection of the current unit of work, which ignores close, or a new connection when there is
+	 * none; either way the caller closes it as usual
+	 * @throws IllegalStateException if the current unit of work is bound to another shard than the current one
+	 */
+	public static Connection getConnection() {
+		Bound bound = current.get();
+		int shard = Shards.current();
+		if (bound == null) {
+			return borrow(shard, Replicas.routesReads());
+		}
+		if (bound.connection == null) {
+			bind(bound, shard);
+		} else if (bound.shard != shard) {
+			throw new IllegalStateException("A unit of work on shard " + bound.shard + " cannot use shard " + shard);
+		}
+		return joined(bound);
+	}
+
+	/**
+	 * @return true if the current thread is inside a unit of work
+	 */
+	public static boolean isActive() {
+		return current.get() != null;
+	}
+
+	/**
+	 * Resets the borrowed-connection count of the current thread, at the start of a request.
+	 */
+	public static void resetBorrowedCount() {
+		borrowed.get()[0] = 0;
+	}
+
+	/**
+	 * @return the connections borrowed on the current thread since {@link #resetBorrowedCount()}
+	 */
+	public static int borrowedCount() {
+		return borrowed.get()[0];
+	}
+
+	private static <T> T run(Supplier<T> work, boolean readOnly) {
+		Bound outer = current.get();
+		if (outer != null) {
+			if (outer.readOnly && !readOnly) {
+				throw new IllegalStateException("Cannot start a write inside a read-only unit of work");
+			}
+			return work.get();
+		}
+		Bound bound = new Bound(readOnly);
+		current.set(bound);
+		try {
+			T result = work.get();
+			if (!readOnly && bound.connection != null) {
+				if (bound.rollbackOnly) {
+					bound.connection.rollback();
+					Metrics.increment("db.transactions.rolledBack");
+				} else {
+					bound.connection.commit();
+					Metrics.increment("db.transactions.committed");
+				}
+			}
+			return result;
+		} catch (SQLException e) {
+			rollbackQuietly(bound);
+			throw new IllegalStateException(e);
+		} catch (RuntimeException | Error e) {
+			rollbackQuietly(bound);
+			throw e;
+		} finally {
+			current.remove();
+			if (bound.connection != null) {
+				try {
+					bound.connection.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Borrows the unit's connection on its first statement, from that statement's shard.
+	 */
+	private static void bind(Bound bound, int shard) {
+		Connection connection = borrow(shard, bound.readOnly && Replicas.routesReads());
+		if (connection == null) {
+			throw new IllegalStateException("No database connection available");
+		}
+		if (!bound.readOnly) {
+			try {
+				connection.setAutoCommit(false);
+			} catch (SQLException e) {
+				try {
+					connection.close();
+				} catch (SQLException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+				throw new IllegalStateException(e);
+			}
+		}
+		bound.connection = connection;
+		bound.shard = shard;
+	}
+
+	private static Connection borrow(int shard, boolean replica) {
+		borrowed.get()[0]++;
+		Metrics.increment("db.connections.borrowed");
+		Connection connection = replica ? Replicas.getConnection(shard) : null;
+		return connection != null ? connection : Shards.getConnection(shard);
+	}
+
+	private static void rollbackQuietly(Bound bound) {
+		if (bound.readOnly || bound.connection == null) {
+			return;
+		}
+		try {
+			bound.connection.rollback();
+			Metrics.increment("db.transactions.rolledBack");
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Wraps the bound connection so that DAO code written for its own connection cannot end the transaction.
+	 */
+	private static Connection joined(Bound bound) {
+		// whether the DAO holding this handle has turned auto-commit off and not yet committed or rolled back
+		boolean[] pending = new boolean[1];
+		InvocationHandler handler = (Object proxy, Method method, Object[] args) -> {
+			switch (method.getName()) {
+				case "close":
+					if (pending[0]) {
+						pending[0] = false;
+						bound.rollbackOnly = true;
+					}
+					return null;
+				case "commit":
+					pending[0] = false;
+					return null;
+				case "setAutoCommit":
+					pending[0] = !(Boolean) args[0];
+					return null;
+				case "rollback":
+					if (args == null) {
+						pending[0] = false;
+						bound.rollbackOnly = true;
+						return null;
+					}
+					break;
+				case "isClosed":
+					return false;
+				default:
+					break;
+			}
+			try {
+				return method.invoke(bound.connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		};
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, handler);
+	}
+}
@@ -1,3 +1,13 @@
+drop table if exists message_dictionary;
+drop table if exists cold_tombstone;
+drop table if exists invalidation_event;
+drop table if exists replication_position;
+drop table if exists account_change;
+drop table if exists idempotency_key;
+drop table if exists follow;
+drop table if exists active_poster_sketch;
+drop table if exists account_stats;
+drop table if exists message_change;
 drop table if exists message;
 drop table if exists account;
 create table account (
@@ -6,12 +16,78 @@ create table account (
     password varchar(255)
 );
 create table message (
-    message_id int primary key auto_increment,
+    message_id bigint primary key auto_increment,
     posted_by int,
-    message_text varchar(255),
+    message_text varbinary(1024),
     time_posted_epoch bigint,
+    version bigint default 0 not null,
     foreign key (posted_by) references  account(account_id)
 );
+create index message_time_posted_idx on message (time_posted_epoch, message_id);
+create index message_posted_by_time_idx on message (posted_by, time_posted_epoch);
+create table message_change (
+    change_seq bigint primary key auto_increment,
+    operation varchar(6),
+    message_id bigint,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    changed_at bigint
+);
+create table account_change (
+    change_seq bigint primary key auto_increment,
+    operation varchar(6),
+    account_id int,
+    username varchar(255),
+    password varchar(255),
+    changed_at bigint
+);
+create table replication_position (
+    log_name varchar(50) primary key,
+    applied_seq bigint
+);
+create table account_stats (
+    account_id int primary key,
+    message_count bigint
+);
+create table follow (
+    follower_id int,
+    followee_id int,
+    followed_at bigint,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references account(account_id)
+);
+create index follow_followee_idx on follow (followee_id);
+create table active_poster_sketch (
+    bucket_hour bigint primary key,
+    registers varbinary(65536)
+);
+create table idempotency_key (
+    idempotency_key varchar(300) primary key,
+    fingerprint varchar(64),
+    status int,
+    content_type varchar(100),
+    body varchar(65536),
+    expires_at bigint
+);
+create index idempotency_key_expires_idx on idempotency_key (expires_at);
+create table invalidation_event (
+    event_seq bigint primary key auto_increment,
+    payload varbinary(8192),
+    created_at bigint
+);
+create table cold_tombstone (
+    message_id bigint primary key,
+    segment int
+);
+create table message_dictionary (
+    version int primary key,
+    dictionary varbinary(65536),
+    trained_at bigint
+);
 
 insert into account (username, password) values ('testuser1', 'password');
-insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
+insert into account_change (operation, account_id, username, password, changed_at) values ('create', 1, 'testuser1', 'password', 1669947792000);
+insert into message (posted_by, message_text, time_posted_epoch) values (1,X'00' || CAST('test message 1' AS VARBINARY),1669947792);
+insert into message_change (operation, message_id, posted_by, message_text, time_posted_epoch, changed_at) values ('create', 1, 1, 'test message 1', 1669947792, 1669947792000);
+insert into account_stats (account_id, message_count) values (1, 1);
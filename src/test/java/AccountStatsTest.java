@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.AccountStats;
+import Service.AccountStatsService;
+import Util.ConnectionUtil;
+import Util.Shards;
+import io.javalin.Javalin;
+
+public class AccountStatsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Posting and deleting messages for two accounts, then reading GET /accounts/{userId}/stats and GET /leaderboard
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: counts that follow every create and delete; the leaderboard ordered by count
+     */
+    @Test
+    public void countersFollowCreatesAndDeletes() throws IOException, InterruptedException {
+        register("user2");
+        for (int i = 0; i < 3; i++) {
+            postMessage(2);
+        }
+        delete("/messages/1");
+
+        Assert.assertEquals(new AccountStats(2, 3), stats(2));
+        Assert.assertEquals(new AccountStats(1, 0), stats(1));
+
+        postMessage(1);
+        List<AccountStats> leaderboard = objectMapper.readValue(get("/leaderboard").body(),
+                new TypeReference<List<AccountStats>>(){});
+        Assert.assertEquals(List.of(new AccountStats(2, 3), new AccountStats(1, 1)), leaderboard);
+    }
+
+    /**
+     * Messages deleted behind the API's back are repaired by reconciliation, in memory and in the summary table.
+     */
+    @Test
+    public void reconciliationRepairsDrift() throws IOException, InterruptedException, SQLException {
+        postMessage(1);
+        postMessage(1);
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM message WHERE message_id > 1");
+        }
+        Assert.assertEquals(new AccountStats(1, 3), stats(1));
+
+        AccountStatsService accountStatsService = new AccountStatsService(10, 3600);
+        Assert.assertEquals(new AccountStats(1, 3), accountStatsService.getStats(1));
+        Assert.assertEquals(1, accountStatsService.reconcile());
+        Assert.assertEquals(new AccountStats(1, 1), accountStatsService.getStats(1));
+        Assert.assertEquals(0, accountStatsService.reconcile());
+        accountStatsService.close();
+    }
+
+    /**
+     * Reconciling while a shard's message table cannot be read
+     *
+     * Expected: the run repairs nothing, and the counts of that shard's accounts are kept rather than zeroed
+     */
+    @Test
+    public void reconciliationSkipsARunThatCannotReadEveryShard() throws IOException, InterruptedException, SQLException {
+        postMessage(1);
+        AccountStatsService accountStatsService = new AccountStatsService(10, 3600);
+        try (Connection connection = Shards.getConnection(Shards.ofId(1));
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE message RENAME TO message_unavailable");
+            try {
+                Assert.assertEquals(0, accountStatsService.reconcile());
+            } finally {
+                statement.executeUpdate("ALTER TABLE message_unavailable RENAME TO message");
+            }
+        }
+        Assert.assertEquals(new AccountStats(1, 2), accountStatsService.getStats(1));
+        Assert.assertEquals(new AccountStats(1, 2), stats(1));
+        accountStatsService.close();
+    }
+
+    private AccountStats stats(int accountId) throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/" + accountId + "/stats");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), AccountStats.class);
+    }
+
+    private void register(String username) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+    }
+
+    private void postMessage(int postedBy) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy +
+                        ", \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build());
+    }
+
+    private void delete(String path) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .DELETE()
+                .build());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void send(HttpRequest request) throws IOException, InterruptedException {
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
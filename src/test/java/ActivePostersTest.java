@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Service.ActivePosterService;
+import Util.ConnectionUtil;
+import Util.Hashing;
+import Util.HyperLogLog;
+import io.javalin.Javalin;
+
+public class ActivePostersTest {
+    static final long DAY_START = 1669939200L;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Estimates of generated id streams with repeats stay within three standard errors of the exact count.
+     */
+    @Test
+    public void estimatesMatchExactCounts() {
+        Random random = new Random(7);
+        for (int distinct : new int[] {10, 1_000, 50_000, 500_000}) {
+            HyperLogLog sketch = new HyperLogLog(12);
+            Set<Integer> exact = new HashSet<>();
+            for (int i = 0; i < distinct * 3; i++) {
+                int accountId = random.nextInt(distinct) + distinct;
+                exact.add(accountId);
+                sketch.addHash(Hashing.mix64(accountId));
+            }
+            double error = Math.abs(sketch.estimate() - exact.size()) / (double) exact.size();
+            Assert.assertTrue(distinct + ": " + error, error <= 3 * sketch.standardError());
+            Assert.assertEquals(sketch, HyperLogLog.fromBytes(sketch.toBytes()));
+        }
+    }
+
+    /**
+     * Hourly sketches merge into a daily estimate of the union, and survive a restart through the table.
+     */
+    @Test
+    public void hoursMergeIntoAnyRangeAndSurviveRestart() {
+        ActivePosterService activePosterService = new ActivePosterService(12, 3600);
+        Set<Integer> day = new HashSet<>();
+        Set<Integer> firstHour = new HashSet<>();
+        for (int hour = 0; hour < 24; hour++) {
+            // Overlapping windows of posters, so the union is much smaller than the sum of the hours
+            for (int accountId = hour * 500; accountId < hour * 500 + 2_000; accountId++) {
+                activePosterService.record(accountId, DAY_START + hour * 3600 + accountId % 3600);
+                day.add(accountId);
+                if (hour == 0) {
+                    firstHour.add(accountId);
+                }
+            }
+        }
+        assertWithinError(day.size(), activePosterService.getActivePosters(DAY_START, DAY_START + 86399));
+        assertWithinError(firstHour.size(), activePosterService.getActivePosters(DAY_START, DAY_START + 3599));
+        activePosterService.close();
+
+        ActivePosterService restarted = new ActivePosterService(12, 3600);
+        assertWithinError(day.size(), restarted.getActivePosters(DAY_START, DAY_START + 86399));
+        restarted.close();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/stats/active-posters after two messages by the same account
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one active poster, with the range widened to whole hours
+     */
+    @Test
+    public void activePostersEndpoint() throws IOException, InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            HttpRequest postMessage = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            Assert.assertEquals(200, webClient.send(postMessage, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/stats/active-posters?from=1669947000&to=1669948000"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode body = objectMapper.readTree(response.body());
+        Assert.assertEquals(1, body.get("active_posters").asLong());
+        Assert.assertEquals(1669946400L, body.get("from").asLong());
+        Assert.assertEquals(1669949999L, body.get("to").asLong());
+
+        HttpRequest reversed = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/stats/active-posters?from=1669948000&to=1669947000"))
+                .build();
+        Assert.assertEquals(400, webClient.send(reversed, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private static void assertWithinError(int exact, Map<String, Object> result) {
+        long estimate = (Long) result.get("active_posters");
+        double standardError = (Double) result.get("standard_error");
+        Assert.assertTrue(estimate + " vs " + exact, Math.abs(estimate - exact) <= 3 * standardError * exact);
+    }
+}
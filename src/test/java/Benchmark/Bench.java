@@ -0,0 +1,40 @@
+package Benchmark;
+
+/**
+ * A minimal timing harness shared by the benchmarks in this package. Each benchmark is a plain main() so that it
+ * is compiled with the tests but never run by surefire; run one with
+ *   mvn -q test-compile && java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath
+ *     -Dmdep.outputFile=/dev/stdout) Benchmark.SessionTokenBenchmark
+ */
+public class Bench {
+
+    /**
+     * An operation under measurement. It receives the iteration index so benchmarks can vary their input.
+     */
+    public interface Op {
+        void run(int i) throws Exception;
+    }
+
+    /**
+     * Runs the operation for a warm-up round, then times a second round and prints ns/op and ops/s.
+     * @return the measured nanoseconds per operation
+     */
+    public static double measure(String label, int iterations, Op op) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            op.run(i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        double nsPerOp = (double) elapsed / iterations;
+        System.out.printf("%-48s %12.1f ns/op %14.0f ops/s%n", label, nsPerOp, 1e9 / nsPerOp);
+        return nsPerOp;
+    }
+
+    /**
+     * Keeps a computed value alive so the JIT cannot discard the work that produced it.
+     */
+    public static volatile Object sink;
+}
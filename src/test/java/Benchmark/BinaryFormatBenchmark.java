@@ -0,0 +1,37 @@
+package Benchmark;
+
+import Model.Message;
+import Util.Json;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoded size and encode/decode time of a list of messages, as GET /messages returns it, in each
+ * {@link Json.Format}: 1,000 messages and 100,000 messages. All formats go through the same hand-written codecs, so
+ * the difference is the wire format alone.
+ */
+public class BinaryFormatBenchmark {
+    private static final TypeReference<List<Message>> MESSAGES = new TypeReference<List<Message>>() {};
+
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.getInteger("iterations", 2_000);
+        for (int count : new int[] {1_000, 100_000}) {
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                messages.add(new Message(1_000_000 + i, i % 500, "a message of typical length, about the weather and "
+                        + "what is for lunch " + i, 1669947792L + i));
+            }
+            int rounds = Math.max(5, iterations * 1_000 / count);
+            for (Json.Format format : Json.Format.values()) {
+                byte[] encoded = format.toBytes(messages);
+                System.out.printf("%-40s %12d bytes%n", format + ", " + count + " messages", encoded.length);
+                Bench.measure("encode " + count + ", " + format, rounds, i -> Bench.sink = format.toBytes(messages));
+                Bench.measure("decode " + count + ", " + format, rounds,
+                        i -> Bench.sink = format.mapper().readValue(encoded, MESSAGES));
+            }
+        }
+    }
+}
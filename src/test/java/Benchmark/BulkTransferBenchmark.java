@@ -0,0 +1,149 @@
+package Benchmark;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountService;
+import Service.BulkService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rows per second of the NDJSON import and export against loading messages one at a time, as POST /messages does
+ * at the DAO level, and the highest heap use seen while they run. The import input is generated as it is read, so
+ * nothing but the import itself holds rows; run with a small heap (-Xmx64m) and a large -Drows to see that memory
+ * does not grow with the input.
+ */
+public class BulkTransferBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("rows", 1_000_000);
+        int accounts = Math.max(1, rows / 100);
+        ConnectionUtil.resetTestDatabase();
+        // Keep the embedded database open between calls, as a busy server would
+        Connection keepOpen = ConnectionUtil.getConnection();
+
+        MessageDAO messageDAO = new MessageDAO();
+        int single = Math.min(rows, 20_000);
+        long start = System.nanoTime();
+        for (int i = 0; i < single; i++) {
+            messageDAO.createMessage(new Message(1, "one at a time " + i, 1669947792L + i));
+        }
+        System.out.printf("one at a time: %10.0f rows/s%n", single * 1e9 / (System.nanoTime() - start));
+
+        BulkService bulkService = new BulkService(new AccountService(), new MessageService());
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+
+        BulkService.ImportResult imported = bulkService.importFrom(new GeneratedInput(accounts, rows - accounts), 0);
+        System.out.printf("import:        %10.0f rows/s  %d rows in %.1f s  error: %s  peak heap %d MiB%n",
+                imported.getRowsPerSecond(), imported.getRows(), imported.getSeconds(), imported.getError(),
+                sampler.peakAndReset() >> 20);
+
+        AtomicLong bytes = new AtomicLong();
+        start = System.nanoTime();
+        long exported = bulkService.export(new OutputStream() {
+            @Override
+            public void write(int b) {
+                bytes.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                bytes.addAndGet(length);
+            }
+        });
+        System.out.printf("export:        %10.0f rows/s  %d rows, %d MiB  peak heap %d MiB%n",
+                exported * 1e9 / (System.nanoTime() - start), exported, bytes.get() >> 20, sampler.peakAndReset() >> 20);
+
+        sampler.interrupt();
+        keepOpen.close();
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * NDJSON for accounts 2.. and then messages 2.., spread over those accounts, produced line by line as it is read.
+     */
+    private static class GeneratedInput extends InputStream {
+        private final int accounts;
+        private final int messages;
+        private int row;
+        private byte[] line = new byte[0];
+        private int position;
+
+        GeneratedInput(int accounts, int messages) {
+            this.accounts = accounts;
+            this.messages = messages;
+        }
+
+        private boolean nextLine() {
+            if (row >= accounts + messages) {
+                return false;
+            }
+            String text;
+            if (row < accounts) {
+                int id = row + 2;
+                text = "{\"account\":{\"account_id\":" + id + ",\"username\":\"bulk" + id + "\",\"password\":\"hash\"}}\n";
+            } else {
+                int id = row - accounts + 2;
+                text = "{\"message\":{\"message_id\":" + (1_000_000 + id) + ",\"posted_by\":" + (2 + id % accounts)
+                        + ",\"message_text\":\"a message of typical length, about the weather " + id
+                        + "\",\"time_posted_epoch\":" + (1669947792L + id) + "}}\n";
+            }
+            row++;
+            line = text.getBytes(StandardCharsets.UTF_8);
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (position == line.length && !nextLine()) {
+                return -1;
+            }
+            return line[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == line.length && !nextLine()) {
+                return -1;
+            }
+            int copied = Math.min(length, line.length - position);
+            System.arraycopy(line, position, buffer, offset, copied);
+            position += copied;
+            return copied;
+        }
+    }
+
+    private static class HeapSampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peak = new AtomicLong();
+
+        HeapSampler() {
+            setDaemon(true);
+        }
+
+        long peakAndReset() {
+            return peak.getAndSet(0);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
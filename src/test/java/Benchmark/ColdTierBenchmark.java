@@ -0,0 +1,111 @@
+package Benchmark;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.ColdTier;
+import Service.MessageService;
+import Util.ColdSegment;
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Archives the older half of a message table to the cold tier, then compares reads by id served by the message
+ * table with reads that fall through to the segments, and reports how much smaller the segments are than the
+ * entries they hold. Run with -Drows to change the table size and -DblockBytes to trade lookup cost for ratio.
+ */
+public class ColdTierBenchmark {
+    private static final String[] WORDS = {"the", "weather", "is", "lovely", "today", "and", "lunch", "was", "great",
+            "going", "for", "a", "walk", "later", "with", "friends", "coffee", "meeting", "this", "afternoon"};
+
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("rows", 200_000);
+        int iterations = Integer.getInteger("iterations", 50_000);
+        ConnectionUtil.resetTestDatabase();
+        // Keep the embedded database open between calls, as a busy server would
+        Connection keepOpen = ConnectionUtil.getConnection();
+
+        MessageDAO messageDAO = new MessageDAO();
+        List<Message> batch = new ArrayList<>();
+        for (int id = 2; id <= rows + 1; id++) {
+            batch.add(new Message(id, 1, text(id), 1_000_000L + id));
+            if (batch.size() == 1000 || id == rows + 1) {
+                messageDAO.importMessages(batch);
+                batch.clear();
+            }
+        }
+
+        Path directory = Files.createTempDirectory("cold");
+        ColdTier coldTier = new ColdTier(directory, 0, 100_000, Integer.getInteger("blockBytes", 4096));
+        MessageService messageService = new MessageService();
+        messageService.setColdTier(coldTier);
+        long start = System.nanoTime();
+        int archived = coldTier.archive(1_000_000L + rows / 2);
+        System.out.printf("archive:  %d messages at %.0f messages/s%n", archived, archived * 1e9 / (System.nanoTime() - start));
+
+        Map<String, Number> metrics = Metrics.snapshot();
+        long raw = metrics.get("tiering.cold.rawBytes").longValue();
+        long file = metrics.get("tiering.cold.fileBytes").longValue();
+        System.out.printf("segments: %d, %d KiB of entries in %d KiB of files (%.2fx), %d KiB saved%n",
+                metrics.get("tiering.cold.segments").intValue(), raw >> 10, file >> 10, (double) raw / file,
+                metrics.get("tiering.cold.bytesSaved").longValue() >> 10);
+
+        int half = rows / 2;
+        Bench.measure("hot getMessageById", iterations,
+                i -> Bench.sink = messageService.getMessageById(half + 2 + ThreadLocalRandom.current().nextInt(half)));
+        Bench.measure("cold getMessageById", iterations,
+                i -> Bench.sink = messageService.getMessageById(2 + ThreadLocalRandom.current().nextInt(half)));
+        List<ColdSegment> segments = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            for (Path segment : (Iterable<Path>) files::iterator) {
+                segments.add(ColdSegment.open(segment));
+            }
+        }
+        Bench.measure("segment lookup alone, no tombstone check", iterations, i -> {
+            int id = 2 + ThreadLocalRandom.current().nextInt(half);
+            for (ColdSegment segment : segments) {
+                if (id >= segment.getMinId() && id <= segment.getMaxId()) {
+                    Bench.sink = segment.get(id);
+                }
+            }
+        });
+        long inflated = Metrics.count("tiering.cold.blocksInflated");
+        Bench.measure("cold multi-get of 100", iterations / 100, i -> {
+            List<Integer> ids = new ArrayList<>();
+            for (int j = 0; j < 100; j++) {
+                ids.add(2 + ThreadLocalRandom.current().nextInt(half));
+            }
+            Bench.sink = messageService.getMessagesByIds(ids);
+        });
+        System.out.printf("blocks inflated per multi-get: %.1f%n",
+                (Metrics.count("tiering.cold.blocksInflated") - inflated) / (2.0 * (iterations / 100)));
+
+        coldTier.close();
+        messageService.close();
+        try (var files = Files.list(directory)) {
+            for (Path segment : (Iterable<Path>) files::iterator) {
+                Files.delete(segment);
+            }
+        }
+        Files.delete(directory);
+        keepOpen.close();
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static String text(int id) {
+        StringBuilder text = new StringBuilder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int words = 6 + random.nextInt(20);
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.append('#').append(id % 97).toString();
+    }
+}
@@ -0,0 +1,149 @@
+package Benchmark;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Model.VersionedMessage;
+import Util.ConnectionUtil;
+import Util.TextCodec;
+import Util.UnitOfWork;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many writers doing read-modify-write edits on a few hot messages. Optimistic: read the version, then one
+ * conditional UPDATE, retrying on conflict; no lock is held between the read and the write. Pessimistic: read with
+ * SELECT ... FOR UPDATE inside a transaction, then UPDATE, so writers of the same row queue behind its lock.
+ * -DthinkMillis adds time between the read and the write, standing in for the work (or the client round trip)
+ * that computes the edit; the pessimistic writer holds the row lock through it.
+ */
+public class ContentionBenchmark {
+
+    interface Edit {
+        /**
+         * @return the number of attempts the edit took
+         */
+        int run(int messageId) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("threads", 16);
+        int hotMessages = Integer.getInteger("hotMessages", 4);
+        int editsPerThread = Integer.getInteger("iterations", 500);
+        long thinkMillis = Long.getLong("thinkMillis", 0L);
+
+        ConnectionUtil.resetTestDatabase();
+        // Keep the embedded database open between DAO calls, as a busy server would
+        Connection keepOpen = ConnectionUtil.getConnection();
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (1, ?, 1669947792)")) {
+            statement.setBytes(1, TextCodec.encode("hot"));
+            for (int i = 1; i < hotMessages; i++) {
+                statement.executeUpdate();
+            }
+        }
+
+        MessageDAO messageDAO = new MessageDAO();
+        Edit optimistic = messageId -> {
+            for (int attempt = 1; ; attempt++) {
+                // one connection per attempt, like the pessimistic edit; the read takes no lock
+                boolean updated = UnitOfWork.write(() -> {
+                    VersionedMessage current = messageDAO.getVersionedMessage(messageId);
+                    think(thinkMillis);
+                    return messageDAO.updateMessage(edit(current.getMessage()), List.of(current.getVersion()));
+                });
+                if (updated) {
+                    return attempt;
+                }
+            }
+        };
+        Edit pessimistic = messageId -> {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    UnitOfWork.write(() -> {
+                        try (PreparedStatement select = UnitOfWork.getConnection().prepareStatement(
+                                "SELECT * FROM Message WHERE message_id = ? FOR UPDATE")) {
+                            select.setInt(1, messageId);
+                            ResultSet resultSet = select.executeQuery();
+                            resultSet.next();
+                            think(thinkMillis);
+                            Message current = new Message(resultSet.getInt("message_id"), resultSet.getInt("posted_by"),
+                                    TextCodec.decode(resultSet.getBytes("message_text")), resultSet.getLong("time_posted_epoch"));
+                            if (!messageDAO.updateMessage(edit(current))) {
+                                throw new IllegalStateException("update failed");
+                            }
+                            return null;
+                        } catch (SQLException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    return attempt;
+                } catch (IllegalStateException e) {
+                    // lock timeout: retry
+                }
+            }
+        };
+
+        // the first rounds warm up the JIT and the database file; the order alternates so neither side benefits
+        for (int round = 0; round < 4; round++) {
+            if (round % 2 == 0) {
+                run("optimistic (conditional UPDATE)", optimistic, threads, hotMessages, editsPerThread);
+                run("pessimistic (SELECT ... FOR UPDATE)", pessimistic, threads, hotMessages, editsPerThread);
+            } else {
+                run("pessimistic (SELECT ... FOR UPDATE)", pessimistic, threads, hotMessages, editsPerThread);
+                run("optimistic (conditional UPDATE)", optimistic, threads, hotMessages, editsPerThread);
+            }
+        }
+        ConnectionUtil.resetTestDatabase();
+        keepOpen.close();
+    }
+
+    private static void think(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Message edit(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(),
+                "edit " + ThreadLocalRandom.current().nextInt(1000), message.getTime_posted_epoch());
+    }
+
+    private static void run(String label, Edit edit, int threads, int hotMessages, int editsPerThread)
+            throws InterruptedException {
+        AtomicLong attempts = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < editsPerThread; i++) {
+                        attempts.addAndGet(edit.run(ThreadLocalRandom.current().nextInt(hotMessages) + 1));
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        long edits = (long) threads * editsPerThread;
+        System.out.printf("%-40s %10.0f edits/s %8.2f attempts/edit%n",
+                label, edits * 1e9 / elapsed, (double) attempts.get() / edits);
+    }
+}
@@ -0,0 +1,127 @@
+package Benchmark;
+
+import Model.Message;
+import Service.MessageService;
+import Service.TimelineService;
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Home feed cost on a synthetic power-law follow graph: every account follows a fixed number of accounts drawn from
+ * a Zipf distribution, so a few accounts have most of the followers. Compares pure fan-out-on-write with the
+ * celebrity threshold, reporting write amplification (timeline inserts per message), message creation latency and
+ * feed read latency.
+ */
+public class HomeFeedBenchmark {
+    public static void main(String[] args) throws Exception {
+        int accounts = Integer.getInteger("accounts", 10_000);
+        int follows = Integer.getInteger("follows", 30);
+        int messages = Integer.getInteger("messages", 5_000);
+        int threshold = Integer.getInteger("celebrityThreshold", 1_000);
+
+        ConnectionUtil.resetTestDatabase();
+        // Keep the embedded database open between DAO calls, as a busy server would
+        Connection keepOpen = ConnectionUtil.getConnection();
+        double[] popularity = zipf(accounts);
+        int maxFollowers = buildGraph(accounts, follows, popularity);
+        System.out.printf("%d accounts, %d follows each, most followed account has %d followers%n",
+                accounts, follows, maxFollowers);
+
+        run("fan-out-on-write only", Integer.MAX_VALUE, accounts, messages, popularity);
+        run("celebrity threshold " + threshold, threshold, accounts, messages, popularity);
+        ConnectionUtil.resetTestDatabase();
+        keepOpen.close();
+    }
+
+    /**
+     * Authors are drawn from the same distribution as followees: popular accounts also post more.
+     */
+    private static void run(String label, int threshold, int accounts, int messages, double[] popularity) throws Exception {
+        TimelineService timelineService = new TimelineService(800, threshold, 3600);
+        MessageService messageService = new MessageService();
+        messageService.addListener(timelineService);
+        Random random = new Random(1);
+
+        long start = System.nanoTime();
+        for (int accountId = 1; accountId <= accounts; accountId++) {
+            timelineService.getFeed(accountId, 20);
+        }
+        System.out.printf("%s: built %d home timelines in %d ms%n", label, accounts, (System.nanoTime() - start) / 1_000_000);
+
+        long writesBefore = Metrics.count("timeline.fanout.writes");
+        Bench.measure(label + ": createMessage", messages / 2, i -> Bench.sink = messageService.createMessage(
+                new Message(draw(popularity, random), "message " + i, 1669947792L + i)));
+        double amplification = (double) (Metrics.count("timeline.fanout.writes") - writesBefore) / messages;
+        System.out.printf("%s: %.1f timeline writes per message%n", label, amplification);
+
+        Bench.measure(label + ": getFeed (20)", 50_000, i -> Bench.sink = timelineService.getFeed(random.nextInt(accounts) + 1, 20));
+        timelineService.close();
+        messageService.close();
+    }
+
+    /**
+     * @return the cumulative Zipf(1) weights of account ids 1..accounts
+     */
+    private static double[] zipf(int accounts) {
+        double[] cumulative = new double[accounts];
+        double sum = 0;
+        for (int rank = 0; rank < accounts; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        return cumulative;
+    }
+
+    private static int draw(double[] cumulative, Random random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return (rank < 0 ? -rank - 1 : rank) + 1;
+    }
+
+    /**
+     * @return the largest follower count in the generated graph
+     */
+    private static int buildGraph(int accounts, int follows, double[] popularity) throws Exception {
+        int[] followerCounts = new int[accounts + 1];
+        Random random = new Random(42);
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement insertAccount = connection.prepareStatement("INSERT INTO Account (username, password) VALUES (?, 'password')");
+             PreparedStatement insertFollow = connection.prepareStatement("INSERT INTO follow (follower_id, followee_id, followed_at) VALUES (?, ?, 0)")) {
+            connection.setAutoCommit(false);
+            // Account 1 already exists
+            for (int accountId = 2; accountId <= accounts; accountId++) {
+                insertAccount.setString(1, "account-" + accountId);
+                insertAccount.addBatch();
+            }
+            insertAccount.executeBatch();
+            for (int followerId = 1; followerId <= accounts; followerId++) {
+                Set<Integer> followees = new HashSet<>();
+                while (followees.size() < follows) {
+                    int followeeId = draw(popularity, random);
+                    if (followeeId != followerId && followees.add(followeeId)) {
+                        insertFollow.setInt(1, followerId);
+                        insertFollow.setInt(2, followeeId);
+                        insertFollow.addBatch();
+                        followerCounts[followeeId]++;
+                    }
+                }
+                if (followerId % 1_000 == 0) {
+                    insertFollow.executeBatch();
+                }
+            }
+            insertFollow.executeBatch();
+            connection.commit();
+        }
+        int max = 0;
+        for (int count : followerCounts) {
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+}
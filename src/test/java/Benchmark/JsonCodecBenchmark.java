@@ -0,0 +1,49 @@
+package Benchmark;
+
+import Model.Message;
+import Util.Json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encode and decode throughput, and bytes allocated per operation, of Jackson's reflection-based bean codec (the
+ * default ObjectMapper Javalin used) against the shared {@link Json} mapper with the hand-written codecs: a single
+ * message as GET /messages/{id} returns it, a request body as POST /messages sends it, and a page of 100 messages as
+ * GET /messages returns it. Allocation is read from the thread's allocation counter around the timed round.
+ */
+public class JsonCodecBenchmark {
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.getInteger("iterations", 1_000_000);
+        ObjectMapper beanMapper = new ObjectMapper();
+        ObjectMapper codecMapper = Json.mapper();
+
+        Message message = new Message(123456, 42, "a message of typical length, about the weather and what is for lunch",
+                1669947792L);
+        byte[] body = beanMapper.writeValueAsBytes(new Message(42, message.getMessage_text(), 1669947792L));
+        List<Message> page = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            page.add(new Message(i, i % 7, message.getMessage_text() + " " + i, 1669947792L + i));
+        }
+
+        measure("encode message, bean codec", iterations, i -> Bench.sink = beanMapper.writeValueAsBytes(message));
+        measure("encode message, hand-written codec", iterations, i -> Bench.sink = Json.toBytes(message));
+        measure("decode message, bean codec", iterations, i -> Bench.sink = beanMapper.readValue(body, Message.class));
+        measure("decode message, hand-written codec", iterations, i -> Bench.sink = codecMapper.readValue(body, Message.class));
+        measure("encode page of 100, bean codec", iterations / 50, i -> Bench.sink = beanMapper.writeValueAsString(page));
+        measure("encode page of 100, hand-written codec", iterations / 50, i -> Bench.sink = codecMapper.writeValueAsString(page));
+    }
+
+    private static void measure(String label, int iterations, Bench.Op op) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        // Bench.measure runs a warm-up round and then the timed round, so half the bytes belong to the timed one
+        long before = threads.getThreadAllocatedBytes(thread);
+        Bench.measure(label, iterations, op);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        System.out.printf("%-48s %12.0f bytes/op%n", "", allocated / 2.0 / iterations);
+    }
+}
@@ -0,0 +1,68 @@
+package Benchmark;
+
+import Model.Message;
+import Service.MessageFeed;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publish-to-delivery latency of the live message feed with many subscribers attached. Each message carries its
+ * publish time in time_posted_epoch; every subscriber records how long delivery took.
+ */
+public class MessageFeedBenchmark {
+    public static void main(String[] args) throws Exception {
+        int subscribers = Integer.getInteger("subscribers", 1_000);
+        int messages = Integer.getInteger("messages", 2_000);
+        int pauseNanos = Integer.getInteger("pauseNanos", 500_000);
+        MessageFeed feed = new MessageFeed(8192, Runtime.getRuntime().availableProcessors(), 60);
+        long[][] latencies = new long[subscribers][messages];
+        CountDownLatch done = new CountDownLatch(subscribers * messages);
+
+        for (int i = 0; i < subscribers; i++) {
+            long[] own = latencies[i];
+            feed.subscribe(new MessageFeed.Sink() {
+                @Override
+                public void send(long sequence, Message message) {
+                    own[(int) sequence] = System.nanoTime() - message.getTime_posted_epoch();
+                    done.countDown();
+                }
+
+                @Override
+                public void resync() {
+                    System.out.println("subscriber lapped; increase the ring size");
+                }
+
+                @Override
+                public void heartbeat() {
+                }
+
+                @Override
+                public void close() {
+                }
+            }, null, null);
+        }
+
+        long publishNanos = 0;
+        for (int i = 0; i < messages; i++) {
+            long start = System.nanoTime();
+            feed.publish(new Message(i, 1, "message " + i, start));
+            publishNanos += System.nanoTime() - start;
+            // pace the writer so the numbers show delivery latency rather than backlog
+            Thread.sleep(0, pauseNanos);
+        }
+        if (!done.await(60, TimeUnit.SECONDS)) {
+            System.out.println("not every event was delivered");
+        }
+        feed.close();
+
+        long[] measured = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%d subscribers, %d messages, publish cost %.1f us/message%n",
+                subscribers, messages, publishNanos / 1000.0 / messages);
+        System.out.printf("delivery latency p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                measured[measured.length / 2] / 1000.0,
+                measured[(int) (measured.length * 0.99)] / 1000.0,
+                measured[measured.length - 1] / 1000.0);
+    }
+}
@@ -0,0 +1,123 @@
+package Benchmark;
+
+import Model.Message;
+import Model.VersionedMessage;
+import Util.EntityCache;
+import Util.SlabCache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * GC cost of serving GET /messages/{id} from an on-heap {@link EntityCache} of messages, which serializes the
+ * cached Message on every hit, against the off-heap {@link SlabCache} of their JSON, at the same number of entries.
+ * Each run fills the cache, then serves random reads while 1% of the operations invalidate and reload a message,
+ * and finally times one full collection, whose pause grows with the live heap the cache keeps. Run the two caches
+ * in separate JVMs so neither inherits the other's heap:
+ *   java -Xmx1g -XX:MaxDirectMemorySize=512m -Dcache=heap ... Benchmark.MessageJsonCacheBenchmark
+ *   java -Xmx1g -XX:MaxDirectMemorySize=512m -Dcache=slab ... Benchmark.MessageJsonCacheBenchmark
+ */
+public class MessageJsonCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        int entries = Integer.getInteger("entries", 1_000_000);
+        int operations = Integer.getInteger("operations", 5_000_000);
+        boolean slab = "slab".equals(System.getProperty("cache", "slab"));
+        ObjectMapper objectMapper = new ObjectMapper();
+        Random random = new Random(45);
+
+        EntityCache<VersionedMessage> heapCache = slab ? null : new EntityCache<>("bench.heap", entries);
+        SlabCache slabCache = slab ? new SlabCache("bench.slab", 320L << 20, 1 << 20) : null;
+        SlabCache.Hit hit = new SlabCache.Hit();
+        Loader loader = new Loader(objectMapper);
+
+        for (int id = 1; id <= entries; id++) {
+            if (slab) {
+                byte[] json = loader.json(id);
+                slabCache.put(id, slabCache.beginLoad(id), 0, json, json.length);
+            } else {
+                heapCache.get(id, loader::message);
+            }
+        }
+        System.gc();
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long bytesServed = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            int id = 1 + random.nextInt(entries);
+            if (i % 100 == 0) {
+                if (slab) {
+                    slabCache.invalidate(id);
+                    byte[] json = loader.json(id);
+                    slabCache.put(id, slabCache.beginLoad(id), 0, json, json.length);
+                } else {
+                    heapCache.invalidate(id);
+                    heapCache.get(id, loader::message);
+                }
+            } else if (slab) {
+                slabCache.get(id, hit);
+                bytesServed += hit.getLength();
+            } else {
+                bytesServed += objectMapper.writeValueAsBytes(heapCache.get(id, loader::message).getMessage()).length;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long youngCount = gcCount() - gcCount;
+        long youngMillis = gcMillis() - gcMillis;
+
+        long fullStart = System.nanoTime();
+        System.gc();
+        long fullMillis = (System.nanoTime() - fullStart) / 1_000_000;
+        Bench.sink = bytesServed;
+
+        System.out.printf("%s cache, %d entries: %.0f reads/s, %d collections taking %d ms during %d ops, "
+                        + "full collection %d ms, heap used %d MB%n",
+                slab ? "off-heap slab" : "on-heap object", entries, operations * 1e9 / elapsed, youngCount,
+                youngMillis, operations, fullMillis,
+                (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += bean.getCollectionCount();
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += bean.getCollectionTime();
+        }
+        return millis;
+    }
+
+    /**
+     * Stands in for the database: builds message id with a text of typical length.
+     */
+    private static final class Loader {
+        private final ObjectMapper objectMapper;
+
+        Loader(ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+        }
+
+        VersionedMessage message(int id) {
+            return new VersionedMessage(new Message(id, 1 + id % 1000,
+                    "message number " + id + " with some words about the weather and lunch", 1669947792L + id), 0);
+        }
+
+        byte[] json(int id) {
+            try {
+                return objectMapper.writeValueAsBytes(message(id).getMessage());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package Benchmark;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Util.ConnectionUtil;
+import Util.TextCodec;
+import io.javalin.Javalin;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Rendering a page of 50 messages: 50 GET /messages/{id} round trips against one GET /messages?ids=, over HTTP on
+ * localhost, and the same comparison at the DAO level.
+ */
+public class MultiGetBenchmark {
+    public static void main(String[] args) throws Exception {
+        int pageSize = Integer.getInteger("pageSize", 50);
+        int messages = Integer.getInteger("messages", 100_000);
+        int pages = Integer.getInteger("iterations", 200);
+
+        ConnectionUtil.resetTestDatabase();
+        // Keep the embedded database open between DAO calls, as a busy server would
+        Connection keepOpen = ConnectionUtil.getConnection();
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (1, ?, 1669947792)")) {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < messages; i++) {
+                statement.setBytes(1, TextCodec.encode("message " + i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+
+        Random random = new Random(42);
+        List<List<Integer>> pageIds = new ArrayList<>();
+        for (int page = 0; page < pages; page++) {
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < pageSize; i++) {
+                ids.add(random.nextInt(messages) + 1);
+            }
+            pageIds.add(ids);
+        }
+
+        MessageDAO messageDAO = new MessageDAO();
+        Bench.measure("DAO: " + pageSize + " x getMessageById", pages, page -> {
+            for (Integer id : pageIds.get(page)) {
+                Bench.sink = messageDAO.getMessageById(id);
+            }
+        });
+        Bench.measure("DAO: getMessagesByIds(" + pageSize + ")", pages,
+                page -> Bench.sink = messageDAO.getMessagesByIds(pageIds.get(page)));
+
+        SocialMediaController controller = new SocialMediaController();
+        Javalin app = controller.startAPI().start(8080);
+        HttpClient client = HttpClient.newHttpClient();
+        Bench.measure("HTTP: " + pageSize + " x GET /messages/{id}", pages, page -> {
+            for (Integer id : pageIds.get(page)) {
+                Bench.sink = client.send(HttpRequest.newBuilder(URI.create("http://localhost:8080/messages/" + id)).build(),
+                        HttpResponse.BodyHandlers.ofString()).body();
+            }
+        });
+        Bench.measure("HTTP: GET /messages?ids= (" + pageSize + ")", pages, page -> {
+            StringBuilder ids = new StringBuilder();
+            for (Integer id : pageIds.get(page)) {
+                ids.append(ids.length() == 0 ? "" : ",").append(id);
+            }
+            Bench.sink = client.send(HttpRequest.newBuilder(URI.create("http://localhost:8080/messages?ids=" + ids)).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+        });
+        app.stop();
+        ConnectionUtil.resetTestDatabase();
+        keepOpen.close();
+    }
+}
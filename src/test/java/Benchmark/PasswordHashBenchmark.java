@@ -0,0 +1,20 @@
+package Benchmark;
+
+import Util.PasswordHasher;
+
+/**
+ * Measures PBKDF2 verifications per second on one thread (i.e. logins per second per core) for several iteration
+ * counts, to help choose socialmedia.password.iterations.
+ */
+public class PasswordHashBenchmark {
+    public static void main(String[] args) throws Exception {
+        int[] costs = {10_000, 50_000, 100_000, 300_000};
+        for (int cost : costs) {
+            PasswordHasher hasher = new PasswordHasher(cost);
+            String stored = hasher.hash("password");
+            int iterations = Math.max(5, 2_000_000 / cost);
+            Bench.measure("verify, " + cost + " iterations", iterations,
+                    i -> Bench.sink = hasher.verify("password", stored));
+        }
+    }
+}
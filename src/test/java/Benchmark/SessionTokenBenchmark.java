@@ -0,0 +1,28 @@
+package Benchmark;
+
+import Model.Account;
+import Service.AccountService;
+import Service.SessionService;
+import Util.ConnectionUtil;
+
+/**
+ * Compares the cost of authenticating a request by re-checking credentials (AccountService.loginUser, one
+ * database read) with validating a session token (HMAC check, no database access).
+ */
+public class SessionTokenBenchmark {
+    public static void main(String[] args) throws Exception {
+        ConnectionUtil.resetTestDatabase();
+        AccountService accountService = new AccountService();
+        SessionService sessionService = new SessionService();
+        Account account = accountService.loginUser("testuser1", "password");
+        String token = sessionService.issueToken(account);
+        int iterations = Integer.getInteger("iterations", 200_000);
+        int dbIterations = Integer.getInteger("dbIterations", 500);
+
+        double credentials = Bench.measure("credential lookup (loginUser)", dbIterations,
+                i -> Bench.sink = accountService.loginUser("testuser1", "password"));
+        double session = Bench.measure("session token validation", iterations,
+                i -> Bench.sink = sessionService.validateToken(token));
+        System.out.printf("token validation is %.1fx cheaper%n", credentials / session);
+    }
+}
@@ -0,0 +1,78 @@
+package Benchmark;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Shards;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Write throughput of POST /messages at the DAO level as the data is split over 1, 2, 4 and 8 H2 databases on one
+ * machine. Writers pick a random account, so writes spread over the shards the way the accounts do. How far this
+ * scales depends on the cores available: each shard commits independently, but they share the CPU.
+ */
+public class ShardedWriteBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("threads", 16);
+        int accounts = Integer.getInteger("accounts", 256);
+        int messagesPerThread = Integer.getInteger("iterations", 2_000);
+
+        for (int shards : new int[] {1, 2, 4, 8}) {
+            Shards.configure(shards);
+            Shards.resetTestDatabases();
+            // Keep every embedded database open between DAO calls, as a busy server would
+            List<Connection> keepOpen = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                keepOpen.add(Shards.getConnection(shard));
+            }
+            AccountDAO accountDAO = new AccountDAO();
+            List<Integer> accountIds = new ArrayList<>();
+            for (int i = 0; i < accounts; i++) {
+                accountIds.add(accountDAO.createAccount(new Account("user" + i, "password")).getAccount_id());
+            }
+
+            MessageDAO messageDAO = new MessageDAO();
+            // a first post creates the account's account_stats row; do those one at a time so concurrent
+            // first posts of one account do not race on that insert
+            for (Integer accountId : accountIds) {
+                messageDAO.createMessage(new Message(accountId, "first", 1669947792));
+            }
+            // warm up, then measure
+            write(messageDAO, accountIds, threads, messagesPerThread / 4);
+            long start = System.nanoTime();
+            write(messageDAO, accountIds, threads, messagesPerThread);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d shard(s): %10.0f messages/s%n", shards, (double) threads * messagesPerThread * 1e9 / elapsed);
+
+            for (Connection connection : keepOpen) {
+                connection.close();
+            }
+        }
+        Shards.configure(1);
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static void write(MessageDAO messageDAO, List<Integer> accountIds, int threads, int messagesPerThread)
+            throws InterruptedException {
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < messagesPerThread; i++) {
+                    int postedBy = accountIds.get(ThreadLocalRandom.current().nextInt(accountIds.size()));
+                    Bench.sink = messageDAO.createMessage(new Message(postedBy, "message " + i, 1669947792));
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+}
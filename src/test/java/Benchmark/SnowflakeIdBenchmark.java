@@ -0,0 +1,62 @@
+package Benchmark;
+
+import Util.ConnectionUtil;
+import Util.SnowflakeIds;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Ids per second per thread from {@link SnowflakeIds} with 1, 2 and 4 threads sharing one generator, next to the
+ * H2 sequence an auto_increment column draws from. Each generator id is one compare-and-set, so threads only
+ * contend on that one cache line; a sequence value is a round trip into the database. A single thread already
+ * reaches the layout's cap of 4096 ids per millisecond, so the total stays near 4 million ids/s however many
+ * threads share it.
+ */
+public class SnowflakeIdBenchmark {
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.getInteger("iterations", 2_000_000);
+
+        for (int threads : new int[] {1, 2, 4}) {
+            SnowflakeIds ids = new SnowflakeIds(1, 1000, System::currentTimeMillis);
+            run(ids, threads, iterations / 4);
+            long start = System.nanoTime();
+            run(ids, threads, iterations);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("snowflake, %d thread(s): %14.0f ids/s per thread%n", threads, iterations * 1e9 / elapsed);
+        }
+
+        ConnectionUtil.resetTestDatabase();
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE SEQUENCE IF NOT EXISTS benchmark_ids");
+            try (PreparedStatement next = connection.prepareStatement("SELECT NEXT VALUE FOR benchmark_ids")) {
+                Bench.measure("h2 sequence, 1 thread", Math.min(iterations, 200_000), i -> {
+                    try (ResultSet resultSet = next.executeQuery()) {
+                        resultSet.next();
+                        Bench.sink = resultSet.getLong(1);
+                    }
+                });
+            }
+            statement.execute("DROP SEQUENCE benchmark_ids");
+        }
+    }
+
+    private static void run(SnowflakeIds ids, int threads, int idsPerThread) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                long last = 0;
+                for (int i = 0; i < idsPerThread; i++) {
+                    last = ids.nextId();
+                }
+                Bench.sink = last;
+                done.countDown();
+            }).start();
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,101 @@
+package Benchmark;
+
+import Util.ConnectionUtil;
+import Util.TextCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Trains message_text dictionaries of several sizes on half of a generated corpus of short posts, then reports how
+ * much smaller the other half is stored with each, header included, and what encoding and decoding cost per
+ * message. Plain Deflate with no dictionary is shown for comparison: on texts this short it barely helps, which is
+ * why the dictionary exists. Run with -Dmessages to change the corpus size.
+ */
+public class TextCodecBenchmark {
+    private static final String[] OPENERS = {"just", "finally", "can't believe", "so excited that", "anyone else think",
+            "honestly", "today", "reminder:", "hot take:", "update:", "lol", "does anyone know if"};
+    private static final String[] PHRASES = {"the weather is lovely", "going for a walk", "with friends", "this afternoon",
+            "the new coffee place downtown", "my morning run", "working from home", "the game last night",
+            "watching a movie", "tomorrow morning", "for the first time", "at the office", "the best thing ever",
+            "is finally here", "on the weekend", "after work", "can't wait", "so tired", "had a great time",
+            "check out my new post", "thanks everyone", "happy birthday", "see you there", "the traffic was terrible",
+            "cooking dinner", "learning to code", "the meeting ran late", "my cat", "the beach", "a long day"};
+    private static final String[] JOINERS = {" and ", " but ", ", ", " because ", " - ", " then ", " so "};
+    private static final String[] ENDINGS = {"!", ".", "!!", "?", " :)", " #mondaymotivation", " #tbt", " #coffee",
+            " #running", " #weekend", ""};
+
+    public static void main(String[] args) throws Exception {
+        int messages = Integer.getInteger("messages", 20_000);
+        Random random = new Random(42);
+        List<String> training = new ArrayList<>();
+        List<String> corpus = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            (i % 2 == 0 ? training : corpus).add(post(random));
+        }
+        ConnectionUtil.resetTestDatabase();
+
+        long plainBytes = 0;
+        for (String text : corpus) {
+            plainBytes += text.getBytes(StandardCharsets.UTF_8).length;
+        }
+        System.out.printf("corpus: %d messages, %.1f bytes each%n", corpus.size(), (double) plainBytes / corpus.size());
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] buffer = new byte[1024];
+        long deflatedBytes = 0;
+        for (String text : corpus) {
+            deflater.reset();
+            deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            deflatedBytes += 1 + deflater.deflate(buffer);
+        }
+        System.out.printf("%-26s %6.1f bytes/message, %.2fx%n", "deflate, no dictionary",
+                (double) deflatedBytes / corpus.size(), (double) plainBytes / deflatedBytes);
+
+        report("plain (version 0)", TextCodec.PLAIN, corpus, plainBytes);
+        for (int size : new int[] {1024, 4096, 16_384, 32_768}) {
+            long start = System.nanoTime();
+            byte[] dictionary = TextCodec.train(training, size);
+            double trainMillis = (System.nanoTime() - start) / 1e6;
+            int version = TextCodec.addDictionary(dictionary);
+            System.out.printf("trained %d-byte dictionary on %d messages in %.0f ms%n", dictionary.length,
+                    training.size(), trainMillis);
+            report("dictionary " + (size >> 10) + " KiB", version, corpus, plainBytes);
+        }
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static void report(String label, int version, List<String> corpus, long plainBytes) throws Exception {
+        List<byte[]> stored = new ArrayList<>(corpus.size());
+        long storedBytes = 0;
+        for (String text : corpus) {
+            byte[] encoded = TextCodec.encode(text, version);
+            stored.add(encoded);
+            storedBytes += encoded.length;
+        }
+        System.out.printf("%-26s %6.1f bytes/message, %.2fx%n", label, (double) storedBytes / corpus.size(),
+                (double) plainBytes / storedBytes);
+        int iterations = corpus.size() * 5;
+        Bench.measure(label + " encode", iterations, i -> Bench.sink = TextCodec.encode(corpus.get(i % corpus.size()), version));
+        Bench.measure(label + " decode", iterations, i -> Bench.sink = TextCodec.decode(stored.get(i % stored.size())));
+    }
+
+    private static String post(Random random) {
+        StringBuilder text = new StringBuilder(OPENERS[random.nextInt(OPENERS.length)]).append(' ');
+        int phrases = 1 + random.nextInt(3);
+        for (int i = 0; i < phrases; i++) {
+            if (i > 0) {
+                text.append(JOINERS[random.nextInt(JOINERS.length)]);
+            }
+            text.append(PHRASES[random.nextInt(PHRASES.length)]);
+        }
+        if (random.nextInt(4) == 0) {
+            text.append(' ').append(random.nextInt(100)).append(" minutes");
+        }
+        return text.append(ENDINGS[random.nextInt(ENDINGS.length)]).toString();
+    }
+}
@@ -0,0 +1,42 @@
+package Benchmark;
+
+import Service.TrendingService;
+import Util.CountMinSketch;
+import Util.SpaceSaving;
+
+import java.util.Random;
+
+/**
+ * Update cost of the trending pipeline: a count-min sketch add, a space-saving add, and a whole message
+ * (tokenize, then update every bucket of the three windows).
+ */
+public class TrendingBenchmark {
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.getInteger("iterations", 1_000_000);
+        String[] vocabulary = new String[50_000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "term" + i;
+        }
+        Random random = new Random(42);
+        String[] texts = new String[4096];
+        for (int i = 0; i < texts.length; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int word = 0; word < 12; word++) {
+                // Skewed towards the start of the vocabulary, like real term frequencies
+                text.append(vocabulary[(int) (vocabulary.length * Math.pow(random.nextDouble(), 3))]).append(' ');
+            }
+            texts[i] = text.toString();
+        }
+
+        CountMinSketch sketch = new CountMinSketch(0.002, 0.01);
+        SpaceSaving heavyHitters = new SpaceSaving(200);
+        Bench.measure("CountMinSketch.add", iterations, i -> sketch.add(vocabulary[i % vocabulary.length], 1));
+        Bench.measure("SpaceSaving.add", iterations, i -> heavyHitters.add(vocabulary[(int) (vocabulary.length * Math.pow((i * 0.618033) % 1, 3))], 1));
+        Bench.measure("TrendingService.tokenize", iterations, i -> Bench.sink = TrendingService.tokenize(texts[i & 4095]));
+
+        TrendingService trendingService = new TrendingService();
+        Bench.measure("TrendingService.record (12-word message)", iterations / 10, i -> trendingService.record(texts[i & 4095]));
+        Bench.measure("TrendingService.getTrending 1d top 10", 1_000, i -> Bench.sink = trendingService.getTrending("1d", 10));
+        trendingService.close();
+    }
+}
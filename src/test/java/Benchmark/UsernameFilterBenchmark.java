@@ -0,0 +1,66 @@
+package Benchmark;
+
+import DAO.AccountDAO;
+import Model.Account;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import Util.CountingBloomFilter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * Registration latency with 1M existing accounts, with and without the username filter. Password hashing is
+ * turned down to one iteration so the numbers show the availability check rather than PBKDF2.
+ */
+public class UsernameFilterBenchmark {
+    public static void main(String[] args) throws Exception {
+        int existing = Integer.getInteger("accounts", 1_000_000);
+        int registrations = Integer.getInteger("iterations", 2_000);
+        System.setProperty("socialmedia.password.iterations", "1");
+        System.setProperty("socialmedia.usernameFilter.expectedInsertions", Integer.toString(existing * 2));
+
+        ConnectionUtil.resetTestDatabase();
+        // Keep the embedded database open between DAO calls, as a busy server would
+        Connection keepOpen = ConnectionUtil.getConnection();
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO Account (username, password) VALUES (?, 'password')")) {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < existing; i++) {
+                statement.setString(1, "existing-" + i);
+                statement.addBatch();
+                if (i % 10_000 == 9_999) {
+                    statement.executeBatch();
+                    connection.commit();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+
+        long loadStart = System.nanoTime();
+        AccountService filtered = new AccountService();
+        System.out.printf("filter loaded %d usernames in %d ms%n", existing, (System.nanoTime() - loadStart) / 1_000_000);
+        CountingBloomFilter filter = new CountingBloomFilter(existing * 2L, 0.01);
+        new AccountDAO().forEachUsername(filter::add);
+        System.out.printf("filter memory %d KB, expected false-positive rate %.4f%n",
+                filter.memoryBytes() / 1024, filter.expectedFalsePositiveRate());
+
+        AccountDAO accountDAO = new AccountDAO();
+        Bench.measure("availability check, database read", registrations,
+                i -> Bench.sink = accountDAO.getAccountByUsername("absent-" + i));
+        Bench.measure("availability check, filter", registrations * 100,
+                i -> Bench.sink = filter.mightContain("absent-" + i));
+
+        Bench.measure("registerUser, filter enabled", registrations,
+                i -> Bench.sink = filtered.registerUser(new Account("filtered-" + i + "-" + System.nanoTime(), "password")));
+
+        System.setProperty("socialmedia.usernameFilter.enabled", "false");
+        AccountService unfiltered = new AccountService();
+        Bench.measure("registerUser, filter disabled", registrations,
+                i -> Bench.sink = unfiltered.registerUser(new Account("unfiltered-" + i + "-" + System.nanoTime(), "password")));
+        ConnectionUtil.resetTestDatabase();
+        keepOpen.close();
+    }
+}
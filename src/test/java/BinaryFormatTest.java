@@ -0,0 +1,157 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import Controller.SocialMediaController;
+import Model.AccountStats;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Json;
+import io.javalin.Javalin;
+
+public class BinaryFormatTest {
+    HttpClient webClient;
+    Javalin app;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        webClient = HttpClient.newHttpClient();
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Accept headers with and without q-values and wildcards
+     *
+     * Expected Response:
+     *  The supported format with the highest q-value, and JSON for anything else
+     */
+    @Test
+    public void acceptPicksTheMostPreferredFormat() {
+        Assert.assertEquals(Json.Format.JSON, Json.Format.forAccept(null));
+        Assert.assertEquals(Json.Format.JSON, Json.Format.forAccept("*/*"));
+        Assert.assertEquals(Json.Format.JSON, Json.Format.forAccept("text/html"));
+        Assert.assertEquals(Json.Format.CBOR, Json.Format.forAccept("application/cbor"));
+        Assert.assertEquals(Json.Format.SMILE, Json.Format.forAccept("application/json;q=0.5, application/x-jackson-smile"));
+        Assert.assertEquals(Json.Format.MSGPACK, Json.Format.forAccept("application/msgpack;q=0.9, */*;q=0.1"));
+        Assert.assertEquals(Json.Format.JSON, Json.Format.forAccept("application/cbor;q=0"));
+        Assert.assertEquals(Json.Format.MSGPACK, Json.Format.forContentType("application/x-msgpack"));
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1 with Accept: application/cbor
+     *
+     * Expected Response:
+     *  Status Code: 200, Content-Type application/cbor, and a body a plain CBOR mapper reads as the message
+     */
+    @Test
+    public void getMessageAsCbor() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("Accept", "application/cbor")
+                .build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/cbor", response.headers().firstValue("Content-Type").orElse(""));
+        Message message = new ObjectMapper(new CBORFactory()).readValue(response.body(), Message.class);
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), message);
+    }
+
+    /**
+     * Sending GET localhost:8080/leaderboard with Accept: application/cbor
+     *
+     * Expected Response:
+     *  Status Code: 200, Content-Type application/cbor, and a body a plain CBOR mapper reads as the leaderboard
+     */
+    @Test
+    public void getLeaderboardAsCbor() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/leaderboard"))
+                .header("Accept", "application/cbor")
+                .build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/cbor", response.headers().firstValue("Content-Type").orElse(""));
+        List<AccountStats> leaderboard = new ObjectMapper(new CBORFactory()).readValue(response.body(),
+                new TypeReference<List<AccountStats>>(){});
+        Assert.assertEquals(List.of(new AccountStats(1, 1)), leaderboard);
+    }
+
+    /**
+     * Sending POST localhost:8080/messages with a MessagePack body and Accept: application/x-jackson-smile, then
+     * GET localhost:8080/messages with Accept: application/msgpack
+     *
+     * Expected Response:
+     *  The created message in Smile, and the list of messages, including it, in MessagePack
+     */
+    @Test
+    public void postMessagePackAndReadSmile() throws Exception {
+        byte[] body = Json.Format.MSGPACK.toBytes(new Message(1, "packed", 1669947800L));
+        HttpRequest create = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("Content-Type", "application/msgpack")
+                .header("Accept", "application/x-jackson-smile")
+                .build();
+        HttpResponse<byte[]> created = webClient.send(create, HttpResponse.BodyHandlers.ofByteArray());
+
+        Assert.assertEquals(200, created.statusCode());
+        Message message = Json.Format.SMILE.mapper().readValue(created.body(), Message.class);
+        Assert.assertEquals("packed", message.getMessage_text());
+        Assert.assertEquals(1, message.getPosted_by());
+
+        HttpRequest list = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Accept", "application/msgpack")
+                .build();
+        HttpResponse<byte[]> listed = webClient.send(list, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, listed.statusCode());
+        List<Message> messages = Json.Format.MSGPACK.mapper().readValue(listed.body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(messages.contains(message));
+    }
+
+    /**
+     * Sending the same POST localhost:8080/messages twice with an Idempotency-Key and Accept: application/cbor
+     *
+     * Expected Response:
+     *  The replay carries the same bytes as the first response
+     */
+    @Test
+    public void binaryResponsesReplayUnchanged() throws Exception {
+        HttpRequest create = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"once\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/cbor")
+                .header("Idempotency-Key", "binary-1")
+                .build();
+        HttpResponse<byte[]> first = webClient.send(create, HttpResponse.BodyHandlers.ofByteArray());
+        HttpResponse<byte[]> second = webClient.send(create, HttpResponse.BodyHandlers.ofByteArray());
+
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertTrue(second.headers().firstValue("Idempotent-Replayed").isPresent());
+        Assert.assertEquals("application/cbor", second.headers().firstValue("Content-Type").orElse(""));
+        Assert.assertArrayEquals(first.body(), second.body());
+    }
+}
@@ -0,0 +1,189 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Shards;
+import io.javalin.Javalin;
+
+public class BulkTransferTest {
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.admin.token", "admin-secret");
+        System.setProperty("socialmedia.import.batchRows", "2");
+        ConnectionUtil.resetTestDatabase();
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.admin.token");
+        System.clearProperty("socialmedia.import.batchRows");
+    }
+
+    /**
+     * Sending GET localhost:8080/admin/export without a bearer token and with the wrong one
+     *
+     * Expected Response:
+     *  Status Code: 403 for both
+     */
+    @Test
+    public void adminEndpointsNeedTheToken() throws Exception {
+        HttpRequest anonymous = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/export"))
+                .build();
+        Assert.assertEquals(403, webClient.send(anonymous, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest wrongToken = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/export"))
+                .header("Authorization", "Bearer guess")
+                .build();
+        Assert.assertEquals(403, webClient.send(wrongToken, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Sending POST localhost:8080/admin/import with two accounts and three messages, then GET
+     * localhost:8080/admin/export, then POST localhost:8080/messages
+     *
+     * Expected Response:
+     *  The rows are imported with their ids and exported after the sample rows, accounts first
+     *  The new message gets an id above the imported ones
+     */
+    @Test
+    public void importThenExport() throws Exception {
+        String rows = "{\"account\":{\"account_id\":5,\"username\":\"imported5\",\"password\":\"hash5\"}}\n" +
+                "{\"account\":{\"account_id\":6,\"username\":\"imported6\",\"password\":\"hash6\"}}\n" +
+                "{\"message\":{\"message_id\":40,\"posted_by\":5,\"message_text\":\"forty\",\"time_posted_epoch\":1669947800}}\n" +
+                "{\"message\":{\"message_id\":41,\"posted_by\":6,\"message_text\":\"forty-one\",\"time_posted_epoch\":1669947801}}\n" +
+                "{\"message\":{\"message_id\":42,\"posted_by\":1,\"message_text\":\"forty-two\",\"time_posted_epoch\":1669947802}}\n";
+        HttpResponse<String> imported = webClient.send(importRequest(rows, 0), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, imported.statusCode());
+        JsonNode result = objectMapper.readTree(imported.body());
+        Assert.assertEquals(5, result.get("rows").asLong());
+        Assert.assertEquals(5, result.get("committedRows").asLong());
+        Assert.assertEquals(2, result.get("accounts").asLong());
+        Assert.assertEquals(3, result.get("messages").asLong());
+
+        HttpRequest read = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/41"))
+                .build();
+        Message message = objectMapper.readValue(webClient.send(read, HttpResponse.BodyHandlers.ofString()).body(), Message.class);
+        Assert.assertEquals(new Message(41, 6, "forty-one", 1669947801L), message);
+
+        HttpRequest export = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/export"))
+                .header("Authorization", "Bearer admin-secret")
+                .build();
+        HttpResponse<String> exported = webClient.send(export, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, exported.statusCode());
+        String[] lines = exported.body().split("\n");
+        Assert.assertEquals(7, lines.length);
+        Assert.assertEquals("{\"account\":{\"account_id\":1,\"username\":\"testuser1\",\"password\":\"password\"}}", lines[0]);
+        Assert.assertTrue(lines[2].startsWith("{\"account\":"));
+        Assert.assertEquals(rows.split("\n")[2], lines[4]);
+
+        HttpRequest create = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"after\", " +
+                        "\"time_posted_epoch\": 1669947900}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Message created = objectMapper.readValue(webClient.send(create, HttpResponse.BodyHandlers.ofString()).body(), Message.class);
+        Assert.assertEquals(43, created.getMessage_id());
+    }
+
+    /**
+     * Sending POST localhost:8080/admin/import with an invalid fourth row, then the corrected input with the
+     * reported committed rows skipped, then the corrected input again
+     *
+     * Expected Response:
+     *  Status Code: 400 with the three rows before it committed
+     *  The resumed import loads the rest, and the repeated one skips every row
+     */
+    @Test
+    public void failedImportResumes() throws Exception {
+        String good = "{\"account\":{\"account_id\":5,\"username\":\"imported5\",\"password\":\"hash5\"}}\n" +
+                "{\"message\":{\"message_id\":40,\"posted_by\":5,\"message_text\":\"forty\",\"time_posted_epoch\":1669947800}}\n" +
+                "{\"message\":{\"message_id\":41,\"posted_by\":5,\"message_text\":\"forty-one\",\"time_posted_epoch\":1669947801}}\n";
+        String bad = good + "{\"message\":{\"message_id\":42,\"posted_by\":5,\"message_text\":\"\",\"time_posted_epoch\":1}}\n";
+
+        HttpResponse<String> failed = webClient.send(importRequest(bad, 0), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(400, failed.statusCode());
+        JsonNode failure = objectMapper.readTree(failed.body());
+        Assert.assertEquals(3, failure.get("committedRows").asLong());
+        Assert.assertTrue(failure.get("error").asText().startsWith("row 4"));
+
+        String fixed = good + "{\"message\":{\"message_id\":42,\"posted_by\":5,\"message_text\":\"fixed\",\"time_posted_epoch\":1}}\n";
+        JsonNode resumed = objectMapper.readTree(webClient.send(importRequest(fixed, 3), HttpResponse.BodyHandlers.ofString()).body());
+        Assert.assertEquals(4, resumed.get("committedRows").asLong());
+        Assert.assertEquals(1, resumed.get("messages").asLong());
+        Assert.assertEquals(0, resumed.get("skipped").asLong());
+
+        JsonNode repeated = objectMapper.readTree(webClient.send(importRequest(fixed, 0), HttpResponse.BodyHandlers.ofString()).body());
+        Assert.assertEquals(0, repeated.get("accounts").asLong() + repeated.get("messages").asLong());
+        Assert.assertEquals(4, repeated.get("skipped").asLong());
+    }
+
+    /**
+     * Sending POST localhost:8080/admin/import with two messages on different shards while the second shard's message
+     * table cannot be written
+     *
+     * Expected Response:
+     *  Status Code: 500 with the message of the first shard loaded once, and nothing skipped: the failed batch is not
+     *  written again
+     */
+    @Test
+    public void failedBatchIsNotRetried() throws Exception {
+        Shards.configure(2);
+        Shards.resetTestDatabases();
+        String body = "{\"message\":{\"message_id\":41,\"posted_by\":1,\"message_text\":\"forty-one\",\"time_posted_epoch\":1669947801}}\n" +
+                "{\"message\":{\"message_id\":40,\"posted_by\":2,\"message_text\":\"forty\",\"time_posted_epoch\":1669947800}}\n";
+        try (Connection connection = Shards.getConnection(Shards.ofId(40));
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE message RENAME TO message_unavailable");
+            try {
+                HttpResponse<String> failed = webClient.send(importRequest(body, 0), HttpResponse.BodyHandlers.ofString());
+                Assert.assertEquals(500, failed.statusCode());
+                JsonNode failure = objectMapper.readTree(failed.body());
+                Assert.assertEquals(1, failure.get("messages").asLong());
+                Assert.assertEquals(0, failure.get("skipped").asLong());
+                Assert.assertEquals(0, failure.get("committedRows").asLong());
+            } finally {
+                statement.executeUpdate("ALTER TABLE message_unavailable RENAME TO message");
+            }
+        } finally {
+            Shards.configure(1);
+        }
+    }
+
+    private static HttpRequest importRequest(String body, long skip) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/import?skip=" + skip))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/x-ndjson")
+                .header("Authorization", "Bearer admin-secret")
+                .build();
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.InvalidationBus;
+import Service.InvalidationListener;
+import Service.InvalidationTransport;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CacheInvalidationTest {
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    List<Javalin> apps = new ArrayList<>();
+
+    /**
+     * Before every test, reset the database and create a new webClient and ObjectMapper. Each test starts its own
+     * app instances, all on the same database, with message caching on.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.cache.messages.maxEntries", "1000");
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        for (Javalin app : apps) {
+            app.stop();
+        }
+        for (String property : List.of("socialmedia.cache.messages.maxEntries", "socialmedia.invalidation.transport",
+                "socialmedia.invalidation.udp.port", "socialmedia.invalidation.udp.peers",
+                "socialmedia.invalidation.table.pollMillis")) {
+            System.clearProperty(property);
+        }
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1 and localhost:8081/messages/1 to warm both caches, then
+     * PUT localhost:8080/messages/1, with the instances connected over UDP
+     *
+     * Expected Response:
+     *  The second instance serves the new text within a fraction of a second, without a restart
+     */
+    @Test
+    public void udpInvalidationReachesTheOtherInstance() throws Exception {
+        System.setProperty("socialmedia.invalidation.transport", "udp");
+        System.setProperty("socialmedia.invalidation.udp.port", "9701");
+        System.setProperty("socialmedia.invalidation.udp.peers", "127.0.0.1:9702");
+        startApp(8080);
+        System.setProperty("socialmedia.invalidation.udp.port", "9702");
+        System.setProperty("socialmedia.invalidation.udp.peers", "127.0.0.1:9701");
+        startApp(8081);
+
+        assertInvalidatedWithin(500);
+    }
+
+    /**
+     * The same as above, with the instances exchanging invalidations through the shared database
+     *
+     * Expected Response:
+     *  The second instance serves the new text within a fraction of a second
+     */
+    @Test
+    public void tableInvalidationReachesTheOtherInstance() throws Exception {
+        System.setProperty("socialmedia.invalidation.transport", "table");
+        System.setProperty("socialmedia.invalidation.table.pollMillis", "20");
+        startApp(8080);
+        startApp(8081);
+
+        assertInvalidatedWithin(500);
+    }
+
+    /**
+     * A bus whose first batch is lost in transit, followed by a second batch
+     *
+     * Expected Response:
+     *  The receiver notices the missing batch number and drops everything, then applies the second batch
+     */
+    @Test
+    public void lostBatchFlushesTheReceiver() throws Exception {
+        LossyTransport senderSide = new LossyTransport();
+        LossyTransport receiverSide = new LossyTransport();
+        senderSide.peer = receiverSide;
+        senderSide.toDrop.set(1);
+        RecordingListener listener = new RecordingListener();
+        try (InvalidationBus sender = new InvalidationBus(senderSide, 1, 60_000);
+             InvalidationBus receiver = new InvalidationBus(receiverSide, 1, 60_000)) {
+            receiver.addListener(listener);
+
+            sender.publish(InvalidationBus.MESSAGE, 1);
+            awaitCondition(() -> senderSide.toDrop.get() == 0);
+            Assert.assertEquals(0, listener.flushes.get());
+
+            sender.publish(InvalidationBus.MESSAGE, 2);
+            awaitCondition(() -> listener.invalidated.contains(2));
+            Assert.assertEquals(1, listener.flushes.get());
+            Assert.assertFalse(listener.invalidated.contains(1));
+        }
+    }
+
+    /**
+     * A bus whose only batch is lost in transit, after which it goes idle
+     *
+     * Expected Response:
+     *  The receiver learns of the loss from the sender's next heartbeat and drops everything
+     */
+    @Test
+    public void heartbeatRevealsALostTrailingBatch() throws Exception {
+        LossyTransport senderSide = new LossyTransport();
+        LossyTransport receiverSide = new LossyTransport();
+        senderSide.peer = receiverSide;
+        senderSide.toDrop.set(1);
+        RecordingListener listener = new RecordingListener();
+        try (InvalidationBus sender = new InvalidationBus(senderSide, 1, 50);
+             InvalidationBus receiver = new InvalidationBus(receiverSide, 1, 50)) {
+            receiver.addListener(listener);
+            // let the first heartbeats through so the receiver knows the sender
+            Thread.sleep(200);
+
+            sender.publish(InvalidationBus.MESSAGE, 1);
+            awaitCondition(() -> listener.flushes.get() > 0);
+            Assert.assertEquals(1, listener.flushes.get());
+        }
+    }
+
+    private void assertInvalidatedWithin(long maxMillis) throws Exception {
+        Assert.assertEquals("test message 1", readText(8080));
+        Assert.assertEquals("test message 1", readText(8081));
+        Assert.assertEquals("test message 1", readText(8081));
+        Assert.assertTrue(metric(8081, "cache.messages.hits") > 0);
+
+        HttpRequest update = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"edited\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(update, HttpResponse.BodyHandlers.ofString()).statusCode());
+        long updatedAt = System.currentTimeMillis();
+        Assert.assertEquals("edited", readText(8080));
+
+        while (!"edited".equals(readText(8081))) {
+            Assert.assertTrue("still stale after " + maxMillis + " ms",
+                    System.currentTimeMillis() - updatedAt < maxMillis);
+            Thread.sleep(5);
+        }
+    }
+
+    private void startApp(int port) throws InterruptedException {
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(port);
+        apps.add(app);
+        Thread.sleep(1000);
+    }
+
+    private String readText(int port) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + "/messages/1"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class).getMessage_text();
+    }
+
+    private long metric(int port, String name) throws IOException, InterruptedException {
+        HttpRequest metricsRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + "/metrics"))
+                .build();
+        HttpResponse<String> metrics = webClient.send(metricsRequest, HttpResponse.BodyHandlers.ofString());
+        JsonNode snapshot = objectMapper.readTree(metrics.body());
+        return snapshot.path(name).asLong();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Delivers batches in process to one peer, dropping the first toDrop non-empty batches.
+     */
+    private static class LossyTransport implements InvalidationTransport {
+        LossyTransport peer;
+        Consumer<byte[]> receiver;
+        final AtomicInteger toDrop = new AtomicInteger();
+
+        @Override
+        public void start(Consumer<byte[]> receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void send(byte[] batch) {
+            // a batch with no events is a heartbeat: [format][sender][sequence][count = 0]
+            boolean heartbeat = batch.length == 1 + 8 + 8 + 2;
+            if (!heartbeat && toDrop.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                return;
+            }
+            if (peer != null && peer.receiver != null) {
+                peer.receiver.accept(batch);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class RecordingListener implements InvalidationListener {
+        final List<Integer> invalidated = new CopyOnWriteArrayList<>();
+        final AtomicInteger flushes = new AtomicInteger();
+
+        @Override
+        public void invalidate(byte kind, int id) {
+            invalidated.add(id);
+        }
+
+        @Override
+        public void invalidateAll() {
+            flushes.incrementAndGet();
+        }
+    }
+}
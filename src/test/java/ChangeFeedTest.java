@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageChangeDAO;
+import Model.Message;
+import Model.MessageChange;
+import Service.ChangeFeedService;
+import Util.ConnectionUtil;
+import Util.Shards;
+import io.javalin.Javalin;
+
+public class ChangeFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Creating, updating and deleting messages, then asking for the changes after the seeded create
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the three changes in order, the delete as a tombstone, and next_since = last sequence
+     */
+    @Test
+    public void changesSinceReturnsOnlyDeltas() throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}"))
+                .build());
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"edited\", \"time_posted_epoch\": 1669947792}"))
+                .build());
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build());
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/changes?since=1"))
+                .build());
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode page = objectMapper.readTree(response.body());
+        JsonNode changes = page.get("changes");
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals("create", changes.get(0).get("operation").asText());
+        Assert.assertEquals("edited", changes.get(1).get("message").get("message_text").asText());
+        Assert.assertEquals("delete", changes.get(2).get("operation").asText());
+        Assert.assertEquals(1, changes.get(2).get("message_id").asInt());
+        Assert.assertTrue(changes.get(2).get("message").isNull());
+        Assert.assertEquals(4, page.get("next_since").asLong());
+    }
+
+    /**
+     * Compaction with zero retention keeps only the newest change; reading from before it is refused.
+     */
+    @Test
+    public void compactedPositionIsRefused() {
+        ChangeFeedService changeFeedService = new ChangeFeedService(0, 3600);
+        try {
+            changeFeedService.getChangesSince(0, 10);
+            send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}"))
+                    .build());
+            Assert.assertEquals(1, changeFeedService.compact());
+
+            List<MessageChange> retained = changeFeedService.getChangesSince(1, 10);
+            Assert.assertEquals(1, retained.size());
+            Assert.assertEquals(2, retained.get(0).getChange_seq());
+            Assert.assertThrows(IllegalStateException.class, () -> changeFeedService.getChangesSince(0, 10));
+        } catch (IOException | InterruptedException e) {
+            Assert.fail(e.toString());
+        } finally {
+            changeFeedService.close();
+        }
+    }
+
+    /**
+     * Holding a change open in a transaction while another message is posted, then asking for the changes after
+     * the seeded create before and after the transaction commits
+     *
+     * Expected Response:
+     *  While it is open: no changes, and next_since stays at 1
+     *  Once it commits: both changes in sequence order, and next_since = 3
+     */
+    @Test
+    public void openWriteHoldsTheFeedAtItsGap() throws Exception {
+        try (Connection open = Shards.getConnection(0)) {
+            open.setAutoCommit(false);
+            MessageChangeDAO.record(open, MessageChange.CREATE, new Message(50, 1, "late", 1669947792));
+            send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}"))
+                    .build());
+
+            JsonNode held = changesSince(1);
+            Assert.assertEquals(0, held.get("changes").size());
+            Assert.assertEquals(1, held.get("next_since").asLong());
+            open.commit();
+        }
+
+        JsonNode page = changesSince(1);
+        Assert.assertEquals(2, page.get("changes").size());
+        Assert.assertEquals(50, page.get("changes").get(0).get("message_id").asInt());
+        Assert.assertEquals("hello", page.get("changes").get(1).get("message").get("message_text").asText());
+        Assert.assertEquals(3, page.get("next_since").asLong());
+    }
+
+    /**
+     * Rolling back a transaction that took a sequence number before another message was posted
+     *
+     * Expected Response:
+     *  Once no write is open, the gap it left is passed: the later change is returned and next_since = 3
+     */
+    @Test
+    public void rolledBackWriteDoesNotHoldTheFeed() throws Exception {
+        try (Connection open = Shards.getConnection(0)) {
+            open.setAutoCommit(false);
+            MessageChangeDAO.record(open, MessageChange.CREATE, new Message(50, 1, "never", 1669947792));
+            send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}"))
+                    .build());
+            open.rollback();
+        }
+
+        JsonNode page = changesSince(1);
+        for (int attempt = 0; attempt < 20 && page.get("changes").size() == 0; attempt++) {
+            Thread.sleep(50);
+            page = changesSince(1);
+        }
+        Assert.assertEquals(1, page.get("changes").size());
+        Assert.assertEquals(3, page.get("changes").get(0).get("change_seq").asLong());
+        Assert.assertEquals(3, page.get("next_since").asLong());
+    }
+
+    private JsonNode changesSince(long since) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/changes?since=" + since))
+                .build());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import Model.Account;
+import Model.Message;
+import Service.MessageService;
+import Service.TimelineService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class HomeFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Following two accounts, reading GET /feed, then unfollowing one of them
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the followed accounts' messages newest first, without the reader's own; after the unfollow
+     *  only the remaining account's messages. Without a token: 401
+     */
+    @Test
+    public void feedFollowsTheFollowGraph() throws IOException, InterruptedException {
+        register("user2");
+        register("user3");
+        String token = login("user2");
+
+        Assert.assertEquals(200, send(follow("POST", 1, token)).statusCode());
+        Assert.assertEquals(200, send(follow("POST", 3, token)).statusCode());
+        Assert.assertEquals(400, send(follow("POST", 2, token)).statusCode());
+        // The seeded message 1 by account 1 was posted before the follow and is backfilled
+        Assert.assertEquals(List.of(1), ids(feed(token)));
+
+        postMessage(3, 1669947800);
+        postMessage(2, 1669947801);
+        postMessage(1, 1669947802);
+        Assert.assertEquals(List.of(4, 2, 1), ids(feed(token)));
+
+        Assert.assertEquals(200, send(follow("DELETE", 3, token)).statusCode());
+        Assert.assertEquals(404, send(follow("DELETE", 3, token)).statusCode());
+        Assert.assertEquals(List.of(4, 1), ids(feed(token)));
+
+        HttpRequest anonymous = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/feed")).build();
+        Assert.assertEquals(401, send(anonymous).statusCode());
+    }
+
+    /**
+     * An account above the celebrity threshold is not fanned out; its messages are merged in at read time, and
+     * the merged feed is still newest first and capped.
+     */
+    @Test
+    public void celebrityMessagesAreMergedOnRead() {
+        AccountDAO accountDAO = new AccountDAO();
+        for (String username : new String[] {"fan1", "fan2", "friend"}) {
+            accountDAO.createAccount(new Account(username, "password"));
+        }
+        TimelineService timelineService = new TimelineService(5, 1, 3600);
+        MessageService messageService = new MessageService();
+        messageService.addListener(timelineService);
+        // Account 1 has two followers, above the threshold of 1; account 4 has one
+        timelineService.follow(2, 1);
+        timelineService.follow(3, 1);
+        timelineService.follow(2, 4);
+        Assert.assertEquals(List.of(1), ids(timelineService.getFeed(2, 10)));
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            int postedBy = i % 2 == 0 ? 1 : 4;
+            Message created = messageService.createMessage(new Message(postedBy, "post " + i, 1669950000L + i));
+            expected.add(0, created.getMessage_id());
+        }
+        Assert.assertEquals(expected.subList(0, 5), ids(timelineService.getFeed(2, 10)));
+        Assert.assertEquals(List.of(expected.get(1), expected.get(3)), ids(timelineService.getFeed(3, 2)));
+        timelineService.close();
+        messageService.close();
+    }
+
+    /**
+     * Retention deletes the oldest messages in bulk; home and authored timelines already in memory stop serving
+     * them.
+     */
+    @Test
+    public void retentionRemovesDeletedMessagesFromTimelines() {
+        AccountDAO accountDAO = new AccountDAO();
+        for (String username : new String[] {"fan1", "fan2"}) {
+            accountDAO.createAccount(new Account(username, "password"));
+        }
+        TimelineService timelineService = new TimelineService(5, 1, 3600);
+        MessageService messageService = new MessageService();
+        messageService.addListener(timelineService);
+        // Account 1 has two followers, above the threshold of 1, so it is read from its authored timeline
+        timelineService.follow(2, 1);
+        timelineService.follow(3, 1);
+        timelineService.follow(3, 2);
+        Message old = messageService.createMessage(new Message(2, "old", 1669950000L));
+        Message recent = messageService.createMessage(new Message(2, "recent", 1669950100L));
+        Assert.assertEquals(List.of(recent.getMessage_id(), old.getMessage_id(), 1), ids(timelineService.getFeed(3, 10)));
+
+        Assert.assertEquals(2, messageService.deleteMessagesPostedBefore(1669950050L));
+        Assert.assertEquals(List.of(recent.getMessage_id()), ids(timelineService.getFeed(3, 10)));
+        Assert.assertEquals(List.of(), ids(timelineService.getFeed(2, 10)));
+        timelineService.close();
+        messageService.close();
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+
+    private List<Message> feed(String token) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/feed"))
+                .header("Authorization", "Bearer " + token)
+                .build();
+        HttpResponse<String> response = send(request);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpRequest follow(String method, int followeeId, String token) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/" + followeeId + "/follow"))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", "Bearer " + token)
+                .build();
+    }
+
+    private void register(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, send(request).statusCode());
+    }
+
+    private String login(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        return send(request).headers().firstValue("X-Session-Token").orElseThrow();
+    }
+
+    private void postMessage(int postedBy, long timePostedEpoch) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy +
+                        ", \"message_text\": \"hello\", \"time_posted_epoch\": " + timePostedEpoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, send(request).statusCode());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
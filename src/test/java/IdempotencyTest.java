@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class IdempotencyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.idempotency.persist", "true");
+        ConnectionUtil.resetTestDatabase();
+        startApp();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.idempotency.persist");
+    }
+
+    private void startApp() throws InterruptedException {
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    /**
+     * Sending 20 concurrent POST localhost:8080/messages requests with the same Idempotency-Key and body
+     *
+     * Expected Response:
+     *  Status Code: 200 for every request, all with the same body
+     *  Only one message is created
+     */
+    @Test
+    public void concurrentDuplicatesCreateOneMessage() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            responses.add(webClient.sendAsync(postMessage("key-1", "hello once"), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        Set<String> bodies = new HashSet<>();
+        int replayed = 0;
+        for (CompletableFuture<HttpResponse<String>> future : responses) {
+            HttpResponse<String> response = future.get();
+            Assert.assertEquals(200, response.statusCode());
+            bodies.add(response.body());
+            if (response.headers().firstValue("Idempotent-Replayed").isPresent()) {
+                replayed++;
+            }
+        }
+        Assert.assertEquals(1, bodies.size());
+        Assert.assertEquals(19, replayed);
+        Message created = objectMapper.readValue(bodies.iterator().next(), Message.class);
+        Assert.assertEquals(new Message(2, 1, "hello once", 1669947792), created);
+        Assert.assertEquals(2, allMessages().size());
+    }
+
+    /**
+     * Retrying POST localhost:8080/messages with the same Idempotency-Key, including after a restart
+     *
+     * Expected Response:
+     *  Status Code: 200 with the original body and an Idempotent-Replayed header
+     *  Only one message is created
+     */
+    @Test
+    public void retryReturnsTheOriginalResponse() throws Exception {
+        HttpResponse<String> first = webClient.send(postMessage("key-2", "hello"), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> retry = webClient.send(postMessage("key-2", "hello"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, retry.statusCode());
+        Assert.assertEquals(first.body(), retry.body());
+        Assert.assertEquals("true", retry.headers().firstValue("Idempotent-Replayed").orElse(null));
+
+        app.stop();
+        startApp();
+        HttpResponse<String> afterRestart = webClient.send(postMessage("key-2", "hello"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, afterRestart.statusCode());
+        Assert.assertEquals(first.body(), afterRestart.body());
+        Assert.assertEquals(2, allMessages().size());
+    }
+
+    /**
+     * Reusing an Idempotency-Key for POST localhost:8080/messages with a different body
+     *
+     * Expected Response:
+     *  Status Code: 422
+     */
+    @Test
+    public void sameKeyWithAnotherBodyIsRejected() throws Exception {
+        webClient.send(postMessage("key-3", "first"), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = webClient.send(postMessage("key-3", "second"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(422, response.statusCode());
+        Assert.assertEquals(2, allMessages().size());
+    }
+
+    /**
+     * Sending concurrent POST localhost:8080/register requests with the same Idempotency-Key
+     *
+     * Expected Response:
+     *  Status Code: 200 for every request, with the same account; no 400 for a duplicate username
+     */
+    @Test
+    public void concurrentDuplicateRegistrationsCreateOneAccount() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{" +
+                            "\"username\": \"user\", " +
+                            "\"password\": \"password\" }"))
+                    .header("Content-Type", "application/json")
+                    .header("Idempotency-Key", "register-1")
+                    .build();
+            responses.add(webClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        Set<String> bodies = new HashSet<>();
+        for (CompletableFuture<HttpResponse<String>> future : responses) {
+            HttpResponse<String> response = future.get();
+            Assert.assertEquals(200, response.statusCode());
+            bodies.add(response.body());
+        }
+        Assert.assertEquals(1, bodies.size());
+    }
+
+    private List<Message> allMessages() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpRequest postMessage(String key, String text) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", key)
+                .build();
+    }
+}
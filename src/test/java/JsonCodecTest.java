@@ -0,0 +1,143 @@
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Json;
+import io.javalin.Javalin;
+
+public class JsonCodecTest {
+
+    /**
+     * Messages and accounts, alone and in a list, through the hand-written codecs and through Jackson's bean codec
+     *
+     * Expected Response:
+     *  The same JSON, byte for byte, and the same objects read back
+     */
+    @Test
+    public void codecsMatchTheBeanCodec() throws Exception {
+        ObjectMapper beanMapper = new ObjectMapper();
+        Message message = new Message(7, 3, "quotes \" and \u00e9 and \uD83D\uDE00", 1669947792L);
+        Account account = new Account(4, "user", "pass\\word");
+
+        Assert.assertArrayEquals(beanMapper.writeValueAsBytes(message), Json.toBytes(message));
+        Assert.assertArrayEquals(beanMapper.writeValueAsBytes(account), Json.toBytes(account));
+        Assert.assertEquals(beanMapper.writeValueAsString(List.of(message, message)),
+                Json.mapper().writeValueAsString(List.of(message, message)));
+        Assert.assertEquals(beanMapper.writeValueAsString(new Message()), Json.mapper().writeValueAsString(new Message()));
+
+        Assert.assertEquals(message, Json.read(Json.toBytes(message), Message.class));
+        Assert.assertEquals(account, Json.read(Json.toBytes(account), Account.class));
+    }
+
+    /**
+     * A body whose second field is unknown, from a stream that fails if it is read any further
+     *
+     * Expected Response:
+     *  The unknown field is reported, without the rest of the body being read
+     */
+    @Test
+    public void unknownFieldFailsBeforeTheRestOfTheBody() throws Exception {
+        try {
+            Json.read(bodyThenFail("{\"posted_by\":1,\"bogus\":2,"), Message.class);
+            Assert.fail();
+        } catch (UnrecognizedPropertyException e) {
+            Assert.assertEquals("bogus", e.getPropertyName());
+        }
+        try {
+            Json.read(bodyThenFail("{\"username\":\"user\",\"role\":\"admin\","), Account.class);
+            Assert.fail();
+        } catch (UnrecognizedPropertyException e) {
+            Assert.assertEquals("role", e.getPropertyName());
+        }
+    }
+
+    /**
+     * A body with a 256-character message_text, from a stream that fails if it is read any further
+     *
+     * Expected Response:
+     *  The text is refused as soon as it has been parsed
+     */
+    @Test(expected = InvalidFormatException.class)
+    public void oversizedTextFailsBeforeTheRestOfTheBody() throws Exception {
+        Json.read(bodyThenFail("{\"message_text\":\"" + "x".repeat(256) + "\","), Message.class);
+    }
+
+    /**
+     * Sending POST localhost:8080/messages with an unknown field, and PUT localhost:8080/messages/1 with a
+     * 300-character text
+     *
+     * Expected Response:
+     *  Both are refused with Status Code 400, and the message is unchanged
+     */
+    @Test
+    public void invalidBodiesAreRefused() throws Exception {
+        ConnectionUtil.resetTestDatabase();
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(8080);
+        try {
+            Thread.sleep(1000);
+            HttpClient webClient = HttpClient.newHttpClient();
+            HttpRequest create = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{"+
+                            "\"posted_by\":1, " +
+                            "\"message_text\": \"hello\", " +
+                            "\"pinned\": true, " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            Assert.assertEquals(400, webClient.send(create, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            HttpRequest update = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .PUT(HttpRequest.BodyPublishers.ofString("{"+
+                            "\"posted_by\":1, " +
+                            "\"message_text\": \"" + "y".repeat(300) + "\", " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            Assert.assertEquals(400, webClient.send(update, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            HttpRequest read = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .build();
+            HttpResponse<String> message = webClient.send(read, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals("test message 1",
+                    new ObjectMapper().readValue(message.body(), Message.class).getMessage_text());
+        } finally {
+            app.stop();
+        }
+    }
+
+    private static InputStream bodyThenFail(String prefix) {
+        InputStream rest = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("read past the point of failure");
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                throw new AssertionError("read past the point of failure");
+            }
+        };
+        return new SequenceInputStream(new ByteArrayInputStream(prefix.getBytes(StandardCharsets.UTF_8)), rest);
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Message;
+import Service.MessageFeed;
+import Service.MessageListener;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class MessageFeedTest {
+    MessageFeed messageFeed;
+
+    @Before
+    public void setUp() {
+        messageFeed = new MessageFeed(64, 4, 60);
+    }
+
+    @After
+    public void tearDown() {
+        messageFeed.close();
+    }
+
+    /**
+     * 10k subscribers, half of them filtered to one account, receive every message meant for them.
+     */
+    @Test
+    public void tenThousandIdleSubscribersAllReceive() throws InterruptedException {
+        int subscribers = 10_000;
+        // 5k unfiltered subscribers get both messages, 5k filtered to account 1 get one
+        CountDownLatch delivered = new CountDownLatch(15_000);
+        AtomicInteger wrongPoster = new AtomicInteger();
+        for (int i = 0; i < subscribers; i++) {
+            Integer postedBy = i % 2 == 0 ? null : 1;
+            messageFeed.subscribe(new CountingSink(delivered, postedBy, wrongPoster), postedBy, null);
+        }
+        Assert.assertEquals(subscribers, messageFeed.subscriberCount());
+
+        messageFeed.publish(new Message(1, 1, "from one", 1669947792));
+        messageFeed.publish(new Message(2, 2, "from two", 1669947792));
+
+        Assert.assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, wrongPoster.get());
+    }
+
+    /**
+     * A subscriber that blocks must not block publishers; once it is lapped by the ring it is told to resync.
+     */
+    @Test
+    public void slowSubscriberIsDroppedWithoutBlockingWriters() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch resynced = new CountDownLatch(1);
+        messageFeed.subscribe(new TestSink() {
+            @Override
+            public void send(long sequence, Message message) throws InterruptedException {
+                release.await();
+            }
+
+            @Override
+            public void resync() {
+                resynced.countDown();
+            }
+        }, null, null);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            messageFeed.publish(new Message(i, 1, "message " + i, 1669947792));
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 1);
+
+        release.countDown();
+        Assert.assertTrue(resynced.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, messageFeed.subscriberCount());
+    }
+
+    /**
+     * A client reconnecting with Last-Event-ID gets exactly the events after that id; one whose id has left the
+     * ring is told to resync.
+     */
+    @Test
+    public void lastEventIdResumesAfterTheLastSeenEvent() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            messageFeed.publish(new Message(i, 1, "message " + i, 1669947792));
+        }
+        CountDownLatch delivered = new CountDownLatch(3);
+        AtomicLong firstSequence = new AtomicLong(-1);
+        messageFeed.subscribe(new TestSink() {
+            @Override
+            public void send(long sequence, Message message) {
+                firstSequence.compareAndSet(-1, sequence);
+                delivered.countDown();
+            }
+        }, null, 6L);
+        Assert.assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(7, firstSequence.get());
+
+        for (int i = 0; i < 100; i++) {
+            messageFeed.publish(new Message(i, 1, "message " + i, 1669947792));
+        }
+        CountDownLatch resynced = new CountDownLatch(1);
+        messageFeed.subscribe(new TestSink() {
+            @Override
+            public void resync() {
+                resynced.countDown();
+            }
+        }, null, 6L);
+        Assert.assertTrue(resynced.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A subscriber filtered to one account stays subscribed while many laps of other accounts' messages go by, and
+     * still receives the next message of its account.
+     */
+    @Test
+    public void filteredSubscriberIsNotDroppedByOtherPosters() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        CountDownLatch resynced = new CountDownLatch(1);
+        messageFeed.subscribe(new TestSink() {
+            @Override
+            public void send(long sequence, Message message) {
+                delivered.countDown();
+            }
+
+            @Override
+            public void resync() {
+                resynced.countDown();
+            }
+        }, 2, null);
+
+        for (int i = 0; i < 1_000; i++) {
+            messageFeed.publish(new Message(i, 1, "message " + i, 1669947792));
+            if (i % 16 == 0) {
+                // give the delivery pool a turn, as a steady stream of posts would
+                Thread.sleep(1);
+            }
+        }
+        messageFeed.publish(new Message(1_000, 2, "from two", 1669947792));
+
+        Assert.assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, resynced.getCount());
+        Assert.assertEquals(1, messageFeed.subscriberCount());
+    }
+
+    /**
+     * With one delivery thread, a subscriber whose writes never complete is aborted after the write timeout, and
+     * the other subscriber still receives the message.
+     */
+    @Test
+    public void stalledSubscriberIsAbortedWithoutHoldingUpOthers() throws InterruptedException {
+        MessageFeed singleThreaded = new MessageFeed(64, 1, 60, 200);
+        try {
+            CountDownLatch aborted = new CountDownLatch(1);
+            CountDownLatch delivered = new CountDownLatch(1);
+            singleThreaded.subscribe(new TestSink() {
+                @Override
+                public void send(long sequence, Message message) throws InterruptedException {
+                    aborted.await();
+                }
+
+                @Override
+                public void abort() {
+                    aborted.countDown();
+                }
+            }, null, null);
+            singleThreaded.subscribe(new CountingSink(delivered, null, new AtomicInteger()), null, null);
+
+            singleThreaded.publish(new Message(1, 1, "message", 1669947792));
+
+            Assert.assertTrue(aborted.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, singleThreaded.subscriberCount());
+        } finally {
+            singleThreaded.close();
+        }
+    }
+
+    /**
+     * A listener that throws after a message is stored does not fail the create: the caller gets the message, it
+     * is stored once, and the listeners after the failing one are still told.
+     */
+    @Test
+    public void failingListenerDoesNotFailTheWrite() {
+        ConnectionUtil.resetTestDatabase();
+        MessageService messageService = new MessageService();
+        try {
+            messageService.addListener(new MessageListener() {
+                @Override
+                public void messageCreated(Message message) {
+                    throw new IllegalStateException("listener failed");
+                }
+            });
+            messageService.addListener(messageFeed);
+            long before = messageFeed.publish(new Message(0, 1, "marker", 1669947792));
+
+            Message created = messageService.createMessage(new Message(1, "stored once", 1669947792));
+
+            Assert.assertNotNull(created);
+            Assert.assertEquals(2, messageService.getAllMessages().size());
+            Assert.assertEquals(before + 2, messageFeed.publish(new Message(0, 1, "marker", 1669947792)));
+        } finally {
+            messageService.close();
+        }
+    }
+
+    private static class TestSink implements MessageFeed.Sink {
+        @Override
+        public void send(long sequence, Message message) throws Exception {
+        }
+
+        @Override
+        public void resync() {
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingSink extends TestSink {
+        private final CountDownLatch delivered;
+        private final Integer postedBy;
+        private final AtomicInteger wrongPoster;
+
+        CountingSink(CountDownLatch delivered, Integer postedBy, AtomicInteger wrongPoster) {
+            this.delivered = delivered;
+            this.postedBy = postedBy;
+            this.wrongPoster = wrongPoster;
+        }
+
+        @Override
+        public void send(long sequence, Message message) {
+            if (postedBy != null && postedBy != message.getPosted_by()) {
+                wrongPoster.incrementAndGet();
+            }
+            delivered.countDown();
+        }
+    }
+}
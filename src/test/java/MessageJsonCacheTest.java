@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.IntLongMap;
+import Util.SlabCache;
+import io.javalin.Javalin;
+
+public class MessageJsonCacheTest {
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and create a new webClient and ObjectMapper. The HTTP tests start the
+     * Javalin app themselves, so that they can choose whether the message JSON cache is on.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+        System.clearProperty("socialmedia.cache.messageJson.maxBytes");
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1 with and without the message JSON cache
+     *
+     * Expected Response:
+     *  The same body, Content-Type and ETag either way; the second cached read is a hit
+     */
+    @Test
+    public void cachedJsonMatchesSerializedMessage() throws Exception {
+        startApp(false);
+        HttpResponse<String> uncached = webClient.send(getMessage(1), HttpResponse.BodyHandlers.ofString());
+        app.stop();
+
+        startApp(true);
+        webClient.send(getMessage(1), HttpResponse.BodyHandlers.ofString());
+        long hits = metric("cache.messageJson.hits");
+        HttpResponse<String> cached = webClient.send(getMessage(1), HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, cached.statusCode());
+        Assert.assertEquals(uncached.body(), cached.body());
+        Assert.assertEquals(uncached.headers().firstValue("ETag"), cached.headers().firstValue("ETag"));
+        Assert.assertEquals(uncached.headers().firstValue("Content-Type"), cached.headers().firstValue("Content-Type"));
+        Assert.assertEquals(hits + 1, metric("cache.messageJson.hits"));
+    }
+
+    /**
+     * Sending PUT and then DELETE localhost:8080/messages/1, each followed by a GET, with the cache on
+     *
+     * Expected Response:
+     *  Each GET reflects the write: the new text with a new ETag, then Status Code 404
+     */
+    @Test
+    public void writesInvalidateCachedJson() throws Exception {
+        startApp(true);
+        HttpResponse<String> before = webClient.send(getMessage(1), HttpResponse.BodyHandlers.ofString());
+
+        HttpRequest update = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"edited\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(update, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpResponse<String> edited = webClient.send(getMessage(1), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals("edited", objectMapper.readTree(edited.body()).get("message_text").asText());
+        Assert.assertNotEquals(before.headers().firstValue("ETag"), edited.headers().firstValue("ETag"));
+
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(404, webClient.send(getMessage(1), HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * 1000 values into a cache capped at two 1 KiB slabs
+     *
+     * Expected Response:
+     *  No more than two slabs are reserved, old entries are evicted, and the newest entries read back intact
+     */
+    @Test
+    public void evictsWithinTheMemoryCap() {
+        SlabCache cache = new SlabCache("test.slabCache", 2048, 1024);
+        SlabCache.Hit hit = new SlabCache.Hit();
+        for (int key = 1; key <= 1000; key++) {
+            byte[] value = ("value " + key).getBytes(StandardCharsets.UTF_8);
+            Assert.assertTrue(cache.put(key, cache.beginLoad(key), key * 10L, value, value.length));
+        }
+        Assert.assertEquals(2048, cache.reservedBytes());
+        Assert.assertEquals(32, cache.size());
+        Assert.assertTrue(cache.get(1000, hit));
+        Assert.assertEquals("value 1000", new String(hit.getBytes(), 0, hit.getLength(), StandardCharsets.UTF_8));
+        Assert.assertEquals(10_000L, hit.getTag());
+        Assert.assertFalse(cache.get(1, hit));
+
+        long generation = cache.beginLoad(7);
+        cache.invalidate(7);
+        Assert.assertFalse(cache.put(7, generation, 0, new byte[1], 1));
+    }
+
+    /**
+     * Random puts and removes against the primitive index and a HashMap
+     *
+     * Expected Response:
+     *  Both maps agree on every key, including 0 and negative keys
+     */
+    @Test
+    public void indexAgreesWithHashMap() {
+        IntLongMap index = new IntLongMap(4);
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random(45);
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(2000) - 100;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key) != null, index.remove(key));
+            } else {
+                index.put(key, i);
+                expected.put(key, (long) i);
+            }
+        }
+        Assert.assertEquals(expected.size(), index.size());
+        for (int key = -100; key < 1900; key++) {
+            Assert.assertEquals((long) expected.getOrDefault(key, -1L), index.get(key, -1L));
+        }
+    }
+
+    private void startApp(boolean cacheJson) throws InterruptedException {
+        if (cacheJson) {
+            System.setProperty("socialmedia.cache.messageJson.maxBytes", Integer.toString(1 << 20));
+        } else {
+            System.clearProperty("socialmedia.cache.messageJson.maxBytes");
+        }
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    private HttpRequest getMessage(int messageId) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .build();
+    }
+
+    private long metric(String name) throws IOException, InterruptedException {
+        HttpRequest metricsRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        HttpResponse<String> metrics = webClient.send(metricsRequest, HttpResponse.BodyHandlers.ofString());
+        JsonNode snapshot = objectMapper.readTree(metrics.body());
+        return snapshot.path(name).asLong();
+    }
+}
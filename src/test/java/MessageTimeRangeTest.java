@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageTimeRangeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?from=150&to=300
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the messages posted at 200 and 300 (bounds inclusive), oldest first
+     */
+    @Test
+    public void getMessagesInTimeRange() throws IOException, InterruptedException {
+        postMessage(300);
+        postMessage(100);
+        postMessage(200);
+
+        HttpResponse<String> response = get("/messages?from=150&to=300");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(4, 1, "at 200", 200), new Message(2, 1, "at 300", 300)), messages);
+
+        HttpResponse<String> limited = get("/messages?from=0&limit=1");
+        List<Message> first = objectMapper.readValue(limited.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(3, 1, "at 100", 100)), first);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?from=yesterday
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesInTimeRangeBadParameter() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?from=yesterday").statusCode());
+    }
+
+    /**
+     * Retention deletes the messages posted before the cutoff and leaves a tombstone for each in the change feed.
+     */
+    @Test
+    public void retentionDeletesOldMessages() throws IOException, InterruptedException {
+        postMessage(100);
+        postMessage(200);
+
+        Assert.assertEquals(1, new MessageService().deleteMessagesPostedBefore(150));
+
+        List<Message> remaining = objectMapper.readValue(get("/messages").body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, remaining.size());
+        Assert.assertFalse(remaining.contains(new Message(2, 1, "at 100", 100)));
+        Assert.assertTrue(get("/changes?since=0").body().contains("\"operation\":\"delete\",\"message_id\":2"));
+    }
+
+    private void postMessage(long timePostedEpoch) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"at " + timePostedEpoch +
+                        "\", \"time_posted_epoch\": " + timePostedEpoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
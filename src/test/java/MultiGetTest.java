@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class MultiGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.cache.messages.maxEntries");
+    }
+
+    /**
+     * With message caching on, reading message 1 alone, then messages 1, 2 and 99 together, twice
+     *
+     * Expected: the first multi-get takes message 1 from the cache and only queries 2 and 99; the second is served
+     * from the cache except for 99, which does not exist; an update is seen by the next multi-get
+     */
+    @Test
+    public void multiGetReadsThroughTheMessageCache() {
+        System.setProperty("socialmedia.cache.messages.maxEntries", "100");
+        MessageService messageService = new MessageService();
+        Message second = messageService.createMessage(new Message(1, "second", 1669947793));
+        List<Integer> ids = List.of(1, second.getMessage_id(), 99);
+        List<Message> expected = Arrays.asList(new Message(1, 1, "test message 1", 1669947792), second, null);
+
+        messageService.getMessageById(1);
+        long hits = Metrics.count("cache.messages.hits");
+        long misses = Metrics.count("cache.messages.misses");
+        Assert.assertEquals(expected, messageService.getMessagesByIds(ids));
+        Assert.assertEquals(hits + 1, Metrics.count("cache.messages.hits"));
+        Assert.assertEquals(misses + 2, Metrics.count("cache.messages.misses"));
+
+        Assert.assertEquals(expected, messageService.getMessagesByIds(ids));
+        Assert.assertEquals(hits + 3, Metrics.count("cache.messages.hits"));
+        Assert.assertEquals(misses + 3, Metrics.count("cache.messages.misses"));
+
+        messageService.updateMessage(1, new Message(1, "changed", 1669947792));
+        Assert.assertEquals(new Message(1, 1, "changed", 1669947792), messageService.getMessagesByIds(ids).get(0));
+        messageService.close();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?ids=3,1,99,2,1
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the messages in the requested order, null where an id does not exist, and the missing ids
+     */
+    @Test
+    public void multiGetPreservesOrderAndMarksMissing() throws IOException, InterruptedException {
+        postMessage("second");
+        postMessage("third");
+
+        HttpResponse<String> response = get("/messages?ids=3,1,99,2,1");
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode body = objectMapper.readTree(response.body());
+        Message[] messages = objectMapper.treeToValue(body.get("messages"), Message[].class);
+        Assert.assertEquals(Arrays.asList(
+                new Message(3, 1, "third", 1669947792),
+                new Message(1, 1, "test message 1", 1669947792),
+                null,
+                new Message(2, 1, "second", 1669947792),
+                new Message(1, 1, "test message 1", 1669947792)), Arrays.asList(messages));
+        Assert.assertEquals(List.of(99), Arrays.asList(objectMapper.treeToValue(body.get("missing"), Integer[].class)));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?ids= with a malformed id or too many ids
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void multiGetRejectsBadIds() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?ids=1,two").statusCode());
+        StringBuilder ids = new StringBuilder("1");
+        for (int i = 2; i <= 101; i++) {
+            ids.append(',').append(i);
+        }
+        Assert.assertEquals(400, get("/messages?ids=" + ids).statusCode());
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text +
+                        "\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class OptimisticConcurrencyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending PUT localhost:8080/messages/1 with the ETag of GET localhost:8080/messages/1, then again with the
+     * same, now stale, ETag
+     *
+     * Expected Response:
+     *  Status Code: 200 with a new ETag, then 412; the message keeps the first update
+     */
+    @Test
+    public void staleIfMatchIsRejected() throws IOException, InterruptedException {
+        HttpResponse<String> read = getMessage();
+        String etag = read.headers().firstValue("ETag").orElseThrow();
+        Assert.assertEquals("\"0\"", etag);
+
+        HttpResponse<String> first = webClient.send(putMessage("first edit", etag), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals("\"1\"", first.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> second = webClient.send(putMessage("second edit", etag), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(412, second.statusCode());
+
+        HttpResponse<String> current = getMessage();
+        Assert.assertEquals("\"1\"", current.headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals("first edit", objectMapper.readValue(current.body(), Message.class).getMessage_text());
+    }
+
+    /**
+     * Sending 10 concurrent PUT localhost:8080/messages/1 requests with the same If-Match
+     *
+     * Expected Response:
+     *  Exactly one 200; every other request gets 412
+     */
+    @Test
+    public void concurrentConditionalUpdatesHaveOneWinner() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(webClient.sendAsync(putMessage("edit " + i, "\"0\""), HttpResponse.BodyHandlers.ofString()));
+        }
+        int succeeded = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            int status = response.get().statusCode();
+            Assert.assertTrue(status == 200 || status == 412);
+            if (status == 200) {
+                succeeded++;
+            }
+        }
+        Assert.assertEquals(1, succeeded);
+        Assert.assertEquals("\"1\"", getMessage().headers().firstValue("ETag").orElse(null));
+    }
+
+    /**
+     * Sending DELETE localhost:8080/messages/1 with a stale If-Match, then with the current one
+     *
+     * Expected Response:
+     *  Status Code: 412 and the message is kept, then 200 and the message is gone
+     */
+    @Test
+    public void conditionalDelete() throws IOException, InterruptedException {
+        webClient.send(putMessage("edited", null), HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> stale = webClient.send(deleteMessage("\"0\""), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(412, stale.statusCode());
+        Assert.assertEquals(200, getMessage().statusCode());
+
+        HttpResponse<String> current = webClient.send(deleteMessage("\"1\""), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, current.statusCode());
+        Assert.assertEquals(404, getMessage().statusCode());
+    }
+
+    private HttpResponse<String> getMessage() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest putMessage(String text, String ifMatch) {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json");
+        if (ifMatch != null) {
+            request.header("If-Match", ifMatch);
+        }
+        return request.build();
+    }
+
+    private HttpRequest deleteMessage(String ifMatch) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .header("If-Match", ifMatch)
+                .build();
+    }
+}
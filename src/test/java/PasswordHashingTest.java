@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import Util.ConnectionUtil;
+import Util.PasswordHasher;
+import io.javalin.Javalin;
+
+public class PasswordHashingTest {
+    HttpClient webClient = HttpClient.newHttpClient();
+    Javalin app;
+
+    private void start() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+        System.clearProperty("socialmedia.password.iterations");
+        System.clearProperty("socialmedia.password.queue");
+    }
+
+    /**
+     * Sending POST localhost:8080/register, then POST localhost:8080/login with the same credentials
+     *
+     * Expected Response:
+     *  Both succeed; the password column holds a salted hash, not the password
+     */
+    @Test
+    public void registeredPasswordsAreStoredHashed() throws Exception {
+        start();
+        Assert.assertEquals(200, post("/register", "user2", "secret-password").statusCode());
+        String stored = new AccountDAO().getAccountByUsername("user2").getPassword();
+        Assert.assertTrue(PasswordHasher.isHashed(stored));
+        Assert.assertFalse(stored.contains("secret-password"));
+        Assert.assertEquals(200, post("/login", "user2", "secret-password").statusCode());
+        Assert.assertEquals(401, post("/login", "user2", "wrong-password").statusCode());
+    }
+
+    /**
+     * Sending POST localhost:8080/login as the seeded account, whose password is still stored as plaintext, twice
+     *
+     * Expected Response:
+     *  Both succeed; after the first the stored password is a hash
+     */
+    @Test
+    public void legacyPlaintextPasswordsAreRehashedOnLogin() throws Exception {
+        start();
+        Assert.assertFalse(PasswordHasher.isHashed(new AccountDAO().getAccountByUsername("testuser1").getPassword()));
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+        Assert.assertTrue(PasswordHasher.isHashed(new AccountDAO().getAccountByUsername("testuser1").getPassword()));
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+    }
+
+    /**
+     * Verifying passwords against a legacy plaintext value that is shaped like a hash but is not one
+     *
+     * Expected: no match and no exception, for any password
+     */
+    @Test
+    public void plaintextThatLooksLikeAHashDoesNotMatch() {
+        PasswordHasher hasher = new PasswordHasher(1000);
+        Assert.assertFalse(hasher.verify("pbkdf2$x$y$z", "pbkdf2$x$y$z"));
+        Assert.assertFalse(hasher.verify("password", "pbkdf2$1000$not base64!$abc"));
+        Assert.assertFalse(hasher.verify("password", "pbkdf2$0$c2FsdA$abc"));
+        Assert.assertTrue(hasher.verify("password", hasher.hash("password")));
+    }
+
+    /**
+     * Sending six concurrent POST localhost:8080/login while one password worker with a queue of one is busy with
+     * slow hashes
+     *
+     * Expected Response:
+     *  The logins that find the pool and its queue full get 503; the others succeed
+     */
+    @Test
+    public void loginsAreRefusedWhenTheHashingPoolIsSaturated() throws Exception {
+        System.setProperty("socialmedia.password.iterations", "1000000");
+        System.setProperty("socialmedia.password.queue", "1");
+        start();
+        List<CompletableFuture<HttpResponse<String>>> logins = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            logins.add(webClient.sendAsync(request("/login", "testuser1", "password"), HttpResponse.BodyHandlers.ofString()));
+        }
+        int refused = 0;
+        int succeeded = 0;
+        for (CompletableFuture<HttpResponse<String>> login : logins) {
+            int status = login.get().statusCode();
+            refused += status == 503 ? 1 : 0;
+            succeeded += status == 200 ? 1 : 0;
+        }
+        Assert.assertTrue(refused > 0);
+        Assert.assertTrue(succeeded > 0);
+        Assert.assertEquals(6, refused + succeeded);
+    }
+
+    private HttpResponse<String> post(String path, String username, String password) throws IOException, InterruptedException {
+        return webClient.send(request(path, username, password), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest request(String path, String username, String password) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", " +
+                        "\"password\": \"" + password + "\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RateLimitTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.ratelimit.account.messages.rps", "1");
+        System.setProperty("socialmedia.ratelimit.account.messages.burst", "20");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.ratelimit.account.messages.rps");
+        System.clearProperty("socialmedia.ratelimit.account.messages.burst");
+    }
+
+    /**
+     * Sending more POST localhost:8080/messages requests for one posted_by than its bucket holds
+     *
+     * Expected Response:
+     *  Status Code: 200 until the burst (20) is used up, then 429 with a Retry-After header
+     *  GET /metrics counts the rejection against the route
+     */
+    @Test
+    public void createMessageFloodIsRejected() throws IOException, InterruptedException {
+        int accepted = 0;
+        HttpResponse<String> rejected = null;
+        for (int i = 0; i < 40 && rejected == null; i++) {
+            HttpResponse<String> response = webClient.send(postMessage(i), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200) {
+                accepted++;
+            } else {
+                rejected = response;
+            }
+        }
+
+        Assert.assertNotNull(rejected);
+        Assert.assertEquals(429, rejected.statusCode());
+        Assert.assertTrue(rejected.headers().firstValue("Retry-After").isPresent());
+        Assert.assertTrue(accepted >= 20);
+
+        HttpRequest metricsRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        HttpResponse<String> metrics = webClient.send(metricsRequest, HttpResponse.BodyHandlers.ofString());
+        JsonNode snapshot = objectMapper.readTree(metrics.body());
+        Assert.assertTrue(snapshot.path("admission.rejected.account[POST /messages]").asLong() >= 1);
+        Assert.assertEquals(1, snapshot.path("admission.concurrency.inFlight").asInt());
+    }
+
+    private HttpRequest postMessage(int i) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"flood " + i + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageChangeDAO;
+import Model.Message;
+import Model.MessageChange;
+import Util.ConnectionUtil;
+import Util.Replicas;
+import Util.Shards;
+import Util.TextCodec;
+import io.javalin.Javalin;
+
+public class ReplicationTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and its replica, and create a new webClient and ObjectMapper for
+     * interacting locally on the web. Each test starts the Javalin app with its own replication settings.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        Replicas.configure(1, 2000, 5000);
+        Replicas.resetTestDatabases();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+        System.clearProperty("socialmedia.replicas.pollMillis");
+        System.clearProperty("socialmedia.replicas.gapTimeoutMillis");
+        Replicas.configure(0, 2000, 5000);
+    }
+
+    /**
+     * Sending POST localhost:8080/messages, then GET localhost:8080/messages/2 from the writer and from another
+     * caller, while the replica is in sync but replication is paused after its first pass
+     *
+     * Expected Response:
+     *  The writer reads its own write from the primary: Status Code 200
+     *  The other caller is served by the replica, which has not seen the write yet: Status Code 404
+     */
+    @Test
+    public void writerReadsItsOwnWriteWhileOthersReadTheReplica() throws Exception {
+        startApp(60_000, 120_000);
+
+        HttpResponse<String> created = webClient.send(postMessage("fresh"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, created.statusCode());
+        Assert.assertEquals(2, objectMapper.readValue(created.body(), Message.class).getMessage_id());
+
+        HttpResponse<String> writerRead = webClient.send(getMessage(2, null), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, writerRead.statusCode());
+        Assert.assertEquals("fresh", objectMapper.readValue(writerRead.body(), Message.class).getMessage_text());
+
+        long replicaReads = metric("db.reads.replica");
+        HttpResponse<String> otherRead = webClient.send(getMessage(2, "reader"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(404, otherRead.statusCode());
+        Assert.assertTrue(metric("db.reads.replica") > replicaReads);
+
+        HttpResponse<String> seedRead = webClient.send(getMessage(1, "reader"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals("test message 1", objectMapper.readValue(seedRead.body(), Message.class).getMessage_text());
+    }
+
+    /**
+     * Sending POST localhost:8080/messages and PUT localhost:8080/messages/1 with replication running
+     *
+     * Expected Response:
+     *  Another caller soon reads both writes from the replica, with the same ETag as the primary
+     */
+    @Test
+    public void replicaCatchesUpWithCreatesAndUpdates() throws Exception {
+        startApp(50, 5000);
+
+        webClient.send(postMessage("shipped"), HttpResponse.BodyHandlers.ofString());
+        HttpRequest update = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"edited\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> updated = webClient.send(update, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, updated.statusCode());
+        String primaryEtag = updated.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<String> created = awaitBody(getMessage(2, "reader"), "shipped");
+        Assert.assertNotNull(created);
+        HttpResponse<String> edited = awaitBody(getMessage(1, "reader"), "edited");
+        Assert.assertNotNull(edited);
+        Assert.assertEquals(primaryEtag, edited.headers().firstValue("ETag").orElseThrow());
+        Assert.assertTrue(metric("replication.lagMillis[0:0]") < 5000);
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/2 from another caller when the replica has fallen further behind than
+     * the maximum lag
+     *
+     * Expected Response:
+     *  The read falls back to the primary and finds the message; the replica is reported unhealthy
+     */
+    @Test
+    public void laggingReplicaIsTakenOutOfRotation() throws Exception {
+        startApp(60_000, 200);
+
+        webClient.send(postMessage("behind"), HttpResponse.BodyHandlers.ofString());
+        long primaryReads = metric("db.reads.primary");
+        HttpResponse<String> otherRead = webClient.send(getMessage(2, "reader"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals("behind", objectMapper.readValue(otherRead.body(), Message.class).getMessage_text());
+        Assert.assertTrue(metric("db.reads.primary") > primaryReads);
+        Assert.assertEquals(0, metric("replication.healthyReplicas"));
+        Assert.assertTrue(metric("replication.lagMillis[0:0]") >= 200);
+    }
+
+    /**
+     * Holding a message open in a transaction past the gap timeout while another message is posted, then
+     * committing it, with replication running
+     *
+     * Expected Response:
+     *  Another caller reads the later message from the replica first, then the late one once it commits: the
+     *  skipped sequence number is looked up again and the replica is bootstrapped to pick it up
+     */
+    @Test
+    public void lateCommitIntoASkippedGapReachesTheReplica() throws Exception {
+        System.setProperty("socialmedia.replicas.gapTimeoutMillis", "100");
+        startApp(50, 5000);
+
+        try (Connection open = Shards.getConnection(0);
+             PreparedStatement insert = open.prepareStatement(
+                     "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (50, 1, ?, 1669947792)")) {
+            open.setAutoCommit(false);
+            insert.setBytes(1, TextCodec.encode("late"));
+            insert.executeUpdate();
+            MessageChangeDAO.record(open, MessageChange.CREATE, new Message(50, 1, "late", 1669947792));
+
+            webClient.send(postMessage("after"), HttpResponse.BodyHandlers.ofString());
+            Assert.assertNotNull(awaitBody(getMessage(2, "reader"), "after"));
+            open.commit();
+        }
+
+        Assert.assertNotNull(awaitBody(getMessage(50, "reader"), "late"));
+        Assert.assertEquals(1, metric("replication.lateChanges"));
+    }
+
+    private void startApp(long pollMillis, long maxLagMillis) throws InterruptedException {
+        System.setProperty("socialmedia.replicas.pollMillis", Long.toString(pollMillis));
+        Replicas.configure(1, 2000, maxLagMillis);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    private HttpResponse<String> awaitBody(HttpRequest request, String text) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200
+                    && text.equals(objectMapper.readValue(response.body(), Message.class).getMessage_text())) {
+                return response;
+            }
+            Thread.sleep(50);
+        }
+        return null;
+    }
+
+    private long metric(String name) throws IOException, InterruptedException {
+        HttpRequest metricsRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        HttpResponse<String> metrics = webClient.send(metricsRequest, HttpResponse.BodyHandlers.ofString());
+        JsonNode snapshot = objectMapper.readTree(metrics.body());
+        return snapshot.path(name).asLong();
+    }
+
+    private HttpRequest postMessage(String text) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    /**
+     * @param reader a bearer token naming another caller, or null to read as the writer
+     */
+    private HttpRequest getMessage(int messageId, String reader) {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId));
+        if (reader != null) {
+            request.header("Authorization", "Bearer " + reader);
+        }
+        return request.build();
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Shards;
+import io.javalin.Javalin;
+
+public class ShardingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, split the data over 4 shards, reset every shard, restart the Javalin app, and create a
+     * new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        Shards.configure(4);
+        Shards.resetTestDatabases();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        Shards.configure(1);
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Registering 12 accounts and posting a message for each
+     *
+     * Expected Response:
+     *  Accounts spread over the shards; each account and its messages are stored only on the shard its id encodes
+     *  GET /messages/{id} and POST /login each find their row
+     */
+    @Test
+    public void rowsLiveOnTheShardTheirIdEncodes() throws Exception {
+        Set<Integer> usedShards = new HashSet<>();
+        for (int i = 0; i < 12; i++) {
+            Account account = register("user" + i);
+            int shard = Shards.ofId(account.getAccount_id());
+            usedShards.add(shard);
+            Assert.assertEquals(Shards.ofKey("user" + i), shard);
+            Assert.assertEquals(200, login("user" + i).statusCode());
+
+            Message message = postMessage(account.getAccount_id(), "from user" + i, 1669947800 + i);
+            Assert.assertEquals(shard, Shards.ofId(message.getMessage_id()));
+            Assert.assertEquals(1, count(shard, "SELECT COUNT(*) FROM message WHERE message_id = " + message.getMessage_id()));
+            Assert.assertEquals(1, count(shard, "SELECT COUNT(*) FROM account WHERE account_id = " + account.getAccount_id()));
+
+            HttpResponse<String> byId = send(get("/messages/" + message.getMessage_id()));
+            Assert.assertEquals(message, objectMapper.readValue(byId.body(), Message.class));
+        }
+        Assert.assertTrue(usedShards.size() >= 3);
+
+        int stored = 0;
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            stored += count(shard, "SELECT COUNT(*) FROM message");
+        }
+        Assert.assertEquals(13, stored);
+    }
+
+    /**
+     * Sending GET /messages and GET /messages?from=&to=&limit= over messages on several shards
+     *
+     * Expected Response:
+     *  Every message exactly once, ordered by id; the time range merged oldest first and cut at the limit
+     */
+    @Test
+    public void globalQueriesMergeTheShards() throws Exception {
+        List<Message> posted = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Account account = register("user" + i);
+            // posted out of time order, so the merge has to interleave the shards
+            posted.add(postMessage(account.getAccount_id(), "message " + i, 1669947800 + (i * 5) % 8));
+        }
+
+        List<Message> all = messages("/messages");
+        Assert.assertEquals(9, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue(all.get(i - 1).getMessage_id() < all.get(i).getMessage_id());
+        }
+        Assert.assertTrue(all.containsAll(posted));
+
+        List<Message> page = messages("/messages?from=1669947800&to=1669947807&limit=5");
+        Assert.assertEquals(5, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            Assert.assertEquals(1669947800 + i, page.get(i).getTime_posted_epoch());
+        }
+    }
+
+    /**
+     * Following accounts on other shards and reading GET /feed; reading each shard's GET /changes?shard=
+     *
+     * Expected Response:
+     *  The feed holds the followees' messages newest first; each shard's change log holds its own writes
+     */
+    @Test
+    public void crossShardFollowsAndPerShardChangeLogs() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            accounts.add(register("user" + i));
+        }
+        Account reader = accounts.get(0);
+        String token = login(reader.getUsername()).headers().firstValue("X-Session-Token").orElseThrow();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 1; i < accounts.size(); i++) {
+            Account followee = accounts.get(i);
+            HttpRequest follow = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/accounts/" + followee.getAccount_id() + "/follow"))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .header("Authorization", "Bearer " + token)
+                    .build();
+            Assert.assertEquals(200, send(follow).statusCode());
+            expected.add(0, postMessage(followee.getAccount_id(), "hello", 1669947800 + i).getMessage_id());
+        }
+        HttpRequest unknown = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/9999/follow"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", "Bearer " + token)
+                .build();
+        Assert.assertEquals(400, send(unknown).statusCode());
+
+        HttpRequest feed = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/feed"))
+                .header("Authorization", "Bearer " + token)
+                .build();
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : objectMapper.readValue(send(feed).body(), new TypeReference<List<Message>>(){})) {
+            ids.add(message.getMessage_id());
+        }
+        Assert.assertEquals(expected, ids);
+
+        int changes = 0;
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            JsonNode page = objectMapper.readTree(send(get("/changes?shard=" + shard)).body());
+            for (JsonNode change : page.get("changes")) {
+                Assert.assertEquals(shard, Shards.ofId(change.get("message_id").asInt()));
+                changes++;
+            }
+        }
+        // the 7 messages posted here and the sample message
+        Assert.assertEquals(8, changes);
+        Assert.assertEquals(400, send(get("/changes?shard=4")).statusCode());
+    }
+
+    private static int count(int shard, String sql) throws SQLException {
+        try (Connection connection = Shards.getConnection(shard);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private Account register(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = send(request);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Account.class);
+    }
+
+    private HttpResponse<String> login(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        return send(request);
+    }
+
+    private Message postMessage(int postedBy, String text, long timePostedEpoch) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy +
+                        ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": " + timePostedEpoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = send(request);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private List<Message> messages(String path) throws IOException, InterruptedException {
+        return objectMapper.readValue(send(get(path)).body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
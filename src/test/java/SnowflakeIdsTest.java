@@ -0,0 +1,90 @@
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.SnowflakeIds;
+
+public class SnowflakeIdsTest {
+
+    /**
+     * 4 threads take 100k ids each from one generator; every id is unique and each thread sees them increase.
+     */
+    @Test
+    public void concurrentIdsAreUniqueAndIncreasing() throws InterruptedException {
+        SnowflakeIds ids = new SnowflakeIds(7, 1000, System::currentTimeMillis);
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        AtomicLong outOfOrder = new AtomicLong();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                long previous = -1;
+                for (int i = 0; i < 100_000; i++) {
+                    long id = ids.nextId();
+                    if (id <= previous) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    previous = id;
+                    seen.add(id);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(400_000, seen.size());
+        Assert.assertEquals(0, outOfOrder.get());
+        long any = seen.iterator().next();
+        Assert.assertEquals(7, SnowflakeIds.node(any));
+        Assert.assertTrue(Math.abs(SnowflakeIds.timestampMillis(any) - System.currentTimeMillis()) < 60_000);
+    }
+
+    /**
+     * A millisecond holds 4096 ids; the next id waits for the clock to move on. Ids from two nodes never collide.
+     */
+    @Test
+    public void sequenceIsPerMillisecondAndNodesDoNotCollide() {
+        AtomicLong clock = new AtomicLong(SnowflakeIds.EPOCH_MILLIS + 1_000);
+        SnowflakeIds first = new SnowflakeIds(1, 1000, clock::get);
+        SnowflakeIds second = new SnowflakeIds(2, 1000, clock::get);
+        Set<Long> seen = new HashSet<>();
+        long last = 0;
+        for (int i = 0; i < 4_096; i++) {
+            last = first.nextId();
+            Assert.assertTrue(seen.add(last));
+            Assert.assertTrue(seen.add(second.nextId()));
+        }
+        Assert.assertEquals(4_095, SnowflakeIds.sequence(last));
+
+        clock.incrementAndGet();
+        long next = first.nextId();
+        Assert.assertEquals(clock.get(), SnowflakeIds.timestampMillis(next));
+        Assert.assertEquals(0, SnowflakeIds.sequence(next));
+    }
+
+    /**
+     * When the clock steps back, ids keep increasing from the last timestamp; once the step exceeds the allowed
+     * drift, nextId fails instead of risking duplicates.
+     */
+    @Test
+    public void clockRegressionKeepsIdsIncreasingUpToTheDriftLimit() {
+        AtomicLong clock = new AtomicLong(SnowflakeIds.EPOCH_MILLIS + 10_000);
+        SnowflakeIds ids = new SnowflakeIds(0, 100, clock::get);
+        long before = ids.nextId();
+
+        clock.addAndGet(-50);
+        long during = ids.nextId();
+        Assert.assertTrue(during > before);
+        Assert.assertEquals(SnowflakeIds.timestampMillis(before), SnowflakeIds.timestampMillis(during));
+
+        clock.addAndGet(-500);
+        Assert.assertThrows(IllegalStateException.class, ids::nextId);
+
+        clock.addAndGet(600);
+        Assert.assertTrue(ids.nextId() > during);
+    }
+}
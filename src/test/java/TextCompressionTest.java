@@ -0,0 +1,145 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.Shards;
+import Util.TextCodec;
+import io.javalin.Javalin;
+
+public class TextCompressionTest {
+    MessageService messageService;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageService = new MessageService();
+    }
+
+    @After
+    public void tearDown() {
+        messageService.close();
+        System.clearProperty("socialmedia.admin.token");
+    }
+
+    /**
+     * Encoding texts with no dictionary and with one trained on similar texts, then decoding them
+     *
+     * Expected: every text reads back as written; with the dictionary the common phrases make them smaller
+     */
+    @Test
+    public void textsRoundTripThroughTheCodec() throws Exception {
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add("just finished my morning run, feeling great today #" + i);
+            samples.add("anyone want to grab coffee this afternoon? " + i);
+        }
+        int version = TextCodec.addDictionary(TextCodec.train(samples, 4096));
+        Assert.assertEquals(version, TextCodec.currentVersion());
+
+        for (String text : List.of("", "short", "caf\u00e9 \u2615 \ud83d\ude00", "just finished my morning run, feeling great today #7")) {
+            byte[] plain = TextCodec.encode(text, TextCodec.PLAIN);
+            Assert.assertEquals(TextCodec.PLAIN, TextCodec.versionOf(plain));
+            Assert.assertEquals(text, TextCodec.decode(plain));
+            Assert.assertEquals(text, TextCodec.decode(TextCodec.encode(text)));
+        }
+        String text = "anyone want to grab coffee this afternoon? or just finished my morning run";
+        byte[] compressed = TextCodec.encode(text);
+        Assert.assertEquals(version, TextCodec.versionOf(compressed));
+        Assert.assertTrue(compressed.length < text.length() / 2);
+        Assert.assertNull(TextCodec.decode(TextCodec.encode(null)));
+    }
+
+    /**
+     * Posting messages, training a dictionary on them, then posting and updating more
+     *
+     * Expected: messages written before the dictionary stay plain until updated, new ones use it, and all of them
+     * read back as written
+     */
+    @Test
+    public void messagesWrittenBeforeAndAfterADictionaryAreRead() throws Exception {
+        List<Message> posted = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            posted.add(messageService.createMessage(new Message(1, "heading to the gym after work, see you there " + i, 1000 + i)));
+        }
+        MessageService.DictionaryResult result = messageService.trainDictionary(100, 4096);
+        Assert.assertEquals(21, result.getSampleMessages());
+        Assert.assertTrue(result.getRatio() > 1.5);
+        Assert.assertEquals(result.getVersion(), TextCodec.currentVersion());
+
+        Message later = messageService.createMessage(new Message(1, "heading to the gym after work, see you there later", 2000));
+        Message updated = messageService.updateMessage(posted.get(0).getMessage_id(),
+                new Message(1, "heading to the gym after work, see you there tomorrow", 1000));
+        Assert.assertEquals(TextCodec.PLAIN, storedVersion(posted.get(1).getMessage_id()));
+        Assert.assertEquals(result.getVersion(), storedVersion(later.getMessage_id()));
+        Assert.assertEquals(result.getVersion(), storedVersion(updated.getMessage_id()));
+
+        Assert.assertEquals(posted.get(1), messageService.getMessageById(posted.get(1).getMessage_id()));
+        Assert.assertEquals(later, messageService.getMessageById(later.getMessage_id()));
+        Assert.assertEquals(updated, messageService.getVersionedMessage(updated.getMessage_id()).getMessage());
+        Assert.assertEquals(22, messageService.getAllMessages().size());
+    }
+
+    /**
+     * Sending POST localhost:8080/admin/dictionary without the admin token, then with it
+     *
+     * Expected Response:
+     *  Status Code: 403, then 200 with the new dictionary version and its ratio on the seeded message
+     */
+    @Test
+    public void adminTrainsADictionary() throws Exception {
+        System.setProperty("socialmedia.admin.token", "admin-secret");
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(8080);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            HttpRequest anonymous = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/admin/dictionary"))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build();
+            Assert.assertEquals(403, webClient.send(anonymous, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            HttpRequest train = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/admin/dictionary?sample=100&bytes=1024"))
+                    .header("Authorization", "Bearer admin-secret")
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build();
+            HttpResponse<String> response = webClient.send(train, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, response.statusCode());
+            JsonNode result = new ObjectMapper().readTree(response.body());
+            Assert.assertEquals(TextCodec.currentVersion(), result.get("version").asInt());
+            Assert.assertEquals(1, result.get("sampleMessages").asInt());
+            Assert.assertTrue(result.has("ratio"));
+        } finally {
+            app.stop();
+        }
+    }
+
+    private static int storedVersion(int messageId) throws Exception {
+        try (Connection connection = Shards.getConnection(Shards.ofId(messageId));
+             PreparedStatement statement = connection.prepareStatement("SELECT message_text FROM message WHERE message_id = ?")) {
+            statement.setInt(1, messageId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Assert.assertTrue(resultSet.next());
+                return TextCodec.versionOf(resultSet.getBytes(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import Model.Account;
+import Model.Message;
+import Service.ColdTier;
+import Service.MessageService;
+import Service.TimelineService;
+import Util.ConnectionUtil;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class TieringTest {
+    Path directory;
+    MessageService messageService;
+    ColdTier coldTier;
+
+    /**
+     * Before every test, reset the database and create a message service over an empty cold tier, with the
+     * seeded message 1 and three messages posted at 100, 200 and 300 (ids 2, 3 and 4).
+     */
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = Files.createTempDirectory("cold");
+        messageService = new MessageService();
+        coldTier = new ColdTier(directory, 0, 2, 256);
+        messageService.setColdTier(coldTier);
+        for (long time : new long[] {100, 200, 300}) {
+            messageService.createMessage(new Message(1, "at " + time, time));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        messageService.close();
+        coldTier.close();
+        deleteDirectory(directory);
+    }
+
+    /**
+     * Archiving the messages posted before 250, then reading them by id, several at once and after reopening
+     * the segments
+     *
+     * Expected: the two messages leave the message table and are still read whole from the cold tier
+     */
+    @Test
+    public void archivedMessagesAreReadFromTheColdTier() throws IOException {
+        long coldHits = Metrics.count("tiering.cold.hits");
+        Assert.assertEquals(2, coldTier.archive(250));
+        Assert.assertEquals(0, coldTier.archive(250));
+        Assert.assertEquals(4, messageService.getAllMessages().size());
+
+        Assert.assertEquals(new Message(2, 1, "at 100", 100), messageService.getMessageById(2));
+        Assert.assertEquals(new Message(4, 1, "at 300", 300), messageService.getMessageById(4));
+        Assert.assertEquals(Arrays.asList(new Message(3, 1, "at 200", 200), new Message(4, 1, "at 300", 300), null),
+                messageService.getMessagesByIds(List.of(3, 4, 99)));
+        Assert.assertNull(messageService.getMessageById(99));
+        Assert.assertEquals(coldHits + 2, Metrics.count("tiering.cold.hits"));
+
+        List<Message> all = new ArrayList<>();
+        Assert.assertTrue(messageService.forEachMessage(all::add));
+        Assert.assertEquals(4, all.size());
+        Assert.assertEquals(2L, Metrics.snapshot().get("tiering.cold.messages"));
+
+        ColdTier reopened = new ColdTier(directory, 0, 2, 256);
+        Assert.assertEquals(new Message(3, 1, "at 200", 200), reopened.get(3).getMessage());
+        Assert.assertEquals(List.of(new Message(3, 1, "at 200", 200), new Message(2, 1, "at 100", 100)),
+                reopened.getRecentMessagesByUserId(1, 10));
+    }
+
+    /**
+     * Updating and deleting archived messages, then archiving the updated one again
+     *
+     * Expected: the writes work as on any message; the stale cold copies stay hidden, and the one archived last is
+     * served
+     */
+    @Test
+    public void archivedMessagesCanBeUpdatedAndDeleted() {
+        Assert.assertEquals(2, coldTier.archive(250));
+
+        Message updated = messageService.updateMessage(2, new Message(1, "changed", 100));
+        Assert.assertEquals(new Message(2, 1, "changed", 100), updated);
+        Assert.assertEquals(updated, messageService.getMessageById(2));
+        Assert.assertNull(coldTier.get(2));
+
+        Assert.assertTrue(messageService.deleteMessage(3));
+        Assert.assertNull(messageService.getMessageById(3));
+        Assert.assertFalse(messageService.deleteMessage(3));
+
+        Assert.assertEquals(1, coldTier.archive(250));
+        Assert.assertEquals(new Message(2, 1, "changed", 100), coldTier.get(2).getMessage());
+        Assert.assertEquals(updated, messageService.getMessageById(2));
+
+        List<Message> all = new ArrayList<>();
+        Assert.assertTrue(messageService.forEachMessage(all::add));
+        Assert.assertEquals(3, all.size());
+        Assert.assertEquals(1, (long) coldTier.countByAuthor().get(1));
+    }
+
+    /**
+     * Archiving the messages posted before 250, including the only message of a second account, then listing all
+     * messages, the second account's messages and time ranges
+     *
+     * Expected: the lists hold the archived messages next to the others, in the same order and within the same
+     * limit as before, so an account whose messages are all archived still has them
+     */
+    @Test
+    public void listAndRangeReadsIncludeArchivedMessages() {
+        Account author = new AccountDAO().createAccount(new Account("archived", "password"));
+        Message old = messageService.createMessage(new Message(author.getAccount_id(), "old", 50));
+        Assert.assertEquals(3, coldTier.archive(250));
+
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : messageService.getAllMessages()) {
+            ids.add(message.getMessage_id());
+        }
+        Assert.assertEquals(List.of(1, 2, 3, 4, old.getMessage_id()), ids);
+
+        Assert.assertEquals(List.of(old), messageService.getAllMessagesForUser(author.getAccount_id()));
+
+        Assert.assertEquals(List.of(old, new Message(2, 1, "at 100", 100), new Message(3, 1, "at 200", 200),
+                new Message(4, 1, "at 300", 300)), messageService.getMessagesPostedBetween(0, 1000, 10));
+        Assert.assertEquals(List.of(old, new Message(2, 1, "at 100", 100)),
+                messageService.getMessagesPostedBetween(0, 1000, 2));
+        Assert.assertEquals(List.of(new Message(3, 1, "at 200", 200), new Message(4, 1, "at 300", 300)),
+                messageService.getMessagesPostedBetween(150, 1000, 10));
+    }
+
+    /**
+     * Reading the home feed of a follower of account 1 after two of its messages were archived
+     *
+     * Expected: the feed, which the message table alone cannot fill, includes the archived messages
+     */
+    @Test
+    public void timelinesAreToppedUpFromTheColdTier() {
+        new AccountDAO().createAccount(new Account("reader", "password"));
+        TimelineService timelineService = new TimelineService(5, 10, 3600);
+        timelineService.setColdTier(coldTier);
+        Assert.assertEquals(2, coldTier.archive(250));
+
+        timelineService.follow(2, 1);
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : timelineService.getFeed(2, 10)) {
+            ids.add(message.getMessage_id());
+        }
+        Assert.assertEquals(List.of(1, 4, 3, 2), ids);
+        timelineService.close();
+    }
+
+    /**
+     * Starting the app with socialmedia.tiering.ageDays set, then sending GET and PUT localhost:8080/messages/1
+     *
+     * Expected Response:
+     *  The seeded message, posted in 2022, is archived at startup and still listed, served and updated; /metrics
+     *  reports the cold tier
+     */
+    @Test
+    public void appArchivesAtStartup() throws Exception {
+        Path appDirectory = Files.createTempDirectory("cold");
+        System.setProperty("socialmedia.tiering.ageDays", "365");
+        System.setProperty("socialmedia.tiering.dir", appDirectory.toString());
+        ConnectionUtil.resetTestDatabase();
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(8080);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            ObjectMapper objectMapper = new ObjectMapper();
+            JsonNode metrics = null;
+            for (int i = 0; i < 50; i++) {
+                Thread.sleep(100);
+                metrics = objectMapper.readTree(get(webClient, "/metrics").body());
+                if (metrics.path("tiering.cold.messages").asLong() == 1) {
+                    break;
+                }
+            }
+            Assert.assertEquals(1, metrics.path("tiering.cold.messages").asLong());
+            Assert.assertTrue(metrics.has("tiering.cold.bytesSaved"));
+            Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792L)),
+                    Arrays.asList(objectMapper.readValue(get(webClient, "/messages").body(), Message[].class)));
+            Assert.assertEquals(200, get(webClient, "/accounts/1/messages").statusCode());
+
+            HttpResponse<String> read = get(webClient, "/messages/1");
+            Assert.assertEquals(200, read.statusCode());
+            Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792L),
+                    objectMapper.readValue(read.body(), Message.class));
+
+            HttpRequest update = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .method("PUT", HttpRequest.BodyPublishers.ofString("{\"posted_by\": 1, \"message_text\": \"updated\", " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            Assert.assertEquals(200, webClient.send(update, HttpResponse.BodyHandlers.ofString()).statusCode());
+            Assert.assertEquals("updated", objectMapper.readValue(get(webClient, "/messages/1").body(), Message.class)
+                    .getMessage_text());
+        } finally {
+            app.stop();
+            System.clearProperty("socialmedia.tiering.ageDays");
+            System.clearProperty("socialmedia.tiering.dir");
+            deleteDirectory(appDirectory);
+        }
+    }
+
+    private static HttpResponse<String> get(HttpClient webClient, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.TrendingTerm;
+import Service.TrendingService;
+import Util.CountMinSketch;
+import Util.SpaceSaving;
+
+public class TrendingTest {
+    AtomicLong clock;
+    TrendingService trendingService;
+
+    @Before
+    public void setUp() {
+        clock = new AtomicLong(TimeUnit.DAYS.toMillis(20_000));
+        trendingService = new TrendingService(0.002, 0.01, 50, 100, clock::get);
+    }
+
+    @After
+    public void tearDown() {
+        trendingService.close();
+    }
+
+    /**
+     * Count-min sketch bound: no estimate is below the true count, and at most a delta fraction of the terms is
+     * over by more than epsilon * N.
+     */
+    @Test
+    public void countMinSketchStaysWithinErrorBound() {
+        double epsilon = 0.001;
+        double delta = 0.01;
+        CountMinSketch sketch = new CountMinSketch(epsilon, delta);
+        Map<String, Long> actual = zipfStream(200_000, 20_000, sketch::add, null);
+
+        long n = sketch.total();
+        int overBound = 0;
+        for (Map.Entry<String, Long> term : actual.entrySet()) {
+            long estimate = sketch.estimate(term.getKey());
+            Assert.assertTrue(estimate >= term.getValue());
+            if (estimate - term.getValue() > epsilon * n) {
+                overBound++;
+            }
+        }
+        Assert.assertTrue(overBound <= delta * actual.size());
+    }
+
+    /**
+     * Space-saving bound with k counters over N items: every item seen more than N / k times is tracked, and each
+     * tracked count overestimates by at most its recorded error, itself at most N / k.
+     */
+    @Test
+    public void spaceSavingKeepsEveryHeavyHitter() {
+        int k = 100;
+        int n = 200_000;
+        SpaceSaving heavyHitters = new SpaceSaving(k);
+        Map<String, Long> actual = zipfStream(n, 20_000, null, heavyHitters);
+
+        Map<String, SpaceSaving.Counter> tracked = new HashMap<>();
+        for (SpaceSaving.Counter counter : heavyHitters.counters()) {
+            tracked.put(counter.getValue(), counter);
+            long trueCount = actual.get(counter.getValue());
+            Assert.assertTrue(counter.getCount() >= trueCount);
+            Assert.assertTrue(counter.getCount() - counter.getError() <= trueCount);
+            Assert.assertTrue(counter.getError() <= n / k);
+        }
+        for (Map.Entry<String, Long> term : actual.entrySet()) {
+            if (term.getValue() > n / k) {
+                Assert.assertTrue(tracked.containsKey(term.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Terms leave the 5 minute window after 5 minutes but stay in the hour and day windows.
+     */
+    @Test
+    public void windowsSlideWithTheClock() {
+        for (int i = 0; i < 3; i++) {
+            trendingService.record("Launch day for the #rocket");
+        }
+        clock.addAndGet(TimeUnit.MINUTES.toMillis(10));
+        trendingService.record("rocket scrubbed, weather");
+        trendingService.record("weather again");
+
+        Assert.assertEquals(List.of("weather", "again", "rocket", "scrubbed"), terms(trendingService.getTrending("5m", 10)));
+        List<TrendingTerm> hour = trendingService.getTrending("1h", 2);
+        Assert.assertEquals("rocket", hour.get(0).getTerm());
+        Assert.assertEquals(4, hour.get(0).getCount());
+
+        clock.addAndGet(TimeUnit.HOURS.toMillis(2));
+        Assert.assertTrue(trendingService.getTrending("1h", 10).isEmpty());
+        Assert.assertEquals(4, trendingService.getTrending("1d", 1).get(0).getCount());
+    }
+
+    @Test
+    public void tokenizerDropsShortAndCommonWords() {
+        Assert.assertEquals(List.of("new", "release", "2023", "ships"),
+                TrendingService.tokenize("The NEW release (#2023) ships, the new release!"));
+    }
+
+    private static List<String> terms(List<TrendingTerm> trending) {
+        return trending.stream().map(TrendingTerm::getTerm).collect(Collectors.toList());
+    }
+
+    /**
+     * Adds n draws from a Zipf(1) distribution over the given number of terms, with a fixed seed.
+     * @return the true count of each term
+     */
+    private static Map<String, Long> zipfStream(int n, int terms, ObjLongConsumer<String> sketch,
+                                                SpaceSaving heavyHitters) {
+        double[] cumulative = new double[terms];
+        double sum = 0;
+        for (int i = 0; i < terms; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(42);
+        Map<String, Long> actual = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            String term = "term" + (index < 0 ? -index - 1 : index);
+            actual.merge(term, 1L, Long::sum);
+            if (sketch != null) {
+                sketch.accept(term, 1);
+            }
+            if (heavyHitters != null) {
+                heavyHitters.add(term, 1);
+            }
+        }
+        return actual;
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountStatsDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Shards;
+import Util.UnitOfWork;
+import io.javalin.Javalin;
+
+public class UnitOfWorkTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending PUT localhost:8080/messages/1, which updates and re-reads the message
+     *
+     * Expected Response:
+     *  GET /metrics shows one connection borrowed per update request
+     */
+    @Test
+    public void updateMessageBorrowsOneConnection() throws IOException, InterruptedException {
+        JsonNode before = metrics();
+        HttpRequest update = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"updated\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(update, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        JsonNode after = metrics();
+        String route = "[PUT /messages/{id}]";
+        long requests = after.path("db.requests" + route).asLong() - before.path("db.requests" + route).asLong();
+        long connections = after.path("db.connections" + route).asLong() - before.path("db.connections" + route).asLong();
+        Assert.assertEquals(1, requests);
+        Assert.assertEquals(1, connections);
+    }
+
+    /**
+     * A write unit of work rolls back every DAO call in it when it throws, and nested units join the outer one.
+     */
+    @Test
+    public void failedUnitOfWorkRollsBackEveryWrite() {
+        MessageDAO messageDAO = new MessageDAO();
+        UnitOfWork.resetBorrowedCount();
+        try {
+            UnitOfWork.write(() -> {
+                messageDAO.createMessage(new Message(1, "first", 1669947792));
+                UnitOfWork.write(() -> messageDAO.createMessage(new Message(1, "nested", 1669947792)));
+                throw new IllegalArgumentException("abort");
+            });
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("abort", e.getMessage());
+        }
+        Assert.assertEquals(1, UnitOfWork.borrowedCount());
+        Assert.assertFalse(UnitOfWork.isActive());
+        Assert.assertEquals(1, messageDAO.getAllMessages().size());
+
+        Message created = UnitOfWork.write(() -> messageDAO.createMessage(new Message(1, "kept", 1669947792)));
+        Assert.assertEquals(created, messageDAO.getMessageById(created.getMessage_id()));
+    }
+
+    /**
+     * A DAO write that fails part way returns false rather than throwing; the unit of work it ran in still rolls
+     * back, so the delete it had already made is undone.
+     */
+    @Test
+    public void failedDaoCallRollsBackItsUnitOfWork() throws SQLException {
+        MessageDAO messageDAO = new MessageDAO();
+        try (Connection connection = Shards.getConnection(Shards.ofId(1));
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE message_change RENAME TO message_change_unavailable");
+            try {
+                Assert.assertFalse(UnitOfWork.write(() -> messageDAO.deleteMessage(1)));
+            } finally {
+                statement.executeUpdate("ALTER TABLE message_change_unavailable RENAME TO message_change");
+            }
+        }
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792L), messageDAO.getMessageById(1));
+        Assert.assertEquals(Long.valueOf(1), new AccountStatsDAO().getMessageCounts().get(1));
+    }
+
+    /**
+     * Writes cannot be started inside a read-only unit of work.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void writeInsideReadOnlyIsRejected() {
+        UnitOfWork.readOnly(() -> UnitOfWork.write(() -> null));
+    }
+
+    private JsonNode metrics() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/metrics")).build();
+        return objectMapper.readTree(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+}
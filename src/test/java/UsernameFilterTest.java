@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.CountingBloomFilter;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class UsernameFilterTest {
+    HttpClient webClient;
+    Javalin app;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        webClient = HttpClient.newHttpClient();
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Eight threads adding, then removing, a thousand usernames each on one filter
+     *
+     * Expected Response:
+     *  Every username is present after the adds and absent after the removes: no counter update was lost
+     */
+    @Test
+    public void concurrentAddsAndRemovesLoseNoUpdates() throws InterruptedException {
+        CountingBloomFilter filter = new CountingBloomFilter(8_000, 0.01);
+        runConcurrently(8, thread -> {
+            for (int i = 0; i < 1_000; i++) {
+                filter.add("user-" + thread + "-" + i);
+            }
+        });
+        Assert.assertEquals(8_000, filter.size());
+        for (int thread = 0; thread < 8; thread++) {
+            for (int i = 0; i < 1_000; i++) {
+                Assert.assertTrue(filter.mightContain("user-" + thread + "-" + i));
+            }
+        }
+
+        runConcurrently(8, thread -> {
+            for (int i = 0; i < 1_000; i++) {
+                filter.remove("user-" + thread + "-" + i);
+            }
+        });
+        Assert.assertEquals(0, filter.size());
+        for (int thread = 0; thread < 8; thread++) {
+            for (int i = 0; i < 1_000; i++) {
+                Assert.assertFalse(filter.mightContain("user-" + thread + "-" + i));
+            }
+        }
+    }
+
+    /**
+     * Adding one username twenty times, past what a 4-bit counter holds, then removing it twenty times
+     *
+     * Expected Response:
+     *  The counters stick at 15 instead of wrapping to zero, and stay there, so the username still reads as
+     *  possibly present. Below saturation, as many removes as adds clear it.
+     */
+    @Test
+    public void saturatedCountersStick() {
+        CountingBloomFilter filter = new CountingBloomFilter(1_000, 0.01);
+        for (int i = 0; i < 3; i++) {
+            filter.add("below");
+        }
+        for (int i = 0; i < 3; i++) {
+            filter.remove("below");
+        }
+        Assert.assertFalse(filter.mightContain("below"));
+
+        for (int i = 0; i < 20; i++) {
+            filter.add("saturated");
+            Assert.assertTrue(filter.mightContain("saturated"));
+        }
+        for (int i = 0; i < 20; i++) {
+            filter.remove("saturated");
+        }
+        Assert.assertTrue(filter.mightContain("saturated"));
+    }
+
+    /**
+     * Filling a filter sized for 10,000 usernames at 1%, then testing 100,000 usernames that were never added
+     *
+     * Expected Response:
+     *  No false negatives, and a measured false-positive rate close to the configured 1%
+     */
+    @Test
+    public void falsePositiveRateMatchesTheConfiguredRate() {
+        CountingBloomFilter filter = new CountingBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("present-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(filter.mightContain("present-" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("absent-" + i)) {
+                falsePositives++;
+            }
+        }
+        double measured = falsePositives / 100_000.0;
+        Assert.assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.002);
+        Assert.assertTrue("measured false-positive rate " + measured, measured > 0.005 && measured < 0.015);
+    }
+
+    /**
+     * Sending POST localhost:8080/register for a new username, then for the same username, then for testuser1
+     *
+     * Expected Response:
+     *  The new username registers without a database read (accounts.usernameFilter.skippedLookups goes up by
+     *  one), and both duplicates still get Status Code: 400
+     */
+    @Test
+    public void registrationSkipsTheReadOnlyOnADefiniteMiss() throws IOException, InterruptedException {
+        long skipped = Metrics.count("accounts.usernameFilter.skippedLookups");
+
+        Assert.assertEquals(200, register("fresh").statusCode());
+        Assert.assertEquals(skipped + 1, Metrics.count("accounts.usernameFilter.skippedLookups"));
+
+        HttpResponse<String> again = register("fresh");
+        Assert.assertEquals(400, again.statusCode());
+        Assert.assertEquals("", again.body());
+        Assert.assertEquals(400, register("testuser1").statusCode());
+        Assert.assertEquals(skipped + 1, Metrics.count("accounts.usernameFilter.skippedLookups"));
+    }
+
+    private HttpResponse<String> register(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private interface Work {
+        void run(int thread);
+    }
+
+    private static void runConcurrently(int threads, Work work) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> running = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                work.run(thread);
+            });
+            t.start();
+            running.add(t);
+        }
+        start.countDown();
+        for (Thread t : running) {
+            t.join();
+        }
+    }
+}